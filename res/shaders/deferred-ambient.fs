@@ -0,0 +1,11 @@
+#version 120
+#include "frame.glh"
+
+varying vec2 texCoord0;
+
+uniform sampler2D gAlbedo;
+
+void main()
+{
+	gl_FragColor = vec4(texture2D(gAlbedo, texCoord0).rgb, 1) * vec4(R_ambient, 1);
+}
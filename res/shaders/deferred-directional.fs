@@ -0,0 +1,14 @@
+#version 120
+#include "deferredLighting.fsh"
+
+layout(std140) uniform DirectionalLightData
+{
+    DirectionalLight R_directionalLight;
+};
+
+vec4 CalcLightingEffect(vec3 normal, vec3 worldPos)
+{
+	return CalcDirectionalLight(R_directionalLight, normal, worldPos);
+}
+
+#include "deferredLightingMain.fsh"
@@ -0,0 +1 @@
+#include "deferred-geometry.fs"
@@ -0,0 +1,30 @@
+#version 120
+#include "sampling.glh"
+#include "gbuffer.glh"
+
+varying vec2 texCoord0;
+varying vec3 worldPos0;
+varying mat3 tbnMatrix;
+
+#include "frame.glh"
+
+uniform sampler2D diffuse;
+uniform sampler2D normalMap;
+uniform sampler2D dispMap;
+
+uniform float dispMapScale;
+uniform float dispMapBias;
+
+uniform float specularIntensity;
+uniform float specularPower;
+
+void main()
+{
+	vec3 directionToEye = normalize(C_eyePos - worldPos0);
+	vec2 texCoords = CalcParallaxTexCoords(dispMap, tbnMatrix, directionToEye, texCoord0, dispMapScale, dispMapBias);
+	
+	vec3 normal = normalize(tbnMatrix * (255.0/128.0 * texture2D(normalMap, texCoords).xyz - 1));
+	
+	gl_FragData[0] = vec4(texture2D(diffuse, texCoords).rgb, specularIntensity / MAX_SPECULAR_INTENSITY);
+	gl_FragData[1] = vec4(normal * 0.5 + 0.5, specularPower / MAX_SPECULAR_POWER);
+}
@@ -0,0 +1,14 @@
+#version 120
+#include "deferredLighting.fsh"
+
+layout(std140) uniform PointLightData
+{
+    PointLight R_pointLight;
+};
+
+vec4 CalcLightingEffect(vec3 normal, vec3 worldPos)
+{
+	return CalcPointLight(R_pointLight, normal, worldPos);
+}
+
+#include "deferredLightingMain.fsh"
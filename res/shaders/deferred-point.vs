@@ -0,0 +1,2 @@
+#version 120
+#include "fullscreen.vsh"
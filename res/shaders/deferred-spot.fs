@@ -0,0 +1,14 @@
+#version 120
+#include "deferredLighting.fsh"
+
+layout(std140) uniform SpotLightData
+{
+    SpotLight R_spotLight;
+};
+
+vec4 CalcLightingEffect(vec3 normal, vec3 worldPos)
+{
+	return CalcSpotLight(R_spotLight, normal, worldPos);
+}
+
+#include "deferredLightingMain.fsh"
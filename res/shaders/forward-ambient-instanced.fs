@@ -0,0 +1 @@
+#include "forward-ambient.fs"
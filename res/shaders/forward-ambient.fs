@@ -5,8 +5,8 @@ varying vec2 texCoord0;
 varying vec3 worldPos0;
 varying mat3 tbnMatrix;
 
-uniform vec3 R_ambient;
-uniform vec3 C_eyePos;
+#include "frame.glh"
+
 uniform sampler2D diffuse;
 uniform sampler2D dispMap;
 
@@ -0,0 +1 @@
+#include "forward-clustered.fs"
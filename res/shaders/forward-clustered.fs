@@ -0,0 +1,10 @@
+#version 120
+#include "lighting.fsh"
+#include "clusters.glh"
+
+vec4 CalcLightingEffect(vec3 normal, vec3 worldPos)
+{
+	return vec4(R_ambient, 1) + CalcClusteredLights(normal, worldPos);
+}
+
+#include "lightingMain.fsh"
@@ -0,0 +1 @@
+#include "forward-directional.fs"
@@ -1,7 +1,10 @@
 #version 120
 #include "lighting.fsh"
 
-uniform DirectionalLight R_directionalLight;
+layout(std140) uniform DirectionalLightData
+{
+    DirectionalLight R_directionalLight;
+};
 
 vec4 CalcLightingEffect(vec3 normal, vec3 worldPos)
 {
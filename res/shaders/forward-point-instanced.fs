@@ -0,0 +1 @@
+#include "forward-point.fs"
@@ -1,7 +1,10 @@
 #version 120
 #include "lighting.fsh"
 
-uniform PointLight R_pointLight;
+layout(std140) uniform PointLightData
+{
+    PointLight R_pointLight;
+};
 
 vec4 CalcLightingEffect(vec3 normal, vec3 worldPos)
 {
@@ -0,0 +1 @@
+#include "forward-spot.fs"
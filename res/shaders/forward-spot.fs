@@ -1,7 +1,10 @@
 #version 120
 #include "lighting.fsh"
 
-uniform SpotLight R_spotLight;
+layout(std140) uniform SpotLightData
+{
+    SpotLight R_spotLight;
+};
 
 vec4 CalcLightingEffect(vec3 normal, vec3 worldPos)
 {
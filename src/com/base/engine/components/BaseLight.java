@@ -17,24 +17,61 @@
 package com.base.engine.components;
 
 import com.base.engine.core.CoreEngine;
+import com.base.engine.core.Profiler;
 import com.base.engine.core.math.Vector3f;
+import com.base.engine.rendering.LightState;
 import com.base.engine.rendering.Shader;
 
 public class BaseLight extends GameComponent {
 	private Vector3f color;
 	private float intensity;
 	private Shader shader;
+	private int passScope = -1;
 
 	public BaseLight(final Vector3f color, final float intensity) {
 		this.color = color;
 		this.intensity = intensity;
 	}
 
+	@Override
+	public int getUpdateAccess() {
+		return GameComponent.ACCESS_NONE;
+	}
+
 	@Override
 	public void addToEngine(final CoreEngine engine) {
 		engine.getRenderingEngine().addLight(this);
 	}
 
+	/**
+	 * Copy the current state of this light into <code>dest</code>.
+	 * 
+	 * @param dest
+	 *            - Receives the light state
+	 * @return <code>dest</code>
+	 */
+	public LightState capture(final LightState dest) {
+		dest.setShader(shader);
+		dest.setPassScope(getPassScope());
+		dest.setVolume(LightState.VOLUME_NONE);
+		dest.getColor().set(color);
+		dest.setIntensity(intensity);
+
+		return dest;
+	}
+
+	/**
+	 * Get the {@link Profiler} scope that render passes of this kind of
+	 * light are recorded under.
+	 */
+	public int getPassScope() {
+		if (passScope < 0) {
+			passScope = Profiler.register("render." + getClass().getSimpleName());
+		}
+
+		return passScope;
+	}
+
 	public void setShader(final Shader shader) {
 		this.shader = shader;
 	}
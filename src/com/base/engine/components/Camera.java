@@ -18,22 +18,71 @@ package com.base.engine.components;
 
 import com.base.engine.core.CoreEngine;
 import com.base.engine.core.math.Matrix4f;
+import com.base.engine.core.math.Quaternion;
 import com.base.engine.core.math.Vector3f;
 
 public class Camera extends GameComponent {
 	private final Matrix4f projection;
 
+	private final Quaternion cameraRotation;
+	private final Vector3f cameraPos;
+	private final Matrix4f cameraRotationMatrix;
+	private final Matrix4f cameraTranslationMatrix;
+
 	public Camera(final Matrix4f projection) {
 		this.projection = projection;
+
+		cameraRotation = new Quaternion(0, 0, 0, 1);
+		cameraPos = new Vector3f(0, 0, 0);
+		cameraRotationMatrix = new Matrix4f();
+		cameraTranslationMatrix = new Matrix4f();
 	}
 
 	public Matrix4f getViewProjection() {
-		final Matrix4f cameraRotation = getTransform().getTransformedRot().conjugate().toRotationMatrix();
-		final Vector3f cameraPos = getTransform().getTransformedPos().mul(-1);
+		return getViewProjection(new Matrix4f());
+	}
 
-		final Matrix4f cameraTranslation = new Matrix4f().initTranslation(cameraPos.getX(), cameraPos.getY(), cameraPos.getZ());
+	/**
+	 * Write the view projection matrix of this camera into <code>dest</code>
+	 * without allocating.
+	 * 
+	 * @param dest
+	 *            - Receives the view projection matrix
+	 * @return <code>dest</code>
+	 */
+	public Matrix4f getViewProjection(final Matrix4f dest) {
+		getTransform().getTransformedRot(cameraRotation).conjugate(cameraRotation).toRotationMatrix(cameraRotationMatrix);
+		getTransform().getTransformedPos(cameraPos).mulLocal(-1);
+
+		cameraTranslationMatrix.initTranslation(cameraPos.getX(), cameraPos.getY(), cameraPos.getZ());
+
+		return projection.mul(cameraRotationMatrix.mul(cameraTranslationMatrix, dest), dest);
+	}
 
-		return projection.mul(cameraRotation.mul(cameraTranslation));
+	/**
+	 * Write the view projection matrix of this camera into <code>dest</code>,
+	 * using the transform blended <code>alpha</code> of the way from its
+	 * previous state to its current one.
+	 * 
+	 * @param alpha
+	 *            - 0 for the previous state, 1 for the current state
+	 * @param dest
+	 *            - Receives the view projection matrix
+	 * @return <code>dest</code>
+	 * @see com.base.engine.core.Transform#getInterpolatedTransformation(float, Matrix4f)
+	 */
+	public Matrix4f getViewProjection(final float alpha, final Matrix4f dest) {
+		getTransform().getInterpolatedTransformedRot(alpha, cameraRotation).conjugate(cameraRotation).toRotationMatrix(cameraRotationMatrix);
+		getTransform().getInterpolatedTransformedPos(alpha, cameraPos).mulLocal(-1);
+
+		cameraTranslationMatrix.initTranslation(cameraPos.getX(), cameraPos.getY(), cameraPos.getZ());
+
+		return projection.mul(cameraRotationMatrix.mul(cameraTranslationMatrix, dest), dest);
+	}
+
+	@Override
+	public int getUpdateAccess() {
+		return GameComponent.ACCESS_NONE;
 	}
 
 	@Override
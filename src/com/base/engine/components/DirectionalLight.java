@@ -16,17 +16,34 @@
 
 package com.base.engine.components;
 
+import com.base.engine.core.math.Quaternion;
 import com.base.engine.core.math.Vector3f;
+import com.base.engine.rendering.LightState;
 import com.base.engine.rendering.Shader;
 
 public class DirectionalLight extends BaseLight {
+	private final Quaternion rotation = new Quaternion(0, 0, 0, 1);
+
 	public DirectionalLight(final Vector3f color, final float intensity) {
 		super(color, intensity);
 
 		setShader(new Shader("forward-directional"));
 	}
 
+	@Override
+	public LightState capture(final LightState dest) {
+		super.capture(dest);
+
+		getDirection(dest.getDirection());
+
+		return dest;
+	}
+
 	public Vector3f getDirection() {
-		return getTransform().getTransformedRot().getForward();
+		return getDirection(new Vector3f(0, 0, 0));
+	}
+
+	public Vector3f getDirection(final Vector3f dest) {
+		return getTransform().getTransformedRot(rotation).getForward(dest);
 	}
 }
@@ -83,6 +83,11 @@ public class FreeLook extends GameComponent {
 		this.fixedAxis = fixedAxis;
 	}
 
+	@Override
+	public int getUpdateAccess() {
+		return GameComponent.ACCESS_NONE;
+	}
+
 	@Override
 	public void input(final float delta) {
 		final Vector2f centerPosition = Window.getCenterPosition();
@@ -131,6 +131,11 @@ public class FreeMove extends GameComponent {
 		this.sensitivity = rotationSensitivity;
 	}
 
+	@Override
+	public int getUpdateAccess() {
+		return GameComponent.ACCESS_NONE;
+	}
+
 	@Override
 	public void input(final float delta) {
 		final float movAmt = speed * delta;
@@ -18,12 +18,32 @@ package com.base.engine.components;
 
 import com.base.engine.core.CoreEngine;
 import com.base.engine.core.GameObject;
+import com.base.engine.core.Profiler;
 import com.base.engine.core.Transform;
+import com.base.engine.rendering.RenderSnapshot;
 import com.base.engine.rendering.RenderingEngine;
 import com.base.engine.rendering.Shader;
 
 public abstract class GameComponent {
+	/** {@link #update(float)} touches no shared state at all. */
+	public static final int ACCESS_NONE = 0;
+	/** {@link #update(float)} changes the transform of its own object. */
+	public static final int WRITES_OWN_TRANSFORM = 1;
+	/**
+	 * {@link #update(float)} reads the transforms of other objects, such as
+	 * the camera's.
+	 */
+	public static final int READS_OTHER_TRANSFORMS = 2;
+	/** {@link #update(float)} changes the transforms of other objects. */
+	public static final int WRITES_OTHER_TRANSFORMS = 4;
+	/**
+	 * {@link #update(float)} changes state shared outside its own object,
+	 * such as the engine, the scene graph or static fields.
+	 */
+	public static final int WRITES_GLOBAL_STATE = 8;
+
 	private GameObject parent;
+	private int updateScope = -1;
 
 	public void input(final float delta) {
 	}
@@ -34,6 +54,42 @@ public abstract class GameComponent {
 	public void render(final Shader shader, final RenderingEngine renderingEngine) {
 	}
 
+	/**
+	 * Record what {@link #render(Shader, RenderingEngine)} would draw into
+	 * <code>snapshot</code>, so the frame can be drawn later from another
+	 * thread.
+	 * 
+	 * @param snapshot
+	 *            - The snapshot being filled
+	 */
+	public void addToSnapshot(final RenderSnapshot snapshot) {
+	}
+
+	/**
+	 * Declare what {@link #update(float)} reads and writes, as a combination
+	 * of the access flags above. The {@link com.base.engine.core.UpdateScheduler}
+	 * runs components that neither write other transforms nor write global
+	 * state in parallel with each other, and everything else on its own.
+	 * Components that don't override this are always run on their own.
+	 * 
+	 * @return The access flags of {@link #update(float)}
+	 */
+	public int getUpdateAccess() {
+		return GameComponent.WRITES_GLOBAL_STATE;
+	}
+
+	/**
+	 * Get the {@link Profiler} scope that updates of this kind of component
+	 * are recorded under.
+	 */
+	public int getUpdateScope() {
+		if (updateScope < 0) {
+			updateScope = Profiler.register(getClass().getSimpleName() + ".update");
+		}
+
+		return updateScope;
+	}
+
 	public void setParent(final GameObject parent) {
 		this.parent = parent;
 	}
@@ -16,8 +16,10 @@
 
 package com.base.engine.components;
 
+import com.base.engine.core.CoreEngine;
 import com.base.engine.rendering.Material;
 import com.base.engine.rendering.Mesh;
+import com.base.engine.rendering.RenderSnapshot;
 import com.base.engine.rendering.RenderingEngine;
 import com.base.engine.rendering.Shader;
 
@@ -30,10 +32,33 @@ public class MeshRenderer extends GameComponent {
 		this.material = material;
 	}
 
+	public Mesh getMesh() {
+		return mesh;
+	}
+
+	public Material getMaterial() {
+		return material;
+	}
+
+	@Override
+	public int getUpdateAccess() {
+		return GameComponent.ACCESS_NONE;
+	}
+
 	@Override
 	public void render(final Shader shader, final RenderingEngine renderingEngine) {
 		shader.bind();
 		shader.updateUniforms(getTransform(), material, renderingEngine);
 		mesh.draw();
 	}
+
+	@Override
+	public void addToSnapshot(final RenderSnapshot snapshot) {
+		snapshot.addDraw(mesh, material, getTransform());
+	}
+
+	@Override
+	public void addToEngine(final CoreEngine engine) {
+		engine.getRenderingEngine().addMeshRenderer(this);
+	}
 }
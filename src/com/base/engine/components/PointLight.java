@@ -18,6 +18,7 @@ package com.base.engine.components;
 
 import com.base.engine.core.math.Attenuation;
 import com.base.engine.core.math.Vector3f;
+import com.base.engine.rendering.LightState;
 import com.base.engine.rendering.Shader;
 
 public class PointLight extends BaseLight {
@@ -39,6 +40,18 @@ public class PointLight extends BaseLight {
 		setShader(new Shader("forward-point"));
 	}
 
+	@Override
+	public LightState capture(final LightState dest) {
+		super.capture(dest);
+
+		dest.getAttenuation().set(attenuation);
+		getTransform().getTransformedPos(dest.getPosition());
+		dest.setRange(range);
+		dest.setVolume(LightState.VOLUME_SPHERE);
+
+		return dest;
+	}
+
 	public float getRange() {
 		return range;
 	}
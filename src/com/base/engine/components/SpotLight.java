@@ -17,10 +17,13 @@
 package com.base.engine.components;
 
 import com.base.engine.core.math.Attenuation;
+import com.base.engine.core.math.Quaternion;
 import com.base.engine.core.math.Vector3f;
+import com.base.engine.rendering.LightState;
 import com.base.engine.rendering.Shader;
 
 public class SpotLight extends PointLight {
+	private final Quaternion rotation = new Quaternion(0, 0, 0, 1);
 	private float cutoff;
 
 	public SpotLight(final Vector3f color, final float intensity, final Attenuation attenuation, final float cutoff) {
@@ -30,8 +33,23 @@ public class SpotLight extends PointLight {
 		setShader(new Shader("forward-spot"));
 	}
 
+	@Override
+	public LightState capture(final LightState dest) {
+		super.capture(dest);
+
+		getDirection(dest.getDirection());
+		dest.setCutoff(cutoff);
+		dest.setVolume(LightState.VOLUME_CONE);
+
+		return dest;
+	}
+
 	public Vector3f getDirection() {
-		return getTransform().getTransformedRot().getForward();
+		return getDirection(new Vector3f(0, 0, 0));
+	}
+
+	public Vector3f getDirection(final Vector3f dest) {
+		return getTransform().getTransformedRot(rotation).getForward(dest);
 	}
 
 	public float getCutoff() {
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.core;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Scratch direct buffers for handing data to OpenGL, so uploads don't
+ * allocate direct memory, which is slow to allocate and only freed by the
+ * garbage collector.
+ *
+ * Every thread has its own arena. Sizes are rounded up to a power of two,
+ * and each size class keeps the blocks it has handed out so it can hand them
+ * out again once they are released, either by {@link #pop()} or by
+ * {@link #reset()} at the end of a frame. New blocks are only allocated when
+ * a class runs out, so once an arena has seen its busiest frame it allocates
+ * nothing.
+ *
+ * Buffers over 16MB, which only loading large textures and meshes needs,
+ * are not kept. They are allocated at their exact size and left to the
+ * garbage collector once released, so one large load doesn't hold on to
+ * direct memory for the rest of the thread's life.
+ *
+ * A buffer must not be used after it is released. OpenGL copies the data of
+ * every upload before the call returns, so a buffer can be released as soon
+ * as it has been passed to one.
+ */
+public class BufferArena {
+	private static final int MIN_SIZE_BITS = 6;
+	private static final int MAX_RETAINED_SIZE_BITS = 24;
+	private static final int MAX_SIZE_BITS = 30;
+	private static final int CLASSES = BufferArena.MAX_RETAINED_SIZE_BITS - BufferArena.MIN_SIZE_BITS + 1;
+	private static final int MAX_DEPTH = 16;
+
+	private static final ThreadLocal<BufferArena> arenas = new ThreadLocal<BufferArena>() {
+		@Override
+		protected BufferArena initialValue() {
+			return new BufferArena();
+		}
+	};
+
+	private final ByteBuffer[][] blocks;
+	private final FloatBuffer[][] floatViews;
+	private final IntBuffer[][] intViews;
+	// Blocks allocated and blocks handed out, per size class.
+	private final int[] counts;
+	private final int[] used;
+	private final int[][] savedUsed;
+	private int depth;
+	private long retainedBytes;
+
+	// The size class and index of the last block handed out, or -1 if it
+	// isn't kept.
+	private int lastClass;
+	private int lastIndex;
+
+	private BufferArena() {
+		blocks = new ByteBuffer[BufferArena.CLASSES][0];
+		floatViews = new FloatBuffer[BufferArena.CLASSES][0];
+		intViews = new IntBuffer[BufferArena.CLASSES][0];
+		counts = new int[BufferArena.CLASSES];
+		used = new int[BufferArena.CLASSES];
+		savedUsed = new int[BufferArena.MAX_DEPTH][BufferArena.CLASSES];
+	}
+
+	/**
+	 * Get the arena of the calling thread.
+	 */
+	public static BufferArena get() {
+		return BufferArena.arenas.get();
+	}
+
+	/**
+	 * Hand out a buffer of <code>size</code> bytes in native byte order,
+	 * positioned at 0 and limited to <code>size</code>. Its contents are
+	 * undefined.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>size</code> is more than 1GB
+	 */
+	public ByteBuffer allocate(final int size) throws IllegalArgumentException {
+		final ByteBuffer block = take(size);
+
+		block.clear();
+		block.limit(size);
+
+		return block;
+	}
+
+	/**
+	 * Like {@link #allocate(int)}, for <code>count</code> floats.
+	 */
+	public FloatBuffer allocateFloats(final int count) throws IllegalArgumentException {
+		final ByteBuffer block = take(count * 4);
+
+		if (lastClass < 0) {
+			return block.asFloatBuffer();
+		}
+
+		if (floatViews[lastClass][lastIndex] == null) {
+			block.clear();
+			floatViews[lastClass][lastIndex] = block.asFloatBuffer();
+		}
+
+		final FloatBuffer view = floatViews[lastClass][lastIndex];
+		view.clear();
+		view.limit(count);
+
+		return view;
+	}
+
+	/**
+	 * Like {@link #allocate(int)}, for <code>count</code> ints.
+	 */
+	public IntBuffer allocateInts(final int count) throws IllegalArgumentException {
+		final ByteBuffer block = take(count * 4);
+
+		if (lastClass < 0) {
+			return block.asIntBuffer();
+		}
+
+		if (intViews[lastClass][lastIndex] == null) {
+			block.clear();
+			intViews[lastClass][lastIndex] = block.asIntBuffer();
+		}
+
+		final IntBuffer view = intViews[lastClass][lastIndex];
+		view.clear();
+		view.limit(count);
+
+		return view;
+	}
+
+	private ByteBuffer take(final int size) throws IllegalArgumentException {
+		if (size > 1 << BufferArena.MAX_SIZE_BITS) {
+			throw new IllegalArgumentException(size + " bytes is too large for a scratch buffer");
+		}
+
+		if (size > 1 << BufferArena.MAX_RETAINED_SIZE_BITS) {
+			lastClass = -1;
+			return Util.createByteBuffer(size);
+		}
+
+		final int bits = Math.max(BufferArena.MIN_SIZE_BITS, 32 - Integer.numberOfLeadingZeros(size - 1));
+		final int sizeClass = bits - BufferArena.MIN_SIZE_BITS;
+
+		if (used[sizeClass] == counts[sizeClass]) {
+			if (counts[sizeClass] == blocks[sizeClass].length) {
+				final int capacity = Math.max(4, counts[sizeClass] * 2);
+
+				blocks[sizeClass] = Arrays.copyOf(blocks[sizeClass], capacity);
+				floatViews[sizeClass] = Arrays.copyOf(floatViews[sizeClass], capacity);
+				intViews[sizeClass] = Arrays.copyOf(intViews[sizeClass], capacity);
+			}
+
+			blocks[sizeClass][counts[sizeClass]++] = Util.createByteBuffer(1 << bits);
+			retainedBytes += 1 << bits;
+		}
+
+		lastClass = sizeClass;
+		lastIndex = used[sizeClass]++;
+
+		return blocks[sizeClass][lastIndex];
+	}
+
+	/**
+	 * Remember which buffers are handed out, so {@link #pop()} can release
+	 * everything handed out after this call. Use around uploads that happen
+	 * outside of frames, such as loading.
+	 * 
+	 * @throws IllegalStateException
+	 *             if pushes are nested too deeply
+	 */
+	public void push() throws IllegalStateException {
+		if (depth == BufferArena.MAX_DEPTH) {
+			throw new IllegalStateException("Scratch buffer scopes are nested more than " + BufferArena.MAX_DEPTH + " deep");
+		}
+
+		System.arraycopy(used, 0, savedUsed[depth++], 0, BufferArena.CLASSES);
+	}
+
+	/**
+	 * Release every buffer handed out since the matching {@link #push()}.
+	 * 
+	 * @throws IllegalStateException
+	 *             if there was no matching push
+	 */
+	public void pop() throws IllegalStateException {
+		if (depth == 0) {
+			throw new IllegalStateException("No scratch buffer scope to pop");
+		}
+
+		System.arraycopy(savedUsed[--depth], 0, used, 0, BufferArena.CLASSES);
+	}
+
+	/**
+	 * Release every buffer, and forget any pushes. Called by the rendering
+	 * engine at the end of every frame on its thread.
+	 */
+	public void reset() {
+		Arrays.fill(used, 0);
+		depth = 0;
+	}
+
+	/**
+	 * Get the number of bytes of direct memory this arena holds on to.
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes;
+	}
+}
@@ -16,16 +16,35 @@
 
 package com.base.engine.core;
 
+import com.base.engine.rendering.LightClusters;
+import com.base.engine.rendering.RenderSnapshot;
 import com.base.engine.rendering.RenderingEngine;
+import com.base.engine.rendering.SnapshotExchange;
 import com.base.engine.rendering.Window;
+import com.base.engine.rendering.backend.Graphics;
+import com.base.engine.rendering.backend.NullBackend;
+import com.base.engine.rendering.backend.OpenGLBackend;
+import com.base.engine.rendering.backend.RenderBackend;
+import com.base.engine.rendering.backend.StateCachingBackend;
 
 public class CoreEngine {
-	private boolean running;
+	private static final int INPUT_SCOPE = Profiler.register("input");
+	private static final int UPDATE_SCOPE = Profiler.register("update");
+	private static final int RENDER_SCOPE = Profiler.register("render");
+	private static final int CAPTURE_SCOPE = Profiler.register("capture");
+	private static final int SWAP_SCOPE = Profiler.register("swap");
+
+	private volatile boolean running;
+	private boolean pipelined;
+	private boolean interpolated;
+	private double renderFrameTime;
 	private final Game game;
 	private RenderingEngine renderingEngine;
 	private final int width;
 	private final int height;
 	private final double frameTime;
+	private long reportedDirectAllocations;
+	private long reportedDirectBytes;
 
 	public CoreEngine(final int width, final int height, final double framerate, final Game game) {
 		running = false;
@@ -38,6 +57,35 @@ public class CoreEngine {
 
 	public void createWindow(final String title) {
 		Window.createWindow(width, height, title);
+		Graphics.setBackend(new StateCachingBackend(new OpenGLBackend()));
+		renderingEngine = new RenderingEngine();
+	}
+
+	/**
+	 * Set the engine up to run without a window or GPU, drawing through a
+	 * {@link NullBackend}. Use this instead of {@link #createWindow(String)}
+	 * for simulation servers, soak tests and benchmarks. The game runs until
+	 * it calls {@link #stop()}.
+	 * 
+	 * @param title
+	 *            - The title reported by {@link Window#getTitle()}
+	 */
+	public void createHeadless(final String title) {
+		createHeadless(title, new StateCachingBackend(new NullBackend()));
+	}
+
+	/**
+	 * Set the engine up to run without a window, drawing through
+	 * <code>backend</code>.
+	 * 
+	 * @param title
+	 *            - The title reported by {@link Window#getTitle()}
+	 * @param backend
+	 *            - The backend to draw with
+	 */
+	public void createHeadless(final String title, final RenderBackend backend) {
+		Window.createHeadless(width, height, title);
+		Graphics.setBackend(backend);
 		renderingEngine = new RenderingEngine();
 	}
 
@@ -57,14 +105,80 @@ public class CoreEngine {
 		running = false;
 	}
 
+	/**
+	 * Run the simulation on its own thread while this thread draws the last
+	 * finished frame. Each simulated frame is copied into a
+	 * {@link RenderSnapshot} and handed over through a
+	 * {@link SnapshotExchange}, so a slow frame on one side never holds up the
+	 * other and the fixed timestep stays stable under render load.
+	 *
+	 * In this mode input and update run on the simulation thread, so
+	 * meshes, textures and shaders must all be created in
+	 * {@link Game#init()}, which still runs on this thread, and components
+	 * must not make GL calls outside of rendering.
+	 * 
+	 * @param pipelined
+	 *            - <code>true</code> to simulate and render on separate
+	 *            threads; takes effect on the next {@link #start()}
+	 */
+	public void setPipelined(final boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	public boolean isPipelined() {
+		return pipelined;
+	}
+
+	/**
+	 * Draw a frame on every pass of the game loop instead of only after an
+	 * update, with every transform blended between its previous and current
+	 * simulation state by how far the clock has run into the next update.
+	 * Motion then stays smooth when the frame rate and the update rate
+	 * differ. Has no effect in pipelined mode, which draws each simulated
+	 * frame as it is published.
+	 * 
+	 * @param interpolated
+	 *            - <code>true</code> to interpolate
+	 * @see #setRenderFramerate(double)
+	 */
+	public void setInterpolated(final boolean interpolated) {
+		this.interpolated = interpolated;
+	}
+
+	public boolean isInterpolated() {
+		return interpolated;
+	}
+
+	/**
+	 * Cap the frame rate of interpolated rendering. Use 0 to draw as fast as
+	 * possible, or to leave pacing to vertical sync.
+	 * 
+	 * @param framerate
+	 *            - The highest number of frames to draw per second, or 0
+	 */
+	public void setRenderFramerate(final double framerate) {
+		renderFrameTime = framerate > 0 ? 1.0 / framerate : 0;
+	}
+
 	private void run() {
 		running = true;
 
+		game.init();
+
+		if (pipelined) {
+			runPipelined();
+		} else {
+			runSerial();
+		}
+
+		cleanUp();
+	}
+
+	private void runSerial() {
+		final FramePacer pacer = new FramePacer();
 		int frames = 0;
 		double frameCounter = 0;
 
-		game.init();
-
 		double lastTime = Time.getTime();
 		double unprocessedTime = 0;
 
@@ -87,31 +201,198 @@ public class CoreEngine {
 					stop();
 				}
 
-				game.input((float) frameTime);
-				Input.update();
-
-				game.update((float) frameTime);
+				simulateStep();
 
 				if (frameCounter >= 1.0) {
-					System.out.println(frames);
+					reportFrames(frames);
 					frames = 0;
 					frameCounter = 0;
 				}
 			}
-			if (render) {
-				game.render(renderingEngine);
-				Window.render();
+			if (interpolated) {
+				renderingEngine.setInterpolation(true, (float) (unprocessedTime / frameTime));
+				render();
+				swap();
+				frames++;
+
+				if (renderFrameTime > 0) {
+					pacer.waitUntil(startTime + renderFrameTime);
+				}
+			} else if (render) {
+				renderingEngine.setInterpolation(false, 1);
+				render();
+				swap();
 				frames++;
 			} else {
+				// Nothing new to draw until the next update is due.
+				pacer.waitUntil(startTime + frameTime - unprocessedTime);
+			}
+		}
+	}
+
+	private void runPipelined() {
+		final SnapshotExchange exchange = new SnapshotExchange();
+
+		// Capture the initial state up front so there is always a frame to
+		// draw.
+		game.capture(renderingEngine, exchange.getWriteSnapshot());
+		exchange.publish();
+
+		final Thread simulation = new Thread(new Runnable() {
+			@Override
+			public void run() {
 				try {
-					Thread.sleep(1);
-				} catch (final InterruptedException e) {
-					e.printStackTrace();
+					simulate(exchange);
+				} finally {
+					stop();
 				}
 			}
+		}, "Simulation");
+
+		simulation.start();
+
+		int frames = 0;
+		double frameCounter = 0;
+		double lastTime = Time.getTime();
+
+		while (running) {
+			final double startTime = Time.getTime();
+			frameCounter += startTime - lastTime;
+			lastTime = startTime;
+
+			if (Window.isCloseRequested()) {
+				stop();
+			}
+
+			if (exchange.hasNewSnapshot()) {
+				Profiler.begin(CoreEngine.RENDER_SCOPE);
+				renderingEngine.render(exchange.acquire());
+				Profiler.end(CoreEngine.RENDER_SCOPE);
+				swap();
+				frames++;
+			} else {
+				Window.processMessages();
+
+				// Parked until the simulation publishes, but woken at least
+				// once per update so the window and stop() are still seen.
+				exchange.awaitSnapshot((long) (frameTime * 1000000000L));
+			}
+
+			if (frameCounter >= 1.0) {
+				reportFrames(frames);
+				frames = 0;
+				frameCounter = 0;
+			}
 		}
 
-		cleanUp();
+		try {
+			simulation.join();
+		} catch (final InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void simulate(final SnapshotExchange exchange) {
+		final FramePacer pacer = new FramePacer();
+		double lastTime = Time.getTime();
+		double unprocessedTime = 0;
+
+		while (running) {
+			boolean updated = false;
+
+			final double startTime = Time.getTime();
+			unprocessedTime += startTime - lastTime;
+			lastTime = startTime;
+
+			while (unprocessedTime > frameTime) {
+				updated = true;
+
+				unprocessedTime -= frameTime;
+
+				simulateStep();
+			}
+
+			if (updated) {
+				Profiler.begin(CoreEngine.CAPTURE_SCOPE);
+				game.capture(renderingEngine, exchange.getWriteSnapshot());
+				Profiler.end(CoreEngine.CAPTURE_SCOPE);
+				exchange.publish();
+			} else {
+				pacer.waitUntil(startTime + frameTime - unprocessedTime);
+			}
+		}
+	}
+
+	private void simulateStep() {
+		Profiler.begin(CoreEngine.INPUT_SCOPE);
+		game.input((float) frameTime);
+		Input.update();
+		Profiler.end(CoreEngine.INPUT_SCOPE);
+
+		Profiler.begin(CoreEngine.UPDATE_SCOPE);
+		game.update((float) frameTime);
+		Profiler.end(CoreEngine.UPDATE_SCOPE);
+	}
+
+	private void render() {
+		Profiler.begin(CoreEngine.RENDER_SCOPE);
+		game.render(renderingEngine);
+		Profiler.end(CoreEngine.RENDER_SCOPE);
+	}
+
+	private void swap() {
+		Profiler.begin(CoreEngine.SWAP_SCOPE);
+		Window.render();
+		Profiler.end(CoreEngine.SWAP_SCOPE);
+
+		Profiler.endFrame();
+	}
+
+	private void reportFrames(final int frames) {
+		System.out.println(frames);
+
+		if (Profiler.isEnabled()) {
+			System.out.print(Profiler.report());
+			Profiler.reset();
+
+			if (Graphics.getBackend() instanceof StateCachingBackend) {
+				final StateCachingBackend cache = (StateCachingBackend) Graphics.getBackend();
+				System.out.println("state changes: " + cache.getIssuedCalls() + " issued, " + cache.getSkippedCalls() + " skipped");
+				cache.resetCounters();
+			}
+
+			final long directAllocations = Util.getDirectAllocationCount();
+			final long directBytes = Util.getDirectAllocatedBytes();
+			System.out.println("direct buffers: " + (directAllocations - reportedDirectAllocations) + " allocated, " + (directBytes - reportedDirectBytes) + " bytes");
+			reportedDirectAllocations = directAllocations;
+			reportedDirectBytes = directBytes;
+
+			if (renderingEngine.isFrustumCullingEnabled()) {
+				System.out.println("frustum culling: " + renderingEngine.getCulledDrawCount() + " of " + renderingEngine.getDrawCount() + " draws culled");
+			}
+
+			if (renderingEngine.isLightCullingEnabled()) {
+				System.out.println("light culling: " + renderingEngine.getCulledLightCount() + " of " + renderingEngine.getLightCount() + " lights culled, " + renderingEngine.getLitDrawCount() + " lit draws");
+			}
+
+			if (renderingEngine.isClusteredLighting()) {
+				final LightClusters clusters = renderingEngine.getLightClusters();
+				System.out.println("light clusters: " + clusters.getLightCount() + " lights in " + clusters.getIndexCount() + " cluster entries");
+			}
+
+			if (renderingEngine.isInstancingEnabled()) {
+				System.out.println("instancing: " + renderingEngine.getInstancedDrawCount() + " draws in " + renderingEngine.getInstanceBatchCount() + " batches");
+			}
+
+			if (renderingEngine.getSpatialIndex() != null) {
+				final LooseOctree<?> index = renderingEngine.getSpatialIndex();
+				System.out.println("spatial index: " + index.size() + " objects in " + index.getNodeCount() + " nodes, " + index.getLastMovedCount() + " moved");
+			}
+
+			if (renderingEngine.isRenderQueueEnabled()) {
+				System.out.println("render queue: " + renderingEngine.getRenderQueue().getStatistics());
+			}
+		}
 	}
 
 	private void cleanUp() {
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.core;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits until a point in time more precisely than <code>Thread.sleep</code>.
+ *
+ * The thread is parked for most of the wait and spins for the last stretch.
+ * The length of that stretch follows how late the scheduler has recently
+ * woken this thread up: it grows at once when a wakeup comes in late and
+ * shrinks slowly while wakeups are on time, so the pacer neither oversleeps
+ * nor burns more CPU than the platform needs.
+ *
+ * A pacer keeps per-thread timing state; give each thread its own.
+ */
+public class FramePacer {
+	private static final long SECOND = 1000000000L;
+	private static final long MIN_SPIN_NANOS = 100000L;
+	private static final long MAX_SPIN_NANOS = 4000000L;
+
+	private long spinNanos;
+
+	public FramePacer() {
+		spinNanos = 1000000L;
+	}
+
+	/**
+	 * Wait until {@link Time#getTime()} reaches <code>time</code>. Returns
+	 * at once if it already has.
+	 * 
+	 * @param time
+	 *            - The time to wait for, in seconds
+	 */
+	public void waitUntil(final double time) {
+		waitUntilNanos((long) (time * FramePacer.SECOND));
+	}
+
+	/**
+	 * Wait until <code>System.nanoTime()</code> reaches <code>deadline</code>.
+	 * 
+	 * @param deadline
+	 *            - The time to wait for, in nanoseconds
+	 */
+	public void waitUntilNanos(final long deadline) {
+		long remaining = deadline - System.nanoTime();
+
+		while (remaining > spinNanos) {
+			final long request = remaining - spinNanos;
+			final long parkStart = System.nanoTime();
+
+			LockSupport.parkNanos(request);
+
+			final long now = System.nanoTime();
+			final long lateness = now - parkStart - request;
+
+			if (lateness > spinNanos) {
+				spinNanos = Math.min(lateness, FramePacer.MAX_SPIN_NANOS);
+			} else {
+				spinNanos = Math.max(spinNanos - (spinNanos - lateness) / 16, FramePacer.MIN_SPIN_NANOS);
+			}
+
+			remaining = deadline - now;
+		}
+
+		while (System.nanoTime() < deadline) {
+			Thread.yield();
+		}
+	}
+}
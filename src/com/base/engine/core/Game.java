@@ -16,10 +16,16 @@
 
 package com.base.engine.core;
 
+import java.util.concurrent.ForkJoinPool;
+
+import com.base.engine.rendering.RenderSnapshot;
 import com.base.engine.rendering.RenderingEngine;
 
 public abstract class Game {
 	private GameObject root;
+	private TransformStore transformStore;
+	private ForkJoinPool transformPool;
+	private UpdateScheduler updateScheduler;
 
 	public void init() {
 	}
@@ -29,13 +35,34 @@ public abstract class Game {
 	}
 
 	public void update(final float delta) {
-		getRootObject().updateAll(delta);
+		if (updateScheduler != null) {
+			updateScheduler.update(getRootObject(), delta);
+		} else {
+			getRootObject().updateAll(delta);
+		}
+
+		if (transformStore != null) {
+			if (transformPool != null) {
+				transformStore.update(transformPool);
+			} else {
+				transformStore.update();
+			}
+		}
 	}
 
 	public void render(final RenderingEngine renderingEngine) {
 		renderingEngine.render(getRootObject());
 	}
 
+	/**
+	 * Copy the scene into <code>snapshot</code> for pipelined rendering. The
+	 * default captures everything below the root object, which matches what
+	 * {@link #render(RenderingEngine)} draws.
+	 */
+	public void capture(final RenderingEngine renderingEngine, final RenderSnapshot snapshot) {
+		renderingEngine.capture(getRootObject(), snapshot);
+	}
+
 	public void addObject(final GameObject object) {
 		getRootObject().addChild(object);
 	}
@@ -48,6 +75,51 @@ public abstract class Game {
 		return root;
 	}
 
+	/**
+	 * Back every transform in the scene with a flat {@link TransformStore},
+	 * so world matrices are recomputed in one linear pass after each update
+	 * instead of on demand.
+	 * 
+	 * @param enabled
+	 *            - <code>true</code> to use a transform store
+	 */
+	public void setTransformStoreEnabled(final boolean enabled) {
+		if (enabled && transformStore == null) {
+			transformStore = new TransformStore(getRootObject().getTransform());
+		} else if (!enabled && transformStore != null) {
+			transformStore.release();
+			transformStore = null;
+		}
+	}
+
+	/**
+	 * Recompute the transform store's world matrices on <code>pool</code>
+	 * instead of on the game thread. Has no effect unless the transform store
+	 * is enabled.
+	 * 
+	 * @param pool
+	 *            - The pool to use, or <code>null</code> to update serially
+	 */
+	public void setTransformPool(final ForkJoinPool pool) {
+		transformPool = pool;
+	}
+
+	/**
+	 * Update components through <code>scheduler</code> so that independent
+	 * ones run in parallel.
+	 * 
+	 * @param scheduler
+	 *            - The scheduler to use, or <code>null</code> to update every
+	 *            component in order on the game thread
+	 */
+	public void setUpdateScheduler(final UpdateScheduler scheduler) {
+		updateScheduler = scheduler;
+	}
+
+	public TransformStore getTransformStore() {
+		return transformStore;
+	}
+
 	public void setEngine(final CoreEngine engine) {
 		getRootObject().setEngine(engine);
 	}
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.UUID;
 
 import com.base.engine.components.GameComponent;
+import com.base.engine.rendering.RenderSnapshot;
 import com.base.engine.rendering.RenderingEngine;
 import com.base.engine.rendering.Shader;
 
@@ -149,6 +150,29 @@ public class GameObject {
 		}
 	}
 
+	/**
+	 * Gather the components of this object and everything below it in the
+	 * order {@link #updateAll(float)} would update them, along with every
+	 * transform along the way.
+	 */
+	void collectUpdateTargets(final ArrayList<GameComponent> components, final ArrayList<Transform> transforms) {
+		if (hasTransform()) {
+			transforms.add(transform);
+		}
+
+		if (hasComponents()) {
+			components.addAll(this.components);
+		}
+
+		if (!hasChildren()) {
+			return;
+		}
+
+		for (final GameObject child : children) {
+			child.collectUpdateTargets(components, transforms);
+		}
+	}
+
 	public void renderAll(final Shader shader, final RenderingEngine renderingEngine) {
 		render(shader, renderingEngine);
 
@@ -161,6 +185,18 @@ public class GameObject {
 		}
 	}
 
+	public void addAllToSnapshot(final RenderSnapshot snapshot) {
+		addToSnapshot(snapshot);
+
+		if (!hasChildren()) {
+			return;
+		}
+
+		for (final GameObject child : children) {
+			child.addAllToSnapshot(snapshot);
+		}
+	}
+
 	public void input(final float delta) {
 		if (hasTransform()) {
 			transform.update();
@@ -182,7 +218,11 @@ public class GameObject {
 		}
 
 		for (final GameComponent component : components) {
+			final int scope = component.getUpdateScope();
+
+			Profiler.begin(scope);
 			component.update(delta);
+			Profiler.end(scope);
 		}
 	}
 
@@ -197,6 +237,17 @@ public class GameObject {
 		}
 	}
 
+	public void addToSnapshot(final RenderSnapshot snapshot) {
+
+		if (!hasComponents()) {
+			return;
+		}
+
+		for (final GameComponent component : components) {
+			component.addToSnapshot(snapshot);
+		}
+	}
+
 	public ArrayList<GameObject> getAllAttached() {
 		final ArrayList<GameObject> result = new ArrayList<GameObject>();
 
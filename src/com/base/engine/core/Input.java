@@ -20,6 +20,7 @@ import org.lwjgl.input.Keyboard;
 import org.lwjgl.input.Mouse;
 
 import com.base.engine.core.math.Vector2f;
+import com.base.engine.rendering.Window;
 
 public class Input {
 	public static final int NUM_KEYCODES = 256;
@@ -175,6 +176,10 @@ public class Input {
 	}
 
 	public static boolean getKey(final int keyCode) {
+		if (!Input.hasKeyboard()) {
+			return false;
+		}
+
 		return Keyboard.isKeyDown(keyCode);
 	}
 
@@ -187,6 +192,10 @@ public class Input {
 	}
 
 	public static boolean getMouse(final int mouseButton) {
+		if (!Input.hasMouse()) {
+			return false;
+		}
+
 		return Mouse.isButtonDown(mouseButton);
 	}
 
@@ -199,14 +208,44 @@ public class Input {
 	}
 
 	public static Vector2f getMousePosition() {
+		if (!Input.hasMouse()) {
+			return new Vector2f(0, 0);
+		}
+
 		return new Vector2f(Mouse.getX(), Mouse.getY());
 	}
 
 	public static void setMousePosition(final Vector2f pos) {
+		if (!Input.hasMouse()) {
+			return;
+		}
+
 		Mouse.setCursorPosition((int) pos.getX(), (int) pos.getY());
 	}
 
 	public static void setCursor(final boolean enabled) {
+		if (!Input.hasMouse()) {
+			return;
+		}
+
 		Mouse.setGrabbed(!enabled);
 	}
+
+	/**
+	 * Check whether there is a keyboard to read. There isn't when running
+	 * headless, or when the window failed to create one. The headless check
+	 * comes first so LWJGL is never touched on machines without a display.
+	 */
+	public static boolean hasKeyboard() {
+		return !Window.isHeadless() && Keyboard.isCreated();
+	}
+
+	/**
+	 * Check whether there is a mouse to read.
+	 * 
+	 * @see #hasKeyboard()
+	 */
+	public static boolean hasMouse() {
+		return !Window.isHeadless() && Mouse.isCreated();
+	}
 }
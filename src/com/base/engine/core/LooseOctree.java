@@ -0,0 +1,676 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.base.engine.core.math.Bounds;
+import com.base.engine.core.math.Frustum;
+import com.base.engine.core.math.Matrix4f;
+import com.base.engine.core.math.Vector3f;
+
+/**
+ * A spatial index of objects by the bounding sphere of their mesh, for
+ * finding what is in view, in range of a light or along a ray without
+ * walking the whole scene.
+ *
+ * The world is split into cubic cells, each split into eight smaller cells
+ * on demand. Every node's bounds are twice the size of its cell, so an
+ * object is stored in the smallest cell that contains its center and is at
+ * least as large as its radius, without looking at its neighbours. Adding
+ * or moving an object therefore takes time proportional to the depth of the
+ * tree. Objects whose centers lie outside the world are kept at the root.
+ *
+ * Objects are tracked through their {@link Transform}: moving a transform
+ * marks its entries, and the next query moves only the marked entries. The
+ * index may be marked from several threads at once, such as by components
+ * updated in parallel; everything else synchronizes on the index.
+ * 
+ * @param <T>
+ *            - The type of object stored
+ */
+public class LooseOctree<T> {
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+
+	private final int maxDepth;
+
+	private int nodeCount;
+	private float[] nodeX;
+	private float[] nodeY;
+	private float[] nodeZ;
+	private float[] nodeHalfSize;
+	private int[] nodeParent;
+	// Eight per node, 0 for none; the root is never a child.
+	private int[] nodeChildren;
+	private int[] nodeFirstEntry;
+	// The number of entries in a node and everything below it.
+	private int[] nodeEntryCount;
+
+	private int entryCount;
+	private int freeEntry;
+	private int size;
+	private Object[] items;
+	private Transform[] transforms;
+	private Bounds[] bounds;
+	private float[] entryX;
+	private float[] entryY;
+	private float[] entryZ;
+	private float[] entryRadius;
+	private int[] entryNode;
+	private int[] entryNext;
+	private int[] entryPrev;
+	private boolean[] moved;
+
+	private int[] movedEntries;
+	private int movedCount;
+	private int lastMovedCount;
+
+	private final Vector3f worldCenter;
+	private final FrustumVolume frustumVolume;
+	private final SphereVolume sphereVolume;
+	private final BoxVolume boxVolume;
+	private final RayVolume rayVolume;
+
+	/**
+	 * Create an empty index.
+	 * 
+	 * @param center
+	 *            - The center of the world
+	 * @param halfSize
+	 *            - Half the width of the world
+	 * @param maxDepth
+	 *            - The number of times the world may be split; cells at the
+	 *            deepest level are <code>halfSize / 2^maxDepth</code> across
+	 *            from the center
+	 */
+	public LooseOctree(final Vector3f center, final float halfSize, final int maxDepth) {
+		this.maxDepth = maxDepth;
+
+		nodeX = new float[LooseOctree.INITIAL_CAPACITY];
+		nodeY = new float[LooseOctree.INITIAL_CAPACITY];
+		nodeZ = new float[LooseOctree.INITIAL_CAPACITY];
+		nodeHalfSize = new float[LooseOctree.INITIAL_CAPACITY];
+		nodeParent = new int[LooseOctree.INITIAL_CAPACITY];
+		nodeChildren = new int[LooseOctree.INITIAL_CAPACITY * 8];
+		nodeFirstEntry = new int[LooseOctree.INITIAL_CAPACITY];
+		nodeEntryCount = new int[LooseOctree.INITIAL_CAPACITY];
+
+		items = new Object[LooseOctree.INITIAL_CAPACITY];
+		transforms = new Transform[LooseOctree.INITIAL_CAPACITY];
+		bounds = new Bounds[LooseOctree.INITIAL_CAPACITY];
+		entryX = new float[LooseOctree.INITIAL_CAPACITY];
+		entryY = new float[LooseOctree.INITIAL_CAPACITY];
+		entryZ = new float[LooseOctree.INITIAL_CAPACITY];
+		entryRadius = new float[LooseOctree.INITIAL_CAPACITY];
+		entryNode = new int[LooseOctree.INITIAL_CAPACITY];
+		entryNext = new int[LooseOctree.INITIAL_CAPACITY];
+		entryPrev = new int[LooseOctree.INITIAL_CAPACITY];
+		moved = new boolean[LooseOctree.INITIAL_CAPACITY];
+		movedEntries = new int[LooseOctree.INITIAL_CAPACITY];
+		freeEntry = LooseOctree.NONE;
+
+		worldCenter = new Vector3f(0, 0, 0);
+		frustumVolume = new FrustumVolume();
+		sphereVolume = new SphereVolume();
+		boxVolume = new BoxVolume();
+		rayVolume = new RayVolume();
+
+		addNode(LooseOctree.NONE, center.getX(), center.getY(), center.getZ(), halfSize);
+	}
+
+	/**
+	 * Add an object to the index.
+	 * 
+	 * @param item
+	 *            - The object
+	 * @param transform
+	 *            - The transform that places the object in the world
+	 * @param bounds
+	 *            - The bounds of the object before <code>transform</code>
+	 * @return A handle to {@link #remove(int)} the object with
+	 * @throws IllegalStateException
+	 *             if <code>transform</code> is already in another index
+	 */
+	public synchronized int add(final T item, final Transform transform, final Bounds bounds) throws IllegalStateException {
+		int entry = freeEntry;
+
+		if (entry != LooseOctree.NONE) {
+			freeEntry = entryNext[entry];
+		} else {
+			if (entryCount == items.length) {
+				growEntries(entryCount * 2);
+			}
+
+			entry = entryCount++;
+		}
+
+		transform.addSpatialEntry(this, entry);
+
+		items[entry] = item;
+		transforms[entry] = transform;
+		this.bounds[entry] = bounds;
+		moved[entry] = false;
+		size++;
+
+		updateSphere(entry);
+		link(entry, locate(entry));
+
+		return entry;
+	}
+
+	/**
+	 * Remove an object from the index.
+	 * 
+	 * @param entry
+	 *            - The handle returned by {@link #add}
+	 */
+	public synchronized void remove(final int entry) {
+		if (entryNode[entry] == LooseOctree.NONE) {
+			return;
+		}
+
+		transforms[entry].removeSpatialEntry(entry);
+		unlink(entry);
+
+		items[entry] = null;
+		transforms[entry] = null;
+		bounds[entry] = null;
+		entryNode[entry] = LooseOctree.NONE;
+		entryNext[entry] = freeEntry;
+		freeEntry = entry;
+		size--;
+	}
+
+	/**
+	 * Remember that the transform of some entries changed. Called by
+	 * {@link Transform}.
+	 */
+	synchronized void markMoved(final int[] entries, final int count) {
+		for (int i = 0; i < count; i++) {
+			final int entry = entries[i];
+
+			if (moved[entry]) {
+				continue;
+			}
+
+			if (movedCount == movedEntries.length) {
+				movedEntries = Arrays.copyOf(movedEntries, movedCount * 2);
+			}
+
+			moved[entry] = true;
+			movedEntries[movedCount++] = entry;
+		}
+	}
+
+	/**
+	 * Move every entry whose transform changed since the last refit to the
+	 * node that now fits it. Queries do this first, so this only needs to be
+	 * called to control when the work is done.
+	 */
+	public synchronized void refit() {
+		for (int i = 0; i < movedCount; i++) {
+			final int entry = movedEntries[i];
+			moved[entry] = false;
+
+			// Entries removed after they moved are skipped.
+			if (entryNode[entry] == LooseOctree.NONE) {
+				continue;
+			}
+
+			updateSphere(entry);
+
+			final int node = locate(entry);
+
+			if (node != entryNode[entry]) {
+				unlink(entry);
+				link(entry, node);
+			}
+		}
+
+		lastMovedCount = movedCount;
+		movedCount = 0;
+	}
+
+	/**
+	 * Find the objects whose bounds are at least partly inside
+	 * <code>frustum</code>.
+	 * 
+	 * @param frustum
+	 *            - The frustum to search
+	 * @param result
+	 *            - Receives the objects found
+	 */
+	public synchronized void query(final Frustum frustum, final ArrayList<T> result) {
+		refit();
+
+		frustumVolume.frustum = frustum;
+		collect(LooseOctree.ROOT, frustumVolume, false, result);
+		frustumVolume.frustum = null;
+	}
+
+	/**
+	 * Find the objects whose bounds intersect a sphere, such as the range of
+	 * a light.
+	 * 
+	 * @param center
+	 *            - The center of the sphere
+	 * @param radius
+	 *            - The radius of the sphere
+	 * @param result
+	 *            - Receives the objects found
+	 */
+	public synchronized void query(final Vector3f center, final float radius, final ArrayList<T> result) {
+		refit();
+
+		sphereVolume.set(center, radius);
+		collect(LooseOctree.ROOT, sphereVolume, false, result);
+	}
+
+	/**
+	 * Find the objects whose bounds intersect an axis aligned box.
+	 * 
+	 * @param min
+	 *            - The corner of the box with the smallest coordinates
+	 * @param max
+	 *            - The corner of the box with the largest coordinates
+	 * @param result
+	 *            - Receives the objects found
+	 */
+	public synchronized void query(final Vector3f min, final Vector3f max, final ArrayList<T> result) {
+		refit();
+
+		boxVolume.set(min, max);
+		collect(LooseOctree.ROOT, boxVolume, false, result);
+	}
+
+	/**
+	 * Find the objects whose bounding spheres a ray passes through. The
+	 * objects are not sorted, and the ray may miss the meshes themselves.
+	 * 
+	 * @param origin
+	 *            - The start of the ray
+	 * @param direction
+	 *            - The direction of the ray, normalized
+	 * @param length
+	 *            - How far the ray reaches
+	 * @param result
+	 *            - Receives the objects found
+	 */
+	public synchronized void raycast(final Vector3f origin, final Vector3f direction, final float length, final ArrayList<T> result) {
+		refit();
+
+		rayVolume.set(origin, direction, length);
+		collect(LooseOctree.ROOT, rayVolume, false, result);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void collect(final int node, final Volume volume, final boolean contained, final ArrayList<T> result) {
+		for (int entry = nodeFirstEntry[node]; entry != LooseOctree.NONE; entry = entryNext[entry]) {
+			if (contained || volume.intersectsSphere(entryX[entry], entryY[entry], entryZ[entry], entryRadius[entry])) {
+				result.add((T) items[entry]);
+			}
+		}
+
+		for (int octant = 0; octant < 8; octant++) {
+			final int child = nodeChildren[node * 8 + octant];
+
+			if (child == 0 || nodeEntryCount[child] == 0) {
+				continue;
+			}
+
+			int side = Frustum.INSIDE;
+
+			// Once a node is known to be inside, so is everything below it.
+			if (!contained) {
+				final float looseSize = nodeHalfSize[child] * 2;
+				side = volume.classifyBox(nodeX[child] - looseSize, nodeY[child] - looseSize, nodeZ[child] - looseSize, nodeX[child] + looseSize, nodeY[child] + looseSize, nodeZ[child] + looseSize);
+			}
+
+			if (side != Frustum.OUTSIDE) {
+				collect(child, volume, side == Frustum.INSIDE, result);
+			}
+		}
+	}
+
+	private void updateSphere(final int entry) {
+		final Matrix4f world = transforms[entry].getTransformation();
+
+		world.transform(bounds[entry].getCenter(), worldCenter);
+
+		entryX[entry] = worldCenter.getX();
+		entryY[entry] = worldCenter.getY();
+		entryZ[entry] = worldCenter.getZ();
+		entryRadius[entry] = bounds[entry].getRadius(world);
+	}
+
+	/**
+	 * Find the node an entry belongs in, creating nodes along the way.
+	 */
+	private int locate(final int entry) {
+		final float x = entryX[entry];
+		final float y = entryY[entry];
+		final float z = entryZ[entry];
+		final float radius = entryRadius[entry];
+
+		int node = LooseOctree.ROOT;
+		final float rootHalfSize = nodeHalfSize[node];
+
+		if (radius > rootHalfSize || Math.abs(x - nodeX[node]) > rootHalfSize || Math.abs(y - nodeY[node]) > rootHalfSize || Math.abs(z - nodeZ[node]) > rootHalfSize) {
+			return node;
+		}
+
+		for (int depth = 0; depth < maxDepth; depth++) {
+			final float childHalfSize = nodeHalfSize[node] / 2;
+
+			if (radius > childHalfSize) {
+				break;
+			}
+
+			final int octant = (x >= nodeX[node] ? 1 : 0) | (y >= nodeY[node] ? 2 : 0) | (z >= nodeZ[node] ? 4 : 0);
+			int child = nodeChildren[node * 8 + octant];
+
+			if (child == 0) {
+				child = addNode(node, nodeX[node] + ((octant & 1) != 0 ? childHalfSize : -childHalfSize), nodeY[node] + ((octant & 2) != 0 ? childHalfSize : -childHalfSize), nodeZ[node] + ((octant & 4) != 0 ? childHalfSize : -childHalfSize), childHalfSize);
+				nodeChildren[node * 8 + octant] = child;
+			}
+
+			node = child;
+		}
+
+		return node;
+	}
+
+	private int addNode(final int parent, final float x, final float y, final float z, final float halfSize) {
+		if (nodeCount == nodeX.length) {
+			final int capacity = nodeCount * 2;
+
+			nodeX = Arrays.copyOf(nodeX, capacity);
+			nodeY = Arrays.copyOf(nodeY, capacity);
+			nodeZ = Arrays.copyOf(nodeZ, capacity);
+			nodeHalfSize = Arrays.copyOf(nodeHalfSize, capacity);
+			nodeParent = Arrays.copyOf(nodeParent, capacity);
+			nodeChildren = Arrays.copyOf(nodeChildren, capacity * 8);
+			nodeFirstEntry = Arrays.copyOf(nodeFirstEntry, capacity);
+			nodeEntryCount = Arrays.copyOf(nodeEntryCount, capacity);
+		}
+
+		final int node = nodeCount++;
+
+		nodeX[node] = x;
+		nodeY[node] = y;
+		nodeZ[node] = z;
+		nodeHalfSize[node] = halfSize;
+		nodeParent[node] = parent;
+		nodeFirstEntry[node] = LooseOctree.NONE;
+		nodeEntryCount[node] = 0;
+
+		return node;
+	}
+
+	private void growEntries(final int capacity) {
+		items = Arrays.copyOf(items, capacity);
+		transforms = Arrays.copyOf(transforms, capacity);
+		bounds = Arrays.copyOf(bounds, capacity);
+		entryX = Arrays.copyOf(entryX, capacity);
+		entryY = Arrays.copyOf(entryY, capacity);
+		entryZ = Arrays.copyOf(entryZ, capacity);
+		entryRadius = Arrays.copyOf(entryRadius, capacity);
+		entryNode = Arrays.copyOf(entryNode, capacity);
+		entryNext = Arrays.copyOf(entryNext, capacity);
+		entryPrev = Arrays.copyOf(entryPrev, capacity);
+		moved = Arrays.copyOf(moved, capacity);
+	}
+
+	private void link(final int entry, final int node) {
+		final int first = nodeFirstEntry[node];
+
+		entryNode[entry] = node;
+		entryPrev[entry] = LooseOctree.NONE;
+		entryNext[entry] = first;
+
+		if (first != LooseOctree.NONE) {
+			entryPrev[first] = entry;
+		}
+
+		nodeFirstEntry[node] = entry;
+
+		for (int parent = node; parent != LooseOctree.NONE; parent = nodeParent[parent]) {
+			nodeEntryCount[parent]++;
+		}
+	}
+
+	private void unlink(final int entry) {
+		final int node = entryNode[entry];
+		final int previous = entryPrev[entry];
+		final int next = entryNext[entry];
+
+		if (previous != LooseOctree.NONE) {
+			entryNext[previous] = next;
+		} else {
+			nodeFirstEntry[node] = next;
+		}
+
+		if (next != LooseOctree.NONE) {
+			entryPrev[next] = previous;
+		}
+
+		for (int parent = node; parent != LooseOctree.NONE; parent = nodeParent[parent]) {
+			nodeEntryCount[parent]--;
+		}
+	}
+
+	/**
+	 * Get the number of objects in the index.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Get the number of nodes created so far.
+	 */
+	public synchronized int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Get the number of entries the last {@link #refit()} had to check.
+	 */
+	public synchronized int getLastMovedCount() {
+		return lastMovedCount;
+	}
+
+	/**
+	 * A region to search the index for.
+	 */
+	private static abstract class Volume {
+		abstract boolean intersectsSphere(float x, float y, float z, float radius);
+
+		/**
+		 * @return {@link Frustum#OUTSIDE}, {@link Frustum#INTERSECTS} or
+		 *         {@link Frustum#INSIDE}
+		 */
+		abstract int classifyBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ);
+	}
+
+	private static class FrustumVolume extends Volume {
+		private Frustum frustum;
+
+		@Override
+		boolean intersectsSphere(final float x, final float y, final float z, final float radius) {
+			return frustum.intersectsSphere(x, y, z, radius);
+		}
+
+		@Override
+		int classifyBox(final float minX, final float minY, final float minZ, final float maxX, final float maxY, final float maxZ) {
+			return frustum.classifyBox(minX, minY, minZ, maxX, maxY, maxZ);
+		}
+	}
+
+	private static class SphereVolume extends Volume {
+		private float x;
+		private float y;
+		private float z;
+		private float radius;
+
+		void set(final Vector3f center, final float radius) {
+			x = center.getX();
+			y = center.getY();
+			z = center.getZ();
+			this.radius = radius;
+		}
+
+		@Override
+		boolean intersectsSphere(final float x, final float y, final float z, final float radius) {
+			final float dx = x - this.x;
+			final float dy = y - this.y;
+			final float dz = z - this.z;
+			final float reach = radius + this.radius;
+
+			return dx * dx + dy * dy + dz * dz <= reach * reach;
+		}
+
+		@Override
+		int classifyBox(final float minX, final float minY, final float minZ, final float maxX, final float maxY, final float maxZ) {
+			final float nearX = Math.max(minX - x, Math.max(0, x - maxX));
+			final float nearY = Math.max(minY - y, Math.max(0, y - maxY));
+			final float nearZ = Math.max(minZ - z, Math.max(0, z - maxZ));
+
+			if (nearX * nearX + nearY * nearY + nearZ * nearZ > radius * radius) {
+				return Frustum.OUTSIDE;
+			}
+
+			final float farX = Math.max(x - minX, maxX - x);
+			final float farY = Math.max(y - minY, maxY - y);
+			final float farZ = Math.max(z - minZ, maxZ - z);
+
+			return farX * farX + farY * farY + farZ * farZ <= radius * radius ? Frustum.INSIDE : Frustum.INTERSECTS;
+		}
+	}
+
+	private static class BoxVolume extends Volume {
+		private float minX;
+		private float minY;
+		private float minZ;
+		private float maxX;
+		private float maxY;
+		private float maxZ;
+
+		void set(final Vector3f min, final Vector3f max) {
+			minX = min.getX();
+			minY = min.getY();
+			minZ = min.getZ();
+			maxX = max.getX();
+			maxY = max.getY();
+			maxZ = max.getZ();
+		}
+
+		@Override
+		boolean intersectsSphere(final float x, final float y, final float z, final float radius) {
+			final float nearX = Math.max(minX - x, Math.max(0, x - maxX));
+			final float nearY = Math.max(minY - y, Math.max(0, y - maxY));
+			final float nearZ = Math.max(minZ - z, Math.max(0, z - maxZ));
+
+			return nearX * nearX + nearY * nearY + nearZ * nearZ <= radius * radius;
+		}
+
+		@Override
+		int classifyBox(final float minX, final float minY, final float minZ, final float maxX, final float maxY, final float maxZ) {
+			if (maxX < this.minX || maxY < this.minY || maxZ < this.minZ || minX > this.maxX || minY > this.maxY || minZ > this.maxZ) {
+				return Frustum.OUTSIDE;
+			}
+
+			if (minX >= this.minX && minY >= this.minY && minZ >= this.minZ && maxX <= this.maxX && maxY <= this.maxY && maxZ <= this.maxZ) {
+				return Frustum.INSIDE;
+			}
+
+			return Frustum.INTERSECTS;
+		}
+	}
+
+	private static class RayVolume extends Volume {
+		private float x;
+		private float y;
+		private float z;
+		private float directionX;
+		private float directionY;
+		private float directionZ;
+		private float length;
+
+		void set(final Vector3f origin, final Vector3f direction, final float length) {
+			x = origin.getX();
+			y = origin.getY();
+			z = origin.getZ();
+			directionX = direction.getX();
+			directionY = direction.getY();
+			directionZ = direction.getZ();
+			this.length = length;
+		}
+
+		@Override
+		boolean intersectsSphere(final float x, final float y, final float z, final float radius) {
+			final float toX = x - this.x;
+			final float toY = y - this.y;
+			final float toZ = z - this.z;
+
+			// The point of the ray closest to the center of the sphere.
+			final float along = Math.max(0, Math.min(length, toX * directionX + toY * directionY + toZ * directionZ));
+			final float dx = toX - directionX * along;
+			final float dy = toY - directionY * along;
+			final float dz = toZ - directionZ * along;
+
+			return dx * dx + dy * dy + dz * dz <= radius * radius;
+		}
+
+		@Override
+		int classifyBox(final float minX, final float minY, final float minZ, final float maxX, final float maxY, final float maxZ) {
+			float enter = 0;
+			float exit = length;
+
+			// Clip the ray against each pair of faces in turn.
+			for (int axis = 0; axis < 3; axis++) {
+				final float start = axis == 0 ? x : axis == 1 ? y : z;
+				final float direction = axis == 0 ? directionX : axis == 1 ? directionY : directionZ;
+				final float min = axis == 0 ? minX : axis == 1 ? minY : minZ;
+				final float max = axis == 0 ? maxX : axis == 1 ? maxY : maxZ;
+
+				if (direction == 0) {
+					if (start < min || start > max) {
+						return Frustum.OUTSIDE;
+					}
+
+					continue;
+				}
+
+				final float t0 = (min - start) / direction;
+				final float t1 = (max - start) / direction;
+
+				enter = Math.max(enter, Math.min(t0, t1));
+				exit = Math.min(exit, Math.max(t0, t1));
+
+				if (enter > exit) {
+					return Frustum.OUTSIDE;
+				}
+			}
+
+			return Frustum.INTERSECTS;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A low-overhead profiler for named, nested scopes.
+ *
+ * Register a scope name once with {@link #register(String)} and wrap the
+ * code to measure in {@link #begin(int)} and {@link #end(int)}. Each finished
+ * scope is written as one event into a fixed-size ring buffer shared by all
+ * threads; writers claim slots with a single atomic increment and never
+ * block. {@link #collect()} folds new events into per-scope
+ * {@link ProfilerStats}, and {@link #writeChromeTrace(Writer)} exports the
+ * events still in the ring for <code>chrome://tracing</code>.
+ *
+ * Everything is a no-op until the profiler is enabled with
+ * {@link #setEnabled(boolean)}.
+ */
+public class Profiler {
+	private static final int RING_SIZE = 1 << 16;
+	private static final int RING_MASK = Profiler.RING_SIZE - 1;
+	private static final int MAX_DEPTH = 64;
+
+	private static volatile boolean enabled;
+
+	private static final AtomicLong cursor = new AtomicLong();
+	private static final AtomicLongArray sequences = new AtomicLongArray(Profiler.RING_SIZE);
+	private static final long[] starts = new long[Profiler.RING_SIZE];
+	private static final long[] durations = new long[Profiler.RING_SIZE];
+	private static final int[] scopes = new int[Profiler.RING_SIZE];
+	private static final int[] threads = new int[Profiler.RING_SIZE];
+	private static long collected;
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+	private static final ArrayList<String> threadNames = new ArrayList<String>();
+
+	private static final HashMap<String, Integer> scopeIds = new HashMap<String, Integer>();
+	private static final ArrayList<ProfilerStats> stats = new ArrayList<ProfilerStats>();
+
+	/** The scope {@link #endFrame()} records whole frames under. */
+	public static final int FRAME = Profiler.register("frame");
+
+	private static long lastFrameEnd;
+
+	/**
+	 * The open scopes of one thread.
+	 */
+	private static class ThreadState {
+		public final int id;
+		public final long[] starts = new long[Profiler.MAX_DEPTH];
+		public final int[] scopes = new int[Profiler.MAX_DEPTH];
+		public int depth;
+
+		public ThreadState(final int id) {
+			this.id = id;
+		}
+	}
+
+	private static final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+		@Override
+		protected ThreadState initialValue() {
+			final ThreadState state = new ThreadState(Profiler.threadCount.getAndIncrement());
+
+			synchronized (Profiler.threadNames) {
+				while (Profiler.threadNames.size() <= state.id) {
+					Profiler.threadNames.add(null);
+				}
+
+				Profiler.threadNames.set(state.id, Thread.currentThread().getName());
+			}
+
+			return state;
+		}
+	};
+
+	/**
+	 * Get the id of the scope called <code>name</code>, creating it if it
+	 * doesn't exist yet. Look ids up once and keep them; this takes a lock.
+	 * 
+	 * @param name
+	 *            - The name shown in reports and traces
+	 * @return The scope id
+	 */
+	public static synchronized int register(final String name) {
+		final Integer id = Profiler.scopeIds.get(name);
+
+		if (id != null) {
+			return id;
+		}
+
+		Profiler.stats.add(new ProfilerStats(name));
+		Profiler.scopeIds.put(name, Profiler.stats.size() - 1);
+
+		return Profiler.stats.size() - 1;
+	}
+
+	public static void setEnabled(final boolean enabled) {
+		Profiler.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return Profiler.enabled;
+	}
+
+	/**
+	 * Open a scope on the calling thread.
+	 * 
+	 * @param scope
+	 *            - An id from {@link #register(String)}
+	 */
+	public static void begin(final int scope) {
+		if (!Profiler.enabled) {
+			return;
+		}
+
+		final ThreadState state = Profiler.threadState.get();
+
+		if (state.depth < Profiler.MAX_DEPTH) {
+			state.scopes[state.depth] = scope;
+			state.starts[state.depth] = System.nanoTime();
+		}
+
+		state.depth++;
+	}
+
+	/**
+	 * Close the innermost scope of the calling thread, which must be
+	 * <code>scope</code>, and record it.
+	 * 
+	 * @param scope
+	 *            - The id passed to the matching {@link #begin(int)}
+	 */
+	public static void end(final int scope) {
+		if (!Profiler.enabled) {
+			return;
+		}
+
+		final long now = System.nanoTime();
+		final ThreadState state = Profiler.threadState.get();
+
+		// Scopes opened before the profiler was enabled have no start.
+		if (state.depth == 0) {
+			return;
+		}
+
+		state.depth--;
+
+		if (state.depth < Profiler.MAX_DEPTH && state.scopes[state.depth] == scope) {
+			Profiler.record(scope, state.starts[state.depth], now - state.starts[state.depth], state.id);
+		}
+	}
+
+	/**
+	 * Mark the end of a frame. The time since the previous call is recorded
+	 * under {@link #FRAME}, and new events are collected. Call this from the
+	 * thread that drives the frame.
+	 */
+	public static void endFrame() {
+		if (!Profiler.enabled) {
+			Profiler.lastFrameEnd = 0;
+			return;
+		}
+
+		final long now = System.nanoTime();
+
+		if (Profiler.lastFrameEnd != 0) {
+			Profiler.record(Profiler.FRAME, Profiler.lastFrameEnd, now - Profiler.lastFrameEnd, Profiler.threadState.get().id);
+		}
+
+		Profiler.lastFrameEnd = now;
+		Profiler.collect();
+	}
+
+	private static void record(final int scope, final long start, final long duration, final int thread) {
+		final long index = Profiler.cursor.getAndIncrement();
+		final int slot = (int) (index & Profiler.RING_MASK);
+
+		// Invalidate the slot while it is being written so readers skip it.
+		Profiler.sequences.set(slot, -1);
+
+		Profiler.starts[slot] = start;
+		Profiler.durations[slot] = duration;
+		Profiler.scopes[slot] = scope;
+		Profiler.threads[slot] = thread;
+
+		Profiler.sequences.set(slot, index + 1);
+	}
+
+	/**
+	 * Fold every event recorded since the last call into the statistics.
+	 * Events that were overwritten before they could be collected are lost.
+	 */
+	public static synchronized void collect() {
+		final long end = Profiler.cursor.get();
+		final long first = Math.max(Profiler.collected, end - Profiler.RING_SIZE);
+
+		for (long index = first; index < end; index++) {
+			final int slot = (int) (index & Profiler.RING_MASK);
+
+			if (Profiler.sequences.get(slot) != index + 1) {
+				continue;
+			}
+
+			final int scope = Profiler.scopes[slot];
+			final long duration = Profiler.durations[slot];
+
+			// The slot may have been reclaimed while reading it.
+			if (Profiler.sequences.get(slot) == index + 1) {
+				Profiler.stats.get(scope).add(duration);
+			}
+		}
+
+		Profiler.collected = end;
+	}
+
+	/**
+	 * Get the statistics of a scope, up to the last {@link #collect()}.
+	 */
+	public static synchronized ProfilerStats getStats(final int scope) {
+		return Profiler.stats.get(scope);
+	}
+
+	/**
+	 * Get the statistics of whole frames, as recorded by
+	 * {@link #endFrame()}. The histogram of this scope is the frame-time
+	 * histogram.
+	 */
+	public static ProfilerStats getFrameStats() {
+		return Profiler.getStats(Profiler.FRAME);
+	}
+
+	/**
+	 * Get the statistics of every scope that has been run at least once.
+	 */
+	public static synchronized ArrayList<ProfilerStats> getAllStats() {
+		final ArrayList<ProfilerStats> result = new ArrayList<ProfilerStats>();
+
+		for (final ProfilerStats scopeStats : Profiler.stats) {
+			if (scopeStats.getCount() > 0) {
+				result.add(scopeStats);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Clear the statistics of every scope. The ring buffer is left alone.
+	 */
+	public static synchronized void reset() {
+		for (final ProfilerStats scopeStats : Profiler.stats) {
+			scopeStats.reset();
+		}
+	}
+
+	/**
+	 * Format the statistics of every scope that has been run, one per line.
+	 */
+	public static String report() {
+		final StringBuilder result = new StringBuilder();
+
+		for (final ProfilerStats scopeStats : Profiler.getAllStats()) {
+			result.append(scopeStats).append('\n');
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * Write the events still in the ring buffer as Chrome trace-event JSON,
+	 * which can be loaded into <code>chrome://tracing</code> or Perfetto.
+	 * 
+	 * @param writer
+	 *            - Receives the JSON; it is not closed
+	 */
+	public static synchronized void writeChromeTrace(final Writer writer) throws IOException {
+		final long end = Profiler.cursor.get();
+		final long first = Math.max(0, end - Profiler.RING_SIZE);
+
+		writer.write("{\"traceEvents\":[\n");
+
+		boolean firstEvent = true;
+
+		synchronized (Profiler.threadNames) {
+			for (int i = 0; i < Profiler.threadNames.size(); i++) {
+				if (!firstEvent) {
+					writer.write(",\n");
+				}
+
+				writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + i + ",\"args\":{\"name\":\"" + Profiler.escape(Profiler.threadNames.get(i)) + "\"}}");
+				firstEvent = false;
+			}
+		}
+
+		for (long index = first; index < end; index++) {
+			final int slot = (int) (index & Profiler.RING_MASK);
+
+			if (Profiler.sequences.get(slot) != index + 1) {
+				continue;
+			}
+
+			final long start = Profiler.starts[slot];
+			final long duration = Profiler.durations[slot];
+			final int scope = Profiler.scopes[slot];
+			final int thread = Profiler.threads[slot];
+
+			if (Profiler.sequences.get(slot) != index + 1) {
+				continue;
+			}
+
+			if (!firstEvent) {
+				writer.write(",\n");
+			}
+
+			writer.write("{\"name\":\"" + Profiler.escape(Profiler.stats.get(scope).getName()) + "\",\"ph\":\"X\",\"pid\":1,\"tid\":" + thread + ",\"ts\":" + start / 1000.0 + ",\"dur\":" + duration / 1000.0 + "}");
+			firstEvent = false;
+		}
+
+		writer.write("\n]}\n");
+	}
+
+	private static String escape(final String text) {
+		if (text == null) {
+			return "";
+		}
+
+		final StringBuilder result = new StringBuilder(text.length());
+
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+
+			if (c == '"' || c == '\\') {
+				result.append('\\').append(c);
+			} else if (c < 0x20) {
+				result.append(String.format("\\u%04x", (int) c));
+			} else {
+				result.append(c);
+			}
+		}
+
+		return result.toString();
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.core;
+
+import java.util.Arrays;
+
+/**
+ * Timing statistics for one {@link Profiler} scope: count, min, average, max
+ * and a histogram from which percentiles are read.
+ *
+ * The histogram has four buckets per power of two of microseconds, so a
+ * percentile is accurate to within about 19% and the whole range from one
+ * microsecond to several hours fits in a fixed number of buckets.
+ */
+public class ProfilerStats {
+	private static final int BUCKETS_PER_OCTAVE = 4;
+	private static final int BUCKET_COUNT = 1 + 34 * ProfilerStats.BUCKETS_PER_OCTAVE;
+
+	private final String name;
+
+	private long count;
+	private long total;
+	private long min;
+	private long max;
+	private final long[] histogram;
+
+	public ProfilerStats(final String name) {
+		this.name = name;
+		histogram = new long[ProfilerStats.BUCKET_COUNT];
+		reset();
+	}
+
+	/**
+	 * Add one timed run.
+	 * 
+	 * @param nanos
+	 *            - The duration of the run in nanoseconds
+	 */
+	public void add(final long nanos) {
+		count++;
+		total += nanos;
+		min = Math.min(min, nanos);
+		max = Math.max(max, nanos);
+		histogram[ProfilerStats.getBucket(nanos)]++;
+	}
+
+	public void reset() {
+		count = 0;
+		total = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+		Arrays.fill(histogram, 0);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getTotalNanos() {
+		return total;
+	}
+
+	public long getMinNanos() {
+		return count == 0 ? 0 : min;
+	}
+
+	public long getMaxNanos() {
+		return max;
+	}
+
+	public double getAverageNanos() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/**
+	 * Get the duration that <code>percentile</code> percent of the runs
+	 * didn't exceed, rounded up to the end of its histogram bucket and
+	 * clamped to the observed maximum.
+	 * 
+	 * @param percentile
+	 *            - Between 0 and 100, such as 99 for the p99
+	 * @return The duration in nanoseconds
+	 */
+	public long getPercentileNanos(final double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+
+		final long rank = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+
+			if (seen >= rank) {
+				return Math.min(ProfilerStats.getBucketEnd(i), max);
+			}
+		}
+
+		return max;
+	}
+
+	/**
+	 * Get the raw histogram. Bucket <code>i</code> counts the runs that took
+	 * up to {@link #getBucketEnd(int)} nanoseconds and more than the end of
+	 * the previous bucket.
+	 */
+	public long[] getHistogram() {
+		return histogram;
+	}
+
+	public static int getBucketCount() {
+		return ProfilerStats.BUCKET_COUNT;
+	}
+
+	/**
+	 * Get the largest duration in nanoseconds that falls into
+	 * <code>bucket</code>.
+	 */
+	public static long getBucketEnd(final int bucket) {
+		if (bucket == 0) {
+			return 1000;
+		}
+
+		return (long) (1000 * Math.pow(2, (double) bucket / ProfilerStats.BUCKETS_PER_OCTAVE));
+	}
+
+	private static int getBucket(final long nanos) {
+		if (nanos <= 1000) {
+			return 0;
+		}
+
+		final double octaves = Math.log(nanos / 1000.0) / Math.log(2);
+		final int bucket = (int) Math.ceil(octaves * ProfilerStats.BUCKETS_PER_OCTAVE);
+
+		return Math.min(bucket, ProfilerStats.BUCKET_COUNT - 1);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-32s %8d calls  min %8.3f  avg %8.3f  p99 %8.3f  max %8.3f ms", name, count, getMinNanos() / 1e6, getAverageNanos() / 1e6, getPercentileNanos(99) / 1e6, getMaxNanos() / 1e6);
+	}
+}
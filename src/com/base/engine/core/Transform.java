@@ -16,28 +16,79 @@
 
 package com.base.engine.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import com.base.engine.core.math.Matrix4f;
 import com.base.engine.core.math.Quaternion;
 import com.base.engine.core.math.Vector3f;
 
+/**
+ * Position, rotation and scale of an object relative to its parent.
+ *
+ * The local and world matrices are cached. Any setter marks this transform
+ * dirty and pushes the dirty flag down to every child, so reading the world
+ * matrix of an unchanged transform costs a single flag check no matter how
+ * deep it sits in the hierarchy.
+ *
+ * A transform can also be backed by a {@link TransformStore}, in which case
+ * its local state is mirrored into the store's flat arrays and the world
+ * matrix is read back from there.
+ */
 public class Transform {
 	private Transform parent;
-	private Matrix4f parentMatrix;
+	private ArrayList<Transform> children;
 
-	private Vector3f pos;
-	private Quaternion rot;
-	private Vector3f scale;
+	// Owned by this transform: the setters copy into them, so updating them
+	// in place never touches anyone else's vectors.
+	private final Vector3f pos;
+	private final Quaternion rot;
+	private final Vector3f scale;
 
 	private Vector3f oldPos;
 	private Quaternion oldRot;
 	private Vector3f oldScale;
+	private boolean hasOldState;
+
+	private Vector3f interpolatedPos;
+	private Quaternion interpolatedRot;
+	private Vector3f interpolatedScale;
+	private Matrix4f interpolatedLocal;
+	private Matrix4f interpolatedWorld;
+
+	// Scratch space for rotate() and lookAt(), created on first use.
+	private Quaternion scratchRot;
+	private Vector3f scratchDirection;
+	private Matrix4f scratchRotation;
+
+	private final Matrix4f localMatrix;
+	private final Matrix4f worldMatrix;
+	private final Quaternion worldRot;
+
+	private boolean localDirty;
+	private boolean worldDirty;
+	private boolean worldRotDirty;
+	private int generation;
+
+	private TransformStore store;
+	private int slot;
+
+	private LooseOctree<?> spatialIndex;
+	private int[] spatialEntries;
+	private int spatialEntryCount;
 
 	public Transform() {
 		pos = new Vector3f(0, 0, 0);
 		rot = new Quaternion(0, 0, 0, 1);
 		scale = new Vector3f(1, 1, 1);
 
-		parentMatrix = new Matrix4f().initIdentity();
+		localMatrix = new Matrix4f().initIdentity();
+		worldMatrix = new Matrix4f().initIdentity();
+		worldRot = new Quaternion(0, 0, 0, 1);
+
+		localDirty = true;
+		worldDirty = true;
+		worldRotDirty = true;
 	}
 
 	public void update() {
@@ -45,6 +96,7 @@ public class Transform {
 			oldPos.set(pos);
 			oldRot.set(rot);
 			oldScale.set(scale);
+			hasOldState = true;
 		} else {
 			oldPos = new Vector3f(0, 0, 0).set(pos).add(1.0f);
 			oldRot = new Quaternion(0, 0, 0, 0).set(rot).mul(0.5f);
@@ -53,15 +105,44 @@ public class Transform {
 	}
 
 	public void rotate(final Vector3f axis, final float angle) {
-		rot = new Quaternion(axis, angle).mul(rot).normalized();
+		if (scratchRot == null) {
+			scratchRot = new Quaternion(0, 0, 0, 1);
+		}
+
+		scratchRot.setAxisAngle(axis, angle).mul(rot, rot).normalizeLocal();
+		invalidate();
 	}
 
 	public void lookAt(final Vector3f point, final Vector3f up) {
-		rot = getLookAtRotation(point, up);
+		getLookAtRotation(point, up, rot);
+		invalidate();
 	}
 
 	public Quaternion getLookAtRotation(final Vector3f point, final Vector3f up) {
-		return new Quaternion(new Matrix4f().initRotation(point.sub(pos).normalized(), up));
+		return getLookAtRotation(point, up, new Quaternion(0, 0, 0, 1));
+	}
+
+	/**
+	 * Work out the rotation that turns this transform to face
+	 * <code>point</code>, without allocating.
+	 * 
+	 * @param point
+	 *            - The point to face
+	 * @param up
+	 *            - The direction to keep up
+	 * @param dest
+	 *            - Receives the rotation
+	 * @return <code>dest</code>
+	 */
+	public Quaternion getLookAtRotation(final Vector3f point, final Vector3f up, final Quaternion dest) {
+		if (scratchDirection == null) {
+			scratchDirection = new Vector3f(0, 0, 0);
+			scratchRotation = new Matrix4f();
+		}
+
+		scratchDirection.setSub(point, pos).normalizeLocal();
+
+		return dest.set(scratchRotation.initRotation(scratchDirection, up));
 	}
 
 	public boolean hasChanged() {
@@ -84,61 +165,351 @@ public class Transform {
 		return false;
 	}
 
+	/**
+	 * Mark the cached matrices of this transform and all of its descendants
+	 * as stale. The setters call this; call it yourself after changing the
+	 * vectors returned by {@link #getPos()}, {@link #getRot()} or
+	 * {@link #getScale()} in place.
+	 */
+	public void invalidate() {
+		localDirty = true;
+
+		if (store != null) {
+			store.setLocal(slot, pos, rot, scale);
+		}
+
+		invalidateWorld();
+	}
+
+	private void invalidateWorld() {
+		// A dirty transform always has dirty descendants, so the walk can stop
+		// here.
+		if (worldDirty && worldRotDirty) {
+			return;
+		}
+
+		worldDirty = true;
+		worldRotDirty = true;
+
+		if (spatialIndex != null) {
+			spatialIndex.markMoved(spatialEntries, spatialEntryCount);
+		}
+
+		if (children == null) {
+			return;
+		}
+
+		for (int i = 0; i < children.size(); i++) {
+			children.get(i).invalidateWorld();
+		}
+	}
+
+	/**
+	 * Get the world transformation of this transform. The matrix is cached
+	 * and owned by this transform: treat it as read-only, and copy it with
+	 * {@link #getTransformation(Matrix4f)} if it needs to outlive the next
+	 * change.
+	 * 
+	 * @return The cached world matrix
+	 */
 	public Matrix4f getTransformation() {
-		final Matrix4f translationMatrix = new Matrix4f().initTranslation(pos.getX(), pos.getY(), pos.getZ());
-		final Matrix4f rotationMatrix = rot.toRotationMatrix();
-		final Matrix4f scaleMatrix = new Matrix4f().initScale(scale.getX(), scale.getY(), scale.getZ());
+		if (worldDirty) {
+			if (store != null) {
+				store.ensureStructure();
+			}
+
+			if (store != null) {
+				// The store never asks the parent for its matrix, but a clean
+				// child below a dirty parent would be skipped by the next
+				// invalidateWorld(), so clean the chain above first.
+				if (parent != null) {
+					parent.getTransformation();
+				}
 
-		return getParentMatrix().mul(translationMatrix.mul(rotationMatrix.mul(scaleMatrix)));
+				store.getWorld(slot, worldMatrix);
+			} else {
+				if (localDirty) {
+					localMatrix.initTransformation(pos, rot, scale);
+					localDirty = false;
+				}
+
+				if (parent != null) {
+					parent.getTransformation().mul(localMatrix, worldMatrix);
+				} else {
+					worldMatrix.set(localMatrix);
+				}
+			}
+
+			worldDirty = false;
+			generation++;
+		}
+
+		return worldMatrix;
 	}
 
-	private Matrix4f getParentMatrix() {
-		if (parent != null && parent.hasChanged()) {
-			parentMatrix = parent.getTransformation();
+	/**
+	 * Copy the world transformation of this transform into
+	 * <code>dest</code>.
+	 * 
+	 * @param dest
+	 *            - Receives the world matrix
+	 * @return <code>dest</code>
+	 */
+	public Matrix4f getTransformation(final Matrix4f dest) {
+		return dest.set(getTransformation());
+	}
+
+	/**
+	 * Get a counter that increases every time the world matrix is
+	 * recomputed. Compare it against a stored value to tell whether anything
+	 * derived from the world matrix needs to be rebuilt.
+	 */
+	public int getGeneration() {
+		getTransformation();
+		return generation;
+	}
+
+	/**
+	 * Get the world transformation blended between the state at the last
+	 * {@link #update()} and the current state. Rendering with
+	 * <code>alpha</code> set to how far the clock has run into the next
+	 * simulation step makes motion smooth at any frame rate. Before the
+	 * previous state is known this is the current world transformation.
+	 * 
+	 * @param alpha
+	 *            - 0 for the previous state, 1 for the current state
+	 * @param dest
+	 *            - Receives the interpolated world matrix
+	 * @return <code>dest</code>
+	 */
+	public Matrix4f getInterpolatedTransformation(final float alpha, final Matrix4f dest) {
+		createInterpolationState();
+
+		if (hasOldState) {
+			interpolatedPos.setLerp(oldPos, pos, alpha);
+			interpolatedRot.setNlerp(oldRot, rot, alpha, true);
+			interpolatedScale.setLerp(oldScale, scale, alpha);
+			interpolatedLocal.initTransformation(interpolatedPos, interpolatedRot, interpolatedScale);
+		} else {
+			interpolatedLocal.initTransformation(pos, rot, scale);
 		}
 
-		return parentMatrix;
+		if (parent != null) {
+			return parent.getInterpolatedTransformation(alpha, dest).mul(interpolatedLocal, dest);
+		}
+
+		return dest.set(interpolatedLocal);
+	}
+
+	/**
+	 * Get the world position blended the same way as
+	 * {@link #getInterpolatedTransformation(float, Matrix4f)}.
+	 * 
+	 * @param alpha
+	 *            - 0 for the previous state, 1 for the current state
+	 * @param dest
+	 *            - Receives the interpolated world position
+	 * @return <code>dest</code>
+	 */
+	public Vector3f getInterpolatedTransformedPos(final float alpha, final Vector3f dest) {
+		createInterpolationState();
+
+		final Matrix4f world = getInterpolatedTransformation(alpha, interpolatedWorld);
+
+		return dest.set(world.get(0, 3), world.get(1, 3), world.get(2, 3));
+	}
+
+	/**
+	 * Get the world rotation blended the same way as
+	 * {@link #getInterpolatedTransformation(float, Matrix4f)}.
+	 * 
+	 * @param alpha
+	 *            - 0 for the previous state, 1 for the current state
+	 * @param dest
+	 *            - Receives the interpolated world rotation
+	 * @return <code>dest</code>
+	 */
+	public Quaternion getInterpolatedTransformedRot(final float alpha, final Quaternion dest) {
+		createInterpolationState();
+
+		if (hasOldState) {
+			interpolatedRot.setNlerp(oldRot, rot, alpha, true);
+		} else {
+			interpolatedRot.set(rot);
+		}
+
+		if (parent != null) {
+			return parent.getInterpolatedTransformedRot(alpha, dest).mul(interpolatedRot, dest);
+		}
+
+		return dest.set(interpolatedRot);
+	}
+
+	private void createInterpolationState() {
+		if (interpolatedLocal == null) {
+			interpolatedPos = new Vector3f(0, 0, 0);
+			interpolatedRot = new Quaternion(0, 0, 0, 1);
+			interpolatedScale = new Vector3f(0, 0, 0);
+			interpolatedLocal = new Matrix4f();
+			interpolatedWorld = new Matrix4f();
+		}
 	}
 
 	public void setParent(final Transform parent) {
+		if (this.parent == parent) {
+			return;
+		}
+
+		if (this.parent != null) {
+			this.parent.children.remove(this);
+		}
+
+		if (store != null) {
+			store.invalidateStructure();
+		}
+
+		if (parent != null && parent.store != null) {
+			parent.store.invalidateStructure();
+		}
+
 		this.parent = parent;
+
+		if (parent != null) {
+			if (parent.children == null) {
+				parent.children = new ArrayList<Transform>();
+			}
+
+			parent.children.add(this);
+		}
+
+		invalidateWorld();
+	}
+
+	public Transform getParent() {
+		return parent;
+	}
+
+	ArrayList<Transform> getChildren() {
+		return children;
+	}
+
+	/**
+	 * Check whether this transform is backed by a {@link TransformStore}.
+	 */
+	public boolean isStored() {
+		return store != null;
+	}
+
+	void bind(final TransformStore store, final int slot) {
+		this.store = store;
+		this.slot = slot;
+	}
+
+	void unbind(final TransformStore store) {
+		if (this.store == store) {
+			this.store = null;
+			localDirty = true;
+			invalidateWorld();
+		}
+	}
+
+	/**
+	 * Tell <code>index</code> whenever this transform moves, so it can move
+	 * <code>entry</code>. A transform can be in one index at a time.
+	 */
+	void addSpatialEntry(final LooseOctree<?> index, final int entry) throws IllegalStateException {
+		if (spatialIndex != null && spatialIndex != index) {
+			throw new IllegalStateException("Transform is already in another spatial index");
+		}
+
+		if (spatialEntries == null) {
+			spatialEntries = new int[1];
+		} else if (spatialEntryCount == spatialEntries.length) {
+			spatialEntries = Arrays.copyOf(spatialEntries, spatialEntryCount * 2);
+		}
+
+		spatialIndex = index;
+		spatialEntries[spatialEntryCount++] = entry;
+	}
+
+	void removeSpatialEntry(final int entry) {
+		for (int i = 0; i < spatialEntryCount; i++) {
+			if (spatialEntries[i] == entry) {
+				spatialEntries[i] = spatialEntries[--spatialEntryCount];
+				break;
+			}
+		}
+
+		if (spatialEntryCount == 0) {
+			spatialIndex = null;
+		}
 	}
 
 	public Vector3f getTransformedPos() {
-		return getParentMatrix().transform(pos);
+		return getTransformedPos(new Vector3f(0, 0, 0));
+	}
+
+	public Vector3f getTransformedPos(final Vector3f dest) {
+		// The world matrix maps the local origin onto the transformed position.
+		final Matrix4f world = getTransformation();
+
+		return dest.set(world.get(0, 3), world.get(1, 3), world.get(2, 3));
 	}
 
 	public Quaternion getTransformedRot() {
-		Quaternion parentRotation = new Quaternion(0, 0, 0, 1);
+		return getTransformedRot(new Quaternion(0, 0, 0, 1));
+	}
 
-		if (parent != null) {
-			parentRotation = parent.getTransformedRot();
+	public Quaternion getTransformedRot(final Quaternion dest) {
+		if (worldRotDirty) {
+			if (parent != null) {
+				parent.getTransformedRot(worldRot).mul(rot, worldRot);
+			} else {
+				worldRot.set(rot);
+			}
+
+			worldRotDirty = false;
 		}
 
-		return parentRotation.mul(rot);
+		return dest.set(worldRot);
 	}
 
+	/**
+	 * Get the position. Call {@link #invalidate()} after modifying the
+	 * returned vector in place.
+	 */
 	public Vector3f getPos() {
 		return pos;
 	}
 
 	public void setPos(final Vector3f pos) {
-		this.pos = pos;
+		this.pos.set(pos);
+		invalidate();
 	}
 
+	/**
+	 * Get the rotation. Call {@link #invalidate()} after modifying the
+	 * returned quaternion in place.
+	 */
 	public Quaternion getRot() {
 		return rot;
 	}
 
 	public void setRot(final Quaternion rotation) {
-		rot = rotation;
+		rot.set(rotation);
+		invalidate();
 	}
 
+	/**
+	 * Get the scale. Call {@link #invalidate()} after modifying the returned
+	 * vector in place.
+	 */
 	public Vector3f getScale() {
 		return scale;
 	}
 
 	public void setScale(final Vector3f scale) {
-		this.scale = scale;
+		this.scale.set(scale);
+		invalidate();
 	}
 }
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.base.engine.core.math.Matrix4f;
+import com.base.engine.core.math.Quaternion;
+import com.base.engine.core.math.Vector3f;
+
+/**
+ * Structure-of-arrays storage for a {@link Transform} hierarchy.
+ *
+ * Every transform below the root is given a slot. Slots are laid out in
+ * depth-first pre-order, so a parent always comes before its children and
+ * every subtree occupies one contiguous range. Position, rotation, scale and
+ * world matrix live in parallel float arrays, which lets {@link #update()}
+ * recompute every changed world matrix in a single linear pass, and lets
+ * {@link #update(ForkJoinPool)} hand disjoint subtrees to different threads.
+ *
+ * Bound transforms write their local state through to the store and read
+ * their world matrix back from it. Changing the hierarchy below the root is
+ * picked up automatically on the next update.
+ */
+public class TransformStore {
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int PARALLEL_THRESHOLD = 2048;
+
+	private final Transform root;
+
+	private int count;
+	private Transform[] transforms;
+	private int[] parents;
+	private int[] subtreeEnds;
+	private float[] positions;
+	private float[] rotations;
+	private float[] scales;
+	private float[] worldMatrices;
+	private boolean[] localDirty;
+	private int[] worldVersions;
+	private int[] parentVersions;
+
+	private boolean structureDirty;
+	private boolean modified;
+
+	private final ArrayList<Transform> traversalStack;
+	private int[] traversalParents;
+
+	/**
+	 * Create a store for <code>root</code> and everything below it, and bind
+	 * all of those transforms to it.
+	 * 
+	 * @param root
+	 *            - The root of the hierarchy to flatten
+	 */
+	public TransformStore(final Transform root) {
+		this.root = root;
+		traversalStack = new ArrayList<Transform>();
+		traversalParents = new int[TransformStore.INITIAL_CAPACITY];
+
+		allocate(TransformStore.INITIAL_CAPACITY);
+		rebuild();
+	}
+
+	/**
+	 * Recompute the world matrix of every slot whose local state or parent
+	 * changed since the last pass.
+	 */
+	public void update() {
+		ensureStructure();
+
+		if (!modified) {
+			return;
+		}
+
+		updateRange(0, count);
+		modified = false;
+	}
+
+	/**
+	 * Recompute every changed world matrix like {@link #update()}, splitting
+	 * the hierarchy into independent subtrees and spreading them over
+	 * <code>pool</code>. Each slot still goes through exactly the same
+	 * arithmetic as in the serial pass, so the result is bit-identical.
+	 * 
+	 * @param pool
+	 *            - The pool to run the subtree tasks on
+	 */
+	public void update(final ForkJoinPool pool) {
+		ensureStructure();
+
+		if (!modified) {
+			return;
+		}
+
+		if (count <= TransformStore.PARALLEL_THRESHOLD) {
+			updateRange(0, count);
+		} else {
+			pool.invoke(new UpdateTask(this, 0, count));
+		}
+
+		modified = false;
+	}
+
+	/**
+	 * Recompute the slots <code>[start, end)</code> in order. The parent of
+	 * every slot in the range must either be in the range or already be up
+	 * to date.
+	 */
+	void updateRange(final int start, final int end) {
+		for (int slot = start; slot < end; slot++) {
+			final int parent = parents[slot];
+
+			if (localDirty[slot] || parent >= 0 && parentVersions[slot] != worldVersions[parent]) {
+				computeWorld(slot);
+			}
+		}
+	}
+
+	/**
+	 * Bring the world matrix of a single slot up to date, walking up the
+	 * parent chain only as far as needed.
+	 */
+	void resolve(final int slot) {
+		if (!modified) {
+			return;
+		}
+
+		final int parent = parents[slot];
+
+		if (parent >= 0) {
+			resolve(parent);
+		}
+
+		if (localDirty[slot] || parent >= 0 && parentVersions[slot] != worldVersions[parent]) {
+			computeWorld(slot);
+		}
+	}
+
+	/**
+	 * Updates a run of sibling subtrees <code>[start, end)</code> whose
+	 * parent is already up to date. Sibling subtrees never touch each other's
+	 * slots, so they can be split off into separate tasks.
+	 */
+	private static class UpdateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final TransformStore store;
+		private final int start;
+		private final int end;
+
+		public UpdateTask(final TransformStore store, final int start, final int end) {
+			this.store = store;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			final int[] subtreeEnds = store.subtreeEnds;
+			int first = start;
+
+			// A single subtree can't be split until its root is done, so peel
+			// roots off until the range falls apart into siblings.
+			while (end - first > TransformStore.PARALLEL_THRESHOLD && subtreeEnds[first] == end) {
+				store.updateRange(first, first + 1);
+				first++;
+			}
+
+			if (end - first <= TransformStore.PARALLEL_THRESHOLD) {
+				store.updateRange(first, end);
+				return;
+			}
+
+			// Split on the sibling boundary closest to the middle of the range.
+			final int middle = first + (end - first) / 2;
+			int split = first;
+
+			while (subtreeEnds[split] <= middle) {
+				split = subtreeEnds[split];
+			}
+
+			if (split == first) {
+				split = subtreeEnds[first];
+			}
+
+			ForkJoinTask.invokeAll(new UpdateTask(store, first, split), new UpdateTask(store, split, end));
+		}
+	}
+
+	private void computeWorld(final int slot) {
+		final int v = slot * 3;
+		final int q = slot * 4;
+		final int offset = slot * Matrix4f.SIZE;
+
+		Matrix4f.initTransformation(positions[v], positions[v + 1], positions[v + 2], rotations[q], rotations[q + 1], rotations[q + 2], rotations[q + 3], scales[v], scales[v + 1], scales[v + 2], worldMatrices, offset);
+
+		final int parent = parents[slot];
+
+		if (parent >= 0) {
+			Matrix4f.mul(worldMatrices, parent * Matrix4f.SIZE, worldMatrices, offset, worldMatrices, offset);
+			parentVersions[slot] = worldVersions[parent];
+		}
+
+		localDirty[slot] = false;
+		worldVersions[slot]++;
+	}
+
+	/**
+	 * Copy the local state of a bound transform into its slot.
+	 */
+	void setLocal(final int slot, final Vector3f pos, final Quaternion rot, final Vector3f scale) {
+		final int v = slot * 3;
+		final int q = slot * 4;
+
+		positions[v] = pos.getX();
+		positions[v + 1] = pos.getY();
+		positions[v + 2] = pos.getZ();
+		rotations[q] = rot.getX();
+		rotations[q + 1] = rot.getY();
+		rotations[q + 2] = rot.getZ();
+		rotations[q + 3] = rot.getW();
+		scales[v] = scale.getX();
+		scales[v + 1] = scale.getY();
+		scales[v + 2] = scale.getZ();
+
+		localDirty[slot] = true;
+		modified = true;
+	}
+
+	/**
+	 * Copy the world matrix of a slot into <code>dest</code>, recomputing it
+	 * first if needed.
+	 */
+	void getWorld(final int slot, final Matrix4f dest) {
+		resolve(slot);
+		dest.set(worldMatrices, slot * Matrix4f.SIZE);
+	}
+
+	/**
+	 * Called by bound transforms when the hierarchy below the root changes.
+	 */
+	void invalidateStructure() {
+		structureDirty = true;
+	}
+
+	/**
+	 * Re-flatten the hierarchy if it changed since the last pass. This may
+	 * bind, unbind or move any transform.
+	 */
+	void ensureStructure() {
+		if (structureDirty) {
+			rebuild();
+		}
+	}
+
+	private void rebuild() {
+		release();
+
+		traversalStack.clear();
+		traversalStack.add(root);
+		traversalParents[0] = -1;
+
+		// Iterative pre-order walk so deep hierarchies can't overflow the
+		// stack.
+		while (!traversalStack.isEmpty()) {
+			final int top = traversalStack.size() - 1;
+			final Transform transform = traversalStack.remove(top);
+			final int slot = count++;
+
+			if (slot == transforms.length) {
+				allocate(transforms.length * 2);
+			}
+
+			transforms[slot] = transform;
+			parents[slot] = traversalParents[top];
+			subtreeEnds[slot] = slot + 1;
+			worldVersions[slot] = 0;
+			parentVersions[slot] = -1;
+
+			transform.bind(this, slot);
+			setLocal(slot, transform.getPos(), transform.getRot(), transform.getScale());
+
+			final ArrayList<Transform> children = transform.getChildren();
+
+			if (children != null) {
+				if (traversalParents.length < top + children.size()) {
+					traversalParents = Arrays.copyOf(traversalParents, Math.max(traversalParents.length * 2, top + children.size()));
+				}
+
+				for (int i = children.size() - 1; i >= 0; i--) {
+					traversalParents[traversalStack.size()] = slot;
+					traversalStack.add(children.get(i));
+				}
+			}
+		}
+
+		// Children come after their parents, so walking backwards extends
+		// every parent's range by its finished children.
+		for (int slot = count - 1; slot > 0; slot--) {
+			final int parent = parents[slot];
+
+			if (subtreeEnds[parent] < subtreeEnds[slot]) {
+				subtreeEnds[parent] = subtreeEnds[slot];
+			}
+		}
+
+		structureDirty = false;
+		modified = true;
+	}
+
+	private void allocate(final int capacity) {
+		transforms = transforms == null ? new Transform[capacity] : Arrays.copyOf(transforms, capacity);
+		parents = parents == null ? new int[capacity] : Arrays.copyOf(parents, capacity);
+		subtreeEnds = subtreeEnds == null ? new int[capacity] : Arrays.copyOf(subtreeEnds, capacity);
+		positions = positions == null ? new float[capacity * 3] : Arrays.copyOf(positions, capacity * 3);
+		rotations = rotations == null ? new float[capacity * 4] : Arrays.copyOf(rotations, capacity * 4);
+		scales = scales == null ? new float[capacity * 3] : Arrays.copyOf(scales, capacity * 3);
+		worldMatrices = worldMatrices == null ? new float[capacity * Matrix4f.SIZE] : Arrays.copyOf(worldMatrices, capacity * Matrix4f.SIZE);
+		localDirty = localDirty == null ? new boolean[capacity] : Arrays.copyOf(localDirty, capacity);
+		worldVersions = worldVersions == null ? new int[capacity] : Arrays.copyOf(worldVersions, capacity);
+		parentVersions = parentVersions == null ? new int[capacity] : Arrays.copyOf(parentVersions, capacity);
+	}
+
+	/**
+	 * Unbind every transform from this store. The transforms fall back to
+	 * computing their own matrices.
+	 */
+	public void release() {
+		for (int i = 0; i < count; i++) {
+			transforms[i].unbind(this);
+			transforms[i] = null;
+		}
+
+		count = 0;
+		structureDirty = true;
+	}
+
+	/**
+	 * Get the number of transforms in this store.
+	 */
+	public int size() {
+		return count;
+	}
+
+	public Transform getRoot() {
+		return root;
+	}
+
+	/**
+	 * Get the flat world matrix array. Slot <code>i</code> occupies
+	 * <code>[i * 16, i * 16 + 16)</code> in row-major order. Only valid
+	 * after {@link #update()}.
+	 */
+	public float[] getWorldMatrices() {
+		return worldMatrices;
+	}
+
+	/**
+	 * Get the parent slot of each slot, <code>-1</code> for the root.
+	 */
+	public int[] getParents() {
+		return parents;
+	}
+
+	/**
+	 * Get the exclusive end of the subtree rooted at each slot.
+	 */
+	public int[] getSubtreeEnds() {
+		return subtreeEnds;
+	}
+}
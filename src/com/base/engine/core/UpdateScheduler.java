@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.base.engine.components.GameComponent;
+import com.base.engine.core.math.Quaternion;
+
+/**
+ * Runs the update of every {@link GameComponent} in a scene, spreading
+ * components that declare themselves independent over a {@link ForkJoinPool}.
+ *
+ * Components are visited in the same order as
+ * {@link GameObject#updateAll(float)}. Consecutive components whose
+ * {@link GameComponent#getUpdateAccess()} neither writes other transforms nor
+ * writes global state are gathered into a batch and updated in parallel; any
+ * other component ends the batch and is updated on the calling thread once
+ * the batch is done. Before a batch that reads other transforms, every world
+ * matrix in the scene is brought up to date so that those reads never
+ * recompute a cache another thread may be writing.
+ *
+ * A component that declares {@link GameComponent#READS_OTHER_TRANSFORMS} must
+ * only read transforms that nothing in its batch writes, as the camera is for
+ * the components that follow it. A component that declares
+ * {@link GameComponent#WRITES_OWN_TRANSFORM} should only read the local state
+ * of its own transform, since an ancestor may be moving in the same batch.
+ */
+public class UpdateScheduler {
+	private static final int BATCH_THRESHOLD = 256;
+
+	private final ForkJoinPool pool;
+	private final ArrayList<GameComponent> components;
+	private final ArrayList<Transform> transforms;
+	private final Quaternion settleRot;
+
+	/**
+	 * @param pool
+	 *            - The pool to run parallel batches on
+	 */
+	public UpdateScheduler(final ForkJoinPool pool) {
+		this.pool = pool;
+		components = new ArrayList<GameComponent>();
+		transforms = new ArrayList<Transform>();
+		settleRot = new Quaternion(0, 0, 0, 1);
+	}
+
+	/**
+	 * Update every component below <code>root</code>.
+	 * 
+	 * @param root
+	 *            - The root of the scene
+	 * @param delta
+	 *            - The frame time passed to each component
+	 */
+	public void update(final GameObject root, final float delta) {
+		components.clear();
+		transforms.clear();
+		root.collectUpdateTargets(components, transforms);
+
+		int batchStart = 0;
+		boolean batchReadsTransforms = false;
+
+		for (int i = 0; i < components.size(); i++) {
+			final GameComponent component = components.get(i);
+			final int access = component.getUpdateAccess();
+
+			if (UpdateScheduler.isParallel(access)) {
+				batchReadsTransforms |= (access & GameComponent.READS_OTHER_TRANSFORMS) != 0;
+				continue;
+			}
+
+			runBatch(batchStart, i, batchReadsTransforms, delta);
+			UpdateScheduler.updateComponent(component, delta);
+
+			batchStart = i + 1;
+			batchReadsTransforms = false;
+		}
+
+		runBatch(batchStart, components.size(), batchReadsTransforms, delta);
+
+		// Don't keep the scene reachable between frames.
+		components.clear();
+		transforms.clear();
+	}
+
+	private void runBatch(final int start, final int end, final boolean readsTransforms, final float delta) {
+		if (end - start < UpdateScheduler.BATCH_THRESHOLD) {
+			for (int i = start; i < end; i++) {
+				UpdateScheduler.updateComponent(components.get(i), delta);
+			}
+
+			return;
+		}
+
+		if (readsTransforms) {
+			settleTransforms();
+		}
+
+		pool.invoke(new BatchTask(components, start, end, delta));
+	}
+
+	private void settleTransforms() {
+		for (int i = 0; i < transforms.size(); i++) {
+			final Transform transform = transforms.get(i);
+
+			transform.getTransformation();
+			transform.getTransformedRot(settleRot);
+		}
+	}
+
+	private static void updateComponent(final GameComponent component, final float delta) {
+		final int scope = component.getUpdateScope();
+
+		Profiler.begin(scope);
+		component.update(delta);
+		Profiler.end(scope);
+	}
+
+	private static boolean isParallel(final int access) {
+		return (access & (GameComponent.WRITES_OTHER_TRANSFORMS | GameComponent.WRITES_GLOBAL_STATE)) == 0;
+	}
+
+	/**
+	 * Updates the components <code>[start, end)</code>, splitting in half
+	 * until the range is small enough to run directly.
+	 */
+	private static class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ArrayList<GameComponent> components;
+		private final int start;
+		private final int end;
+		private final float delta;
+
+		public BatchTask(final ArrayList<GameComponent> components, final int start, final int end, final float delta) {
+			this.components = components;
+			this.start = start;
+			this.end = end;
+			this.delta = delta;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= UpdateScheduler.BATCH_THRESHOLD) {
+				for (int i = start; i < end; i++) {
+					UpdateScheduler.updateComponent(components.get(i), delta);
+				}
+
+				return;
+			}
+
+			final int middle = start + (end - start) / 2;
+
+			ForkJoinTask.invokeAll(new BatchTask(components, start, middle, delta), new BatchTask(components, middle, end, delta));
+		}
+	}
+}
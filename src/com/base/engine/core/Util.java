@@ -21,67 +21,48 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.lwjgl.BufferUtils;
 
-import com.base.engine.core.math.Matrix4f;
-import com.base.engine.core.math.Vertex;
-
 public class Util {
+	private static final AtomicLong directAllocationCount = new AtomicLong();
+	private static final AtomicLong directAllocatedBytes = new AtomicLong();
+
 	public static FloatBuffer createFloatBuffer(final int size) {
+		Util.countDirectAllocation(size * 4L);
 		return BufferUtils.createFloatBuffer(size);
 	}
 
 	public static IntBuffer createIntBuffer(final int size) {
+		Util.countDirectAllocation(size * 4L);
 		return BufferUtils.createIntBuffer(size);
 	}
 
 	public static ByteBuffer createByteBuffer(final int size) {
+		Util.countDirectAllocation(size);
 		return BufferUtils.createByteBuffer(size);
 	}
 
-	public static IntBuffer createFlippedBuffer(final int... values) {
-		final IntBuffer buffer = Util.createIntBuffer(values.length);
-		buffer.put(values);
-		buffer.flip();
-
-		return buffer;
+	private static void countDirectAllocation(final long bytes) {
+		Util.directAllocationCount.incrementAndGet();
+		Util.directAllocatedBytes.addAndGet(bytes);
 	}
 
-	public static FloatBuffer createFlippedBuffer(final Vertex[] vertices) {
-		final FloatBuffer buffer = Util.createFloatBuffer(vertices.length * Vertex.SIZE);
-
-		for (final Vertex vertice : vertices) {
-			buffer.put(vertice.getPos().getX());
-			buffer.put(vertice.getPos().getY());
-			buffer.put(vertice.getPos().getZ());
-			buffer.put(vertice.getTexCoord().getX());
-			buffer.put(vertice.getTexCoord().getY());
-			buffer.put(vertice.getNormal().getX());
-			buffer.put(vertice.getNormal().getY());
-			buffer.put(vertice.getNormal().getZ());
-			buffer.put(vertice.getTangent().getX());
-			buffer.put(vertice.getTangent().getY());
-			buffer.put(vertice.getTangent().getZ());
-		}
-
-		buffer.flip();
-
-		return buffer;
+	/**
+	 * Get the number of direct buffers allocated so far. Buffers that are
+	 * only needed for one upload should come from a {@link BufferArena}
+	 * instead, so that this stops growing once the game is running.
+	 */
+	public static long getDirectAllocationCount() {
+		return Util.directAllocationCount.get();
 	}
 
-	public static FloatBuffer createFlippedBuffer(final Matrix4f value) {
-		final FloatBuffer buffer = Util.createFloatBuffer(4 * 4);
-
-		for (int i = 0; i < 4; i++) {
-			for (int j = 0; j < 4; j++) {
-				buffer.put(value.get(i, j));
-			}
-		}
-
-		buffer.flip();
-
-		return buffer;
+	/**
+	 * Get the total size of the direct buffers allocated so far, in bytes.
+	 */
+	public static long getDirectAllocatedBytes() {
+		return Util.directAllocatedBytes.get();
 	}
 
 	/**
@@ -6,6 +6,7 @@ import com.base.engine.core.Util;
 import com.base.engine.core.math.Vertex;
 import com.base.engine.rendering.Material;
 import com.base.engine.rendering.Mesh;
+import com.base.engine.rendering.VertexLayout;
 import com.base.engine.rendering.model.mesh.Model;
 
 public class ObjLoader {
@@ -34,6 +35,6 @@ public class ObjLoader {
 		Integer[] indexData = new Integer[model.GetIndices().size()];
 		model.GetIndices().toArray(indexData);
 
-		return new Model(new Mesh(vertexData, Util.toIntArray(indexData), false), null, mat);
+		return new Model(new Mesh(vertexData, Util.toIntArray(indexData), false, VertexLayout.PACKED), null, mat);
 	}
 }
@@ -19,6 +19,7 @@ import com.base.engine.core.math.Vector3f;
 import com.base.engine.core.math.Vertex;
 import com.base.engine.rendering.Material;
 import com.base.engine.rendering.Mesh;
+import com.base.engine.rendering.VertexLayout;
 import com.base.engine.rendering.model.mesh.Model;
 import com.base.engine.rendering.model.mesh.Skeleton;
 import com.base.engine.rendering.model.mesh.animation.Bone;
@@ -270,7 +271,9 @@ public class OgreLoader {
 				throw new IllegalStateException("Error unmarshalling xml data.");
 			}
 
-			mesh = new Mesh(vertexList.toArray(new Vertex[0]), indices, true);
+			// The bone assignments stay in the deformation groups rather
+			// than the vertices, so the layout has no bones.
+			mesh = new Mesh(vertexList.toArray(new Vertex[0]), indices, true, VertexLayout.PACKED);
 		}
 
 		if (mesh == null) {
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.core.math;
+
+/**
+ * The bounds of a set of vertices: an axis aligned box and a sphere around
+ * its center that encloses every vertex.
+ */
+public class Bounds {
+	private final Vector3f min;
+	private final Vector3f max;
+	private final Vector3f center;
+	private final float radius;
+
+	/**
+	 * Compute the bounds of <code>vertices</code>. An empty array has empty
+	 * bounds at the origin.
+	 * 
+	 * @param vertices
+	 *            - The vertices to enclose
+	 */
+	public Bounds(final Vertex[] vertices) {
+		min = new Vector3f(0, 0, 0);
+		max = new Vector3f(0, 0, 0);
+		center = new Vector3f(0, 0, 0);
+
+		if (vertices.length == 0) {
+			radius = 0;
+			return;
+		}
+
+		float minX = Float.POSITIVE_INFINITY;
+		float minY = Float.POSITIVE_INFINITY;
+		float minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY;
+		float maxY = Float.NEGATIVE_INFINITY;
+		float maxZ = Float.NEGATIVE_INFINITY;
+
+		for (final Vertex vertex : vertices) {
+			final Vector3f pos = vertex.getPos();
+
+			minX = Math.min(minX, pos.getX());
+			minY = Math.min(minY, pos.getY());
+			minZ = Math.min(minZ, pos.getZ());
+			maxX = Math.max(maxX, pos.getX());
+			maxY = Math.max(maxY, pos.getY());
+			maxZ = Math.max(maxZ, pos.getZ());
+		}
+
+		min.set(minX, minY, minZ);
+		max.set(maxX, maxY, maxZ);
+		center.set((minX + maxX) / 2, (minY + maxY) / 2, (minZ + maxZ) / 2);
+
+		// Measuring the vertices rather than the corners of the box gives a
+		// tighter sphere for round meshes.
+		float radiusSquared = 0;
+
+		for (final Vertex vertex : vertices) {
+			final Vector3f pos = vertex.getPos();
+			final float x = pos.getX() - center.getX();
+			final float y = pos.getY() - center.getY();
+			final float z = pos.getZ() - center.getZ();
+
+			radiusSquared = Math.max(radiusSquared, x * x + y * y + z * z);
+		}
+
+		radius = (float) Math.sqrt(radiusSquared);
+	}
+
+	/**
+	 * Get the radius of the bounding sphere after <code>transformation</code>.
+	 * The radius grows with the largest scale of the matrix, so the sphere
+	 * still encloses the vertices under non-uniform scaling.
+	 */
+	public float getRadius(final Matrix4f transformation) {
+		float scale = 0;
+
+		for (int column = 0; column < 3; column++) {
+			final float x = transformation.get(0, column);
+			final float y = transformation.get(1, column);
+			final float z = transformation.get(2, column);
+
+			scale = Math.max(scale, x * x + y * y + z * z);
+		}
+
+		return radius * (float) Math.sqrt(scale);
+	}
+
+	public Vector3f getMin() {
+		return min;
+	}
+
+	public Vector3f getMax() {
+		return max;
+	}
+
+	public Vector3f getCenter() {
+		return center;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.core.math;
+
+/**
+ * The six clipping planes of a view projection matrix, for testing whether
+ * bounding spheres can be seen.
+ *
+ * Spheres are tested in bulk from flat coordinate arrays, so the test runs
+ * as one tight loop over primitive arrays with no branches per plane.
+ */
+public class Frustum {
+	/** A box is entirely outside the frustum. */
+	public static final int OUTSIDE = 0;
+	/** A box is partly inside the frustum. */
+	public static final int INTERSECTS = 1;
+	/** A box is entirely inside the frustum. */
+	public static final int INSIDE = 2;
+
+	private static final int PLANES = 6;
+
+	// a, b, c and d of each plane, with the normal pointing inwards and
+	// normalized so d is a distance.
+	private final float[] planes;
+
+	public Frustum() {
+		planes = new float[Frustum.PLANES * 4];
+	}
+
+	/**
+	 * Extract the planes of <code>viewProjection</code>.
+	 * 
+	 * @param viewProjection
+	 *            - The view projection matrix of the camera
+	 * @return <code>this</code>
+	 */
+	public Frustum set(final Matrix4f viewProjection) {
+		// Each plane is the bottom row of the matrix plus or minus another
+		// row: left, right, bottom, top, near, far.
+		for (int i = 0; i < Frustum.PLANES; i++) {
+			final int row = i / 2;
+			final float sign = i % 2 == 0 ? 1 : -1;
+
+			final float a = viewProjection.get(3, 0) + sign * viewProjection.get(row, 0);
+			final float b = viewProjection.get(3, 1) + sign * viewProjection.get(row, 1);
+			final float c = viewProjection.get(3, 2) + sign * viewProjection.get(row, 2);
+			final float d = viewProjection.get(3, 3) + sign * viewProjection.get(row, 3);
+			final float length = (float) Math.sqrt(a * a + b * b + c * c);
+
+			planes[i * 4] = a / length;
+			planes[i * 4 + 1] = b / length;
+			planes[i * 4 + 2] = c / length;
+			planes[i * 4 + 3] = d / length;
+		}
+
+		return this;
+	}
+
+	/**
+	 * Check if a sphere is at least partly inside this frustum.
+	 */
+	public boolean intersectsSphere(final float x, final float y, final float z, final float radius) {
+		for (int i = 0; i < planes.length; i += 4) {
+			if (planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] < -radius) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Check how an axis aligned box lies relative to this frustum. Boxes
+	 * that are near a corner of the frustum but outside it may be reported
+	 * as intersecting.
+	 * 
+	 * @return {@link #OUTSIDE}, {@link #INTERSECTS} or {@link #INSIDE}
+	 */
+	public int classifyBox(final float minX, final float minY, final float minZ, final float maxX, final float maxY, final float maxZ) {
+		int result = Frustum.INSIDE;
+
+		for (int i = 0; i < planes.length; i += 4) {
+			final float a = planes[i];
+			final float b = planes[i + 1];
+			final float c = planes[i + 2];
+			final float d = planes[i + 3];
+
+			// The corners furthest along and against the plane normal.
+			final float far = a * (a > 0 ? maxX : minX) + b * (b > 0 ? maxY : minY) + c * (c > 0 ? maxZ : minZ) + d;
+			final float near = a * (a > 0 ? minX : maxX) + b * (b > 0 ? minY : maxY) + c * (c > 0 ? minZ : maxZ) + d;
+
+			if (far < 0) {
+				return Frustum.OUTSIDE;
+			}
+
+			if (near < 0) {
+				result = Frustum.INTERSECTS;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Find the spheres that are at least partly inside this frustum. Spheres
+	 * are given as separate coordinate arrays.
+	 * 
+	 * @param x
+	 *            - The x coordinates of the centers
+	 * @param y
+	 *            - The y coordinates of the centers
+	 * @param z
+	 *            - The z coordinates of the centers
+	 * @param radius
+	 *            - The radii
+	 * @param count
+	 *            - The number of spheres
+	 * @param visible
+	 *            - Receives the indices of the visible spheres, in order;
+	 *            must hold at least <code>count</code> elements
+	 * @return The number of visible spheres
+	 */
+	public int cullSpheres(final float[] x, final float[] y, final float[] z, final float[] radius, final int count, final int[] visible) {
+		final float[] p = planes;
+
+		final float a0 = p[0], b0 = p[1], c0 = p[2], d0 = p[3];
+		final float a1 = p[4], b1 = p[5], c1 = p[6], d1 = p[7];
+		final float a2 = p[8], b2 = p[9], c2 = p[10], d2 = p[11];
+		final float a3 = p[12], b3 = p[13], c3 = p[14], d3 = p[15];
+		final float a4 = p[16], b4 = p[17], c4 = p[18], d4 = p[19];
+		final float a5 = p[20], b5 = p[21], c5 = p[22], d5 = p[23];
+
+		int visibleCount = 0;
+
+		for (int i = 0; i < count; i++) {
+			final float sx = x[i];
+			final float sy = y[i];
+			final float sz = z[i];
+			final float r = -radius[i];
+
+			// Non-short-circuit ands keep this free of branches.
+			final boolean inside = a0 * sx + b0 * sy + c0 * sz + d0 >= r & a1 * sx + b1 * sy + c1 * sz + d1 >= r & a2 * sx + b2 * sy + c2 * sz + d2 >= r & a3 * sx + b3 * sy + c3 * sz + d3 >= r & a4 * sx + b4 * sy + c4 * sz + d4 >= r & a5 * sx + b5 * sy + c5 * sz + d5 >= r;
+
+			visible[visibleCount] = i;
+			visibleCount += inside ? 1 : 0;
+		}
+
+		return visibleCount;
+	}
+}
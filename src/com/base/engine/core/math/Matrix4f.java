@@ -16,53 +16,27 @@
 
 package com.base.engine.core.math;
 
+import java.nio.FloatBuffer;
+
+/**
+ * A 4x4 matrix stored as a flat, row-major <code>float[16]</code>. Element
+ * <code>(row, col)</code> lives at index <code>row * 4 + col</code>.
+ */
 public class Matrix4f {
-	private float[][] m;
+	public static final int SIZE = 16;
+
+	private final float[] m;
 
 	public Matrix4f() {
-		m = new float[4][4];
+		m = new float[Matrix4f.SIZE];
 	}
 
 	public Matrix4f initIdentity() {
-		m[0][0] = 1;
-		m[0][1] = 0;
-		m[0][2] = 0;
-		m[0][3] = 0;
-		m[1][0] = 0;
-		m[1][1] = 1;
-		m[1][2] = 0;
-		m[1][3] = 0;
-		m[2][0] = 0;
-		m[2][1] = 0;
-		m[2][2] = 1;
-		m[2][3] = 0;
-		m[3][0] = 0;
-		m[3][1] = 0;
-		m[3][2] = 0;
-		m[3][3] = 1;
-
-		return this;
+		return set(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1);
 	}
 
 	public Matrix4f initTranslation(final float x, final float y, final float z) {
-		m[0][0] = 1;
-		m[0][1] = 0;
-		m[0][2] = 0;
-		m[0][3] = x;
-		m[1][0] = 0;
-		m[1][1] = 1;
-		m[1][2] = 0;
-		m[1][3] = y;
-		m[2][0] = 0;
-		m[2][1] = 0;
-		m[2][2] = 1;
-		m[2][3] = z;
-		m[3][0] = 0;
-		m[3][1] = 0;
-		m[3][2] = 0;
-		m[3][3] = 1;
-
-		return this;
+		return set(1, 0, 0, x, 0, 1, 0, y, 0, 0, 1, z, 0, 0, 0, 1);
 	}
 
 	public Matrix4f initRotation(float x, float y, float z) {
@@ -74,105 +48,29 @@ public class Matrix4f {
 		y = (float) Math.toRadians(y);
 		z = (float) Math.toRadians(z);
 
-		rz.m[0][0] = (float) Math.cos(z);
-		rz.m[0][1] = -(float) Math.sin(z);
-		rz.m[0][2] = 0;
-		rz.m[0][3] = 0;
-		rz.m[1][0] = (float) Math.sin(z);
-		rz.m[1][1] = (float) Math.cos(z);
-		rz.m[1][2] = 0;
-		rz.m[1][3] = 0;
-		rz.m[2][0] = 0;
-		rz.m[2][1] = 0;
-		rz.m[2][2] = 1;
-		rz.m[2][3] = 0;
-		rz.m[3][0] = 0;
-		rz.m[3][1] = 0;
-		rz.m[3][2] = 0;
-		rz.m[3][3] = 1;
-
-		rx.m[0][0] = 1;
-		rx.m[0][1] = 0;
-		rx.m[0][2] = 0;
-		rx.m[0][3] = 0;
-		rx.m[1][0] = 0;
-		rx.m[1][1] = (float) Math.cos(x);
-		rx.m[1][2] = -(float) Math.sin(x);
-		rx.m[1][3] = 0;
-		rx.m[2][0] = 0;
-		rx.m[2][1] = (float) Math.sin(x);
-		rx.m[2][2] = (float) Math.cos(x);
-		rx.m[2][3] = 0;
-		rx.m[3][0] = 0;
-		rx.m[3][1] = 0;
-		rx.m[3][2] = 0;
-		rx.m[3][3] = 1;
-
-		ry.m[0][0] = (float) Math.cos(y);
-		ry.m[0][1] = 0;
-		ry.m[0][2] = -(float) Math.sin(y);
-		ry.m[0][3] = 0;
-		ry.m[1][0] = 0;
-		ry.m[1][1] = 1;
-		ry.m[1][2] = 0;
-		ry.m[1][3] = 0;
-		ry.m[2][0] = (float) Math.sin(y);
-		ry.m[2][1] = 0;
-		ry.m[2][2] = (float) Math.cos(y);
-		ry.m[2][3] = 0;
-		ry.m[3][0] = 0;
-		ry.m[3][1] = 0;
-		ry.m[3][2] = 0;
-		ry.m[3][3] = 1;
-
-		m = rz.mul(ry.mul(rx)).getM();
+		final float cosX = (float) Math.cos(x);
+		final float sinX = (float) Math.sin(x);
+		final float cosY = (float) Math.cos(y);
+		final float sinY = (float) Math.sin(y);
+		final float cosZ = (float) Math.cos(z);
+		final float sinZ = (float) Math.sin(z);
 
-		return this;
+		rz.set(cosZ, -sinZ, 0, 0, sinZ, cosZ, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1);
+		rx.set(1, 0, 0, 0, 0, cosX, -sinX, 0, 0, sinX, cosX, 0, 0, 0, 0, 1);
+		ry.set(cosY, 0, -sinY, 0, 0, 1, 0, 0, sinY, 0, cosY, 0, 0, 0, 0, 1);
+
+		return rz.mul(ry.mul(rx, ry), this);
 	}
 
 	public Matrix4f initScale(final float x, final float y, final float z) {
-		m[0][0] = x;
-		m[0][1] = 0;
-		m[0][2] = 0;
-		m[0][3] = 0;
-		m[1][0] = 0;
-		m[1][1] = y;
-		m[1][2] = 0;
-		m[1][3] = 0;
-		m[2][0] = 0;
-		m[2][1] = 0;
-		m[2][2] = z;
-		m[2][3] = 0;
-		m[3][0] = 0;
-		m[3][1] = 0;
-		m[3][2] = 0;
-		m[3][3] = 1;
-
-		return this;
+		return set(x, 0, 0, 0, 0, y, 0, 0, 0, 0, z, 0, 0, 0, 0, 1);
 	}
 
 	public Matrix4f initPerspective(final float fov, final float aspectRatio, final float zNear, final float zFar) {
 		final float tanHalfFOV = (float) Math.tan(fov / 2);
 		final float zRange = zNear - zFar;
 
-		m[0][0] = 1.0f / (tanHalfFOV * aspectRatio);
-		m[0][1] = 0;
-		m[0][2] = 0;
-		m[0][3] = 0;
-		m[1][0] = 0;
-		m[1][1] = 1.0f / tanHalfFOV;
-		m[1][2] = 0;
-		m[1][3] = 0;
-		m[2][0] = 0;
-		m[2][1] = 0;
-		m[2][2] = (-zNear - zFar) / zRange;
-		m[2][3] = 2 * zFar * zNear / zRange;
-		m[3][0] = 0;
-		m[3][1] = 0;
-		m[3][2] = 1;
-		m[3][3] = 0;
-
-		return this;
+		return set(1.0f / (tanHalfFOV * aspectRatio), 0, 0, 0, 0, 1.0f / tanHalfFOV, 0, 0, 0, 0, (-zNear - zFar) / zRange, 2 * zFar * zNear / zRange, 0, 0, 1, 0);
 	}
 
 	public Matrix4f initOrthographic(final float left, final float right, final float bottom, final float top, final float near, final float far) {
@@ -180,99 +78,328 @@ public class Matrix4f {
 		final float height = top - bottom;
 		final float depth = far - near;
 
-		m[0][0] = 2 / width;
-		m[0][1] = 0;
-		m[0][2] = 0;
-		m[0][3] = -(right + left) / width;
-		m[1][0] = 0;
-		m[1][1] = 2 / height;
-		m[1][2] = 0;
-		m[1][3] = -(top + bottom) / height;
-		m[2][0] = 0;
-		m[2][1] = 0;
-		m[2][2] = -2 / depth;
-		m[2][3] = -(far + near) / depth;
-		m[3][0] = 0;
-		m[3][1] = 0;
-		m[3][2] = 0;
-		m[3][3] = 1;
-
-		return this;
+		return set(2 / width, 0, 0, -(right + left) / width, 0, 2 / height, 0, -(top + bottom) / height, 0, 0, -2 / depth, -(far + near) / depth, 0, 0, 0, 1);
 	}
 
 	public Matrix4f initRotation(final Vector3f forward, final Vector3f up) {
-		final Vector3f f = forward.normalized();
+		final float fLength = forward.length();
+		final float fx = forward.getX() / fLength;
+		final float fy = forward.getY() / fLength;
+		final float fz = forward.getZ() / fLength;
+
+		final float uLength = up.length();
+		final float ux = up.getX() / uLength;
+		final float uy = up.getY() / uLength;
+		final float uz = up.getZ() / uLength;
+
+		// r = up x f
+		final float rx = uy * fz - uz * fy;
+		final float ry = uz * fx - ux * fz;
+		final float rz = ux * fy - uy * fx;
+
+		// u = f x r
+		return initRotation(fx, fy, fz, fy * rz - fz * ry, fz * rx - fx * rz, fx * ry - fy * rx, rx, ry, rz);
+	}
 
-		Vector3f r = up.normalized();
-		r = r.cross(f);
+	public Matrix4f initRotation(final Vector3f forward, final Vector3f up, final Vector3f right) {
+		return initRotation(forward.getX(), forward.getY(), forward.getZ(), up.getX(), up.getY(), up.getZ(), right.getX(), right.getY(), right.getZ());
+	}
 
-		final Vector3f u = f.cross(r);
+	private Matrix4f initRotation(final float fx, final float fy, final float fz, final float ux, final float uy, final float uz, final float rx, final float ry, final float rz) {
+		return set(rx, ry, rz, 0, ux, uy, uz, 0, fx, fy, fz, 0, 0, 0, 0, 1);
+	}
 
-		return initRotation(f, u, r);
+	/**
+	 * Initialize this matrix to the rotation described by a quaternion. This
+	 * is the same matrix {@link Quaternion#toRotationMatrix()} returns.
+	 * 
+	 * @param q
+	 *            - The rotation
+	 * @return <code>this</code>
+	 */
+	public Matrix4f initRotation(final Quaternion q) {
+		final float x = q.getX();
+		final float y = q.getY();
+		final float z = q.getZ();
+		final float w = q.getW();
+
+		return initRotation(2.0f * (x * z - w * y), 2.0f * (y * z + w * x), 1.0f - 2.0f * (x * x + y * y), 2.0f * (x * y + w * z), 1.0f - 2.0f * (x * x + z * z), 2.0f * (y * z - w * x), 1.0f - 2.0f * (y * y + z * z), 2.0f * (x * y - w * z), 2.0f * (x * z + w * y));
 	}
 
-	public Matrix4f initRotation(final Vector3f forward, final Vector3f up, final Vector3f right) {
-		final Vector3f f = forward;
-		final Vector3f r = right;
-		final Vector3f u = up;
-
-		m[0][0] = r.getX();
-		m[0][1] = r.getY();
-		m[0][2] = r.getZ();
-		m[0][3] = 0;
-		m[1][0] = u.getX();
-		m[1][1] = u.getY();
-		m[1][2] = u.getZ();
-		m[1][3] = 0;
-		m[2][0] = f.getX();
-		m[2][1] = f.getY();
-		m[2][2] = f.getZ();
-		m[2][3] = 0;
-		m[3][0] = 0;
-		m[3][1] = 0;
-		m[3][2] = 0;
-		m[3][3] = 1;
+	/**
+	 * Initialize this matrix to <code>translation * rotation * scale</code>
+	 * without building the intermediate matrices.
+	 * 
+	 * @param pos
+	 *            - The translation
+	 * @param rot
+	 *            - The rotation
+	 * @param scale
+	 *            - The scale
+	 * @return <code>this</code>
+	 */
+	public Matrix4f initTransformation(final Vector3f pos, final Quaternion rot, final Vector3f scale) {
+		Matrix4f.initTransformation(pos.getX(), pos.getY(), pos.getZ(), rot.getX(), rot.getY(), rot.getZ(), rot.getW(), scale.getX(), scale.getY(), scale.getZ(), m, 0);
 
 		return this;
 	}
 
 	public Vector3f transform(final Vector3f r) {
-		return new Vector3f(m[0][0] * r.getX() + m[0][1] * r.getY() + m[0][2] * r.getZ() + m[0][3], m[1][0] * r.getX() + m[1][1] * r.getY() + m[1][2] * r.getZ() + m[1][3], m[2][0] * r.getX() + m[2][1] * r.getY() + m[2][2] * r.getZ() + m[2][3]);
+		return transform(r, new Vector3f(0, 0, 0));
+	}
+
+	/**
+	 * Transform a point by this matrix without allocating.
+	 * 
+	 * @param r
+	 *            - The point to transform
+	 * @param dest
+	 *            - Receives the result, may be <code>r</code>
+	 * @return <code>dest</code>
+	 */
+	public Vector3f transform(final Vector3f r, final Vector3f dest) {
+		final float x = r.getX();
+		final float y = r.getY();
+		final float z = r.getZ();
+
+		return dest.set(m[0] * x + m[1] * y + m[2] * z + m[3], m[4] * x + m[5] * y + m[6] * z + m[7], m[8] * x + m[9] * y + m[10] * z + m[11]);
 	}
 
 	public Matrix4f mul(final Matrix4f r) {
-		final Matrix4f res = new Matrix4f();
+		return mul(r, new Matrix4f());
+	}
 
-		for (int i = 0; i < 4; i++) {
-			for (int j = 0; j < 4; j++) {
-				res.set(i, j, m[i][0] * r.get(0, j) + m[i][1] * r.get(1, j) + m[i][2] * r.get(2, j) + m[i][3] * r.get(3, j));
-			}
+	/**
+	 * Multiply this matrix by <code>r</code> without allocating.
+	 * 
+	 * @param r
+	 *            - The right hand side of the product
+	 * @param dest
+	 *            - Receives the result, may be <code>this</code> or
+	 *            <code>r</code>
+	 * @return <code>dest</code>
+	 */
+	public Matrix4f mul(final Matrix4f r, final Matrix4f dest) {
+		Matrix4f.mul(m, 0, r.m, 0, dest.m, 0);
+
+		return dest;
+	}
+
+	/**
+	 * Invert this matrix without allocating. A singular matrix inverts to
+	 * all zeros.
+	 *
+	 * @param dest
+	 *            - Receives the inverse, may be <code>this</code>
+	 * @return <code>dest</code>
+	 */
+	public Matrix4f invert(final Matrix4f dest) {
+		final float a00 = m[0], a01 = m[1], a02 = m[2], a03 = m[3];
+		final float a10 = m[4], a11 = m[5], a12 = m[6], a13 = m[7];
+		final float a20 = m[8], a21 = m[9], a22 = m[10], a23 = m[11];
+		final float a30 = m[12], a31 = m[13], a32 = m[14], a33 = m[15];
+
+		// 2x2 determinants of the top two and bottom two rows.
+		final float s0 = a00 * a11 - a10 * a01;
+		final float s1 = a00 * a12 - a10 * a02;
+		final float s2 = a00 * a13 - a10 * a03;
+		final float s3 = a01 * a12 - a11 * a02;
+		final float s4 = a01 * a13 - a11 * a03;
+		final float s5 = a02 * a13 - a12 * a03;
+
+		final float c5 = a22 * a33 - a32 * a23;
+		final float c4 = a21 * a33 - a31 * a23;
+		final float c3 = a21 * a32 - a31 * a22;
+		final float c2 = a20 * a33 - a30 * a23;
+		final float c1 = a20 * a32 - a30 * a22;
+		final float c0 = a20 * a31 - a30 * a21;
+
+		final float determinant = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+		final float scale = determinant != 0 ? 1.0f / determinant : 0;
+
+		final float[] d = dest.m;
+
+		d[0] = (a11 * c5 - a12 * c4 + a13 * c3) * scale;
+		d[1] = (-a01 * c5 + a02 * c4 - a03 * c3) * scale;
+		d[2] = (a31 * s5 - a32 * s4 + a33 * s3) * scale;
+		d[3] = (-a21 * s5 + a22 * s4 - a23 * s3) * scale;
+		d[4] = (-a10 * c5 + a12 * c2 - a13 * c1) * scale;
+		d[5] = (a00 * c5 - a02 * c2 + a03 * c1) * scale;
+		d[6] = (-a30 * s5 + a32 * s2 - a33 * s1) * scale;
+		d[7] = (a20 * s5 - a22 * s2 + a23 * s1) * scale;
+		d[8] = (a10 * c4 - a11 * c2 + a13 * c0) * scale;
+		d[9] = (-a00 * c4 + a01 * c2 - a03 * c0) * scale;
+		d[10] = (a30 * s4 - a31 * s2 + a33 * s0) * scale;
+		d[11] = (-a20 * s4 + a21 * s2 - a23 * s0) * scale;
+		d[12] = (-a10 * c3 + a11 * c1 - a12 * c0) * scale;
+		d[13] = (a00 * c3 - a01 * c1 + a02 * c0) * scale;
+		d[14] = (-a30 * s3 + a31 * s1 - a32 * s0) * scale;
+		d[15] = (a20 * s3 - a21 * s1 + a22 * s0) * scale;
+
+		return dest;
+	}
+
+	/**
+	 * Multiply two row-major 4x4 matrices held in flat arrays, writing
+	 * <code>a * b</code> into <code>dest</code>. All three may refer to the
+	 * same storage.
+	 */
+	public static void mul(final float[] a, final int aOffset, final float[] b, final int bOffset, final float[] dest, final int destOffset) {
+		final float a00 = a[aOffset], a01 = a[aOffset + 1], a02 = a[aOffset + 2], a03 = a[aOffset + 3];
+		final float a10 = a[aOffset + 4], a11 = a[aOffset + 5], a12 = a[aOffset + 6], a13 = a[aOffset + 7];
+		final float a20 = a[aOffset + 8], a21 = a[aOffset + 9], a22 = a[aOffset + 10], a23 = a[aOffset + 11];
+		final float a30 = a[aOffset + 12], a31 = a[aOffset + 13], a32 = a[aOffset + 14], a33 = a[aOffset + 15];
+
+		final float b00 = b[bOffset], b01 = b[bOffset + 1], b02 = b[bOffset + 2], b03 = b[bOffset + 3];
+		final float b10 = b[bOffset + 4], b11 = b[bOffset + 5], b12 = b[bOffset + 6], b13 = b[bOffset + 7];
+		final float b20 = b[bOffset + 8], b21 = b[bOffset + 9], b22 = b[bOffset + 10], b23 = b[bOffset + 11];
+		final float b30 = b[bOffset + 12], b31 = b[bOffset + 13], b32 = b[bOffset + 14], b33 = b[bOffset + 15];
+
+		dest[destOffset] = a00 * b00 + a01 * b10 + a02 * b20 + a03 * b30;
+		dest[destOffset + 1] = a00 * b01 + a01 * b11 + a02 * b21 + a03 * b31;
+		dest[destOffset + 2] = a00 * b02 + a01 * b12 + a02 * b22 + a03 * b32;
+		dest[destOffset + 3] = a00 * b03 + a01 * b13 + a02 * b23 + a03 * b33;
+		dest[destOffset + 4] = a10 * b00 + a11 * b10 + a12 * b20 + a13 * b30;
+		dest[destOffset + 5] = a10 * b01 + a11 * b11 + a12 * b21 + a13 * b31;
+		dest[destOffset + 6] = a10 * b02 + a11 * b12 + a12 * b22 + a13 * b32;
+		dest[destOffset + 7] = a10 * b03 + a11 * b13 + a12 * b23 + a13 * b33;
+		dest[destOffset + 8] = a20 * b00 + a21 * b10 + a22 * b20 + a23 * b30;
+		dest[destOffset + 9] = a20 * b01 + a21 * b11 + a22 * b21 + a23 * b31;
+		dest[destOffset + 10] = a20 * b02 + a21 * b12 + a22 * b22 + a23 * b32;
+		dest[destOffset + 11] = a20 * b03 + a21 * b13 + a22 * b23 + a23 * b33;
+		dest[destOffset + 12] = a30 * b00 + a31 * b10 + a32 * b20 + a33 * b30;
+		dest[destOffset + 13] = a30 * b01 + a31 * b11 + a32 * b21 + a33 * b31;
+		dest[destOffset + 14] = a30 * b02 + a31 * b12 + a32 * b22 + a33 * b32;
+		dest[destOffset + 15] = a30 * b03 + a31 * b13 + a32 * b23 + a33 * b33;
+	}
+
+	/**
+	 * Write <code>translation * rotation * scale</code> into a flat
+	 * row-major array. The quaternion is expected to be normalized.
+	 */
+	public static void initTransformation(final float px, final float py, final float pz, final float qx, final float qy, final float qz, final float qw, final float sx, final float sy, final float sz, final float[] dest, final int offset) {
+		dest[offset] = (1.0f - 2.0f * (qy * qy + qz * qz)) * sx;
+		dest[offset + 1] = 2.0f * (qx * qy - qw * qz) * sy;
+		dest[offset + 2] = 2.0f * (qx * qz + qw * qy) * sz;
+		dest[offset + 3] = px;
+		dest[offset + 4] = 2.0f * (qx * qy + qw * qz) * sx;
+		dest[offset + 5] = (1.0f - 2.0f * (qx * qx + qz * qz)) * sy;
+		dest[offset + 6] = 2.0f * (qy * qz - qw * qx) * sz;
+		dest[offset + 7] = py;
+		dest[offset + 8] = 2.0f * (qx * qz - qw * qy) * sx;
+		dest[offset + 9] = 2.0f * (qy * qz + qw * qx) * sy;
+		dest[offset + 10] = (1.0f - 2.0f * (qx * qx + qy * qy)) * sz;
+		dest[offset + 11] = pz;
+		dest[offset + 12] = 0;
+		dest[offset + 13] = 0;
+		dest[offset + 14] = 0;
+		dest[offset + 15] = 1;
+	}
+
+	/**
+	 * Write this matrix into <code>buffer</code> in row-major order, starting
+	 * at the buffer's current position. Upload with <code>transpose</code>
+	 * set to <code>true</code>.
+	 * 
+	 * @return <code>buffer</code>
+	 */
+	public FloatBuffer store(final FloatBuffer buffer) {
+		buffer.put(m);
+
+		return buffer;
+	}
+
+	/**
+	 * Write this matrix into <code>buffer</code> in column-major order,
+	 * starting at the buffer's current position. This is the layout of a
+	 * <code>mat4</code> vertex attribute, which takes one column per
+	 * location.
+	 * 
+	 * @return <code>buffer</code>
+	 */
+	public FloatBuffer storeColumns(final FloatBuffer buffer) {
+		for (int column = 0; column < 4; column++) {
+			buffer.put(m[column]).put(m[4 + column]).put(m[8 + column]).put(m[12 + column]);
 		}
 
-		return res;
+		return buffer;
+	}
+
+	/**
+	 * Copy the contents of <code>r</code> into this matrix.
+	 * 
+	 * @return <code>this</code>
+	 */
+	public Matrix4f set(final Matrix4f r) {
+		System.arraycopy(r.m, 0, m, 0, Matrix4f.SIZE);
+
+		return this;
+	}
+
+	/**
+	 * Load this matrix from a flat row-major array.
+	 * 
+	 * @return <code>this</code>
+	 */
+	public Matrix4f set(final float[] src, final int offset) {
+		System.arraycopy(src, offset, m, 0, Matrix4f.SIZE);
+
+		return this;
+	}
+
+	/**
+	 * Copy this matrix into a flat row-major array.
+	 * 
+	 * @return <code>dest</code>
+	 */
+	public float[] get(final float[] dest, final int offset) {
+		System.arraycopy(m, 0, dest, offset, Matrix4f.SIZE);
+
+		return dest;
+	}
+
+	public Matrix4f set(final float m00, final float m01, final float m02, final float m03, final float m10, final float m11, final float m12, final float m13, final float m20, final float m21, final float m22, final float m23, final float m30, final float m31, final float m32, final float m33) {
+		m[0] = m00;
+		m[1] = m01;
+		m[2] = m02;
+		m[3] = m03;
+		m[4] = m10;
+		m[5] = m11;
+		m[6] = m12;
+		m[7] = m13;
+		m[8] = m20;
+		m[9] = m21;
+		m[10] = m22;
+		m[11] = m23;
+		m[12] = m30;
+		m[13] = m31;
+		m[14] = m32;
+		m[15] = m33;
+
+		return this;
 	}
 
 	public float[][] getM() {
 		final float[][] res = new float[4][4];
 
 		for (int i = 0; i < 4; i++) {
-			for (int j = 0; j < 4; j++) {
-				res[i][j] = m[i][j];
-			}
+			System.arraycopy(m, i * 4, res[i], 0, 4);
 		}
 
 		return res;
 	}
 
 	public float get(final int x, final int y) {
-		return m[x][y];
+		return m[x * 4 + y];
 	}
 
 	public void setM(final float[][] m) {
-		this.m = m;
+		for (int i = 0; i < 4; i++) {
+			System.arraycopy(m[i], 0, this.m, i * 4, 4);
+		}
 	}
 
 	public void set(final int x, final int y, final float value) {
-		m[x][y] = value;
+		m[x * 4 + y] = value;
 	}
 }
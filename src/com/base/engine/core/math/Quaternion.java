@@ -49,10 +49,20 @@ public class Quaternion {
 		return new Quaternion(x / length, y / length, z / length, w / length);
 	}
 
+	public Quaternion normalizeLocal() {
+		final float length = length();
+
+		return set(x / length, y / length, z / length, w / length);
+	}
+
 	public Quaternion conjugate() {
 		return new Quaternion(-x, -y, -z, w);
 	}
 
+	public Quaternion conjugate(final Quaternion dest) {
+		return dest.set(-x, -y, -z, w);
+	}
+
 	public Quaternion mul(final float r) {
 		return new Quaternion(x * r, y * r, z * r, w * r);
 	}
@@ -66,6 +76,25 @@ public class Quaternion {
 		return new Quaternion(x_, y_, z_, w_);
 	}
 
+	/**
+	 * Multiply this quaternion by <code>r</code> without allocating.
+	 * 
+	 * @param r
+	 *            - The right hand side of the product
+	 * @param dest
+	 *            - Receives the result, may be <code>this</code> or
+	 *            <code>r</code>
+	 * @return <code>dest</code>
+	 */
+	public Quaternion mul(final Quaternion r, final Quaternion dest) {
+		final float w_ = w * r.getW() - x * r.getX() - y * r.getY() - z * r.getZ();
+		final float x_ = x * r.getW() + w * r.getX() + y * r.getZ() - z * r.getY();
+		final float y_ = y * r.getW() + w * r.getY() + z * r.getX() - x * r.getZ();
+		final float z_ = z * r.getW() + w * r.getZ() + x * r.getY() - y * r.getX();
+
+		return dest.set(x_, y_, z_, w_);
+	}
+
 	public Quaternion mul(final Vector3f r) {
 		final float w_ = -x * r.getX() - y * r.getY() - z * r.getZ();
 		final float x_ = w * r.getX() + y * r.getZ() - z * r.getY();
@@ -91,6 +120,15 @@ public class Quaternion {
 		return new Matrix4f().initRotation(forward, up, right);
 	}
 
+	/**
+	 * Write the rotation matrix of this quaternion into <code>dest</code>.
+	 * 
+	 * @return <code>dest</code>
+	 */
+	public Matrix4f toRotationMatrix(final Matrix4f dest) {
+		return dest.initRotation(this);
+	}
+
 	public float dot(final Quaternion r) {
 		return x * r.getX() + y * r.getY() + z * r.getZ() + w * r.getW();
 	}
@@ -130,8 +168,81 @@ public class Quaternion {
 		return this.mul(srcFactor).add(correctedDest.mul(destFactor));
 	}
 
-	// From Ken Shoemake's "Quaternion Calculus and Fast Animation" article
 	public Quaternion(final Matrix4f rot) {
+		set(rot);
+	}
+
+	public Vector3f getForward() {
+		return new Vector3f(0, 0, 1).rotate(this);
+	}
+
+	public Vector3f getForward(final Vector3f dest) {
+		return dest.set(0, 0, 1).rotate(this, dest);
+	}
+
+	public Vector3f getBack() {
+		return new Vector3f(0, 0, -1).rotate(this);
+	}
+
+	public Vector3f getUp() {
+		return new Vector3f(0, 1, 0).rotate(this);
+	}
+
+	public Vector3f getDown() {
+		return new Vector3f(0, -1, 0).rotate(this);
+	}
+
+	public Vector3f getRight() {
+		return new Vector3f(1, 0, 0).rotate(this);
+	}
+
+	public Vector3f getLeft() {
+		return new Vector3f(-1, 0, 0).rotate(this);
+	}
+
+	public Quaternion set(final float x, final float y, final float z, final float w) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.w = w;
+		return this;
+	}
+
+	/**
+	 * Set this quaternion to a rotation of <code>angle</code> radians around
+	 * <code>axis</code>.
+	 * 
+	 * @return <code>this</code>
+	 */
+	public Quaternion setAxisAngle(final Vector3f axis, final float angle) {
+		final float sinHalfAngle = (float) Math.sin(angle / 2);
+		final float cosHalfAngle = (float) Math.cos(angle / 2);
+
+		return set(axis.getX() * sinHalfAngle, axis.getY() * sinHalfAngle, axis.getZ() * sinHalfAngle, cosHalfAngle);
+	}
+
+	/**
+	 * Store the normalized linear interpolation from <code>a</code> to
+	 * <code>b</code> in this quaternion, like {@link #nlerp} but without
+	 * allocating.
+	 * 
+	 * @return <code>this</code>
+	 */
+	public Quaternion setNlerp(final Quaternion a, final Quaternion b, final float lerpFactor, final boolean shortest) {
+		final float sign = shortest && a.dot(b) < 0 ? -1 : 1;
+
+		set(a.getX() + (sign * b.getX() - a.getX()) * lerpFactor, a.getY() + (sign * b.getY() - a.getY()) * lerpFactor, a.getZ() + (sign * b.getZ() - a.getZ()) * lerpFactor, a.getW() + (sign * b.getW() - a.getW()) * lerpFactor);
+
+		return normalizeLocal();
+	}
+
+	/**
+	 * Set this quaternion to the rotation held by a rotation matrix, as in
+	 * Ken Shoemake's "Quaternion Calculus and Fast Animation" article.
+	 * 
+	 * @return <code>this</code>
+	 */
+	public Quaternion set(final Matrix4f rot) {
 		final float trace = rot.get(0, 0) + rot.get(1, 1) + rot.get(2, 2);
 
 		if (trace > 0) {
@@ -167,37 +278,7 @@ public class Quaternion {
 		y /= length;
 		z /= length;
 		w /= length;
-	}
 
-	public Vector3f getForward() {
-		return new Vector3f(0, 0, 1).rotate(this);
-	}
-
-	public Vector3f getBack() {
-		return new Vector3f(0, 0, -1).rotate(this);
-	}
-
-	public Vector3f getUp() {
-		return new Vector3f(0, 1, 0).rotate(this);
-	}
-
-	public Vector3f getDown() {
-		return new Vector3f(0, -1, 0).rotate(this);
-	}
-
-	public Vector3f getRight() {
-		return new Vector3f(1, 0, 0).rotate(this);
-	}
-
-	public Vector3f getLeft() {
-		return new Vector3f(-1, 0, 0).rotate(this);
-	}
-
-	public Quaternion set(final float x, final float y, final float z, final float w) {
-		this.x = x;
-		this.y = y;
-		this.z = z;
-		this.w = w;
 		return this;
 	}
 
@@ -47,6 +47,24 @@ public class Vector3f {
 		return new Vector3f(x_, y_, z_);
 	}
 
+	/**
+	 * Cross this vector with <code>r</code> without allocating.
+	 * 
+	 * @param r
+	 *            - The right hand side of the cross product
+	 * @param dest
+	 *            - Receives the result, may be <code>this</code> or
+	 *            <code>r</code>
+	 * @return <code>dest</code>
+	 */
+	public Vector3f crossInto(final Vector3f r, final Vector3f dest) {
+		final float x_ = y * r.getZ() - z * r.getY();
+		final float y_ = z * r.getX() - x * r.getZ();
+		final float z_ = x * r.getY() - y * r.getX();
+
+		return dest.set(x_, y_, z_);
+	}
+
 	public Vector3f normalized() {
 		final float length = length();
 
@@ -71,6 +89,30 @@ public class Vector3f {
 		return new Vector3f(w.getX(), w.getY(), w.getZ());
 	}
 
+	/**
+	 * Rotate this vector by a unit quaternion without allocating.
+	 * 
+	 * @param rotation
+	 *            - The rotation to apply
+	 * @param dest
+	 *            - Receives the result, may be <code>this</code>
+	 * @return <code>dest</code>
+	 */
+	public Vector3f rotate(final Quaternion rotation, final Vector3f dest) {
+		final float qx = rotation.getX();
+		final float qy = rotation.getY();
+		final float qz = rotation.getZ();
+		final float qw = rotation.getW();
+
+		// t = 2 * cross(q.xyz, v)
+		final float tx = 2 * (qy * z - qz * y);
+		final float ty = 2 * (qz * x - qx * z);
+		final float tz = 2 * (qx * y - qy * x);
+
+		// v' = v + w * t + cross(q.xyz, t)
+		return dest.set(x + qw * tx + (qy * tz - qz * ty), y + qw * ty + (qz * tx - qx * tz), z + qw * tz + (qx * ty - qy * tx));
+	}
+
 	public Vector3f lerp(final Vector3f dest, final float lerpFactor) {
 		return dest.sub(this).mul(lerpFactor).add(this);
 	}
@@ -111,6 +153,63 @@ public class Vector3f {
 		return new Vector3f(Math.abs(x), Math.abs(y), Math.abs(z));
 	}
 
+	public Vector3f addLocal(final Vector3f r) {
+		return set(x + r.getX(), y + r.getY(), z + r.getZ());
+	}
+
+	public Vector3f addLocal(final float r) {
+		return set(x + r, y + r, z + r);
+	}
+
+	public Vector3f subLocal(final Vector3f r) {
+		return set(x - r.getX(), y - r.getY(), z - r.getZ());
+	}
+
+	public Vector3f subLocal(final float r) {
+		return set(x - r, y - r, z - r);
+	}
+
+	public Vector3f mulLocal(final Vector3f r) {
+		return set(x * r.getX(), y * r.getY(), z * r.getZ());
+	}
+
+	public Vector3f mulLocal(final float r) {
+		return set(x * r, y * r, z * r);
+	}
+
+	public Vector3f divLocal(final Vector3f r) {
+		return set(x / r.getX(), y / r.getY(), z / r.getZ());
+	}
+
+	public Vector3f divLocal(final float r) {
+		return set(x / r, y / r, z / r);
+	}
+
+	public Vector3f normalizeLocal() {
+		final float length = length();
+
+		return set(x / length, y / length, z / length);
+	}
+
+	/**
+	 * Store <code>a - b</code> in this vector.
+	 * 
+	 * @return <code>this</code>
+	 */
+	public Vector3f setSub(final Vector3f a, final Vector3f b) {
+		return set(a.getX() - b.getX(), a.getY() - b.getY(), a.getZ() - b.getZ());
+	}
+
+	/**
+	 * Store the linear interpolation from <code>a</code> to <code>b</code>
+	 * in this vector.
+	 * 
+	 * @return <code>this</code>
+	 */
+	public Vector3f setLerp(final Vector3f a, final Vector3f b, final float lerpFactor) {
+		return set(a.getX() + (b.getX() - a.getX()) * lerpFactor, a.getY() + (b.getY() - a.getY()) * lerpFactor, a.getZ() + (b.getZ() - a.getZ()) * lerpFactor);
+	}
+
 	@Override
 	public String toString() {
 		return "(" + x + " " + y + " " + z + ")";
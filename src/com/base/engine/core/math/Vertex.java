@@ -22,7 +22,10 @@ package com.base.engine.core.math;
  *
  */
 public class Vertex {
-	public static final int SIZE = 11;
+	/**
+	 * The number of floats a vertex takes in the standard vertex layout.
+	 */
+	public static final int SIZE = 12;
 
 	/**
 	 * The position of the vertex
@@ -43,6 +46,24 @@ public class Vertex {
 	 * curved surface. Taken from: http://gamedev.stackexchange.com/a/51402
 	 */
 	private Vector3f tangent;
+	/**
+	 * 1 if the bitangent is the cross product of the tangent and the normal,
+	 * -1 if the texture is mirrored and it points the other way
+	 */
+	private float handedness;
+	/**
+	 * The color of the vertex, or <code>null</code> for white
+	 */
+	private Vector3f color;
+	/**
+	 * The indices of the four bones that move the vertex, or
+	 * <code>null</code> if it isn't skinned
+	 */
+	private int[] boneIndices;
+	/**
+	 * How much each of the four bones moves the vertex
+	 */
+	private float[] boneWeights;
 
 	/**
 	 * Initialize a new {@link Vertex}
@@ -104,6 +125,7 @@ public class Vertex {
 		this.texCoord = texCoord == null ? new Vector2f(0, 0) : texCoord;
 		this.normal = normal;
 		this.tangent = tangent;
+		handedness = 1;
 	}
 
 	/**
@@ -185,4 +207,80 @@ public class Vertex {
 	public void setNormal(final Vector3f normal) {
 		this.normal = normal;
 	}
+
+	/**
+	 * Get the handedness of the tangent space
+	 * 
+	 * @return 1 if the bitangent is the cross product of the tangent and the
+	 *         normal, -1 if the texture is mirrored and it points the other
+	 *         way
+	 */
+	public float getHandedness() {
+		return handedness;
+	}
+
+	/**
+	 * Set the handedness of the tangent space
+	 * 
+	 * @param handedness
+	 *            - 1 if the bitangent is the cross product of the tangent and
+	 *            the normal, -1 if the texture is mirrored and it points the
+	 *            other way
+	 */
+	public void setHandedness(final float handedness) {
+		this.handedness = handedness;
+	}
+
+	/**
+	 * Get the color
+	 * 
+	 * @return The color of the vertex, or <code>null</code> for white
+	 */
+	public Vector3f getColor() {
+		return color;
+	}
+
+	/**
+	 * Set the color
+	 * 
+	 * @param color
+	 *            - The color of the vertex, or <code>null</code> for white
+	 */
+	public void setColor(final Vector3f color) {
+		this.color = color;
+	}
+
+	/**
+	 * Get the bone indices
+	 * 
+	 * @return The indices of the four bones that move the vertex, or
+	 *         <code>null</code> if it isn't skinned
+	 */
+	public int[] getBoneIndices() {
+		return boneIndices;
+	}
+
+	/**
+	 * Get the bone weights
+	 * 
+	 * @return How much each of the four bones moves the vertex, or
+	 *         <code>null</code> if it isn't skinned
+	 */
+	public float[] getBoneWeights() {
+		return boneWeights;
+	}
+
+	/**
+	 * Set the bones that move the vertex
+	 * 
+	 * @param boneIndices
+	 *            - The indices of four bones, or <code>null</code>
+	 * @param boneWeights
+	 *            - How much each bone moves the vertex, adding up to 1, or
+	 *            <code>null</code>
+	 */
+	public void setBones(final int[] boneIndices, final float[] boneWeights) {
+		this.boneIndices = boneIndices;
+		this.boneWeights = boneWeights;
+	}
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.rendering;
+
+import java.nio.IntBuffer;
+
+import org.lwjgl.opengl.ARBFramebufferObject;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL14;
+
+import com.base.engine.core.BufferArena;
+import com.base.engine.rendering.backend.Graphics;
+import com.base.engine.rendering.backend.RenderBackend;
+
+/**
+ * The render targets of deferred shading, attached to one framebuffer
+ * object:
+ * <ul>
+ * <li><code>gAlbedo</code> - the diffuse color, with the specular intensity
+ * in alpha</li>
+ * <li><code>gNormal</code> - the world space normal, with the specular power
+ * in alpha</li>
+ * <li><code>gDepth</code> - the depth buffer, from which positions are
+ * rebuilt</li>
+ * </ul>
+ * The specular values are scaled into range by the constants in
+ * <code>gbuffer.glh</code>.
+ */
+public class GBuffer {
+	private final RenderBackend backend;
+	private final int framebuffer;
+	private final int width;
+	private final int height;
+	private final Texture albedo;
+	private final Texture normal;
+	private final Texture depth;
+	private final Material material;
+
+	/**
+	 * @param width
+	 *            - The width in pixels, normally that of the window
+	 * @param height
+	 *            - The height in pixels, normally that of the window
+	 * @throws IllegalStateException
+	 *             if the driver can't render into these targets
+	 */
+	public GBuffer(final int width, final int height) throws IllegalStateException {
+		backend = Graphics.getBackend();
+		this.width = width;
+		this.height = height;
+
+		albedo = new Texture(width, height, GL11.GL_RGBA8, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE);
+		normal = new Texture(width, height, GL11.GL_RGBA16, GL11.GL_RGBA, GL11.GL_UNSIGNED_SHORT);
+		depth = new Texture(width, height, GL14.GL_DEPTH_COMPONENT24, GL11.GL_DEPTH_COMPONENT, GL11.GL_UNSIGNED_INT);
+
+		framebuffer = backend.genFramebuffer();
+		backend.bindFramebuffer(ARBFramebufferObject.GL_FRAMEBUFFER, framebuffer);
+		backend.framebufferTexture2D(ARBFramebufferObject.GL_FRAMEBUFFER, ARBFramebufferObject.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, albedo.getID(), 0);
+		backend.framebufferTexture2D(ARBFramebufferObject.GL_FRAMEBUFFER, ARBFramebufferObject.GL_COLOR_ATTACHMENT0 + 1, GL11.GL_TEXTURE_2D, normal.getID(), 0);
+		backend.framebufferTexture2D(ARBFramebufferObject.GL_FRAMEBUFFER, ARBFramebufferObject.GL_DEPTH_ATTACHMENT, GL11.GL_TEXTURE_2D, depth.getID(), 0);
+
+		final BufferArena arena = BufferArena.get();
+		arena.push();
+
+		final IntBuffer drawBuffers = arena.allocateInts(2);
+		drawBuffers.put(ARBFramebufferObject.GL_COLOR_ATTACHMENT0).put(ARBFramebufferObject.GL_COLOR_ATTACHMENT0 + 1).flip();
+		backend.drawBuffers(drawBuffers);
+
+		arena.pop();
+
+		final int status = backend.checkFramebufferStatus(ARBFramebufferObject.GL_FRAMEBUFFER);
+		backend.bindFramebuffer(ARBFramebufferObject.GL_FRAMEBUFFER, 0);
+
+		if (status != ARBFramebufferObject.GL_FRAMEBUFFER_COMPLETE) {
+			backend.deleteFramebuffer(framebuffer);
+			throw new IllegalStateException("The G-buffer can't be rendered into (status 0x" + Integer.toHexString(status) + ")");
+		}
+
+		material = new Material(null, 0, 0, null, null, 0, 0);
+		material.addTexture("gAlbedo", albedo);
+		material.addTexture("gNormal", normal);
+		material.addTexture("gDepth", depth);
+	}
+
+	@Override
+	protected void finalize() {
+		backend.deleteFramebuffer(framebuffer);
+	}
+
+	/**
+	 * Draw into the G-buffer until another framebuffer is bound.
+	 */
+	public void bind() {
+		backend.bindFramebuffer(ARBFramebufferObject.GL_FRAMEBUFFER, framebuffer);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public Texture getAlbedo() {
+		return albedo;
+	}
+
+	public Texture getNormal() {
+		return normal;
+	}
+
+	public Texture getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Get a material whose <code>gAlbedo</code>, <code>gNormal</code> and
+	 * <code>gDepth</code> textures are the targets, for the lighting passes.
+	 */
+	Material getMaterial() {
+		return material;
+	}
+}
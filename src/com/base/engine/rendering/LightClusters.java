@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.rendering;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.lwjgl.opengl.ARBTextureFloat;
+import org.lwjgl.opengl.GL11;
+
+import com.base.engine.core.Util;
+import com.base.engine.core.math.Attenuation;
+import com.base.engine.core.math.Matrix4f;
+import com.base.engine.core.math.Vector3f;
+
+/**
+ * Bins point and spot lights into clusters, so a single forward pass can
+ * light each pixel with only the lights that can reach it.
+ *
+ * The view is cut into a grid of screen tiles, and every tile into depth
+ * slices that grow exponentially with distance from the camera. Each light
+ * is added to every cluster that the screen rectangle and depth range of its
+ * sphere overlap. The result is uploaded into three float textures, which
+ * <code>clusters.glh</code> reads:
+ * <ul>
+ * <li>light data - four texels per light, one light per row</li>
+ * <li>light grid - the offset and length of the light list of each cluster,
+ * one texel per tile, with the slices stacked on top of each other</li>
+ * <li>light indices - the light lists of all clusters back to back,
+ * {@link #INDEX_WIDTH} to a row</li>
+ * </ul>
+ * The light data has a row per light, so the lights in view are limited to
+ * the largest texture size of the driver.
+ */
+public class LightClusters {
+	/** The number of light indices in a row; must match clusters.glh. */
+	public static final int INDEX_WIDTH = 1024;
+
+	private static final int TEXELS_PER_LIGHT = 4;
+	private static final int FLOATS_PER_LIGHT = LightClusters.TEXELS_PER_LIGHT * 4;
+	private static final int MIN_LIGHT_CAPACITY = 16;
+	/** Marks a light without a cone, as no cutoff can be below -1. */
+	private static final float NO_CUTOFF = -2;
+	/** Light-cluster pairs below which binning isn't worth splitting up. */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	private final int tilesX;
+	private final int tilesY;
+	private final int slices;
+	private final int[] counts;
+	private final int[] offsets;
+
+	private int width;
+	private int height;
+	// The last row of the view projection, which gives the view depth.
+	private float depthX;
+	private float depthY;
+	private float depthZ;
+	private float depthW;
+	private float depthScale;
+	private float sliceScale;
+	private float sliceBias;
+
+	private int lightCount;
+	private float[] lightValues;
+	// First and last tile in x and y and first and last slice, per light.
+	private int[] lightBins;
+	private int pairCount;
+
+	private int[] indices;
+	private int indexCount;
+
+	private Texture lightTexture;
+	private Texture gridTexture;
+	private Texture indexTexture;
+	private ByteBuffer lightBuffer;
+	private ByteBuffer gridBuffer;
+	private ByteBuffer indexBuffer;
+	private int lightCapacity;
+	private int indexRows;
+
+	/**
+	 * @param tilesX
+	 *            - The number of tiles across the window
+	 * @param tilesY
+	 *            - The number of tiles up the window
+	 * @param slices
+	 *            - The number of depth slices
+	 */
+	public LightClusters(final int tilesX, final int tilesY, final int slices) {
+		this.tilesX = tilesX;
+		this.tilesY = tilesY;
+		this.slices = slices;
+
+		counts = new int[tilesX * tilesY * slices];
+		offsets = new int[counts.length];
+		lightValues = new float[LightClusters.FLOATS_PER_LIGHT * LightClusters.MIN_LIGHT_CAPACITY];
+		lightBins = new int[6 * LightClusters.MIN_LIGHT_CAPACITY];
+		indices = new int[LightClusters.INDEX_WIDTH];
+	}
+
+	/**
+	 * Drop the lights of the last frame and set up the clusters for a new
+	 * one.
+	 * 
+	 * @param viewProjection
+	 *            - The view projection matrix of the frame
+	 * @param width
+	 *            - The width of the window in pixels
+	 * @param height
+	 *            - The height of the window in pixels
+	 */
+	public void begin(final Matrix4f viewProjection, final int width, final int height) {
+		this.width = width;
+		this.height = height;
+		lightCount = 0;
+		pairCount = 0;
+
+		depthX = viewProjection.get(3, 0);
+		depthY = viewProjection.get(3, 1);
+		depthZ = viewProjection.get(3, 2);
+		depthW = viewProjection.get(3, 3);
+		depthScale = (float) Math.sqrt(depthX * depthX + depthY * depthY + depthZ * depthZ);
+
+		sliceScale = 0;
+		sliceBias = 0;
+
+		if (depthScale == 0) {
+			// Not a perspective projection, so there is only one slice.
+			return;
+		}
+
+		// A perspective projection maps the depth w to a * w + b in the third
+		// row, which gives back the near and far planes.
+		final float a = (viewProjection.get(2, 0) * depthX + viewProjection.get(2, 1) * depthY + viewProjection.get(2, 2) * depthZ) / (depthScale * depthScale);
+		final float b = viewProjection.get(2, 3) - a * depthW;
+		final float near = -b / (a + 1);
+		final float far = b / (1 - a);
+
+		if (near > 0 && far > near) {
+			sliceScale = (float) (slices / Math.log(far / near));
+			sliceBias = (float) (-Math.log(near) * sliceScale);
+		}
+	}
+
+	/**
+	 * Add a point or spot light to the frame.
+	 * 
+	 * @param light
+	 *            - The light
+	 * @param left
+	 *            - The left edge of the window rectangle the light reaches
+	 * @param bottom
+	 *            - The bottom edge of the rectangle
+	 * @param width
+	 *            - The width of the rectangle, or a negative number if the
+	 *            light may reach the whole window
+	 * @param height
+	 *            - The height of the rectangle
+	 */
+	public void add(final LightState light, final int left, final int bottom, final int width, final int height) {
+		// The height means nothing without a width.
+		if (width >= 0 && (width == 0 || height == 0)) {
+			return;
+		}
+
+		if (lightCount * LightClusters.FLOATS_PER_LIGHT == lightValues.length) {
+			lightValues = Arrays.copyOf(lightValues, lightValues.length * 2);
+			lightBins = Arrays.copyOf(lightBins, lightBins.length * 2);
+		}
+
+		final Vector3f position = light.getPosition();
+		final Vector3f color = light.getColor();
+		final Attenuation attenuation = light.getAttenuation();
+		final Vector3f direction = light.getDirection();
+
+		final int v = lightCount * LightClusters.FLOATS_PER_LIGHT;
+		lightValues[v] = position.getX();
+		lightValues[v + 1] = position.getY();
+		lightValues[v + 2] = position.getZ();
+		lightValues[v + 3] = light.getRange();
+		lightValues[v + 4] = color.getX();
+		lightValues[v + 5] = color.getY();
+		lightValues[v + 6] = color.getZ();
+		lightValues[v + 7] = light.getIntensity();
+		lightValues[v + 8] = attenuation.getConstant();
+		lightValues[v + 9] = attenuation.getLinear();
+		lightValues[v + 10] = attenuation.getExponent();
+		lightValues[v + 11] = light.getVolume() == LightState.VOLUME_CONE ? light.getCutoff() : LightClusters.NO_CUTOFF;
+		lightValues[v + 12] = direction.getX();
+		lightValues[v + 13] = direction.getY();
+		lightValues[v + 14] = direction.getZ();
+		lightValues[v + 15] = 0;
+
+		final int b = lightCount * 6;
+
+		if (width < 0) {
+			lightBins[b] = 0;
+			lightBins[b + 1] = tilesX - 1;
+			lightBins[b + 2] = 0;
+			lightBins[b + 3] = tilesY - 1;
+		} else {
+			// Pixels are assigned to tiles by their centers, as in the shader.
+			lightBins[b] = getTile(left, tilesX, this.width);
+			lightBins[b + 1] = getTile(left + width - 1, tilesX, this.width);
+			lightBins[b + 2] = getTile(bottom, tilesY, this.height);
+			lightBins[b + 3] = getTile(bottom + height - 1, tilesY, this.height);
+		}
+
+		final float depth = depthX * position.getX() + depthY * position.getY() + depthZ * position.getZ() + depthW;
+		final float reach = light.getRange() * depthScale;
+
+		lightBins[b + 4] = getSlice(depth - reach);
+		lightBins[b + 5] = getSlice(depth + reach);
+
+		pairCount += (lightBins[b + 1] - lightBins[b] + 1) * (lightBins[b + 3] - lightBins[b + 2] + 1) * (lightBins[b + 5] - lightBins[b + 4] + 1);
+		lightCount++;
+	}
+
+	private static int getTile(final int pixel, final int tiles, final int pixels) {
+		return Math.max(0, Math.min(tiles - 1, (int) ((pixel + 0.5f) * tiles / pixels)));
+	}
+
+	private int getSlice(final float depth) {
+		if (depth <= 0) {
+			return 0;
+		}
+
+		return Math.max(0, Math.min(slices - 1, (int) Math.floor(Math.log(depth) * sliceScale + sliceBias)));
+	}
+
+	/**
+	 * Build the light list of every cluster from the lights added since
+	 * {@link #begin}. The slices are independent, so they are split over
+	 * <code>pool</code> once there is enough work.
+	 * 
+	 * @param pool
+	 *            - The pool to bin on, or <code>null</code> to bin on this
+	 *            thread
+	 */
+	public void bin(final ForkJoinPool pool) {
+		final boolean parallel = pool != null && pairCount >= LightClusters.PARALLEL_THRESHOLD;
+
+		if (parallel) {
+			pool.invoke(new BinTask(this, 0, slices, false));
+		} else {
+			countSlices(0, slices);
+		}
+
+		indexCount = 0;
+
+		for (int cluster = 0; cluster < counts.length; cluster++) {
+			offsets[cluster] = indexCount;
+			indexCount += counts[cluster];
+		}
+
+		if (indices.length < indexCount) {
+			indices = new int[Math.max(indexCount, indices.length * 2)];
+		}
+
+		if (parallel) {
+			pool.invoke(new BinTask(this, 0, slices, true));
+		} else {
+			fillSlices(0, slices);
+		}
+	}
+
+	/**
+	 * Count the lights of every cluster in the slices
+	 * <code>[first, end)</code>.
+	 */
+	void countSlices(final int first, final int end) {
+		Arrays.fill(counts, first * tilesX * tilesY, end * tilesX * tilesY, 0);
+
+		for (int light = 0; light < lightCount; light++) {
+			final int b = light * 6;
+			final int lastSlice = Math.min(lightBins[b + 5], end - 1);
+
+			for (int slice = Math.max(lightBins[b + 4], first); slice <= lastSlice; slice++) {
+				for (int y = lightBins[b + 2]; y <= lightBins[b + 3]; y++) {
+					final int row = (slice * tilesY + y) * tilesX;
+
+					for (int x = lightBins[b]; x <= lightBins[b + 1]; x++) {
+						counts[row + x]++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the light lists of the clusters in the slices
+	 * <code>[first, end)</code>, counting them again on the way.
+	 */
+	void fillSlices(final int first, final int end) {
+		Arrays.fill(counts, first * tilesX * tilesY, end * tilesX * tilesY, 0);
+
+		for (int light = 0; light < lightCount; light++) {
+			final int b = light * 6;
+			final int lastSlice = Math.min(lightBins[b + 5], end - 1);
+
+			for (int slice = Math.max(lightBins[b + 4], first); slice <= lastSlice; slice++) {
+				for (int y = lightBins[b + 2]; y <= lightBins[b + 3]; y++) {
+					final int row = (slice * tilesY + y) * tilesX;
+
+					for (int x = lightBins[b]; x <= lightBins[b + 1]; x++) {
+						indices[offsets[row + x] + counts[row + x]++] = light;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Bins a range of slices, splitting it in half until each task has a
+	 * single slice.
+	 */
+	private static class BinTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final LightClusters clusters;
+		private final int first;
+		private final int end;
+		private final boolean fill;
+
+		public BinTask(final LightClusters clusters, final int first, final int end, final boolean fill) {
+			this.clusters = clusters;
+			this.first = first;
+			this.end = end;
+			this.fill = fill;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - first > 1) {
+				final int middle = first + (end - first) / 2;
+				ForkJoinTask.invokeAll(new BinTask(clusters, first, middle, fill), new BinTask(clusters, middle, end, fill));
+			} else if (fill) {
+				clusters.fillSlices(first, end);
+			} else {
+				clusters.countSlices(first, end);
+			}
+		}
+	}
+
+	/**
+	 * Upload the lights and their clusters into the textures, growing them
+	 * as needed. Call on the rendering thread after {@link #bin}.
+	 */
+	public void upload() {
+		if (gridTexture == null) {
+			gridTexture = new Texture(tilesX, tilesY * slices, ARBTextureFloat.GL_LUMINANCE_ALPHA32F_ARB, GL11.GL_LUMINANCE_ALPHA, GL11.GL_FLOAT);
+			gridBuffer = Util.createByteBuffer(counts.length * 2 * 4);
+		}
+
+		if (lightCount > lightCapacity || lightTexture == null) {
+			lightCapacity = Math.max(Math.max(lightCount, lightCapacity * 2), LightClusters.MIN_LIGHT_CAPACITY);
+			lightTexture = new Texture(LightClusters.TEXELS_PER_LIGHT, lightCapacity, ARBTextureFloat.GL_RGBA32F_ARB, GL11.GL_RGBA, GL11.GL_FLOAT);
+			lightBuffer = Util.createByteBuffer(lightCapacity * LightClusters.FLOATS_PER_LIGHT * 4);
+		}
+
+		final int rows = (indexCount + LightClusters.INDEX_WIDTH - 1) / LightClusters.INDEX_WIDTH;
+
+		if (rows > indexRows || indexTexture == null) {
+			indexRows = Math.max(Math.max(rows, indexRows * 2), 1);
+			indexTexture = new Texture(LightClusters.INDEX_WIDTH, indexRows, ARBTextureFloat.GL_LUMINANCE32F_ARB, GL11.GL_LUMINANCE, GL11.GL_FLOAT);
+			indexBuffer = Util.createByteBuffer(indexRows * LightClusters.INDEX_WIDTH * 4);
+		}
+
+		if (lightCount > 0) {
+			lightBuffer.clear();
+
+			for (int i = 0; i < lightCount * LightClusters.FLOATS_PER_LIGHT; i++) {
+				lightBuffer.putFloat(lightValues[i]);
+			}
+
+			lightBuffer.flip();
+			lightTexture.update(LightClusters.TEXELS_PER_LIGHT, lightCount, GL11.GL_RGBA, GL11.GL_FLOAT, lightBuffer);
+		}
+
+		gridBuffer.clear();
+
+		for (int cluster = 0; cluster < counts.length; cluster++) {
+			gridBuffer.putFloat(offsets[cluster]);
+			gridBuffer.putFloat(counts[cluster]);
+		}
+
+		gridBuffer.flip();
+		gridTexture.update(tilesX, tilesY * slices, GL11.GL_LUMINANCE_ALPHA, GL11.GL_FLOAT, gridBuffer);
+
+		if (rows > 0) {
+			indexBuffer.clear();
+
+			for (int i = 0; i < indexCount; i++) {
+				indexBuffer.putFloat(indices[i]);
+			}
+
+			// Whole rows are uploaded, so pad the last one.
+			for (int i = indexCount; i < rows * LightClusters.INDEX_WIDTH; i++) {
+				indexBuffer.putFloat(0);
+			}
+
+			indexBuffer.flip();
+			indexTexture.update(LightClusters.INDEX_WIDTH, rows, GL11.GL_LUMINANCE, GL11.GL_FLOAT, indexBuffer);
+		}
+	}
+
+	public int getTilesX() {
+		return tilesX;
+	}
+
+	public int getTilesY() {
+		return tilesY;
+	}
+
+	public int getSlices() {
+		return slices;
+	}
+
+	/**
+	 * Get the number of slices per unit of the natural log of view depth.
+	 */
+	public float getSliceScale() {
+		return sliceScale;
+	}
+
+	/**
+	 * Get the slice of a view depth of 1.
+	 */
+	public float getSliceBias() {
+		return sliceBias;
+	}
+
+	/**
+	 * Get the number of lights added since {@link #begin}.
+	 */
+	public int getLightCount() {
+		return lightCount;
+	}
+
+	/**
+	 * Get the number of entries in all light lists together.
+	 */
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	/**
+	 * Get the number of lights in the light list of a cluster.
+	 */
+	public int getClusterLightCount(final int x, final int y, final int slice) {
+		return counts[(slice * tilesY + y) * tilesX + x];
+	}
+
+	/**
+	 * Get a light of a cluster, in the order the lights were added.
+	 * 
+	 * @return The index of the light among those added since {@link #begin}
+	 */
+	public int getClusterLight(final int x, final int y, final int slice, final int i) {
+		return indices[offsets[(slice * tilesY + y) * tilesX + x] + i];
+	}
+
+	public int getLightCapacity() {
+		return lightCapacity;
+	}
+
+	public int getIndexRows() {
+		return indexRows;
+	}
+
+	public Texture getLightTexture() {
+		return lightTexture;
+	}
+
+	public Texture getGridTexture() {
+		return gridTexture;
+	}
+
+	public Texture getIndexTexture() {
+		return indexTexture;
+	}
+}
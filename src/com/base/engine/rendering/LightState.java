@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.rendering;
+
+import com.base.engine.components.BaseLight;
+import com.base.engine.core.math.Attenuation;
+import com.base.engine.core.math.Vector3f;
+
+/**
+ * A copy of everything a light pass needs from a {@link BaseLight}, taken
+ * once per frame. Rendering from a light state instead of the light itself
+ * means the light's transform can keep changing while the frame is drawn.
+ */
+public class LightState {
+	/** The light reaches everything, like a directional light. */
+	public static final int VOLUME_NONE = 0;
+	/** The light reaches a sphere of its range around its position. */
+	public static final int VOLUME_SPHERE = 1;
+	/**
+	 * The light reaches the part of its sphere within its cutoff of its
+	 * direction.
+	 */
+	public static final int VOLUME_CONE = 2;
+
+	private Shader shader;
+	private int passScope;
+	private int volume;
+
+	private final Vector3f color;
+	private float intensity;
+
+	private final Attenuation attenuation;
+	private final Vector3f position;
+	private float range;
+
+	private final Vector3f direction;
+	private float cutoff;
+
+	public LightState() {
+		color = new Vector3f(0, 0, 0);
+		attenuation = new Attenuation(0, 0, 0);
+		position = new Vector3f(0, 0, 0);
+		direction = new Vector3f(0, 0, 0);
+	}
+
+	public Shader getShader() {
+		return shader;
+	}
+
+	public void setShader(final Shader shader) {
+		this.shader = shader;
+	}
+
+	/**
+	 * Get the {@link com.base.engine.core.Profiler} scope of this light's
+	 * render pass.
+	 */
+	public int getPassScope() {
+		return passScope;
+	}
+
+	public void setPassScope(final int passScope) {
+		this.passScope = passScope;
+	}
+
+	/**
+	 * Get the shape of the space this light reaches.
+	 * 
+	 * @return {@link #VOLUME_NONE}, {@link #VOLUME_SPHERE} or
+	 *         {@link #VOLUME_CONE}
+	 */
+	public int getVolume() {
+		return volume;
+	}
+
+	public void setVolume(final int volume) {
+		this.volume = volume;
+	}
+
+	/**
+	 * Check if this light can reach any part of a sphere. Used to skip
+	 * objects and lights that can't affect each other.
+	 */
+	public boolean reachesSphere(final float x, final float y, final float z, final float radius) {
+		if (volume == LightState.VOLUME_NONE) {
+			return true;
+		}
+
+		final float toX = x - position.getX();
+		final float toY = y - position.getY();
+		final float toZ = z - position.getZ();
+		final float distanceSquared = toX * toX + toY * toY + toZ * toZ;
+		final float reach = range + radius;
+
+		if (distanceSquared > reach * reach) {
+			return false;
+		}
+
+		// Cones wider than a half space are treated as spheres.
+		if (volume == LightState.VOLUME_SPHERE || cutoff <= 0) {
+			return true;
+		}
+
+		// The distance from the center to the surface of the cone, in the
+		// plane through the axis of the cone and the center.
+		final float along = toX * direction.getX() + toY * direction.getY() + toZ * direction.getZ();
+		final float across = (float) Math.sqrt(Math.max(0, distanceSquared - along * along));
+		final float sine = (float) Math.sqrt(1 - cutoff * cutoff);
+
+		return cutoff * across - along * sine <= radius && along >= -radius;
+	}
+
+	public Vector3f getColor() {
+		return color;
+	}
+
+	public float getIntensity() {
+		return intensity;
+	}
+
+	public void setIntensity(final float intensity) {
+		this.intensity = intensity;
+	}
+
+	public Attenuation getAttenuation() {
+		return attenuation;
+	}
+
+	public Vector3f getPosition() {
+		return position;
+	}
+
+	public float getRange() {
+		return range;
+	}
+
+	public void setRange(final float range) {
+		this.range = range;
+	}
+
+	public Vector3f getDirection() {
+		return direction;
+	}
+
+	public float getCutoff() {
+		return cutoff;
+	}
+
+	public void setCutoff(final float cutoff) {
+		this.cutoff = cutoff;
+	}
+}
@@ -16,16 +16,22 @@
 
 package com.base.engine.rendering;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
 import com.base.engine.rendering.resourceManagement.MappedValues;
 
 public class Material extends MappedValues {
 	private final HashMap<String, Texture> textureHashMap;
+	private Texture[] textureSlots;
+	private Texture defaultTexture;
+	private final int sortId;
 
 	public Material(final Texture diffuse, final float specularIntensity, final float specularPower, final Texture normal, final Texture dispMap, final float dispMapScale, final float dispMapOffset) {
 		super();
 		textureHashMap = new HashMap<String, Texture>();
+		textureSlots = new Texture[0];
+		sortId = RenderQueue.nextSortId();
 		addTexture("diffuse", diffuse);
 		addFloat("specularIntensity", specularIntensity);
 		addFloat("specularPower", specularPower);
@@ -39,6 +45,14 @@ public class Material extends MappedValues {
 
 	public void addTexture(final String name, final Texture texture) {
 		textureHashMap.put(name, texture);
+
+		final int key = MappedValues.getKey(name);
+
+		if (key >= textureSlots.length) {
+			textureSlots = Arrays.copyOf(textureSlots, key + 1);
+		}
+
+		textureSlots[key] = texture;
 	}
 
 	public Texture getTexture(final String name) {
@@ -49,4 +63,30 @@ public class Material extends MappedValues {
 
 		return new Texture("test.png");
 	}
+
+	/**
+	 * Get a texture by key. A missing texture is loaded once and then
+	 * reused.
+	 * 
+	 * @param key
+	 *            - A key from {@link MappedValues#getKey(String)}
+	 */
+	public Texture getTexture(final int key) {
+		if (key < textureSlots.length && textureSlots[key] != null) {
+			return textureSlots[key];
+		}
+
+		if (defaultTexture == null) {
+			defaultTexture = new Texture("test.png");
+		}
+
+		return defaultTexture;
+	}
+
+	/**
+	 * Get the id {@link RenderQueue} sorts materials by.
+	 */
+	int getSortId() {
+		return sortId;
+	}
 }
@@ -16,22 +16,105 @@
 
 package com.base.engine.rendering;
 
+import java.nio.ByteBuffer;
+
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
-import org.lwjgl.opengl.GL20;
 
-import com.base.engine.core.Util;
+import com.base.engine.core.BufferArena;
+import com.base.engine.core.math.Bounds;
+import com.base.engine.core.math.Matrix4f;
 import com.base.engine.core.math.Vector3f;
 import com.base.engine.core.math.Vertex;
+import com.base.engine.rendering.backend.RenderBackend;
 import com.base.engine.rendering.resourceManagement.MeshResource;
 
 public class Mesh extends MeshResource {
+	/**
+	 * The first of the four attribute locations an instanced draw reads its
+	 * world matrix from, right after the vertex attributes.
+	 */
+	public static final int INSTANCE_ATTRIBUTE = 4;
+
+	/**
+	 * The size of one instance in bytes, a column-major world matrix.
+	 */
+	public static final int INSTANCE_STRIDE = Matrix4f.SIZE * 4;
+
+	// The most vertices one run of 16-bit indices can reach.
+	private static final int SHORT_INDEX_VERTICES = 65536;
+	// A mesh needing more runs than this keeps 32-bit indices, as each run
+	// is its own draw call.
+	private static final int MAX_INDEX_RANGES = 4;
+
+	private final Bounds bounds;
+	private final VertexLayout layout;
+	private int indexType;
+	// The first index, index count and base vertex of each run, when the
+	// indices are split into runs; otherwise null.
+	private int[] indexRanges;
+	// Our own vertex buffer, until vertices are streamed in.
+	private int vertexBuffer;
+	private long vertexOffset;
 
 	public Mesh(final Vertex[] vertices, final int[] indices, final boolean calcNormals) {
+		this(vertices, indices, calcNormals, VertexLayout.STANDARD);
+	}
+
+	/**
+	 * Create a mesh whose vertices are stored in <code>layout</code>. Where
+	 * packed formats aren't supported, the layout's unpacked version is used
+	 * instead.
+	 * 
+	 * @param vertices
+	 *            - The vertices of the mesh
+	 * @param indices
+	 *            - Three indices into <code>vertices</code> per triangle
+	 * @param calcNormals
+	 *            - <code>true</code> to work out the normals from the
+	 *            triangles
+	 * @param layout
+	 *            - How to store the vertices
+	 */
+	public Mesh(final Vertex[] vertices, final int[] indices, final boolean calcNormals, final VertexLayout layout) {
 		super(indices.length);
+		bounds = new Bounds(vertices);
+		this.layout = layout.isPacked() && !getBackend().isPackedVertexFormatSupported() ? layout.getUnpacked() : layout;
+		vertexBuffer = getVbo();
 		addVertices(vertices, indices, calcNormals);
 	}
 
+	/**
+	 * Get the bounds of this mesh in model space.
+	 */
+	public Bounds getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * Get the layout the vertices of this mesh are stored in.
+	 */
+	public VertexLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Get the type the indices of this mesh are stored as,
+	 * <code>GL_UNSIGNED_SHORT</code> wherever they fit and
+	 * <code>GL_UNSIGNED_INT</code> otherwise.
+	 */
+	public int getIndexType() {
+		return indexType;
+	}
+
+	/**
+	 * Get the number of draw calls it takes to draw this mesh, more than one
+	 * when its indices are split into runs of 16-bit indices.
+	 */
+	public int getIndexRangeCount() {
+		return indexRanges == null ? 1 : indexRanges.length / 3;
+	}
+
 	private void addVertices(final Vertex[] vertices, final int[] indices, final boolean calcNormals) {
 		
 		if (calcNormals) {
@@ -40,63 +123,292 @@ public class Mesh extends MeshResource {
 		
 		CalcTangents(vertices, indices);
 
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, getVbo());
-		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, Util.createFlippedBuffer(vertices), GL15.GL_STATIC_DRAW);
+		final RenderBackend backend = getBackend();
+
+		// Bind our own vertex array first, so binding the index buffer below
+		// doesn't change the one some other mesh left bound.
+		if (getVao() != 0) {
+			backend.bindVertexArray(getVao());
+		}
+
+		final BufferArena arena = BufferArena.get();
+		arena.push();
+
+		final ByteBuffer vertexData = arena.allocate(vertices.length * layout.getStride());
+		layout.store(vertices, vertexData).flip();
+
+		backend.bindBuffer(GL15.GL_ARRAY_BUFFER, getVbo());
+		backend.bufferData(GL15.GL_ARRAY_BUFFER, vertexData, GL15.GL_STATIC_DRAW);
+
+		final ByteBuffer indexData = storeIndices(backend, indices, arena);
+
+		backend.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, getIbo());
+		backend.bufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indexData, GL15.GL_STATIC_DRAW);
 
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, getIbo());
-		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, Util.createFlippedBuffer(indices), GL15.GL_STATIC_DRAW);
+		arena.pop();
+
+		if (getVao() != 0) {
+			setVertexAttributes(backend);
+			backend.bindVertexArray(0);
+		}
+	}
+
+	/**
+	 * Store the indices as 16-bit wherever they fit. Meshes with more
+	 * vertices than 16-bit indices can reach are split into runs of
+	 * triangles, each stored relative to the lowest vertex it uses and
+	 * drawn with that as its base vertex. Where base vertices aren't
+	 * supported, or the triangles don't split into a few runs, 32-bit
+	 * indices are kept.
+	 */
+	private ByteBuffer storeIndices(final RenderBackend backend, final int[] indices, final BufferArena arena) {
+		final int[] ranges = Mesh.splitIndices(indices);
+
+		if (ranges == null || (ranges.length > 3 || ranges[2] != 0) && !backend.isBaseVertexSupported()) {
+			indexType = GL11.GL_UNSIGNED_INT;
+
+			final ByteBuffer buffer = arena.allocate(indices.length * 4);
+			buffer.asIntBuffer().put(indices);
+
+			return buffer;
+		}
+
+		indexType = GL11.GL_UNSIGNED_SHORT;
+		indexRanges = ranges.length > 3 || ranges[2] != 0 ? ranges : null;
+
+		final ByteBuffer buffer = arena.allocate(indices.length * 2);
+
+		for (int range = 0; range < ranges.length; range += 3) {
+			final int end = ranges[range] + ranges[range + 1];
+			final int baseVertex = ranges[range + 2];
+
+			for (int i = ranges[range]; i < end; i++) {
+				buffer.putShort((short) (indices[i] - baseVertex));
+			}
+		}
+
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Split the triangles into as few runs as possible that each span no
+	 * more vertices than 16-bit indices can reach.
+	 * 
+	 * @return The first index, index count and base vertex of each run, or
+	 *         <code>null</code> if that takes more than
+	 *         {@link #MAX_INDEX_RANGES} runs
+	 */
+	private static int[] splitIndices(final int[] indices) {
+		final int[] ranges = new int[Mesh.MAX_INDEX_RANGES * 3];
+		int count = 0;
+		int start = 0;
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+
+		for (int i = 0; i < indices.length; i += 3) {
+			final int triangleMin = Math.min(indices[i], Math.min(indices[i + 1], indices[i + 2]));
+			final int triangleMax = Math.max(indices[i], Math.max(indices[i + 1], indices[i + 2]));
+
+			if (triangleMax - triangleMin >= Mesh.SHORT_INDEX_VERTICES) {
+				return null;
+			}
+
+			if (Math.max(max, triangleMax) - Math.min(min, triangleMin) >= Mesh.SHORT_INDEX_VERTICES) {
+				if (count == ranges.length) {
+					return null;
+				}
+
+				ranges[count++] = start;
+				ranges[count++] = i - start;
+				ranges[count++] = Mesh.getBaseVertex(min, max);
+
+				start = i;
+				min = triangleMin;
+				max = triangleMax;
+			} else {
+				min = Math.min(min, triangleMin);
+				max = Math.max(max, triangleMax);
+			}
+		}
+
+		if (count == ranges.length) {
+			return null;
+		}
+
+		ranges[count++] = start;
+		ranges[count++] = indices.length - start;
+		ranges[count++] = Mesh.getBaseVertex(min, max);
+
+		final int[] result = new int[count];
+		System.arraycopy(ranges, 0, result, 0, count);
+
+		return result;
+	}
+
+	private static int getBaseVertex(final int min, final int max) {
+		// Runs within reach of the first vertex need no base vertex.
+		return max < Mesh.SHORT_INDEX_VERTICES ? 0 : min;
+	}
+
+	/**
+	 * Replace the vertices of this mesh by streaming them through
+	 * <code>stream</code>, for meshes that change every frame such as
+	 * skinned ones. The indices and the bounds used for culling are kept, so
+	 * the vertices must match the ones the mesh was created with. Normals
+	 * and tangents are used as given.
+	 *
+	 * The streamed vertices only last for the frame they are written in, so
+	 * call this on the rendering thread every frame the mesh is drawn.
+	 * 
+	 * @param vertices
+	 *            - The new vertices
+	 * @param stream
+	 *            - The buffer to stream them through, usually
+	 *            {@link RenderingEngine#getStreamBuffer()}
+	 */
+	public void setVertices(final Vertex[] vertices, final StreamBuffer stream) {
+		final RenderBackend backend = getBackend();
+
+		layout.store(vertices, stream.map(vertices.length * layout.getStride()));
+		vertexOffset = stream.commit();
+		vertexBuffer = stream.getBuffer();
+
+		if (getVao() != 0) {
+			backend.bindVertexArray(getVao());
+			setVertexAttributes(backend);
+			backend.bindVertexArray(0);
+		}
 	}
 
 	public void draw() {
-		GL20.glEnableVertexAttribArray(0);
-		GL20.glEnableVertexAttribArray(1);
-		GL20.glEnableVertexAttribArray(2);
-		GL20.glEnableVertexAttribArray(3);
+		final RenderBackend backend = getBackend();
+
+		if (getVao() != 0) {
+			backend.bindVertexArray(getVao());
+		} else {
+			setVertexAttributes(backend);
+			backend.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, getIbo());
+		}
+
+		if (indexRanges == null) {
+			backend.drawElements(GL11.GL_TRIANGLES, getSize(), indexType, 0);
+		} else {
+			for (int range = 0; range < indexRanges.length; range += 3) {
+				backend.drawElementsBaseVertex(GL11.GL_TRIANGLES, indexRanges[range + 1], indexType, indexRanges[range] * 2L, indexRanges[range + 2]);
+			}
+		}
+	}
+
+	/**
+	 * Draw this mesh once per instance in a batch of
+	 * <code>instances</code>, with the world matrix of each instance read from
+	 * <code>instanceBuffer</code> into the <code>mat4</code> attribute at
+	 * {@link #INSTANCE_ATTRIBUTE}.
+	 * 
+	 * @param instanceBuffer
+	 *            - The buffer holding the batch
+	 * @param offset
+	 *            - The byte offset of the batch in <code>instanceBuffer</code>
+	 * @param instances
+	 *            - The number of instances to draw
+	 */
+	public void drawInstanced(final int instanceBuffer, final long offset, final int instances) {
+		final RenderBackend backend = getBackend();
+
+		if (getVao() != 0) {
+			backend.bindVertexArray(getVao());
+		} else {
+			setVertexAttributes(backend);
+			backend.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, getIbo());
+		}
+
+		// The batch moves through the buffer from draw to draw, so the
+		// pointers are set every time even with vertex array objects.
+		backend.bindBuffer(GL15.GL_ARRAY_BUFFER, instanceBuffer);
 
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, getVbo());
-		GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, Vertex.SIZE * 4, 0);		// Position
-		GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, Vertex.SIZE * 4, 12);	// Texture coord
-		GL20.glVertexAttribPointer(2, 3, GL11.GL_FLOAT, false, Vertex.SIZE * 4, 20);	// Normal
-		GL20.glVertexAttribPointer(3, 3, GL11.GL_FLOAT, false, Vertex.SIZE * 4, 32);	// Tangent
+		for (int column = 0; column < 4; column++) {
+			backend.enableVertexAttribArray(Mesh.INSTANCE_ATTRIBUTE + column);
+			backend.vertexAttribPointer(Mesh.INSTANCE_ATTRIBUTE + column, 4, GL11.GL_FLOAT, false, Mesh.INSTANCE_STRIDE, offset + column * 16);
+			backend.vertexAttribDivisor(Mesh.INSTANCE_ATTRIBUTE + column, 1);
+		}
+
+		if (indexRanges == null) {
+			backend.drawElementsInstanced(GL11.GL_TRIANGLES, getSize(), indexType, 0, instances);
+		} else {
+			for (int range = 0; range < indexRanges.length; range += 3) {
+				backend.drawElementsInstancedBaseVertex(GL11.GL_TRIANGLES, indexRanges[range + 1], indexType, indexRanges[range] * 2L, instances, indexRanges[range + 2]);
+			}
+		}
+
+		// Disabled again so ordinary draws never source from the batch.
+		for (int column = 0; column < 4; column++) {
+			backend.disableVertexAttribArray(Mesh.INSTANCE_ATTRIBUTE + column);
+		}
+	}
 
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, getIbo());
-		GL11.glDrawElements(GL11.GL_TRIANGLES, getSize(), GL11.GL_UNSIGNED_INT, 0);
+	/**
+	 * Get the id {@link RenderQueue} sorts meshes by.
+	 */
+	int getSortId() {
+		return getVbo();
+	}
 
-		GL20.glDisableVertexAttribArray(0);
-		GL20.glDisableVertexAttribArray(1);
-		GL20.glDisableVertexAttribArray(2);
-		GL20.glDisableVertexAttribArray(3);
+	/**
+	 * Point the vertex attributes at the vertex buffer. With vertex array
+	 * objects this is recorded once; without, it is repeated every draw.
+	 */
+	private void setVertexAttributes(final RenderBackend backend) {
+		// Meshes with the same layout leave the same arrays enabled, so
+		// without vertex array objects the enables are mostly cached away.
+		backend.bindBuffer(GL15.GL_ARRAY_BUFFER, vertexBuffer);
+		layout.setAttributes(backend, vertexOffset);
 	}
 
 	private void calcNormals(final Vertex[] vertices, final int[] indices) {
+		final Vector3f v1 = new Vector3f(0, 0, 0);
+		final Vector3f v2 = new Vector3f(0, 0, 0);
+		final Vector3f normal = new Vector3f(0, 0, 0);
+
 		for (int i = 0; i < indices.length; i += 3) {
 			final int i0 = indices[i];
 			final int i1 = indices[i + 1];
 			final int i2 = indices[i + 2];
 
-			final Vector3f v1 = vertices[i1].getPos().sub(vertices[i0].getPos());
-			final Vector3f v2 = vertices[i2].getPos().sub(vertices[i0].getPos());
+			v1.setSub(vertices[i1].getPos(), vertices[i0].getPos());
+			v2.setSub(vertices[i2].getPos(), vertices[i0].getPos());
 
-			final Vector3f normal = v1.cross(v2).normalized();
+			v1.crossInto(v2, normal).normalizeLocal();
 
-			vertices[i0].setNormal(vertices[i0].getNormal().add(normal));
-			vertices[i1].setNormal(vertices[i1].getNormal().add(normal));
-			vertices[i2].setNormal(vertices[i2].getNormal().add(normal));
+			vertices[i0].getNormal().addLocal(normal);
+			vertices[i1].getNormal().addLocal(normal);
+			vertices[i2].getNormal().addLocal(normal);
 		}
 
 		for (final Vertex vertice : vertices) {
-			vertice.setNormal(vertice.getNormal().normalized());
+			vertice.getNormal().normalizeLocal();
 		}
 	}
 	
 	public void CalcTangents(final Vertex[] vertices, final int[] indices) {
+		final Vector3f edge1 = new Vector3f(0, 0, 0);
+		final Vector3f edge2 = new Vector3f(0, 0, 0);
+		final Vector3f tangent = new Vector3f(0, 0, 0);
+		final Vector3f bitangent = new Vector3f(0, 0, 0);
+		final Vector3f[] bitangents = new Vector3f[vertices.length];
+
+		for (int i = 0; i < vertices.length; i++) {
+			bitangents[i] = new Vector3f(0, 0, 0);
+		}
+
 		for (int i = 0; i < indices.length; i += 3) {
 			int i0 = indices[i];
 			int i1 = indices[i + 1];
 			int i2 = indices[i + 2];
 
-			Vector3f edge1 = vertices[i1].getPos().sub(vertices[i0].getPos());
-			Vector3f edge2 = vertices[i2].getPos().sub(vertices[i0].getPos());
+			edge1.setSub(vertices[i1].getPos(), vertices[i0].getPos());
+			edge2.setSub(vertices[i2].getPos(), vertices[i0].getPos());
 
 			float deltaU1 = vertices[i1].getTexCoord().getX() - vertices[i0].getTexCoord().getX();
 			float deltaV1 = vertices[i1].getTexCoord().getY() - vertices[i0].getTexCoord().getY();
@@ -107,18 +419,32 @@ public class Mesh extends MeshResource {
 			// TODO: The first 0.0f may need to be changed to 1.0f here.
 			float f = dividend == 0 ? 0.0f : 1.0f / dividend;
 
-			Vector3f tangent = new Vector3f(0, 0, 0);
 			tangent.setX(f * (deltaV2 * edge1.getX() - deltaV1 * edge2.getX()));
 			tangent.setY(f * (deltaV2 * edge1.getY() - deltaV1 * edge2.getY()));
 			tangent.setZ(f * (deltaV2 * edge1.getZ() - deltaV1 * edge2.getZ()));
 
-			vertices[i0].getTangent().set(vertices[i0].getTangent().add(tangent));
-			vertices[i1].getTangent().set(vertices[i1].getTangent().add(tangent));
-			vertices[i2].getTangent().set(vertices[i2].getTangent().add(tangent));
+			bitangent.setX(f * (deltaU1 * edge2.getX() - deltaU2 * edge1.getX()));
+			bitangent.setY(f * (deltaU1 * edge2.getY() - deltaU2 * edge1.getY()));
+			bitangent.setZ(f * (deltaU1 * edge2.getZ() - deltaU2 * edge1.getZ()));
+
+			vertices[i0].getTangent().addLocal(tangent);
+			vertices[i1].getTangent().addLocal(tangent);
+			vertices[i2].getTangent().addLocal(tangent);
+
+			bitangents[i0].addLocal(bitangent);
+			bitangents[i1].addLocal(bitangent);
+			bitangents[i2].addLocal(bitangent);
 		}
 
-		for (int i = 0; i < vertices.length; i++)
-			vertices[i].getTangent().set(vertices[i].getTangent().normalized());
+		for (int i = 0; i < vertices.length; i++) {
+			final Vertex vertex = vertices[i];
+			vertex.getTangent().normalizeLocal();
+
+			// The shaders build the bitangent as cross(tangent, normal);
+			// where the texture is mirrored it has to be flipped.
+			vertex.getTangent().crossInto(vertex.getNormal(), bitangent);
+			vertex.setHandedness(bitangent.dot(bitangents[i]) < 0 ? -1 : 1);
+		}
 	}
 
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.rendering;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A flat list of draws tagged with 64-bit sort keys.
+ *
+ * The key packs, from the most significant bits down, the pass, the shader,
+ * the material, the mesh and the distance to the camera. Sorting by key
+ * groups draws that share state, so submitting them in order changes as
+ * little GL state as possible. Draws that share all state are ordered front
+ * to back, so the depth test rejects hidden fragments early.
+ *
+ * Keys are sorted with an LSD radix sort, so sorting takes linear time and
+ * never allocates once the queue has grown to the size of the scene.
+ */
+public class RenderQueue {
+	private static final int INITIAL_CAPACITY = 256;
+
+	private static final int PASS_SHIFT = 52;
+	private static final int SHADER_SHIFT = 42;
+	private static final int MATERIAL_SHIFT = 30;
+	private static final int MESH_SHIFT = 16;
+
+	private static final int PASS_MASK = 0xFFF;
+	private static final int SHADER_MASK = 0x3FF;
+	private static final int MATERIAL_MASK = 0xFFF;
+	private static final int MESH_MASK = 0x3FFF;
+
+	private static final AtomicInteger nextSortId = new AtomicInteger();
+
+	private int count;
+	private long[] keys;
+	private int[] draws;
+	private long[] sortedKeys;
+	private int[] sortedDraws;
+	private final int[] digitCounts;
+
+	private int passes;
+	private int shaderChanges;
+	private int materialChanges;
+	private int meshChanges;
+
+	public RenderQueue() {
+		keys = new long[RenderQueue.INITIAL_CAPACITY];
+		draws = new int[RenderQueue.INITIAL_CAPACITY];
+		sortedKeys = new long[RenderQueue.INITIAL_CAPACITY];
+		sortedDraws = new int[RenderQueue.INITIAL_CAPACITY];
+		digitCounts = new int[256];
+	}
+
+	/**
+	 * Get a new id to sort objects without a GL handle by, such as
+	 * materials. Only the low bits end up in a key, so ids may collide in
+	 * very large scenes; that only costs some batching.
+	 */
+	static int nextSortId() {
+		return RenderQueue.nextSortId.getAndIncrement();
+	}
+
+	/**
+	 * Build the sort key of a draw.
+	 * 
+	 * @param pass
+	 *            - The pass the draw belongs to; passes are drawn in order
+	 * @param shader
+	 *            - The sort id of the shader
+	 * @param material
+	 *            - The sort id of the material
+	 * @param mesh
+	 *            - The sort id of the mesh
+	 * @param distanceSquared
+	 *            - The squared distance from the camera to the mesh
+	 * @return The key
+	 * @throws IllegalArgumentException
+	 *             if <code>pass</code> doesn't fit in the key
+	 */
+	public static long createKey(final int pass, final int shader, final int material, final int mesh, final float distanceSquared) throws IllegalArgumentException {
+		if (pass < 0 || pass > RenderQueue.PASS_MASK) {
+			throw new IllegalArgumentException("Pass " + pass + " is out of range");
+		}
+
+		// Non-negative floats sort like their bit patterns, so the top bits
+		// are a coarse but monotonic depth.
+		final long depth = Float.floatToIntBits(Math.max(distanceSquared, 0)) >>> 16;
+
+		return (long) pass << RenderQueue.PASS_SHIFT | (long) (shader & RenderQueue.SHADER_MASK) << RenderQueue.SHADER_SHIFT | (long) (material & RenderQueue.MATERIAL_MASK) << RenderQueue.MATERIAL_SHIFT | (long) (mesh & RenderQueue.MESH_MASK) << RenderQueue.MESH_SHIFT | depth;
+	}
+
+	/**
+	 * Get the pass a key was built with.
+	 */
+	public static int getPass(final long key) {
+		return (int) (key >>> RenderQueue.PASS_SHIFT);
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Queue a draw.
+	 * 
+	 * @param key
+	 *            - The key from {@link #createKey}
+	 * @param draw
+	 *            - What to draw, such as an index into a
+	 *            {@link RenderSnapshot}
+	 */
+	public void add(final long key, final int draw) {
+		if (count == keys.length) {
+			keys = Arrays.copyOf(keys, count * 2);
+			draws = Arrays.copyOf(draws, count * 2);
+			sortedKeys = new long[count * 2];
+			sortedDraws = new int[count * 2];
+		}
+
+		keys[count] = key;
+		draws[count] = draw;
+		count++;
+	}
+
+	/**
+	 * Sort the queued draws by key, keeping draws with equal keys in the
+	 * order they were added, and update the statistics.
+	 */
+	public void sort() {
+		for (int shift = 0; shift < 64; shift += 8) {
+			Arrays.fill(digitCounts, 0);
+
+			for (int i = 0; i < count; i++) {
+				digitCounts[(int) (keys[i] >>> shift) & 0xFF]++;
+			}
+
+			// Most digits are the same for every key, such as the upper pass
+			// bits; those passes wouldn't move anything.
+			if (count == 0 || digitCounts[(int) (keys[0] >>> shift) & 0xFF] == count) {
+				continue;
+			}
+
+			int offset = 0;
+
+			for (int digit = 0; digit < 256; digit++) {
+				final int digitCount = digitCounts[digit];
+				digitCounts[digit] = offset;
+				offset += digitCount;
+			}
+
+			for (int i = 0; i < count; i++) {
+				final int target = digitCounts[(int) (keys[i] >>> shift) & 0xFF]++;
+				sortedKeys[target] = keys[i];
+				sortedDraws[target] = draws[i];
+			}
+
+			final long[] swapKeys = keys;
+			keys = sortedKeys;
+			sortedKeys = swapKeys;
+
+			final int[] swapDraws = draws;
+			draws = sortedDraws;
+			sortedDraws = swapDraws;
+		}
+
+		countStateChanges();
+	}
+
+	private void countStateChanges() {
+		passes = 0;
+		shaderChanges = 0;
+		materialChanges = 0;
+		meshChanges = 0;
+
+		for (int i = 0; i < count; i++) {
+			final long key = keys[i];
+			final long previous = i > 0 ? keys[i - 1] : ~key;
+
+			if (key >>> RenderQueue.PASS_SHIFT != previous >>> RenderQueue.PASS_SHIFT) {
+				passes++;
+			}
+
+			if (key >>> RenderQueue.SHADER_SHIFT != previous >>> RenderQueue.SHADER_SHIFT) {
+				shaderChanges++;
+			}
+
+			if (key >>> RenderQueue.MATERIAL_SHIFT != previous >>> RenderQueue.MATERIAL_SHIFT) {
+				materialChanges++;
+			}
+
+			if (key >>> RenderQueue.MESH_SHIFT != previous >>> RenderQueue.MESH_SHIFT) {
+				meshChanges++;
+			}
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public long getKey(final int index) {
+		return keys[index];
+	}
+
+	public int getDraw(final int index) {
+		return draws[index];
+	}
+
+	/**
+	 * Get the number of passes with at least one draw, as of the last
+	 * {@link #sort()}.
+	 */
+	public int getPasses() {
+		return passes;
+	}
+
+	/**
+	 * Get the number of times the shader changes when the sorted queue is
+	 * submitted, counting a new pass as a change.
+	 */
+	public int getShaderChanges() {
+		return shaderChanges;
+	}
+
+	/**
+	 * Get the number of times the material changes when the sorted queue is
+	 * submitted, counting a new shader as a change.
+	 */
+	public int getMaterialChanges() {
+		return materialChanges;
+	}
+
+	/**
+	 * Get the number of times the mesh changes when the sorted queue is
+	 * submitted, counting a new material as a change.
+	 */
+	public int getMeshChanges() {
+		return meshChanges;
+	}
+
+	/**
+	 * Get a one line summary of the last sorted frame.
+	 */
+	public String getStatistics() {
+		return count + " draws, " + passes + " passes, " + shaderChanges + " shader, " + materialChanges + " material and " + meshChanges + " mesh changes";
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.rendering;
+
+import java.util.Arrays;
+
+import com.base.engine.core.Transform;
+import com.base.engine.core.math.Bounds;
+import com.base.engine.core.math.Frustum;
+import com.base.engine.core.math.Matrix4f;
+import com.base.engine.core.math.Vector3f;
+
+/**
+ * Everything needed to draw one frame, copied out of the scene so the frame
+ * can be drawn while the simulation moves on: a list of draws (mesh, material
+ * and world matrix), the state of every light and the camera.
+ *
+ * Snapshots are filled by {@link RenderingEngine#capture} and drawn by
+ * {@link RenderingEngine#render(RenderSnapshot)}. They are reused from frame
+ * to frame, so filling one doesn't allocate once it has grown to the size of
+ * the scene. Meshes and materials are shared with the scene by reference and
+ * must not be changed while a snapshot holding them may be drawn.
+ */
+public class RenderSnapshot {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int drawCount;
+	private Mesh[] meshes;
+	private Material[] materials;
+	private float[] worldMatrices;
+	private Transform[] transforms;
+	private boolean keepingTransforms;
+
+	// World space bounding spheres, one array per coordinate for culling.
+	private float[] boundsX;
+	private float[] boundsY;
+	private float[] boundsZ;
+	private float[] boundsRadius;
+
+	private int lightCount;
+	private LightState[] lights;
+
+	private final Matrix4f viewProjection;
+	private final Vector3f eyePos;
+
+	public RenderSnapshot() {
+		meshes = new Mesh[RenderSnapshot.INITIAL_CAPACITY];
+		materials = new Material[RenderSnapshot.INITIAL_CAPACITY];
+		worldMatrices = new float[RenderSnapshot.INITIAL_CAPACITY * Matrix4f.SIZE];
+		transforms = new Transform[RenderSnapshot.INITIAL_CAPACITY];
+		boundsX = new float[RenderSnapshot.INITIAL_CAPACITY];
+		boundsY = new float[RenderSnapshot.INITIAL_CAPACITY];
+		boundsZ = new float[RenderSnapshot.INITIAL_CAPACITY];
+		boundsRadius = new float[RenderSnapshot.INITIAL_CAPACITY];
+		lights = new LightState[0];
+
+		viewProjection = new Matrix4f().initIdentity();
+		eyePos = new Vector3f(0, 0, 0);
+	}
+
+	/**
+	 * Empty this snapshot so it can be filled again. The draws are cleared
+	 * rather than just forgotten so the snapshot doesn't keep old meshes
+	 * alive.
+	 */
+	public void clear() {
+		Arrays.fill(meshes, 0, drawCount, null);
+		Arrays.fill(materials, 0, drawCount, null);
+		Arrays.fill(transforms, 0, drawCount, null);
+
+		drawCount = 0;
+		lightCount = 0;
+	}
+
+	/**
+	 * Record a draw of <code>mesh</code> with <code>material</code>.
+	 * 
+	 * @param mesh
+	 *            - The mesh to draw
+	 * @param material
+	 *            - The material to draw it with
+	 * @param worldMatrix
+	 *            - The world matrix of the mesh, copied into the snapshot
+	 */
+	public void addDraw(final Mesh mesh, final Material material, final Matrix4f worldMatrix) {
+		if (drawCount == meshes.length) {
+			meshes = Arrays.copyOf(meshes, drawCount * 2);
+			materials = Arrays.copyOf(materials, drawCount * 2);
+			worldMatrices = Arrays.copyOf(worldMatrices, drawCount * 2 * Matrix4f.SIZE);
+			transforms = Arrays.copyOf(transforms, drawCount * 2);
+			boundsX = Arrays.copyOf(boundsX, drawCount * 2);
+			boundsY = Arrays.copyOf(boundsY, drawCount * 2);
+			boundsZ = Arrays.copyOf(boundsZ, drawCount * 2);
+			boundsRadius = Arrays.copyOf(boundsRadius, drawCount * 2);
+		}
+
+		meshes[drawCount] = mesh;
+		materials[drawCount] = material;
+		worldMatrix.get(worldMatrices, drawCount * Matrix4f.SIZE);
+		addBounds(mesh.getBounds());
+		drawCount++;
+	}
+
+	/**
+	 * Move the bounding sphere of a mesh into world space with the world
+	 * matrix of the draw being added. The radius grows with the largest
+	 * scale of the matrix, so the sphere still encloses the mesh under
+	 * non-uniform scaling.
+	 */
+	private void addBounds(final Bounds bounds) {
+		final float[] m = worldMatrices;
+		final int offset = drawCount * Matrix4f.SIZE;
+		final Vector3f center = bounds.getCenter();
+
+		boundsX[drawCount] = m[offset] * center.getX() + m[offset + 1] * center.getY() + m[offset + 2] * center.getZ() + m[offset + 3];
+		boundsY[drawCount] = m[offset + 4] * center.getX() + m[offset + 5] * center.getY() + m[offset + 6] * center.getZ() + m[offset + 7];
+		boundsZ[drawCount] = m[offset + 8] * center.getX() + m[offset + 9] * center.getY() + m[offset + 10] * center.getZ() + m[offset + 11];
+
+		final float scaleX = m[offset] * m[offset] + m[offset + 4] * m[offset + 4] + m[offset + 8] * m[offset + 8];
+		final float scaleY = m[offset + 1] * m[offset + 1] + m[offset + 5] * m[offset + 5] + m[offset + 9] * m[offset + 9];
+		final float scaleZ = m[offset + 2] * m[offset + 2] + m[offset + 6] * m[offset + 6] + m[offset + 10] * m[offset + 10];
+
+		boundsRadius[drawCount] = bounds.getRadius() * (float) Math.sqrt(Math.max(scaleX, Math.max(scaleY, scaleZ)));
+	}
+
+	/**
+	 * Record a draw of <code>mesh</code> with <code>material</code> at the
+	 * current world matrix of <code>transform</code>. The transform itself is
+	 * only kept if this snapshot is {@link #setKeepingTransforms keeping
+	 * transforms}.
+	 * 
+	 * @param mesh
+	 *            - The mesh to draw
+	 * @param material
+	 *            - The material to draw it with
+	 * @param transform
+	 *            - The transform of the mesh
+	 */
+	public void addDraw(final Mesh mesh, final Material material, final Transform transform) {
+		addDraw(mesh, material, transform.getTransformation());
+
+		if (keepingTransforms) {
+			transforms[drawCount - 1] = transform;
+		}
+	}
+
+	/**
+	 * Get the next free light state of this snapshot to capture a light
+	 * into.
+	 */
+	public LightState addLight() {
+		if (lightCount == lights.length) {
+			lights = Arrays.copyOf(lights, Math.max(4, lightCount * 2));
+
+			for (int i = lightCount; i < lights.length; i++) {
+				lights[i] = new LightState();
+			}
+		}
+
+		return lights[lightCount++];
+	}
+
+	public int getDrawCount() {
+		return drawCount;
+	}
+
+	public Mesh getMesh(final int draw) {
+		return meshes[draw];
+	}
+
+	public Material getMaterial(final int draw) {
+		return materials[draw];
+	}
+
+	/**
+	 * Copy the world matrix of a draw into <code>dest</code>.
+	 * 
+	 * @param draw
+	 *            - The index of the draw
+	 * @param dest
+	 *            - Receives the world matrix
+	 * @return <code>dest</code>
+	 */
+	public Matrix4f getWorldMatrix(final int draw, final Matrix4f dest) {
+		return dest.set(worldMatrices, draw * Matrix4f.SIZE);
+	}
+
+	/**
+	 * Get the transform a draw was recorded with, or <code>null</code> if it
+	 * wasn't kept.
+	 * 
+	 * @param draw
+	 *            - The index of the draw
+	 * @see #setKeepingTransforms(boolean)
+	 */
+	public Transform getTransform(final int draw) {
+		return transforms[draw];
+	}
+
+	/**
+	 * Get the squared distance between the origin of a draw and
+	 * <code>point</code>.
+	 * 
+	 * @param draw
+	 *            - The index of the draw
+	 * @param point
+	 *            - The point to measure from, usually the camera
+	 */
+	public float getDistanceSquared(final int draw, final Vector3f point) {
+		final int offset = draw * Matrix4f.SIZE;
+		final float x = worldMatrices[offset + 3] - point.getX();
+		final float y = worldMatrices[offset + 7] - point.getY();
+		final float z = worldMatrices[offset + 11] - point.getZ();
+
+		return x * x + y * y + z * z;
+	}
+
+	/**
+	 * Find the draws whose bounds are at least partly inside
+	 * <code>frustum</code>.
+	 * 
+	 * @param frustum
+	 *            - The frustum of the camera
+	 * @param visible
+	 *            - Receives the indices of the visible draws, in order; must
+	 *            hold at least {@link #getDrawCount()} elements
+	 * @return The number of visible draws
+	 */
+	public int cull(final Frustum frustum, final int[] visible) {
+		return frustum.cullSpheres(boundsX, boundsY, boundsZ, boundsRadius, drawCount, visible);
+	}
+
+	/**
+	 * Check if <code>light</code> can reach the bounds of a draw.
+	 * 
+	 * @param draw
+	 *            - The index of the draw
+	 * @param light
+	 *            - The light
+	 */
+	public boolean isReachedBy(final int draw, final LightState light) {
+		return light.reachesSphere(boundsX[draw], boundsY[draw], boundsZ[draw], boundsRadius[draw]);
+	}
+
+	/**
+	 * Keep a reference to the transform of each draw, so the draw can be
+	 * interpolated when it is drawn. Only a snapshot that is drawn on the
+	 * thread that owns the scene may keep transforms.
+	 * 
+	 * @param keepingTransforms
+	 *            - <code>true</code> to keep transforms
+	 */
+	public void setKeepingTransforms(final boolean keepingTransforms) {
+		this.keepingTransforms = keepingTransforms;
+	}
+
+	public boolean isKeepingTransforms() {
+		return keepingTransforms;
+	}
+
+	public int getLightCount() {
+		return lightCount;
+	}
+
+	public LightState getLight(final int light) {
+		return lights[light];
+	}
+
+	public Matrix4f getViewProjection() {
+		return viewProjection;
+	}
+
+	public Vector3f getEyePos() {
+		return eyePos;
+	}
+}
@@ -16,87 +16,890 @@
 
 package com.base.engine.rendering;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
+import org.lwjgl.opengl.ARBFramebufferObject;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
 
 import com.base.engine.components.BaseLight;
 import com.base.engine.components.Camera;
+import com.base.engine.components.MeshRenderer;
+import com.base.engine.core.BufferArena;
 import com.base.engine.core.GameObject;
+import com.base.engine.core.LooseOctree;
+import com.base.engine.core.Profiler;
 import com.base.engine.core.Transform;
+import com.base.engine.core.math.Frustum;
+import com.base.engine.core.math.Matrix4f;
+import com.base.engine.core.math.Vector2f;
 import com.base.engine.core.math.Vector3f;
+import com.base.engine.core.math.Vertex;
+import com.base.engine.rendering.backend.Graphics;
+import com.base.engine.rendering.backend.RenderBackend;
 import com.base.engine.rendering.resourceManagement.MappedValues;
 
 public class RenderingEngine extends MappedValues {
+	private static final int AMBIENT_SCOPE = Profiler.register("render.ambient");
+	private static final int GEOMETRY_SCOPE = Profiler.register("render.geometry");
+
+	// Runs shorter than this are cheaper to draw one by one than to upload.
+	private static final int MIN_INSTANCE_BATCH = 2;
+	private static final int MAX_INSTANCE_BATCH = 1024;
+	private static final int STREAM_REGION_SIZE = 4 * 1024 * 1024;
+
+	private final RenderBackend backend;
 	private final HashMap<String, Integer> samplerMap;
+	private int[] samplerSlots;
+	private final HashMap<String, Texture> textureMap;
+	private Texture[] textureSlots;
 	private final ArrayList<BaseLight> lights;
 	private BaseLight activeLight;
+	private LightState activeLightState;
+	private final LightState liveLightState;
 
 	private final Shader forwardAmbient;
 	private Camera mainCamera;
 
+	private final Matrix4f viewProjection;
+	private final Matrix4f inverseViewProjection;
+	private final Vector3f eyePos;
+	private final Matrix4f worldMatrix;
+
+	private final RenderQueue renderQueue;
+	private final RenderSnapshot liveSnapshot;
+	private boolean renderQueueEnabled;
+
+	private final Frustum frustum;
+	private int[] visibleDraws;
+	private boolean frustumCullingEnabled;
+	private int drawCount;
+	private int culledDrawCount;
+
+	private int[] visibleLights;
+	// x, y, width and height per light, with a negative width for none.
+	private int[] scissorRects;
+	private boolean lightCullingEnabled;
+	private int lightCount;
+	private int culledLightCount;
+	private int litDrawCount;
+
+	private boolean deferred;
+	private GBuffer gBuffer;
+	private Shader deferredGeometry;
+	private Shader deferredAmbient;
+	// Indexed by light volume.
+	private Shader[] deferredLights;
+	private Mesh fullscreenQuad;
+	private final Matrix4f screenMatrix;
+
+	private boolean clustered;
+	private LightClusters lightClusters;
+	private Shader forwardClustered;
+	private ForkJoinPool binningPool;
+	private final Vector3f clusterScale;
+	private final Vector3f clusterCount;
+
+	private boolean instancingEnabled;
+	private int instancedDrawCount;
+	private int instanceBatchCount;
+
+	private final ArrayList<MeshRenderer> meshRenderers;
+	private LooseOctree<MeshRenderer> spatialIndex;
+	private final ArrayList<MeshRenderer> visibleRenderers;
+	// Capturing may run on another thread than drawing, so it has its own.
+	private final Frustum captureFrustum;
+	private final ArrayList<MeshRenderer> capturedRenderers;
+
+	private boolean interpolating;
+	private float interpolationAlpha;
+
+	private StreamBuffer streamBuffer;
+
 	public RenderingEngine() {
 		super();
+		backend = Graphics.getBackend();
 		lights = new ArrayList<BaseLight>();
 		samplerMap = new HashMap<String, Integer>();
-		samplerMap.put("diffuse", 0);
-		samplerMap.put("normalMap", 1);
-		samplerMap.put("dispMap", 2);
+		samplerSlots = new int[0];
+		textureMap = new HashMap<String, Texture>();
+		textureSlots = new Texture[0];
+		liveLightState = new LightState();
+		viewProjection = new Matrix4f().initIdentity();
+		inverseViewProjection = new Matrix4f().initIdentity();
+		eyePos = new Vector3f(0, 0, 0);
+		worldMatrix = new Matrix4f();
+		renderQueue = new RenderQueue();
+		liveSnapshot = new RenderSnapshot();
+		liveSnapshot.setKeepingTransforms(true);
+		renderQueueEnabled = true;
+		frustum = new Frustum();
+		visibleDraws = new int[0];
+		frustumCullingEnabled = true;
+		visibleLights = new int[0];
+		scissorRects = new int[0];
+		lightCullingEnabled = true;
+		instancingEnabled = backend.isInstancingSupported();
+		screenMatrix = new Matrix4f().initIdentity();
+		clusterScale = new Vector3f(0, 0, 0);
+		clusterCount = new Vector3f(0, 0, 0);
+		meshRenderers = new ArrayList<MeshRenderer>();
+		visibleRenderers = new ArrayList<MeshRenderer>();
+		captureFrustum = new Frustum();
+		capturedRenderers = new ArrayList<MeshRenderer>();
+		addSamplerSlot("diffuse", 0);
+		addSamplerSlot("normalMap", 1);
+		addSamplerSlot("dispMap", 2);
+		addSamplerSlot("gAlbedo", 0);
+		addSamplerSlot("gNormal", 1);
+		addSamplerSlot("gDepth", 2);
+		addSamplerSlot("lightData", 3);
+		addSamplerSlot("lightGrid", 4);
+		addSamplerSlot("lightIndices", 5);
 
 		addVector3f("ambient", new Vector3f(1.0f, 1.0f, 1.0f));
+		addVector3f("clusterScale", clusterScale);
+		addVector3f("clusterCount", clusterCount);
 
 		forwardAmbient = new Shader("forward-ambient");
 
-		GL11.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+		backend.clearColor(0.0f, 0.0f, 0.0f, 0.0f);
 
-		GL11.glFrontFace(GL11.GL_CW);
-		GL11.glCullFace(GL11.GL_BACK);
-		GL11.glEnable(GL11.GL_CULL_FACE);
-		GL11.glEnable(GL11.GL_DEPTH_TEST);
+		backend.frontFace(GL11.GL_CW);
+		backend.cullFace(GL11.GL_BACK);
+		backend.enable(GL11.GL_CULL_FACE);
+		backend.enable(GL11.GL_DEPTH_TEST);
 
 		//
 		// glEnable(GL_DEPTH_CLAMP);
 
-		GL11.glEnable(GL11.GL_TEXTURE_2D);
+		backend.enable(GL11.GL_TEXTURE_2D);
 	}
 	
+	/**
+	 * Called for struct uniforms that {@link Shader} doesn't know about.
+	 * <code>transform</code> is <code>null</code> when drawing a
+	 * {@link RenderSnapshot}.
+	 */
 	public void updateUniformStruct(final Transform transform, final Material material, final Shader shader, final String uniformName, final String uniformType) {
 		throw new IllegalArgumentException(uniformType + " is not a supported type in RenderingEngine");
 	}
 
 	public void render(final GameObject object) throws IllegalStateException {
-		if (getMainCamera() == null) {
-			System.err.println("Error! Main camera not found. This is very very big bug, and game will crash.");
-			throw new IllegalStateException("Camera was not attached to the RenderingEngine");
+		checkMainCamera();
+
+		if (interpolating) {
+			getMainCamera().getViewProjection(interpolationAlpha, viewProjection);
+			getMainCamera().getTransform().getInterpolatedTransformedPos(interpolationAlpha, eyePos);
+		} else {
+			getMainCamera().getViewProjection(viewProjection);
+			getMainCamera().getTransform().getTransformedPos(eyePos);
+		}
+
+		viewProjection.invert(inverseViewProjection);
+
+		if (!renderQueueEnabled && !deferred) {
+			renderAll(object);
+			endFrame();
+			return;
+		}
+
+		// The live snapshot keeps the transforms, so draws can still be
+		// interpolated.
+		liveSnapshot.clear();
+
+		if (spatialIndex != null) {
+			addToSnapshot(frustum.set(viewProjection), visibleRenderers, liveSnapshot);
+		} else {
+			object.addAllToSnapshot(liveSnapshot);
+		}
+
+		for (final BaseLight light : lights) {
+			light.capture(liveSnapshot.addLight());
 		}
-		GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
 
+		submit(liveSnapshot, lights);
+		liveSnapshot.clear();
+		endFrame();
+	}
+
+	private void renderAll(final GameObject object) {
+		backend.clear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+
+		Profiler.begin(RenderingEngine.AMBIENT_SCOPE);
+		forwardAmbient.updateUniformBlocks(this);
 		object.renderAll(forwardAmbient, this);
+		Profiler.end(RenderingEngine.AMBIENT_SCOPE);
 
-		GL11.glEnable(GL11.GL_BLEND);
-		GL11.glBlendFunc(GL11.GL_ONE, GL11.GL_ONE);
-		GL11.glDepthMask(false);
-		GL11.glDepthFunc(GL11.GL_EQUAL);
+		beginLightPasses();
 
 		for (final BaseLight light : lights) {
 			activeLight = light;
+			activeLightState = light.capture(liveLightState);
+
+			Profiler.begin(activeLightState.getPassScope());
+			light.getShader().updateUniformBlocks(this);
 			object.renderAll(light.getShader(), this);
+			Profiler.end(activeLightState.getPassScope());
+		}
+
+		endLightPasses();
+	}
+
+	/**
+	 * Copy everything needed to draw <code>object</code> into
+	 * <code>snapshot</code>, so it can be drawn later with
+	 * {@link #render(RenderSnapshot)}, possibly on another thread.
+	 * 
+	 * @param object
+	 *            - The root of the scene
+	 * @param snapshot
+	 *            - Receives the frame; its previous contents are dropped
+	 */
+	public void capture(final GameObject object, final RenderSnapshot snapshot) throws IllegalStateException {
+		checkMainCamera();
+
+		snapshot.clear();
+
+		getMainCamera().getViewProjection(snapshot.getViewProjection());
+		getMainCamera().getTransform().getTransformedPos(snapshot.getEyePos());
+
+		if (spatialIndex != null) {
+			addToSnapshot(captureFrustum.set(snapshot.getViewProjection()), capturedRenderers, snapshot);
+		} else {
+			object.addAllToSnapshot(snapshot);
+		}
+
+		for (final BaseLight light : lights) {
+			light.capture(snapshot.addLight());
+		}
+	}
+
+	/**
+	 * Add the mesh renderers in the spatial index that are in view to
+	 * <code>snapshot</code>.
+	 */
+	private void addToSnapshot(final Frustum frustum, final ArrayList<MeshRenderer> renderers, final RenderSnapshot snapshot) {
+		spatialIndex.query(frustum, renderers);
+
+		for (int i = 0; i < renderers.size(); i++) {
+			renderers.get(i).addToSnapshot(snapshot);
+		}
+
+		renderers.clear();
+	}
+
+	/**
+	 * Draw a frame captured by {@link #capture}. Only the snapshot is read,
+	 * so the scene may change while this runs.
+	 * 
+	 * @param snapshot
+	 *            - The frame to draw
+	 */
+	public void render(final RenderSnapshot snapshot) {
+		viewProjection.set(snapshot.getViewProjection());
+		eyePos.set(snapshot.getEyePos());
+		viewProjection.invert(inverseViewProjection);
+
+		if (renderQueueEnabled || deferred) {
+			submit(snapshot, null);
+			endFrame();
+			return;
+		}
+
+		final int visibleCount = cull(snapshot);
+
+		backend.clear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+
+		Profiler.begin(RenderingEngine.AMBIENT_SCOPE);
+		renderDraws(snapshot, visibleCount, forwardAmbient);
+		Profiler.end(RenderingEngine.AMBIENT_SCOPE);
+
+		beginLightPasses();
+
+		for (int i = 0; i < snapshot.getLightCount(); i++) {
+			activeLight = null;
+			activeLightState = snapshot.getLight(i);
+
+			Profiler.begin(activeLightState.getPassScope());
+			renderDraws(snapshot, visibleCount, activeLightState.getShader());
+			Profiler.end(activeLightState.getPassScope());
+		}
+
+		endLightPasses();
+		endFrame();
+	}
+
+	/**
+	 * Let the stream buffer move on once everything drawn from it this frame
+	 * has been issued, and release this frame's scratch buffers.
+	 */
+	private void endFrame() {
+		if (streamBuffer != null) {
+			streamBuffer.endFrame();
+		}
+
+		BufferArena.get().reset();
+	}
+
+	/**
+	 * Queue every draw of <code>snapshot</code> once for the ambient pass and
+	 * once per light, sort the queue and draw it in order.
+	 * 
+	 * @param snapshot
+	 *            - The frame to draw
+	 * @param liveLights
+	 *            - The lights the light states of <code>snapshot</code> were
+	 *            captured from, or <code>null</code> if they may have changed
+	 *            since
+	 */
+	private void submit(final RenderSnapshot snapshot, final ArrayList<BaseLight> liveLights) {
+		final int visibleCount = cull(snapshot);
+		final int visibleLightCount = cullLights(snapshot);
+
+		if (deferred) {
+			shadeDeferred(snapshot, liveLights, visibleCount, visibleLightCount);
+			return;
+		}
+
+		// Clustered lighting draws the point and spot lights in the first
+		// pass, so only lights without a volume get passes of their own.
+		final Shader firstPassShader = clustered ? forwardClustered : forwardAmbient;
+
+		if (clustered) {
+			binLights(snapshot, visibleLightCount);
+		}
+
+		backend.clear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+
+		renderQueue.clear();
+		litDrawCount = 0;
+		instancedDrawCount = 0;
+		instanceBatchCount = 0;
+
+		for (int v = 0; v < visibleCount; v++) {
+			final int i = visibleDraws[v];
+			final int materialId = snapshot.getMaterial(i).getSortId();
+			final int meshId = snapshot.getMesh(i).getSortId();
+			final float distanceSquared = snapshot.getDistanceSquared(i, eyePos);
+
+			renderQueue.add(RenderQueue.createKey(0, firstPassShader.getSortId(), materialId, meshId, distanceSquared), i);
+
+			for (int l = 0; l < visibleLightCount; l++) {
+				final int light = visibleLights[l];
+
+				if (clustered && snapshot.getLight(light).getVolume() != LightState.VOLUME_NONE) {
+					continue;
+				}
+
+				if (lightCullingEnabled && !snapshot.isReachedBy(i, snapshot.getLight(light))) {
+					continue;
+				}
+
+				renderQueue.add(RenderQueue.createKey(light + 1, snapshot.getLight(light).getShader().getSortId(), materialId, meshId, distanceSquared), i);
+				litDrawCount++;
+			}
+		}
+
+		renderQueue.sort();
+
+		int pass = -1;
+		int scope = 0;
+		Shader shader = null;
+		Shader instancedShader = null;
+		Shader boundShader = null;
+
+		for (int i = 0; i < renderQueue.size(); i++) {
+			final int nextPass = RenderQueue.getPass(renderQueue.getKey(i));
+			final int draw = renderQueue.getDraw(i);
+
+			if (nextPass != pass) {
+				if (pass >= 0) {
+					Profiler.end(scope);
+				}
+
+				if (nextPass == 0) {
+					activeLight = null;
+					activeLightState = null;
+					shader = firstPassShader;
+					scope = RenderingEngine.AMBIENT_SCOPE;
+				} else {
+					if (pass <= 0) {
+						beginLightPasses();
+					}
+
+					activeLight = liveLights != null ? liveLights.get(nextPass - 1) : null;
+					activeLightState = snapshot.getLight(nextPass - 1);
+					shader = activeLightState.getShader();
+					scope = activeLightState.getPassScope();
+
+					scissorLight(nextPass - 1);
+				}
+
+				pass = nextPass;
+				instancedShader = instancingEnabled ? shader.getInstancedVariant() : null;
+				boundShader = null;
+
+				Profiler.begin(scope);
+			}
+
+			final int batchEnd = instancedShader != null ? findBatchEnd(snapshot, i) : i + 1;
+			final Shader drawShader = batchEnd - i >= RenderingEngine.MIN_INSTANCE_BATCH ? instancedShader : shader;
+
+			if (drawShader != boundShader) {
+				drawShader.bind();
+				drawShader.updateUniformBlocks(this);
+				boundShader = drawShader;
+			}
+
+			if (drawShader == instancedShader) {
+				drawBatch(snapshot, i, batchEnd, instancedShader);
+				i = batchEnd - 1;
+				continue;
+			}
+
+			final Transform transform = snapshot.getTransform(draw);
+
+			if (transform != null) {
+				shader.updateUniforms(transform, snapshot.getMaterial(draw), this);
+			} else {
+				shader.updateUniforms(snapshot.getWorldMatrix(draw, worldMatrix), snapshot.getMaterial(draw), this);
+			}
+
+			snapshot.getMesh(draw).draw();
+		}
+
+		if (pass >= 0) {
+			Profiler.end(scope);
+		}
+
+		if (pass > 0) {
+			endLightPasses();
+		}
+	}
+
+	/**
+	 * Bin the visible point and spot lights of <code>snapshot</code> into the
+	 * light clusters, and hand the result to the clustered shader.
+	 */
+	private void binLights(final RenderSnapshot snapshot, final int visibleLightCount) {
+		lightClusters.begin(viewProjection, Window.getWidth(), Window.getHeight());
+
+		for (int l = 0; l < visibleLightCount; l++) {
+			final int light = visibleLights[l];
+			final LightState state = snapshot.getLight(light);
+			final int rect = light * 4;
+
+			if (state.getVolume() == LightState.VOLUME_NONE) {
+				continue;
+			}
+
+			// Light culling already found the rectangle.
+			if (!lightCullingEnabled) {
+				findScissorRect(state.getPosition(), state.getRange(), rect);
+			}
+
+			lightClusters.add(state, scissorRects[rect], scissorRects[rect + 1], scissorRects[rect + 2], scissorRects[rect + 3]);
+		}
+
+		lightClusters.bin(binningPool);
+		lightClusters.upload();
+
+		clusterScale.set(lightClusters.getTilesX() / (float) Window.getWidth(), lightClusters.getTilesY() / (float) Window.getHeight(), lightClusters.getSliceScale());
+		clusterCount.set(lightClusters.getTilesX(), lightClusters.getTilesY(), lightClusters.getSlices());
+		addFloat("clusterBias", lightClusters.getSliceBias());
+		addFloat("lightCapacity", lightClusters.getLightCapacity());
+		addFloat("lightIndexRows", lightClusters.getIndexRows());
+
+		addTexture("lightData", lightClusters.getLightTexture());
+		addTexture("lightGrid", lightClusters.getGridTexture());
+		addTexture("lightIndices", lightClusters.getIndexTexture());
+	}
+
+	/**
+	 * Draw the visible draws of <code>snapshot</code> into the G-buffer, then
+	 * light the window from it with one fullscreen pass for the ambient light
+	 * and one per visible light.
+	 */
+	private void shadeDeferred(final RenderSnapshot snapshot, final ArrayList<BaseLight> liveLights, final int visibleCount, final int visibleLightCount) {
+		if (gBuffer == null || gBuffer.getWidth() != Window.getWidth() || gBuffer.getHeight() != Window.getHeight()) {
+			gBuffer = new GBuffer(Window.getWidth(), Window.getHeight());
+		}
+
+		renderQueue.clear();
+
+		for (int v = 0; v < visibleCount; v++) {
+			final int i = visibleDraws[v];
+
+			renderQueue.add(RenderQueue.createKey(0, deferredGeometry.getSortId(), snapshot.getMaterial(i).getSortId(), snapshot.getMesh(i).getSortId(), snapshot.getDistanceSquared(i, eyePos)), i);
+		}
+
+		renderQueue.sort();
+
+		activeLight = null;
+		activeLightState = null;
+
+		gBuffer.bind();
+		backend.clear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+
+		instancedDrawCount = 0;
+		instanceBatchCount = 0;
+
+		final Shader instancedGeometry = instancingEnabled ? deferredGeometry.getInstancedVariant() : null;
+		Shader boundShader = null;
+
+		Profiler.begin(RenderingEngine.GEOMETRY_SCOPE);
+
+		for (int i = 0; i < renderQueue.size(); i++) {
+			final int draw = renderQueue.getDraw(i);
+			final int batchEnd = instancedGeometry != null ? findBatchEnd(snapshot, i) : i + 1;
+			final Shader drawShader = batchEnd - i >= RenderingEngine.MIN_INSTANCE_BATCH ? instancedGeometry : deferredGeometry;
+
+			if (drawShader != boundShader) {
+				drawShader.bind();
+				drawShader.updateUniformBlocks(this);
+				boundShader = drawShader;
+			}
+
+			if (drawShader == instancedGeometry) {
+				drawBatch(snapshot, i, batchEnd, instancedGeometry);
+				i = batchEnd - 1;
+				continue;
+			}
+
+			final Transform transform = snapshot.getTransform(draw);
+
+			if (transform != null) {
+				deferredGeometry.updateUniforms(transform, snapshot.getMaterial(draw), this);
+			} else {
+				deferredGeometry.updateUniforms(snapshot.getWorldMatrix(draw, worldMatrix), snapshot.getMaterial(draw), this);
+			}
+
+			snapshot.getMesh(draw).draw();
+		}
+		Profiler.end(RenderingEngine.GEOMETRY_SCOPE);
+
+		backend.bindFramebuffer(ARBFramebufferObject.GL_FRAMEBUFFER, 0);
+		backend.clear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+		backend.disable(GL11.GL_DEPTH_TEST);
+
+		Profiler.begin(RenderingEngine.AMBIENT_SCOPE);
+		drawFullscreen(deferredAmbient);
+		Profiler.end(RenderingEngine.AMBIENT_SCOPE);
+
+		beginLightPasses();
+
+		for (int l = 0; l < visibleLightCount; l++) {
+			final int light = visibleLights[l];
+
+			activeLight = liveLights != null ? liveLights.get(light) : null;
+			activeLightState = snapshot.getLight(light);
+
+			scissorLight(light);
+
+			Profiler.begin(activeLightState.getPassScope());
+			drawFullscreen(deferredLights[activeLightState.getVolume()]);
+			Profiler.end(activeLightState.getPassScope());
+		}
+
+		litDrawCount = visibleLightCount;
+
+		endLightPasses();
+		backend.enable(GL11.GL_DEPTH_TEST);
+	}
+
+	/**
+	 * Find where the run of queue entries starting at <code>start</code> that
+	 * share its pass, material and mesh ends, up to a full instance batch.
+	 * The queue sorts such entries next to each other.
+	 * 
+	 * @return The index of the first entry after the run
+	 */
+	private int findBatchEnd(final RenderSnapshot snapshot, final int start) {
+		final int pass = RenderQueue.getPass(renderQueue.getKey(start));
+		final Material material = snapshot.getMaterial(renderQueue.getDraw(start));
+		final Mesh mesh = snapshot.getMesh(renderQueue.getDraw(start));
+		final int limit = Math.min(renderQueue.size(), start + RenderingEngine.MAX_INSTANCE_BATCH);
+
+		int end = start + 1;
+
+		while (end < limit && RenderQueue.getPass(renderQueue.getKey(end)) == pass && snapshot.getMaterial(renderQueue.getDraw(end)) == material && snapshot.getMesh(renderQueue.getDraw(end)) == mesh) {
+			end++;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Draw the queue entries from <code>start</code> to <code>end</code>,
+	 * which share a material and mesh, with one instanced draw call.
+	 * <code>shader</code> must already be bound.
+	 */
+	private void drawBatch(final RenderSnapshot snapshot, final int start, final int end, final Shader shader) {
+		final StreamBuffer stream = getStreamBuffer();
+		final FloatBuffer matrices = stream.mapFloats((end - start) * Matrix4f.SIZE);
+
+		for (int i = start; i < end; i++) {
+			getWorldMatrix(snapshot, renderQueue.getDraw(i)).storeColumns(matrices);
+		}
+
+		final long offset = stream.commit();
+		final int draw = renderQueue.getDraw(start);
+
+		// The world matrices come from the batch, so this only sets the
+		// material and pass uniforms.
+		shader.updateUniforms(getWorldMatrix(snapshot, draw), snapshot.getMaterial(draw), this);
+		snapshot.getMesh(draw).drawInstanced(stream.getBuffer(), offset, end - start);
+
+		instancedDrawCount += end - start;
+		instanceBatchCount++;
+	}
+
+	/**
+	 * Get the world matrix a draw is shown with, interpolated if the frame
+	 * is.
+	 */
+	private Matrix4f getWorldMatrix(final RenderSnapshot snapshot, final int draw) {
+		final Transform transform = snapshot.getTransform(draw);
+
+		if (transform == null) {
+			return snapshot.getWorldMatrix(draw, worldMatrix);
+		} else if (interpolating) {
+			return transform.getInterpolatedTransformation(interpolationAlpha, worldMatrix);
+		} else {
+			return transform.getTransformation();
 		}
+	}
+
+	private void drawFullscreen(final Shader shader) {
+		shader.bind();
+		shader.updateUniformBlocks(this);
+		shader.updateUniforms(screenMatrix, gBuffer.getMaterial(), this);
+		fullscreenQuad.draw();
+	}
+
+	/**
+	 * Limit drawing to the part of the window a light can reach, as found by
+	 * {@link #cullLights(RenderSnapshot)}.
+	 */
+	private void scissorLight(final int light) {
+		final int rect = light * 4;
 
-		GL11.glDepthFunc(GL11.GL_LESS);
-		GL11.glDepthMask(true);
-		GL11.glDisable(GL11.GL_BLEND);
+		if (scissorRects[rect + 2] >= 0) {
+			backend.enable(GL11.GL_SCISSOR_TEST);
+			backend.scissor(scissorRects[rect], scissorRects[rect + 1], scissorRects[rect + 2], scissorRects[rect + 3]);
+		} else {
+			backend.disable(GL11.GL_SCISSOR_TEST);
+		}
+	}
+
+	private void renderDraws(final RenderSnapshot snapshot, final int visibleCount, final Shader shader) {
+		shader.updateUniformBlocks(this);
+
+		for (int v = 0; v < visibleCount; v++) {
+			final int i = visibleDraws[v];
+
+			shader.bind();
+			shader.updateUniforms(snapshot.getWorldMatrix(i, worldMatrix), snapshot.getMaterial(i), this);
+			snapshot.getMesh(i).draw();
+		}
+	}
+
+	/**
+	 * Find the draws of <code>snapshot</code> that the camera can see.
+	 * 
+	 * @return The number of visible draws, whose indices are at the start of
+	 *         {@link #visibleDraws}
+	 */
+	private int cull(final RenderSnapshot snapshot) {
+		drawCount = snapshot.getDrawCount();
+
+		if (visibleDraws.length < drawCount) {
+			visibleDraws = new int[Math.max(drawCount, visibleDraws.length * 2)];
+		}
+
+		int visibleCount = drawCount;
+
+		frustum.set(viewProjection);
+
+		if (frustumCullingEnabled) {
+			visibleCount = snapshot.cull(frustum, visibleDraws);
+		} else {
+			for (int i = 0; i < drawCount; i++) {
+				visibleDraws[i] = i;
+			}
+		}
+
+		culledDrawCount = drawCount - visibleCount;
+
+		return visibleCount;
+	}
+
+	/**
+	 * Find the lights of <code>snapshot</code> that can reach anything in
+	 * view, and the part of the screen each of them can reach. Call after
+	 * {@link #cull(RenderSnapshot)}, which sets up the frustum.
+	 * 
+	 * @return The number of visible lights, whose indices are at the start
+	 *         of {@link #visibleLights}
+	 */
+	private int cullLights(final RenderSnapshot snapshot) {
+		lightCount = snapshot.getLightCount();
+
+		if (visibleLights.length < lightCount) {
+			visibleLights = new int[lightCount];
+			scissorRects = new int[lightCount * 4];
+		}
+
+		int visibleCount = 0;
+
+		for (int light = 0; light < lightCount; light++) {
+			final LightState state = snapshot.getLight(light);
+
+			scissorRects[light * 4 + 2] = -1;
+
+			if (lightCullingEnabled && state.getVolume() != LightState.VOLUME_NONE) {
+				final Vector3f position = state.getPosition();
+
+				if (!frustum.intersectsSphere(position.getX(), position.getY(), position.getZ(), state.getRange())) {
+					continue;
+				}
+
+				findScissorRect(position, state.getRange(), light * 4);
+			}
+
+			visibleLights[visibleCount++] = light;
+		}
+
+		culledLightCount = lightCount - visibleCount;
+
+		return visibleCount;
+	}
+
+	/**
+	 * Find the window rectangle that a sphere covers, by projecting the
+	 * corners of the cube around it. Leaves the width negative if the sphere
+	 * reaches behind the camera, where the projection doesn't hold.
+	 */
+	private void findScissorRect(final Vector3f center, final float radius, final int rect) {
+		float minX = 1;
+		float minY = 1;
+		float maxX = -1;
+		float maxY = -1;
+
+		for (int corner = 0; corner < 8; corner++) {
+			final float x = center.getX() + ((corner & 1) != 0 ? radius : -radius);
+			final float y = center.getY() + ((corner & 2) != 0 ? radius : -radius);
+			final float z = center.getZ() + ((corner & 4) != 0 ? radius : -radius);
+
+			final float w = viewProjection.get(3, 0) * x + viewProjection.get(3, 1) * y + viewProjection.get(3, 2) * z + viewProjection.get(3, 3);
+
+			if (w <= 0) {
+				return;
+			}
+
+			final float projectedX = (viewProjection.get(0, 0) * x + viewProjection.get(0, 1) * y + viewProjection.get(0, 2) * z + viewProjection.get(0, 3)) / w;
+			final float projectedY = (viewProjection.get(1, 0) * x + viewProjection.get(1, 1) * y + viewProjection.get(1, 2) * z + viewProjection.get(1, 3)) / w;
+
+			minX = Math.min(minX, projectedX);
+			minY = Math.min(minY, projectedY);
+			maxX = Math.max(maxX, projectedX);
+			maxY = Math.max(maxY, projectedY);
+		}
+
+		final int width = Window.getWidth();
+		final int height = Window.getHeight();
+
+		final int left = (int) Math.floor((Math.max(minX, -1) + 1) / 2 * width);
+		final int bottom = (int) Math.floor((Math.max(minY, -1) + 1) / 2 * height);
+		final int right = (int) Math.ceil((Math.min(maxX, 1) + 1) / 2 * width);
+		final int top = (int) Math.ceil((Math.min(maxY, 1) + 1) / 2 * height);
+
+		scissorRects[rect] = left;
+		scissorRects[rect + 1] = bottom;
+		scissorRects[rect + 2] = Math.max(right - left, 0);
+		scissorRects[rect + 3] = Math.max(top - bottom, 0);
+	}
+
+	private void checkMainCamera() throws IllegalStateException {
+		if (getMainCamera() == null) {
+			System.err.println("Error! Main camera not found. This is very very big bug, and game will crash.");
+			throw new IllegalStateException("Camera was not attached to the RenderingEngine");
+		}
+	}
+
+	private void beginLightPasses() {
+		backend.enable(GL11.GL_BLEND);
+		backend.blendFunc(GL11.GL_ONE, GL11.GL_ONE);
+		backend.depthMask(false);
+		backend.depthFunc(GL11.GL_EQUAL);
+	}
+
+	private void endLightPasses() {
+		backend.disable(GL11.GL_SCISSOR_TEST);
+		backend.depthFunc(GL11.GL_LESS);
+		backend.depthMask(true);
+		backend.disable(GL11.GL_BLEND);
 	}
 
 	public static String getOpenGLVersion() {
-		return GL11.glGetString(GL11.GL_VERSION);
+		return Graphics.getBackend().getString(GL11.GL_VERSION);
 	}
 
 	public void addLight(final BaseLight light) {
 		lights.add(light);
 	}
 
+	public void addMeshRenderer(final MeshRenderer renderer) {
+		meshRenderers.add(renderer);
+
+		if (spatialIndex != null) {
+			spatialIndex.add(renderer, renderer.getTransform(), renderer.getMesh().getBounds());
+		}
+	}
+
+	/**
+	 * Keep every {@link MeshRenderer} in a {@link LooseOctree} and find the
+	 * ones to draw by searching it, instead of walking the whole scene every
+	 * frame. This pays off for large scenes where most objects are out of
+	 * view. Other components are no longer asked to add themselves to the
+	 * frame, and the scene traversal used when the render queue is disabled
+	 * still draws everything.
+	 * 
+	 * @param center
+	 *            - The center of the world
+	 * @param halfSize
+	 *            - Half the width of the world; objects outside still work
+	 *            but are always tested
+	 * @param maxDepth
+	 *            - The number of times the world may be split
+	 * @throws IllegalStateException
+	 *             if the spatial index is already enabled
+	 */
+	public void enableSpatialIndex(final Vector3f center, final float halfSize, final int maxDepth) throws IllegalStateException {
+		if (spatialIndex != null) {
+			throw new IllegalStateException("The spatial index is already enabled");
+		}
+
+		spatialIndex = new LooseOctree<MeshRenderer>(center, halfSize, maxDepth);
+
+		for (final MeshRenderer renderer : meshRenderers) {
+			spatialIndex.add(renderer, renderer.getTransform(), renderer.getMesh().getBounds());
+		}
+	}
+
+	/**
+	 * Get the spatial index of mesh renderers, for range and ray queries, or
+	 * <code>null</code> if it isn't enabled.
+	 */
+	public LooseOctree<MeshRenderer> getSpatialIndex() {
+		return spatialIndex;
+	}
+
 	public void addCamera(final Camera camera) {
 		mainCamera = camera;
 	}
@@ -105,10 +908,415 @@ public class RenderingEngine extends MappedValues {
 		return samplerMap.get(samplerName);
 	}
 
+	/**
+	 * Get the texture unit of a sampler by its
+	 * {@link MappedValues#getKey(String) key}.
+	 * 
+	 * @param samplerKey
+	 *            - The key of the sampler name
+	 * @throws IllegalArgumentException
+	 *             if no unit is assigned to the sampler
+	 */
+	public int getSamplerSlot(final int samplerKey) throws IllegalArgumentException {
+		if (samplerKey >= samplerSlots.length || samplerSlots[samplerKey] < 0) {
+			throw new IllegalArgumentException("No texture unit is assigned to sampler key " + samplerKey);
+		}
+
+		return samplerSlots[samplerKey];
+	}
+
+	private void addSamplerSlot(final String samplerName, final int slot) {
+		samplerMap.put(samplerName, slot);
+
+		final int key = MappedValues.getKey(samplerName);
+
+		if (key >= samplerSlots.length) {
+			final int oldLength = samplerSlots.length;
+			samplerSlots = Arrays.copyOf(samplerSlots, key + 1);
+			Arrays.fill(samplerSlots, oldLength, samplerSlots.length, -1);
+		}
+
+		samplerSlots[key] = slot;
+	}
+
+	/**
+	 * Make <code>texture</code> available to shaders as the sampler
+	 * <code>R_</code><i>name</i>. A texture unit must be assigned to
+	 * <i>name</i> as well.
+	 */
+	public void addTexture(final String name, final Texture texture) {
+		textureMap.put(name, texture);
+
+		final int key = MappedValues.getKey(name);
+
+		if (key >= textureSlots.length) {
+			textureSlots = Arrays.copyOf(textureSlots, key + 1);
+		}
+
+		textureSlots[key] = texture;
+	}
+
+	/**
+	 * Get a texture added with {@link #addTexture}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if there is no texture called <code>name</code>
+	 */
+	public Texture getTexture(final String name) throws IllegalArgumentException {
+		final Texture result = textureMap.get(name);
+
+		if (result == null) {
+			throw new IllegalArgumentException("No texture called " + name + " was added to the RenderingEngine");
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get a texture added with {@link #addTexture} by the
+	 * {@link MappedValues#getKey(String) key} of its name.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if there is no texture for the key
+	 */
+	public Texture getTexture(final int key) throws IllegalArgumentException {
+		if (key >= textureSlots.length || textureSlots[key] == null) {
+			throw new IllegalArgumentException("No texture was added to the RenderingEngine for key " + key);
+		}
+
+		return textureSlots[key];
+	}
+
+	/**
+	 * Get the light of the current light pass. This is <code>null</code>
+	 * while drawing a {@link RenderSnapshot}; use
+	 * {@link #getActiveLightState()} instead.
+	 */
 	public BaseLight getActiveLight() {
 		return activeLight;
 	}
 
+	/**
+	 * Get the state of the light of the current light pass.
+	 */
+	public LightState getActiveLightState() {
+		return activeLightState;
+	}
+
+	/**
+	 * Draw objects and the camera where they were <code>alpha</code> of the
+	 * way between their previous and current simulation state, instead of
+	 * where they are now. Applies to {@link #render(GameObject)} only; lights
+	 * are always drawn at their current state.
+	 * 
+	 * @param enabled
+	 *            - <code>true</code> to interpolate
+	 * @param alpha
+	 *            - 0 for the previous state, 1 for the current state
+	 * @see Transform#getInterpolatedTransformation(float, Matrix4f)
+	 */
+	public void setInterpolation(final boolean enabled, final float alpha) {
+		interpolating = enabled;
+		interpolationAlpha = alpha;
+	}
+
+	public boolean isInterpolating() {
+		return interpolating;
+	}
+
+	public float getInterpolationAlpha() {
+		return interpolationAlpha;
+	}
+
+	/**
+	 * Get the view projection matrix of the frame being drawn.
+	 */
+	public Matrix4f getViewProjection() {
+		return viewProjection;
+	}
+
+	/**
+	 * Get the inverse of {@link #getViewProjection()}, which takes points
+	 * from clip space back to world space.
+	 */
+	public Matrix4f getInverseViewProjection() {
+		return inverseViewProjection;
+	}
+
+	/**
+	 * Get the camera position of the frame being drawn.
+	 */
+	public Vector3f getEyePos() {
+		return eyePos;
+	}
+
+	/**
+	 * Choose how frames are drawn. By default every draw of every pass is
+	 * collected into a {@link RenderQueue} and drawn sorted by shader,
+	 * material, mesh and depth, which only sees what components add through
+	 * {@link com.base.engine.components.GameComponent#addToSnapshot
+	 * addToSnapshot}. Disabling the queue goes back to walking the scene once
+	 * per pass and calling each component's <code>render</code>, for
+	 * components that draw themselves.
+	 * Deferred shading always draws through the queue.
+	 * 
+	 * @param enabled
+	 *            - <code>true</code> to draw through the render queue
+	 */
+	public void setRenderQueueEnabled(final boolean enabled) {
+		renderQueueEnabled = enabled;
+	}
+
+	public boolean isRenderQueueEnabled() {
+		return renderQueueEnabled;
+	}
+
+	/**
+	 * Choose between forward and deferred shading. Forward shading draws
+	 * every object once for the ambient light and once more for each light
+	 * that reaches it. Deferred shading draws every object once into a
+	 * {@link GBuffer} and then lights the window from it with one fullscreen
+	 * pass per light, scissored to the light's reach, so the cost of the
+	 * geometry no longer grows with the number of lights.
+	 *
+	 * Deferred frames always go through the render queue. Lights are drawn
+	 * by the built-in directional, point or spot pass that matches their
+	 * {@link LightState#getVolume() volume}, not by their own shader, and
+	 * specular intensity and power are kept to 8 bits, up to the limits in
+	 * <code>gbuffer.glh</code>. The window's depth buffer is left cleared.
+	 * Call on the rendering thread.
+	 * 
+	 * @param deferred
+	 *            - <code>true</code> for deferred shading
+	 * @throws IllegalStateException
+	 *             if the backend has no framebuffer objects
+	 */
+	public void setDeferred(final boolean deferred) throws IllegalStateException {
+		if (deferred && deferredGeometry == null) {
+			if (!backend.isFramebufferSupported()) {
+				throw new IllegalStateException("Deferred shading needs framebuffer objects");
+			}
+
+			deferredGeometry = new Shader("deferred-geometry");
+			deferredAmbient = new Shader("deferred-ambient");
+
+			deferredLights = new Shader[3];
+			deferredLights[LightState.VOLUME_NONE] = new Shader("deferred-directional");
+			deferredLights[LightState.VOLUME_SPHERE] = new Shader("deferred-point");
+			deferredLights[LightState.VOLUME_CONE] = new Shader("deferred-spot");
+
+			fullscreenQuad = new Mesh(new Vertex[] { new Vertex(new Vector3f(-1, -1, 0), new Vector2f(0, 0)), new Vertex(new Vector3f(-1, 1, 0), new Vector2f(0, 1)), new Vertex(new Vector3f(1, 1, 0), new Vector2f(1, 1)), new Vertex(new Vector3f(1, -1, 0), new Vector2f(1, 0)) }, new int[] { 0, 1, 2, 0, 2, 3 }, false);
+		}
+
+		this.deferred = deferred;
+	}
+
+	public boolean isDeferred() {
+		return deferred;
+	}
+
+	/**
+	 * Light point and spot lights in the same pass as the ambient light,
+	 * instead of in a pass of their own each. Every frame, the lights in
+	 * view are binned into {@link LightClusters} of 16 by 9 screen tiles and
+	 * 24 depth slices, and each pixel only loops over the lights of its own
+	 * cluster, so hundreds of lights cost a single geometry pass.
+	 * Directional lights, and any other light without a
+	 * {@link LightState#getVolume() volume}, keep their own passes.
+	 *
+	 * Applies to frames drawn through the render queue without deferred
+	 * shading. Point and spot lights are drawn by the clustered shader, not
+	 * their own. Call on the rendering thread.
+	 * 
+	 * @param clustered
+	 *            - <code>true</code> for clustered lighting
+	 * @throws IllegalStateException
+	 *             if the backend has no float textures
+	 * @see #setLightBinningPool(ForkJoinPool)
+	 */
+	public void setClusteredLighting(final boolean clustered) throws IllegalStateException {
+		if (clustered && lightClusters == null) {
+			if (!backend.isTextureFloatSupported()) {
+				throw new IllegalStateException("Clustered lighting needs float textures");
+			}
+
+			lightClusters = new LightClusters(16, 9, 24);
+			forwardClustered = new Shader("forward-clustered");
+		}
+
+		this.clustered = clustered;
+	}
+
+	public boolean isClusteredLighting() {
+		return clustered;
+	}
+
+	/**
+	 * Bin lights for clustered lighting on <code>pool</code> instead of on the
+	 * rendering thread, when there are enough of them.
+	 * 
+	 * @param pool
+	 *            - The pool to use, or <code>null</code> to bin serially
+	 */
+	public void setLightBinningPool(final ForkJoinPool pool) {
+		binningPool = pool;
+	}
+
+	/**
+	 * Get the light clusters of the last clustered frame, or
+	 * <code>null</code> if clustered lighting was never enabled.
+	 */
+	public LightClusters getLightClusters() {
+		return lightClusters;
+	}
+
+	/**
+	 * Draw runs of objects that share a shader, material and mesh with one
+	 * instanced draw call per run, instead of one draw call per object. The
+	 * world matrix of each object is streamed into an instance buffer, and
+	 * the run is drawn with the variant of the pass's shader that reads it
+	 * from there, loaded from the shader files named with
+	 * <code>-instanced</code> appended. Passes whose shader has no such
+	 * variant draw one by one as before. Enabled by default when the backend
+	 * supports instancing.
+	 *
+	 * Applies to frames drawn through the render queue.
+	 * 
+	 * @param enabled
+	 *            - <code>true</code> to instance
+	 * @throws IllegalStateException
+	 *             if the backend doesn't support instancing
+	 * @see Shader#getInstancedVariant()
+	 */
+	public void setInstancingEnabled(final boolean enabled) throws IllegalStateException {
+		if (enabled && !backend.isInstancingSupported()) {
+			throw new IllegalStateException("Instancing needs instanced arrays");
+		}
+
+		instancingEnabled = enabled;
+	}
+
+	public boolean isInstancingEnabled() {
+		return instancingEnabled;
+	}
+
+	/**
+	 * Get the number of queued draws the last frame drew as part of an
+	 * instanced batch.
+	 */
+	public int getInstancedDrawCount() {
+		return instancedDrawCount;
+	}
+
+	/**
+	 * Get the number of instanced draw calls of the last frame.
+	 */
+	public int getInstanceBatchCount() {
+		return instanceBatchCount;
+	}
+
+	/**
+	 * Get the buffer that data changing every frame is streamed through,
+	 * such as the world matrices of instanced draws and the vertices of
+	 * meshes updated with {@link Mesh#setVertices(Vertex[], StreamBuffer)}.
+	 * It is created on first use, and moves on to its next region at the
+	 * end of every frame this engine renders. Use on the rendering thread.
+	 */
+	public StreamBuffer getStreamBuffer() {
+		if (streamBuffer == null) {
+			streamBuffer = new StreamBuffer(backend, GL15.GL_ARRAY_BUFFER, RenderingEngine.STREAM_REGION_SIZE);
+		}
+
+		return streamBuffer;
+	}
+
+	/**
+	 * Get the G-buffer of the last deferred frame, or <code>null</code> if
+	 * none has been drawn.
+	 */
+	public GBuffer getGBuffer() {
+		return gBuffer;
+	}
+
+	/**
+	 * Skip draws whose bounding sphere is entirely outside the view of the
+	 * camera before anything is uploaded for them. Enabled by default. The
+	 * scene traversal used when the render queue is disabled draws
+	 * everything.
+	 * 
+	 * @param enabled
+	 *            - <code>true</code> to cull
+	 */
+	public void setFrustumCullingEnabled(final boolean enabled) {
+		frustumCullingEnabled = enabled;
+	}
+
+	public boolean isFrustumCullingEnabled() {
+		return frustumCullingEnabled;
+	}
+
+	/**
+	 * Only draw objects in the light passes of the point and spot lights
+	 * that can reach them, skip those lights entirely when they can't reach
+	 * anything in view, and limit their passes to the part of the window
+	 * they cover. Enabled by default; applies to frames drawn through the
+	 * render queue.
+	 * 
+	 * @param enabled
+	 *            - <code>true</code> to cull by light volume
+	 */
+	public void setLightCullingEnabled(final boolean enabled) {
+		lightCullingEnabled = enabled;
+	}
+
+	public boolean isLightCullingEnabled() {
+		return lightCullingEnabled;
+	}
+
+	/**
+	 * Get the number of lights in the last frame.
+	 */
+	public int getLightCount() {
+		return lightCount;
+	}
+
+	/**
+	 * Get the number of lights the last frame skipped because they couldn't
+	 * reach anything in view.
+	 */
+	public int getCulledLightCount() {
+		return culledLightCount;
+	}
+
+	/**
+	 * Get the number of draws in the light passes of the last frame.
+	 */
+	public int getLitDrawCount() {
+		return litDrawCount;
+	}
+
+	/**
+	 * Get the number of draws in the last frame, before culling.
+	 */
+	public int getDrawCount() {
+		return drawCount;
+	}
+
+	/**
+	 * Get the number of draws the last frame skipped because they were out
+	 * of view.
+	 */
+	public int getCulledDrawCount() {
+		return culledDrawCount;
+	}
+
+	/**
+	 * Get the render queue, whose statistics describe the last frame drawn.
+	 */
+	public RenderQueue getRenderQueue() {
+		return renderQueue;
+	}
+
 	public Camera getMainCamera() {
 		return mainCamera;
 	}
@@ -17,10 +17,14 @@
 package com.base.engine.rendering;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL32;
@@ -37,13 +41,35 @@ import com.base.engine.rendering.resourceManagement.ShaderResource;
 
 public class Shader {
 	private static WeakHashMap<String, ShaderResource> loadedShaders = new WeakHashMap<String, ShaderResource>();
+	private static volatile boolean bindingPlanEnabled = true;
+
+	private static final Pattern UNIFORM_BLOCK = Pattern.compile("layout\\s*\\(\\s*std140\\s*\\)\\s*uniform\\s+(\\w+)\\s*\\{([^}]*)\\}\\s*;");
+	private static final String UNIFORM_BLOCK_EXTENSION = "#extension GL_ARB_uniform_buffer_object : require\n";
+
+	private static final String INSTANCED_SUFFIX = "-instanced";
+	private static final String INSTANCE_ATTRIBUTE_NAME = "I_model";
 
 	private ShaderResource resource;
 	private final String fileName;
+	private Shader instancedVariant;
+	private boolean instancedVariantLoaded;
+
+	private final Matrix4f MVPMatrix;
+	private final Matrix4f interpolatedWorld;
+	private final LightState lightState;
+	private final FloatBuffer matrixBuffer;
+	private final UniformBindingPlan bindingPlan;
+	private final boolean usesMVP;
+	private final UniformBlock[] uniformBlocks;
 
 	public Shader(final String fileName) {
 		this.fileName = fileName;
 
+		MVPMatrix = new Matrix4f();
+		interpolatedWorld = new Matrix4f();
+		lightState = new LightState();
+		matrixBuffer = Util.createFloatBuffer(Matrix4f.SIZE);
+
 		final ShaderResource oldResource = Shader.loadedShaders.get(fileName);
 
 		if (oldResource != null) {
@@ -52,8 +78,9 @@ public class Shader {
 		} else {
 			resource = new ShaderResource();
 
-			final String vertexShaderText = Shader.loadShader(fileName + ".vs");
-			final String fragmentShaderText = Shader.loadShader(fileName + ".fs");
+			final boolean uniformBlocksSupported = resource.getBackend().isUniformBufferSupported();
+			final String vertexShaderText = prepareUniformBlocks(Shader.loadShader(fileName + ".vs"), uniformBlocksSupported);
+			final String fragmentShaderText = prepareUniformBlocks(Shader.loadShader(fileName + ".fs"), uniformBlocksSupported);
 
 			addVertexShader(vertexShaderText);
 			addFragmentShader(fragmentShaderText);
@@ -65,8 +92,39 @@ public class Shader {
 			addAllUniforms(vertexShaderText);
 			addAllUniforms(fragmentShaderText);
 
+			if (uniformBlocksSupported) {
+				addAllUniformBlocks(vertexShaderText);
+				addAllUniformBlocks(fragmentShaderText);
+			}
+
 			Shader.loadedShaders.put(fileName, resource);
 		}
+
+		bindingPlan = new UniformBindingPlan(resource.getBackend(), resource.getUniformNames(), resource.getUniformTypes(), resource.getUniforms());
+		usesMVP = bindingPlan.usesMVP();
+
+		uniformBlocks = new UniformBlock[resource.getUniformBlockNames().size()];
+
+		for (int i = 0; i < uniformBlocks.length; i++) {
+			uniformBlocks[i] = UniformBlock.get(resource.getUniformBlockNames().get(i));
+		}
+	}
+
+	/**
+	 * Choose how {@link #updateUniforms} uploads uniforms. The binding plan
+	 * worked out at load time is used by default; disabling it goes back to
+	 * matching every uniform by name on every draw, which is only useful for
+	 * comparison.
+	 * 
+	 * @param enabled
+	 *            - <code>true</code> to use the binding plan
+	 */
+	public static void setBindingPlanEnabled(final boolean enabled) {
+		Shader.bindingPlanEnabled = enabled;
+	}
+
+	public static boolean isBindingPlanEnabled() {
+		return Shader.bindingPlanEnabled;
 	}
 
 	@Override
@@ -77,18 +135,98 @@ public class Shader {
 	}
 
 	public void bind() {
-		GL20.glUseProgram(resource.getProgram());
+		resource.getBackend().useProgram(resource.getProgram());
+	}
+
+	/**
+	 * Get the variant of this shader that reads the model matrix from the
+	 * per-instance <code>I_model</code> attribute instead of a uniform, for
+	 * drawing with {@link Mesh#drawInstanced(int, long, int)}. It is loaded
+	 * from the files named like this shader's with <code>-instanced</code>
+	 * appended, the first time it is asked for.
+	 * 
+	 * @return The instanced variant, or <code>null</code> if this shader has
+	 *         none
+	 */
+	public Shader getInstancedVariant() {
+		if (!instancedVariantLoaded) {
+			instancedVariantLoaded = true;
+
+			if (!fileName.isEmpty() && new File("./res/shaders/" + fileName + Shader.INSTANCED_SUFFIX + ".vs").exists()) {
+				instancedVariant = new Shader(fileName + Shader.INSTANCED_SUFFIX);
+			}
+		}
+
+		return instancedVariant;
+	}
+
+	/**
+	 * Get the id {@link RenderQueue} sorts shaders by. Shaders loaded from
+	 * the same file share a program and so sort together.
+	 */
+	int getSortId() {
+		return resource.getProgram();
+	}
+
+	/**
+	 * Upload the uniform blocks this shader reads. Call once per pass, before
+	 * the first draw; blocks whose contents didn't change are skipped.
+	 * 
+	 * @param renderingEngine
+	 *            - Supplies the camera and light of the pass
+	 */
+	public void updateUniformBlocks(final RenderingEngine renderingEngine) {
+		for (final UniformBlock uniformBlock : uniformBlocks) {
+			uniformBlock.update(renderingEngine);
+		}
 	}
 
 	public void updateUniforms(final Transform transform, final Material material, final RenderingEngine renderingEngine) {
-		final Matrix4f worldMatrix = transform.getTransformation();
-		final Matrix4f MVPMatrix = renderingEngine.getMainCamera().getViewProjection().mul(worldMatrix);
+		if (renderingEngine.isInterpolating()) {
+			updateUniforms(transform, transform.getInterpolatedTransformation(renderingEngine.getInterpolationAlpha(), interpolatedWorld), material, renderingEngine);
+		} else {
+			updateUniforms(transform, transform.getTransformation(), material, renderingEngine);
+		}
+	}
+
+	/**
+	 * Update the uniforms for an object that is only known by its world
+	 * matrix, such as a draw from a {@link RenderSnapshot}. Struct uniforms
+	 * that the shader doesn't handle itself are passed to
+	 * {@link RenderingEngine#updateUniformStruct} with a <code>null</code>
+	 * transform.
+	 * 
+	 * @param worldMatrix
+	 *            - The world matrix of the object
+	 * @param material
+	 *            - The material of the object
+	 * @param renderingEngine
+	 *            - Supplies the camera and light of the current pass
+	 */
+	public void updateUniforms(final Matrix4f worldMatrix, final Material material, final RenderingEngine renderingEngine) {
+		updateUniforms(null, worldMatrix, material, renderingEngine);
+	}
+
+	private void updateUniforms(final Transform transform, final Matrix4f worldMatrix, final Material material, final RenderingEngine renderingEngine) {
+		if (usesMVP || !Shader.bindingPlanEnabled) {
+			renderingEngine.getViewProjection().mul(worldMatrix, MVPMatrix);
+		}
+
+		if (Shader.bindingPlanEnabled) {
+			bindingPlan.execute(this, transform, worldMatrix, MVPMatrix, material, renderingEngine);
+			return;
+		}
 
 		for (int i = 0; i < resource.getUniformNames().size(); i++) {
 			final String uniformName = resource.getUniformNames().get(i);
 			final String uniformType = resource.getUniformTypes().get(i);
 
-			if (uniformType.equals("sampler2D")) {
+			if (uniformType.equals("sampler2D") && uniformName.startsWith("R_")) {
+				final String unprefixedUniformName = uniformName.substring(2);
+				final int samplerSlot = renderingEngine.getSamplerSlot(unprefixedUniformName);
+				renderingEngine.getTexture(unprefixedUniformName).bind(samplerSlot);
+				setUniformi(uniformName, samplerSlot);
+			} else if (uniformType.equals("sampler2D")) {
 				final int samplerSlot = renderingEngine.getSamplerSlot(uniformName);
 				material.getTexture(uniformName).bind(samplerSlot);
 				setUniformi(uniformName, samplerSlot);
@@ -107,17 +245,21 @@ public class Shader {
 				} else if (uniformType.equals("float")) {
 					setUniformf(uniformName, renderingEngine.getFloat(unprefixedUniformName));
 				} else if (uniformType.equals("DirectionalLight")) {
-					setUniformDirectionalLight(uniformName, (DirectionalLight) renderingEngine.getActiveLight());
+					setUniformDirectionalLight(uniformName, renderingEngine.getActiveLightState());
 				} else if (uniformType.equals("PointLight")) {
-					setUniformPointLight(uniformName, (PointLight) renderingEngine.getActiveLight());
+					setUniformPointLight(uniformName, renderingEngine.getActiveLightState());
 				} else if (uniformType.equals("SpotLight")) {
-					setUniformSpotLight(uniformName, (SpotLight) renderingEngine.getActiveLight());
+					setUniformSpotLight(uniformName, renderingEngine.getActiveLightState());
 				} else {
 					renderingEngine.updateUniformStruct(transform, material, this, uniformName, uniformType);
 				}
 			} else if (uniformName.startsWith("C_")) {
 				if (uniformName.equals("C_eyePos")) {
-					setUniform(uniformName, renderingEngine.getMainCamera().getTransform().getTransformedPos());
+					setUniform(uniformName, renderingEngine.getEyePos());
+				} else if (uniformName.equals("C_viewProjection")) {
+					setUniform(uniformName, renderingEngine.getViewProjection());
+				} else if (uniformName.equals("C_inverseViewProjection")) {
+					setUniform(uniformName, renderingEngine.getInverseViewProjection());
 				} else {
 					throw new IllegalArgumentException(uniformName + " is not a valid component of Camera");
 				}
@@ -148,10 +290,20 @@ public class Shader {
 			final int end = shaderText.indexOf(";", begin);
 
 			final String attributeLine = shaderText.substring(begin, end).trim();
+			final String attributeType = attributeLine.substring(0, attributeLine.indexOf(' '));
 			final String attributeName = attributeLine.substring(attributeLine.indexOf(' ') + 1, attributeLine.length()).trim();
 
-			setAttribLocation(attributeName, attribNumber);
-			attribNumber++;
+			// Vertex attributes are bound where every vertex layout puts
+			// them, anything else in declaration order.
+			final int fixedLocation = attributeName.equals(Shader.INSTANCE_ATTRIBUTE_NAME) ? Mesh.INSTANCE_ATTRIBUTE : VertexLayout.getLocation(attributeName);
+			setAttribLocation(attributeName, fixedLocation >= 0 ? fixedLocation : attribNumber);
+
+			// Matrices take one location per column.
+			if (attributeType.startsWith("mat")) {
+				attribNumber += attributeType.charAt(3) - '0';
+			} else {
+				attribNumber++;
+			}
 
 			attributeStartLocation = shaderText.indexOf(ATTRIBUTE_KEYWORD, attributeStartLocation + ATTRIBUTE_KEYWORD.length());
 		}
@@ -239,6 +391,13 @@ public class Shader {
 
 			final int begin = uniformStartLocation + UNIFORM_KEYWORD.length() + 1;
 			final int end = shaderText.indexOf(";", begin);
+			final int blockBegin = shaderText.indexOf("{", begin);
+
+			// Uniform blocks are handled by addAllUniformBlocks.
+			if (blockBegin != -1 && blockBegin < end) {
+				uniformStartLocation = shaderText.indexOf(UNIFORM_KEYWORD, shaderText.indexOf("}", blockBegin));
+				continue;
+			}
 
 			final String uniformLine = shaderText.substring(begin, end).trim();
 
@@ -246,9 +405,12 @@ public class Shader {
 			final String uniformName = uniformLine.substring(whiteSpacePos + 1, uniformLine.length()).trim();
 			final String uniformType = uniformLine.substring(0, whiteSpacePos).trim();
 
-			resource.getUniformNames().add(uniformName);
-			resource.getUniformTypes().add(uniformType);
-			addUniform(uniformName, uniformType, structs);
+			// Uniforms shared by both stages are only uploaded once.
+			if (!resource.getUniformNames().contains(uniformName)) {
+				resource.getUniformNames().add(uniformName);
+				resource.getUniformTypes().add(uniformType);
+				addUniform(uniformName, uniformType, structs);
+			}
 
 			uniformStartLocation = shaderText.indexOf(UNIFORM_KEYWORD, uniformStartLocation + UNIFORM_KEYWORD.length());
 		}
@@ -269,7 +431,7 @@ public class Shader {
 			return;
 		}
 
-		final int uniformLocation = GL20.glGetUniformLocation(resource.getProgram(), uniformName);
+		final int uniformLocation = resource.getBackend().getUniformLocation(resource.getProgram(), uniformName);
 
 		if (uniformLocation == 0xFFFFFFFF) {
 			System.err.println("Error: Could not find uniform: " + uniformName);
@@ -280,6 +442,154 @@ public class Shader {
 		resource.getUniforms().put(uniformName, uniformLocation);
 	}
 
+	/**
+	 * Get the members of a uniform block body, in declaration order.
+	 */
+	private ArrayList<GLSLStruct> findUniformBlockMembers(final String blockBody) {
+		final ArrayList<GLSLStruct> members = new ArrayList<GLSLStruct>();
+
+		for (final String declaration : blockBody.split(";")) {
+			final String memberLine = declaration.trim();
+
+			if (memberLine.isEmpty()) {
+				continue;
+			}
+
+			final String[] parts = memberLine.split("\\s+");
+			final GLSLStruct member = new GLSLStruct();
+			member.type = parts[0];
+			member.name = parts[parts.length - 1];
+
+			members.add(member);
+		}
+
+		return members;
+	}
+
+	/**
+	 * Get shader text ready for compiling. If uniform blocks are supported,
+	 * the extension they need is enabled; if not, every block is replaced by
+	 * its members as plain uniforms, which the binding plan then uploads per
+	 * draw as before.
+	 */
+	private String prepareUniformBlocks(final String shaderText, final boolean supported) {
+		final Matcher matcher = Shader.UNIFORM_BLOCK.matcher(shaderText);
+
+		if (!matcher.find()) {
+			return shaderText;
+		}
+
+		if (supported) {
+			final int versionEnd = shaderText.startsWith("#version") ? shaderText.indexOf('\n') + 1 : 0;
+
+			return shaderText.substring(0, versionEnd) + Shader.UNIFORM_BLOCK_EXTENSION + shaderText.substring(versionEnd);
+		}
+
+		final StringBuffer result = new StringBuffer();
+
+		do {
+			final StringBuilder uniforms = new StringBuilder();
+
+			for (final GLSLStruct member : findUniformBlockMembers(matcher.group(2))) {
+				uniforms.append("uniform ").append(member.type).append(' ').append(member.name).append(";\n");
+			}
+
+			matcher.appendReplacement(result, Matcher.quoteReplacement(uniforms.toString()));
+		} while (matcher.find());
+
+		matcher.appendTail(result);
+
+		return result.toString();
+	}
+
+	private void addAllUniformBlocks(final String shaderText) {
+		final HashMap<String, ArrayList<GLSLStruct>> structs = findUniformStructs(shaderText);
+		final Matcher matcher = Shader.UNIFORM_BLOCK.matcher(shaderText);
+
+		while (matcher.find()) {
+			final String blockName = matcher.group(1);
+
+			// Blocks are usually declared in both stages.
+			if (resource.getUniformBlockNames().contains(blockName)) {
+				continue;
+			}
+
+			final int blockIndex = resource.getBackend().getUniformBlockIndex(resource.getProgram(), blockName);
+
+			// Unused blocks are optimized out.
+			if (blockIndex == 0xFFFFFFFF) {
+				continue;
+			}
+
+			final ArrayList<String> memberNames = new ArrayList<String>();
+			final ArrayList<String> memberTypes = new ArrayList<String>();
+			final HashMap<String, Integer> offsets = new HashMap<String, Integer>();
+			int size = 0;
+
+			for (final GLSLStruct member : findUniformBlockMembers(matcher.group(2))) {
+				memberNames.add(member.name);
+				memberTypes.add(member.type);
+				size = addStd140Member(member.name, member.type, structs, size, offsets);
+			}
+
+			final UniformBlock uniformBlock = UniformBlock.get(blockName, Shader.alignStd140(size, 16), memberNames, memberTypes, offsets);
+			resource.getBackend().uniformBlockBinding(resource.getProgram(), blockIndex, uniformBlock.getBinding());
+			resource.getUniformBlockNames().add(blockName);
+		}
+	}
+
+	/**
+	 * Lay out a block member by the std140 rules, recording the byte offset
+	 * of it, or of each of its fields if it is a struct.
+	 * 
+	 * @return The offset just past the member
+	 */
+	private int addStd140Member(final String name, final String type, final HashMap<String, ArrayList<GLSLStruct>> structs, final int offset, final HashMap<String, Integer> offsets) {
+		final ArrayList<GLSLStruct> structComponents = structs.get(type);
+
+		// Structs start and end on a vec4 boundary.
+		if (structComponents != null) {
+			int componentOffset = Shader.alignStd140(offset, 16);
+
+			for (final GLSLStruct struct : structComponents) {
+				componentOffset = addStd140Member(name + "." + struct.name, struct.type, structs, componentOffset, offsets);
+			}
+
+			return Shader.alignStd140(componentOffset, 16);
+		}
+
+		final int alignment;
+		final int size;
+
+		if (type.equals("float") || type.equals("int") || type.equals("bool")) {
+			alignment = 4;
+			size = 4;
+		} else if (type.equals("vec2")) {
+			alignment = 8;
+			size = 8;
+		} else if (type.equals("vec3")) {
+			alignment = 16;
+			size = 12;
+		} else if (type.equals("vec4")) {
+			alignment = 16;
+			size = 16;
+		} else if (type.equals("mat4")) {
+			alignment = 16;
+			size = 64;
+		} else {
+			throw new IllegalArgumentException(type + " is not a supported type in a uniform block");
+		}
+
+		final int memberOffset = Shader.alignStd140(offset, alignment);
+		offsets.put(name, memberOffset);
+
+		return memberOffset + size;
+	}
+
+	private static int alignStd140(final int offset, final int alignment) {
+		return (offset + alignment - 1) / alignment * alignment;
+	}
+
 	private void addVertexShader(final String text) {
 		addProgram(text, GL20.GL_VERTEX_SHADER);
 	}
@@ -293,42 +603,42 @@ public class Shader {
 	}
 
 	private void setAttribLocation(final String attributeName, final int location) {
-		GL20.glBindAttribLocation(resource.getProgram(), location, attributeName);
+		resource.getBackend().bindAttribLocation(resource.getProgram(), location, attributeName);
 	}
 
 	private void compileShader() {
-		GL20.glLinkProgram(resource.getProgram());
+		resource.getBackend().linkProgram(resource.getProgram());
 
-		if (GL20.glGetProgrami(resource.getProgram(), GL20.GL_LINK_STATUS) == 0) {
-			System.err.println(GL20.glGetProgramInfoLog(resource.getProgram(), 1024));
+		if (resource.getBackend().getProgrami(resource.getProgram(), GL20.GL_LINK_STATUS) == 0) {
+			System.err.println(resource.getBackend().getProgramInfoLog(resource.getProgram(), 1024));
 			System.exit(1);
 		}
 
-		GL20.glValidateProgram(resource.getProgram());
+		resource.getBackend().validateProgram(resource.getProgram());
 
-		if (GL20.glGetProgrami(resource.getProgram(), GL20.GL_VALIDATE_STATUS) == 0) {
-			System.err.println(GL20.glGetProgramInfoLog(resource.getProgram(), 1024));
+		if (resource.getBackend().getProgrami(resource.getProgram(), GL20.GL_VALIDATE_STATUS) == 0) {
+			System.err.println(resource.getBackend().getProgramInfoLog(resource.getProgram(), 1024));
 			System.exit(1);
 		}
 	}
 
 	private void addProgram(final String text, final int type) {
-		final int shader = GL20.glCreateShader(type);
+		final int shader = resource.getBackend().createShader(type);
 
 		if (shader == 0) {
 			System.err.println("Shader creation failed: Could not find valid memory location when adding shader");
 			System.exit(1);
 		}
 
-		GL20.glShaderSource(shader, text);
-		GL20.glCompileShader(shader);
+		resource.getBackend().shaderSource(shader, text);
+		resource.getBackend().compileShader(shader);
 
-		if (GL20.glGetShaderi(shader, GL20.GL_COMPILE_STATUS) == 0) {
-			System.err.println(GL20.glGetShaderInfoLog(shader, 1024));
+		if (resource.getBackend().getShaderi(shader, GL20.GL_COMPILE_STATUS) == 0) {
+			System.err.println(resource.getBackend().getShaderInfoLog(shader, 1024));
 			System.exit(1);
 		}
 
-		GL20.glAttachShader(resource.getProgram(), shader);
+		resource.getBackend().attachShader(resource.getProgram(), shader);
 	}
 
 	private static String loadShader(final String fileName) {
@@ -358,43 +668,62 @@ public class Shader {
 	}
 
 	public void setUniformi(final String uniformName, final int value) {
-		GL20.glUniform1i(resource.getUniforms().get(uniformName), value);
+		resource.getBackend().uniform1i(resource.getUniforms().get(uniformName), value);
 	}
 
 	public void setUniformf(final String uniformName, final float value) {
-		GL20.glUniform1f(resource.getUniforms().get(uniformName), value);
+		resource.getBackend().uniform1f(resource.getUniforms().get(uniformName), value);
 	}
 
 	public void setUniform(final String uniformName, final Vector3f value) {
-		GL20.glUniform3f(resource.getUniforms().get(uniformName), value.getX(), value.getY(), value.getZ());
+		resource.getBackend().uniform3f(resource.getUniforms().get(uniformName), value.getX(), value.getY(), value.getZ());
 	}
 
 	public void setUniform(final String uniformName, final Matrix4f value) {
-		GL20.glUniformMatrix4(resource.getUniforms().get(uniformName), true, Util.createFlippedBuffer(value));
+		matrixBuffer.clear();
+		value.store(matrixBuffer).flip();
+
+		resource.getBackend().uniformMatrix4(resource.getUniforms().get(uniformName), true, matrixBuffer);
 	}
 
 	public void setUniformBaseLight(final String uniformName, final BaseLight baseLight) {
-		setUniform(uniformName + ".color", baseLight.getColor());
-		setUniformf(uniformName + ".intensity", baseLight.getIntensity());
+		setUniformBaseLight(uniformName, baseLight.capture(lightState));
 	}
 
 	public void setUniformDirectionalLight(final String uniformName, final DirectionalLight directionalLight) {
-		setUniformBaseLight(uniformName + ".base", directionalLight);
-		setUniform(uniformName + ".direction", directionalLight.getDirection());
+		setUniformDirectionalLight(uniformName, directionalLight.capture(lightState));
 	}
 
 	public void setUniformPointLight(final String uniformName, final PointLight pointLight) {
-		setUniformBaseLight(uniformName + ".base", pointLight);
-		setUniformf(uniformName + ".atten.constant", pointLight.getAttenuation().getConstant());
-		setUniformf(uniformName + ".atten.linear", pointLight.getAttenuation().getLinear());
-		setUniformf(uniformName + ".atten.exponent", pointLight.getAttenuation().getExponent());
-		setUniform(uniformName + ".position", pointLight.getTransform().getTransformedPos());
-		setUniformf(uniformName + ".range", pointLight.getRange());
+		setUniformPointLight(uniformName, pointLight.capture(lightState));
 	}
 
 	public void setUniformSpotLight(final String uniformName, final SpotLight spotLight) {
-		setUniformPointLight(uniformName + ".pointLight", spotLight);
-		setUniform(uniformName + ".direction", spotLight.getDirection());
-		setUniformf(uniformName + ".cutoff", spotLight.getCutoff());
+		setUniformSpotLight(uniformName, spotLight.capture(lightState));
+	}
+
+	public void setUniformBaseLight(final String uniformName, final LightState light) {
+		setUniform(uniformName + ".color", light.getColor());
+		setUniformf(uniformName + ".intensity", light.getIntensity());
+	}
+
+	public void setUniformDirectionalLight(final String uniformName, final LightState light) {
+		setUniformBaseLight(uniformName + ".base", light);
+		setUniform(uniformName + ".direction", light.getDirection());
+	}
+
+	public void setUniformPointLight(final String uniformName, final LightState light) {
+		setUniformBaseLight(uniformName + ".base", light);
+		setUniformf(uniformName + ".atten.constant", light.getAttenuation().getConstant());
+		setUniformf(uniformName + ".atten.linear", light.getAttenuation().getLinear());
+		setUniformf(uniformName + ".atten.exponent", light.getAttenuation().getExponent());
+		setUniform(uniformName + ".position", light.getPosition());
+		setUniformf(uniformName + ".range", light.getRange());
+	}
+
+	public void setUniformSpotLight(final String uniformName, final LightState light) {
+		setUniformPointLight(uniformName + ".pointLight", light);
+		setUniform(uniformName + ".direction", light.getDirection());
+		setUniformf(uniformName + ".cutoff", light.getCutoff());
 	}
 }
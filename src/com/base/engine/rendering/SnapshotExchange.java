@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.rendering;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands {@link RenderSnapshot}s from the simulation thread to the render
+ * thread through three buffers, so neither side ever waits for the other.
+ *
+ * The simulation thread fills {@link #getWriteSnapshot()} and calls
+ * {@link #publish()}; the render thread calls {@link #acquire()} to get the
+ * most recently published snapshot. At any time one buffer belongs to each
+ * thread and the third holds the latest published frame, and the two threads
+ * only ever swap their buffer with that third one. A frame published while
+ * an older one is still waiting simply replaces it.
+ *
+ * Publishing never blocks. A render thread with nothing new to draw can
+ * park in {@link #awaitSnapshot(long)}, and {@link #publish()} wakes it up.
+ */
+public class SnapshotExchange {
+	private static final int INDEX_MASK = 3;
+	private static final int FRESH = 4;
+
+	private final RenderSnapshot[] snapshots;
+
+	/** Index of the waiting buffer, or'ed with FRESH if it hasn't been read. */
+	private final AtomicInteger waiting;
+	private int writeIndex;
+	private int readIndex;
+	private boolean published;
+	// The render thread, once it has waited for a snapshot.
+	private volatile Thread reader;
+
+	public SnapshotExchange() {
+		snapshots = new RenderSnapshot[] { new RenderSnapshot(), new RenderSnapshot(), new RenderSnapshot() };
+
+		writeIndex = 0;
+		waiting = new AtomicInteger(1);
+		readIndex = 2;
+	}
+
+	/**
+	 * Get the snapshot the simulation thread should fill next. Only call
+	 * this from the simulation thread.
+	 */
+	public RenderSnapshot getWriteSnapshot() {
+		return snapshots[writeIndex];
+	}
+
+	/**
+	 * Make the filled write snapshot available to the render thread and
+	 * take a new one to write to. Only call this from the simulation thread.
+	 */
+	public void publish() {
+		writeIndex = waiting.getAndSet(writeIndex | SnapshotExchange.FRESH) & SnapshotExchange.INDEX_MASK;
+
+		final Thread waiter = reader;
+
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * Wait until a snapshot is published that hasn't been acquired yet, or
+	 * until <code>timeout</code> runs out. Only call this from the render
+	 * thread.
+	 * 
+	 * @param timeout
+	 *            - The longest time to wait, in nanoseconds
+	 * @return <code>true</code> if there is a new snapshot
+	 */
+	public boolean awaitSnapshot(final long timeout) {
+		// Registered before checking, so a publish in between leaves the
+		// park permit set instead of being missed.
+		reader = Thread.currentThread();
+
+		final long deadline = System.nanoTime() + timeout;
+		long remaining = timeout;
+
+		while (!hasNewSnapshot() && remaining > 0) {
+			LockSupport.parkNanos(this, remaining);
+			remaining = deadline - System.nanoTime();
+		}
+
+		return hasNewSnapshot();
+	}
+
+	/**
+	 * Get the latest published snapshot. Only call this from the render
+	 * thread. The snapshot stays valid until the next call.
+	 * 
+	 * @return The latest snapshot, which is the same as last time if nothing
+	 *         new was published, or <code>null</code> if nothing has been
+	 *         published yet
+	 */
+	public RenderSnapshot acquire() {
+		if ((waiting.get() & SnapshotExchange.FRESH) != 0) {
+			readIndex = waiting.getAndSet(readIndex) & SnapshotExchange.INDEX_MASK;
+			published = true;
+		}
+
+		return published ? snapshots[readIndex] : null;
+	}
+
+	/**
+	 * Check whether a snapshot was published since the last
+	 * {@link #acquire()}.
+	 */
+	public boolean hasNewSnapshot() {
+		return (waiting.get() & SnapshotExchange.FRESH) != 0;
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.ARBBufferStorage;
+import org.lwjgl.opengl.ARBMapBufferRange;
+import org.lwjgl.opengl.ARBSync;
+import org.lwjgl.opengl.GL15;
+
+import com.base.engine.core.Util;
+import com.base.engine.rendering.backend.RenderBackend;
+
+/**
+ * A large buffer that data changing every frame is streamed through, such as
+ * the vertices of dynamic meshes and the world matrices of instanced draws.
+ *
+ * The buffer is split into one region per frame in flight. Everything
+ * written during a frame is sub-allocated from the current region, and
+ * {@link #endFrame()} fences it and moves on to the next, only waiting if the
+ * GPU is still reading that region from {@link #REGIONS} frames ago. Where
+ * buffers can stay mapped, data is written straight into memory the GPU
+ * reads. Otherwise it is written to a staging region and uploaded, and the
+ * buffer is orphaned whenever it wraps around instead of fenced. Either way
+ * nothing is allocated after construction.
+ */
+public class StreamBuffer {
+	/**
+	 * The number of frames that can be in flight before writing waits.
+	 */
+	public static final int REGIONS = 3;
+
+	// Enough for any vertex attribute, and for matrices to start on a
+	// 16 byte boundary.
+	private static final int ALIGNMENT = 16;
+	private static final long WAIT_TIMEOUT = 1000000;
+
+	private final RenderBackend backend;
+	private final int target;
+	private final int buffer;
+	private final int regionSize;
+	private final boolean persistent;
+	// The whole buffer when mapped, the staging region otherwise.
+	private final ByteBuffer data;
+	private final FloatBuffer floats;
+	private final int[] fences;
+
+	private int region;
+	private int head;
+	private int start;
+	private boolean mappedFloats;
+	private int stallCount;
+
+	/**
+	 * @param backend
+	 *            - The backend to create the buffer on
+	 * @param target
+	 *            - The target the buffer is bound to when it is written, such
+	 *            as <code>GL_ARRAY_BUFFER</code>
+	 * @param regionSize
+	 *            - The most bytes one frame can write before it has to wait
+	 *            for an earlier one
+	 */
+	public StreamBuffer(final RenderBackend backend, final int target, final int regionSize) {
+		this.backend = backend;
+		this.target = target;
+		this.regionSize = regionSize - regionSize % StreamBuffer.ALIGNMENT;
+
+		persistent = backend.isPersistentMappingSupported();
+		fences = new int[StreamBuffer.REGIONS];
+		start = -1;
+
+		final long size = (long) this.regionSize * StreamBuffer.REGIONS;
+
+		buffer = backend.genBuffer();
+		backend.bindBuffer(target, buffer);
+
+		if (persistent) {
+			final int flags = ARBMapBufferRange.GL_MAP_WRITE_BIT | ARBBufferStorage.GL_MAP_PERSISTENT_BIT | ARBBufferStorage.GL_MAP_COHERENT_BIT;
+
+			backend.bufferStorage(target, size, flags);
+			data = backend.mapBufferRange(target, 0, size, flags).order(ByteOrder.nativeOrder());
+		} else {
+			backend.bufferData(target, size, GL15.GL_STREAM_DRAW);
+			data = Util.createByteBuffer(this.regionSize);
+		}
+
+		floats = data.asFloatBuffer();
+	}
+
+	@Override
+	protected void finalize() {
+		for (final int fence : fences) {
+			if (fence != 0) {
+				backend.deleteSync(fence);
+			}
+		}
+
+		// Deleting the buffer unmaps it.
+		backend.deleteBuffer(buffer);
+	}
+
+	/**
+	 * Reserve <code>size</code> bytes of the current frame's region. Write
+	 * them with relative puts, then call {@link #commit()}.
+	 * 
+	 * @param size
+	 *            - The most bytes that will be written
+	 * @return A buffer positioned at the start of the reservation and limited
+	 *         to its end
+	 * @throws IllegalArgumentException
+	 *             if <code>size</code> is larger than a region
+	 * @throws IllegalStateException
+	 *             if the previous reservation wasn't committed
+	 */
+	public ByteBuffer map(final int size) throws IllegalArgumentException, IllegalStateException {
+		if (size > regionSize) {
+			throw new IllegalArgumentException(size + " bytes don't fit in a stream buffer region of " + regionSize);
+		}
+
+		if (start >= 0) {
+			throw new IllegalStateException("The last reservation wasn't committed");
+		}
+
+		start = (head + StreamBuffer.ALIGNMENT - 1) / StreamBuffer.ALIGNMENT * StreamBuffer.ALIGNMENT;
+
+		// A frame that writes more than a region spills into the next, as if
+		// it were two frames.
+		if (start + size > regionSize) {
+			advance();
+			start = 0;
+		}
+
+		data.limit(data.capacity());
+		data.position(getBase() + start);
+		data.limit(getBase() + start + size);
+		mappedFloats = false;
+
+		return data;
+	}
+
+	/**
+	 * Like {@link #map(int)}, for writing <code>count</code> floats.
+	 */
+	public FloatBuffer mapFloats(final int count) throws IllegalArgumentException, IllegalStateException {
+		map(count * 4);
+
+		floats.limit(floats.capacity());
+		floats.position((getBase() + start) / 4);
+		floats.limit((getBase() + start) / 4 + count);
+		mappedFloats = true;
+
+		return floats;
+	}
+
+	/**
+	 * Finish the current reservation, keeping everything written up to the
+	 * position of the buffer returned by {@link #map(int)} or
+	 * {@link #mapFloats(int)}.
+	 * 
+	 * @return The byte offset of the written data in {@link #getBuffer()}
+	 */
+	public long commit() {
+		final int end = (mappedFloats ? floats.position() * 4 : data.position()) - getBase();
+		final long offset = (long) region * regionSize + start;
+
+		if (!persistent && end > start) {
+			data.limit(end);
+			data.position(start);
+			backend.bindBuffer(target, buffer);
+			backend.bufferSubData(target, offset, data);
+		}
+
+		head = end;
+		start = -1;
+
+		return offset;
+	}
+
+	/**
+	 * Mark the end of a frame, after its last draw reading from this buffer
+	 * has been issued.
+	 */
+	public void endFrame() {
+		if (head > 0) {
+			advance();
+		}
+	}
+
+	private void advance() {
+		if (persistent) {
+			fences[region] = backend.fenceSync();
+		}
+
+		region = (region + 1) % StreamBuffer.REGIONS;
+		head = 0;
+
+		if (persistent && fences[region] != 0) {
+			int status = backend.clientWaitSync(fences[region], 0);
+
+			if (status == ARBSync.GL_TIMEOUT_EXPIRED) {
+				stallCount++;
+
+				while (status == ARBSync.GL_TIMEOUT_EXPIRED) {
+					status = backend.clientWaitSync(fences[region], StreamBuffer.WAIT_TIMEOUT);
+				}
+			}
+
+			backend.deleteSync(fences[region]);
+			fences[region] = 0;
+		} else if (!persistent && region == 0) {
+			backend.bindBuffer(target, buffer);
+			backend.bufferData(target, (long) regionSize * StreamBuffer.REGIONS, GL15.GL_STREAM_DRAW);
+		}
+	}
+
+	/**
+	 * Get where the current region starts in {@link #data}.
+	 */
+	private int getBase() {
+		return persistent ? region * regionSize : 0;
+	}
+
+	public int getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Check whether data is written straight into the mapped buffer rather
+	 * than uploaded.
+	 */
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	public int getRegionSize() {
+		return regionSize;
+	}
+
+	/**
+	 * Get the number of times moving on to the next region had to wait for
+	 * the GPU.
+	 */
+	public int getStallCount() {
+		return stallCount;
+	}
+}
@@ -24,9 +24,11 @@ import java.util.HashMap;
 import javax.imageio.ImageIO;
 
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
 import org.lwjgl.opengl.GL13;
 
-import com.base.engine.core.Util;
+import com.base.engine.core.BufferArena;
+import com.base.engine.rendering.backend.RenderBackend;
 import com.base.engine.rendering.resourceManagement.TextureResource;
 
 public class Texture {
@@ -48,6 +50,38 @@ public class Texture {
 		}
 	}
 
+	/**
+	 * Create an empty texture to render into. It is sampled one texel per
+	 * pixel, without filtering or wrapping, and is never shared.
+	 * 
+	 * @param width
+	 *            - The width in texels
+	 * @param height
+	 *            - The height in texels
+	 * @param internalFormat
+	 *            - The storage format, such as <code>GL_RGBA8</code>
+	 * @param format
+	 *            - A pixel format that suits <code>internalFormat</code>
+	 * @param type
+	 *            - A pixel type that suits <code>internalFormat</code>
+	 */
+	public Texture(final int width, final int height, final int internalFormat, final int format, final int type) {
+		fileName = "";
+		resource = new TextureResource();
+
+		final RenderBackend backend = resource.getBackend();
+
+		backend.bindTexture(GL11.GL_TEXTURE_2D, resource.getId());
+
+		backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+		backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+
+		backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+		backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+
+		backend.texImage2D(GL11.GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, type, null);
+	}
+
 	@Override
 	protected void finalize() {
 		if (resource.removeReference() && !fileName.isEmpty()) {
@@ -61,8 +95,28 @@ public class Texture {
 
 	public void bind(final int samplerSlot) {
 		assert samplerSlot >= 0 && samplerSlot <= 31;
-		GL13.glActiveTexture(GL13.GL_TEXTURE0 + samplerSlot);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, resource.getId());
+		resource.getBackend().activeTexture(GL13.GL_TEXTURE0 + samplerSlot);
+		resource.getBackend().bindTexture(GL11.GL_TEXTURE_2D, resource.getId());
+	}
+
+	/**
+	 * Replace the texels in the bottom left corner of a texture created with
+	 * {@link #Texture(int, int, int, int, int)}.
+	 * 
+	 * @param width
+	 *            - The width of the region in texels
+	 * @param height
+	 *            - The height of the region in texels
+	 * @param format
+	 *            - The pixel format of <code>pixels</code>
+	 * @param type
+	 *            - The pixel type of <code>pixels</code>
+	 * @param pixels
+	 *            - The new texels, row by row from the bottom
+	 */
+	public void update(final int width, final int height, final int format, final int type, final ByteBuffer pixels) {
+		resource.getBackend().bindTexture(GL11.GL_TEXTURE_2D, resource.getId());
+		resource.getBackend().texSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, width, height, format, type, pixels);
 	}
 
 	public int getID() {
@@ -92,7 +146,10 @@ public class Texture {
 			final BufferedImage image = ImageIO.read(textureFile);
 			final int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
 
-			final ByteBuffer buffer = Util.createByteBuffer(image.getHeight() * image.getWidth() * 4);
+			final BufferArena arena = BufferArena.get();
+			arena.push();
+
+			final ByteBuffer buffer = arena.allocate(image.getHeight() * image.getWidth() * 4);
 			final boolean hasAlpha = image.getColorModel().hasAlpha();
 
 			for (int y = 0; y < image.getHeight(); y++) {
@@ -113,15 +170,18 @@ public class Texture {
 			buffer.flip();
 
 			final TextureResource resource = new TextureResource();
-			GL11.glBindTexture(GL11.GL_TEXTURE_2D, resource.getId());
+			final RenderBackend backend = resource.getBackend();
+
+			backend.bindTexture(GL11.GL_TEXTURE_2D, resource.getId());
 
-			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
-			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_REPEAT);
+			backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
+			backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_REPEAT);
 
-			GL11.glTexParameterf(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
-			GL11.glTexParameterf(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+			backend.texParameterf(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+			backend.texParameterf(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
 
-			GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, image.getWidth(), image.getHeight(), 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+			backend.texImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, image.getWidth(), image.getHeight(), 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+			arena.pop();
 
 			return resource;
 		} catch (final Exception e) {
@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.base.engine.core.Transform;
+import com.base.engine.core.Util;
+import com.base.engine.core.math.Matrix4f;
+import com.base.engine.core.math.Vector3f;
+import com.base.engine.rendering.backend.RenderBackend;
+import com.base.engine.rendering.resourceManagement.MappedValues;
+
+/**
+ * The uniforms of a {@link Shader}, worked out once at load time.
+ *
+ * Every uniform name is matched to what it reads and turned into an op: an
+ * op code, the uniform location and an operand, such as the
+ * {@link MappedValues#getKey(String) key} of a material value. Struct
+ * uniforms are split into one op per field. Running the plan is a single
+ * loop over an int array with no string handling, hashing or allocation.
+ *
+ * The same plan can also fill the std140 storage of a {@link UniformBlock},
+ * with byte offsets in place of locations.
+ */
+class UniformBindingPlan {
+	private static final int OP_SAMPLER = 0;
+	private static final int OP_MVP = 1;
+	private static final int OP_MODEL = 2;
+	private static final int OP_EYE_POS = 3;
+	private static final int OP_ENGINE_VECTOR = 4;
+	private static final int OP_ENGINE_FLOAT = 5;
+	private static final int OP_MATERIAL_VECTOR = 6;
+	private static final int OP_MATERIAL_FLOAT = 7;
+	private static final int OP_LIGHT_COLOR = 8;
+	private static final int OP_LIGHT_INTENSITY = 9;
+	private static final int OP_LIGHT_CONSTANT = 10;
+	private static final int OP_LIGHT_LINEAR = 11;
+	private static final int OP_LIGHT_EXPONENT = 12;
+	private static final int OP_LIGHT_POSITION = 13;
+	private static final int OP_LIGHT_RANGE = 14;
+	private static final int OP_LIGHT_DIRECTION = 15;
+	private static final int OP_LIGHT_CUTOFF = 16;
+	private static final int OP_VIEW_PROJECTION = 17;
+	private static final int OP_INVERSE_VIEW_PROJECTION = 18;
+	private static final int OP_ENGINE_SAMPLER = 19;
+	private static final int OP_STRUCT = 20;
+	private static final int OP_INVALID = 21;
+
+	/** Ints per op: code, location, operand. */
+	private static final int STRIDE = 3;
+
+	private final RenderBackend backend;
+	private final ByteBuffer data;
+	private final HashMap<String, Integer> locations;
+	private int[] ops;
+	private int opCount;
+
+	// Only used by the fallback ops, which hand the names on or report them.
+	private final ArrayList<String> names;
+	private final ArrayList<String> types;
+
+	private final FloatBuffer matrixBuffer;
+
+	/**
+	 * Build the plan for a linked program.
+	 * 
+	 * @param backend
+	 *            - The backend the program lives on
+	 * @param uniformNames
+	 *            - The uniforms in declaration order
+	 * @param uniformTypes
+	 *            - The GLSL type of each uniform
+	 * @param locations
+	 *            - The location of every uniform, struct fields included
+	 */
+	public UniformBindingPlan(final RenderBackend backend, final ArrayList<String> uniformNames, final ArrayList<String> uniformTypes, final HashMap<String, Integer> locations) {
+		this(backend, null, uniformNames, uniformTypes, locations);
+	}
+
+	/**
+	 * Build a plan that writes the members of a uniform block into
+	 * <code>data</code> instead of uploading them. Only values that are the
+	 * same for every draw of a pass can live in a block.
+	 * 
+	 * @param data
+	 *            - The std140 storage of the block
+	 * @param memberNames
+	 *            - The block members in declaration order
+	 * @param memberTypes
+	 *            - The GLSL type of each member
+	 * @param offsets
+	 *            - The std140 byte offset of every member, struct fields
+	 *            included
+	 * @throws IllegalArgumentException
+	 *             if a member depends on the object being drawn
+	 */
+	public UniformBindingPlan(final ByteBuffer data, final ArrayList<String> memberNames, final ArrayList<String> memberTypes, final HashMap<String, Integer> offsets) throws IllegalArgumentException {
+		this(null, data, memberNames, memberTypes, offsets);
+	}
+
+	private UniformBindingPlan(final RenderBackend backend, final ByteBuffer data, final ArrayList<String> uniformNames, final ArrayList<String> uniformTypes, final HashMap<String, Integer> locations) {
+		this.backend = backend;
+		this.data = data;
+		this.locations = locations;
+		ops = new int[uniformNames.size() * UniformBindingPlan.STRIDE];
+		names = new ArrayList<String>();
+		types = new ArrayList<String>();
+		matrixBuffer = Util.createFloatBuffer(Matrix4f.SIZE);
+
+		for (int i = 0; i < uniformNames.size(); i++) {
+			addUniform(uniformNames.get(i), uniformTypes.get(i));
+		}
+	}
+
+	// Mirrors the name and type dispatch of the original per-draw loop, so
+	// the two always agree on what a uniform reads.
+	private void addUniform(final String uniformName, final String uniformType) {
+		if (uniformType.equals("sampler2D")) {
+			if (uniformName.startsWith("R_")) {
+				add(UniformBindingPlan.OP_ENGINE_SAMPLER, uniformName, MappedValues.getKey(uniformName.substring(2)));
+			} else {
+				add(UniformBindingPlan.OP_SAMPLER, uniformName, MappedValues.getKey(uniformName));
+			}
+		} else if (uniformName.startsWith("T_")) {
+			if (uniformName.equals("T_MVP")) {
+				add(UniformBindingPlan.OP_MVP, uniformName, 0);
+			} else if (uniformName.equals("T_model")) {
+				add(UniformBindingPlan.OP_MODEL, uniformName, 0);
+			} else {
+				addInvalid(uniformName + " is not a valid component of Transform");
+			}
+		} else if (uniformName.startsWith("R_")) {
+			final String unprefixedUniformName = uniformName.substring(2);
+			if (uniformType.equals("vec3")) {
+				add(UniformBindingPlan.OP_ENGINE_VECTOR, uniformName, MappedValues.getKey(unprefixedUniformName));
+			} else if (uniformType.equals("float")) {
+				add(UniformBindingPlan.OP_ENGINE_FLOAT, uniformName, MappedValues.getKey(unprefixedUniformName));
+			} else if (uniformType.equals("DirectionalLight")) {
+				addDirectionalLight(uniformName);
+			} else if (uniformType.equals("PointLight")) {
+				addPointLight(uniformName);
+			} else if (uniformType.equals("SpotLight")) {
+				addSpotLight(uniformName);
+			} else {
+				names.add(uniformName);
+				types.add(uniformType);
+				add(UniformBindingPlan.OP_STRUCT, -1, names.size() - 1);
+			}
+		} else if (uniformName.startsWith("C_")) {
+			if (uniformName.equals("C_eyePos")) {
+				add(UniformBindingPlan.OP_EYE_POS, uniformName, 0);
+			} else if (uniformName.equals("C_viewProjection")) {
+				add(UniformBindingPlan.OP_VIEW_PROJECTION, uniformName, 0);
+			} else if (uniformName.equals("C_inverseViewProjection")) {
+				add(UniformBindingPlan.OP_INVERSE_VIEW_PROJECTION, uniformName, 0);
+			} else {
+				addInvalid(uniformName + " is not a valid component of Camera");
+			}
+		} else {
+			if (uniformType.equals("vec3")) {
+				add(UniformBindingPlan.OP_MATERIAL_VECTOR, uniformName, MappedValues.getKey(uniformName));
+			} else if (uniformType.equals("float")) {
+				add(UniformBindingPlan.OP_MATERIAL_FLOAT, uniformName, MappedValues.getKey(uniformName));
+			} else {
+				addInvalid(uniformType + " is not a supported type in Material");
+			}
+		}
+	}
+
+	private void addBaseLight(final String uniformName) {
+		add(UniformBindingPlan.OP_LIGHT_COLOR, uniformName + ".color", 0);
+		add(UniformBindingPlan.OP_LIGHT_INTENSITY, uniformName + ".intensity", 0);
+	}
+
+	private void addDirectionalLight(final String uniformName) {
+		addBaseLight(uniformName + ".base");
+		add(UniformBindingPlan.OP_LIGHT_DIRECTION, uniformName + ".direction", 0);
+	}
+
+	private void addPointLight(final String uniformName) {
+		addBaseLight(uniformName + ".base");
+		add(UniformBindingPlan.OP_LIGHT_CONSTANT, uniformName + ".atten.constant", 0);
+		add(UniformBindingPlan.OP_LIGHT_LINEAR, uniformName + ".atten.linear", 0);
+		add(UniformBindingPlan.OP_LIGHT_EXPONENT, uniformName + ".atten.exponent", 0);
+		add(UniformBindingPlan.OP_LIGHT_POSITION, uniformName + ".position", 0);
+		add(UniformBindingPlan.OP_LIGHT_RANGE, uniformName + ".range", 0);
+	}
+
+	private void addSpotLight(final String uniformName) {
+		addPointLight(uniformName + ".pointLight");
+		add(UniformBindingPlan.OP_LIGHT_DIRECTION, uniformName + ".direction", 0);
+		add(UniformBindingPlan.OP_LIGHT_CUTOFF, uniformName + ".cutoff", 0);
+	}
+
+	// Unsupported uniforms only fail when drawn, as they always have.
+	private void addInvalid(final String message) {
+		names.add(message);
+		types.add(null);
+		add(UniformBindingPlan.OP_INVALID, -1, names.size() - 1);
+	}
+
+	private void add(final int op, final String uniformName, final int operand) {
+		if (data != null && !UniformBindingPlan.isPerPass(op)) {
+			throw new IllegalArgumentException(uniformName + " changes with every draw and can't be part of a uniform block");
+		}
+
+		add(op, locations.get(uniformName), operand);
+	}
+
+	private static boolean isPerPass(final int op) {
+		return op == UniformBindingPlan.OP_EYE_POS || op == UniformBindingPlan.OP_VIEW_PROJECTION || op == UniformBindingPlan.OP_INVERSE_VIEW_PROJECTION || op == UniformBindingPlan.OP_ENGINE_VECTOR || op == UniformBindingPlan.OP_ENGINE_FLOAT || op >= UniformBindingPlan.OP_LIGHT_COLOR && op <= UniformBindingPlan.OP_LIGHT_CUTOFF;
+	}
+
+	private void add(final int op, final int location, final int operand) {
+		if (data != null && (op == UniformBindingPlan.OP_STRUCT || op == UniformBindingPlan.OP_INVALID)) {
+			throw new IllegalArgumentException(names.get(operand) + " can't be part of a uniform block");
+		}
+
+		if (ops.length < (opCount + 1) * UniformBindingPlan.STRIDE) {
+			ops = Arrays.copyOf(ops, Math.max(ops.length * 2, UniformBindingPlan.STRIDE * 4));
+		}
+
+		final int i = opCount * UniformBindingPlan.STRIDE;
+		ops[i] = op;
+		ops[i + 1] = location;
+		ops[i + 2] = operand;
+		opCount++;
+	}
+
+	/**
+	 * Check whether any op reads the model view projection matrix, so it
+	 * only needs to be computed when a shader actually uses it.
+	 */
+	public boolean usesMVP() {
+		for (int i = 0; i < opCount * UniformBindingPlan.STRIDE; i += UniformBindingPlan.STRIDE) {
+			if (ops[i] == UniformBindingPlan.OP_MVP) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Upload every uniform for one draw, or fill the block storage.
+	 * 
+	 * @param shader
+	 *            - The shader this plan belongs to, handed to
+	 *            {@link RenderingEngine#updateUniformStruct}
+	 * @param transform
+	 *            - The transform of the object, or <code>null</code>
+	 * @param worldMatrix
+	 *            - The world matrix of the object
+	 * @param mvpMatrix
+	 *            - The model view projection matrix of the object, if
+	 *            {@link #usesMVP()}
+	 * @param material
+	 *            - The material of the object
+	 * @param renderingEngine
+	 *            - Supplies the camera and light of the current pass
+	 */
+	public void execute(final Shader shader, final Transform transform, final Matrix4f worldMatrix, final Matrix4f mvpMatrix, final Material material, final RenderingEngine renderingEngine) {
+		final int[] ops = this.ops;
+		final int end = opCount * UniformBindingPlan.STRIDE;
+
+		for (int i = 0; i < end; i += UniformBindingPlan.STRIDE) {
+			final int location = ops[i + 1];
+			final int operand = ops[i + 2];
+
+			switch (ops[i]) {
+				case OP_SAMPLER: {
+					final int samplerSlot = renderingEngine.getSamplerSlot(operand);
+					material.getTexture(operand).bind(samplerSlot);
+					backend.uniform1i(location, samplerSlot);
+					break;
+				}
+				case OP_ENGINE_SAMPLER: {
+					final int samplerSlot = renderingEngine.getSamplerSlot(operand);
+					renderingEngine.getTexture(operand).bind(samplerSlot);
+					backend.uniform1i(location, samplerSlot);
+					break;
+				}
+				case OP_MVP:
+					setMatrix(location, mvpMatrix);
+					break;
+				case OP_MODEL:
+					setMatrix(location, worldMatrix);
+					break;
+				case OP_EYE_POS:
+					setVector(location, renderingEngine.getEyePos());
+					break;
+				case OP_VIEW_PROJECTION:
+					setMatrix(location, renderingEngine.getViewProjection());
+					break;
+				case OP_INVERSE_VIEW_PROJECTION:
+					setMatrix(location, renderingEngine.getInverseViewProjection());
+					break;
+				case OP_ENGINE_VECTOR:
+					setVector(location, renderingEngine.getVector3f(operand));
+					break;
+				case OP_ENGINE_FLOAT:
+					setFloat(location, renderingEngine.getFloat(operand));
+					break;
+				case OP_MATERIAL_VECTOR:
+					setVector(location, material.getVector3f(operand));
+					break;
+				case OP_MATERIAL_FLOAT:
+					setFloat(location, material.getFloat(operand));
+					break;
+				case OP_LIGHT_COLOR:
+					setVector(location, renderingEngine.getActiveLightState().getColor());
+					break;
+				case OP_LIGHT_INTENSITY:
+					setFloat(location, renderingEngine.getActiveLightState().getIntensity());
+					break;
+				case OP_LIGHT_CONSTANT:
+					setFloat(location, renderingEngine.getActiveLightState().getAttenuation().getConstant());
+					break;
+				case OP_LIGHT_LINEAR:
+					setFloat(location, renderingEngine.getActiveLightState().getAttenuation().getLinear());
+					break;
+				case OP_LIGHT_EXPONENT:
+					setFloat(location, renderingEngine.getActiveLightState().getAttenuation().getExponent());
+					break;
+				case OP_LIGHT_POSITION:
+					setVector(location, renderingEngine.getActiveLightState().getPosition());
+					break;
+				case OP_LIGHT_RANGE:
+					setFloat(location, renderingEngine.getActiveLightState().getRange());
+					break;
+				case OP_LIGHT_DIRECTION:
+					setVector(location, renderingEngine.getActiveLightState().getDirection());
+					break;
+				case OP_LIGHT_CUTOFF:
+					setFloat(location, renderingEngine.getActiveLightState().getCutoff());
+					break;
+				case OP_STRUCT:
+					renderingEngine.updateUniformStruct(transform, material, shader, names.get(operand), types.get(operand));
+					break;
+				default:
+					throw new IllegalArgumentException(names.get(operand));
+			}
+		}
+	}
+
+	private void setFloat(final int location, final float value) {
+		if (data != null) {
+			data.putFloat(location, value);
+		} else {
+			backend.uniform1f(location, value);
+		}
+	}
+
+	private void setVector(final int location, final Vector3f value) {
+		if (data != null) {
+			data.putFloat(location, value.getX());
+			data.putFloat(location + 4, value.getY());
+			data.putFloat(location + 8, value.getZ());
+		} else {
+			backend.uniform3f(location, value.getX(), value.getY(), value.getZ());
+		}
+	}
+
+	private void setMatrix(final int location, final Matrix4f value) {
+		if (data != null) {
+			// std140 matrices are stored column by column.
+			for (int column = 0; column < 4; column++) {
+				for (int row = 0; row < 4; row++) {
+					data.putFloat(location + (column * 4 + row) * 4, value.get(row, column));
+				}
+			}
+
+			return;
+		}
+
+		matrixBuffer.clear();
+		value.store(matrixBuffer).flip();
+
+		backend.uniformMatrix4(location, true, matrixBuffer);
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.rendering;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.lwjgl.opengl.ARBUniformBufferObject;
+import org.lwjgl.opengl.GL15;
+
+import com.base.engine.core.Util;
+import com.base.engine.rendering.backend.Graphics;
+import com.base.engine.rendering.backend.RenderBackend;
+
+/**
+ * A <code>layout(std140)</code> uniform block shared by every shader that
+ * declares it.
+ *
+ * Each block name gets one uniform buffer and one binding point. The members
+ * are camera and light values that are the same for every draw of a pass, so
+ * {@link #update(RenderingEngine)} uploads them once per pass instead of
+ * once per draw, and skips the upload entirely when nothing changed.
+ */
+public class UniformBlock {
+	private static final HashMap<String, UniformBlock> loadedBlocks = new HashMap<String, UniformBlock>();
+
+	private final String name;
+	private final int binding;
+	private final int size;
+	private final RenderBackend backend;
+	private final int buffer;
+	private final ByteBuffer data;
+	private final ByteBuffer uploaded;
+	private final UniformBindingPlan plan;
+	private boolean hasUploaded;
+
+	private UniformBlock(final String name, final int binding, final int size, final ArrayList<String> memberNames, final ArrayList<String> memberTypes, final HashMap<String, Integer> offsets) {
+		this.name = name;
+		this.binding = binding;
+		this.size = size;
+
+		backend = Graphics.getBackend();
+		data = Util.createByteBuffer(size);
+		uploaded = Util.createByteBuffer(size);
+		plan = new UniformBindingPlan(data, memberNames, memberTypes, offsets);
+
+		buffer = backend.genBuffer();
+		backend.bindBuffer(ARBUniformBufferObject.GL_UNIFORM_BUFFER, buffer);
+		backend.bufferData(ARBUniformBufferObject.GL_UNIFORM_BUFFER, size, GL15.GL_DYNAMIC_DRAW);
+		backend.bindBufferBase(ARBUniformBufferObject.GL_UNIFORM_BUFFER, binding, buffer);
+	}
+
+	/**
+	 * Get the block called <code>name</code>, creating it with the given
+	 * layout the first time it is seen.
+	 * 
+	 * @param name
+	 *            - The block name
+	 * @param size
+	 *            - The std140 size of the block in bytes
+	 * @param memberNames
+	 *            - The block members in declaration order
+	 * @param memberTypes
+	 *            - The GLSL type of each member
+	 * @param offsets
+	 *            - The std140 byte offset of every member, struct fields
+	 *            included
+	 * @throws IllegalStateException
+	 *             if another shader declared the block with a different size
+	 */
+	static UniformBlock get(final String name, final int size, final ArrayList<String> memberNames, final ArrayList<String> memberTypes, final HashMap<String, Integer> offsets) throws IllegalStateException {
+		UniformBlock block = UniformBlock.loadedBlocks.get(name);
+
+		if (block == null) {
+			block = new UniformBlock(name, UniformBlock.loadedBlocks.size(), size, memberNames, memberTypes, offsets);
+			UniformBlock.loadedBlocks.put(name, block);
+		} else if (block.size != size) {
+			throw new IllegalStateException("Uniform block " + name + " is declared with different layouts");
+		}
+
+		return block;
+	}
+
+	/**
+	 * Get a block created by an earlier shader.
+	 * 
+	 * @param name
+	 *            - The block name
+	 * @return The block, or <code>null</code> if no shader declared it
+	 */
+	static UniformBlock get(final String name) {
+		return UniformBlock.loadedBlocks.get(name);
+	}
+
+	/**
+	 * Write the current camera and light values into the block, and upload
+	 * them if they differ from the last upload.
+	 * 
+	 * @param renderingEngine
+	 *            - Supplies the camera and light of the current pass
+	 */
+	public void update(final RenderingEngine renderingEngine) {
+		plan.execute(null, null, null, null, null, renderingEngine);
+
+		if (hasUploaded && data.equals(uploaded)) {
+			return;
+		}
+
+		backend.bindBuffer(ARBUniformBufferObject.GL_UNIFORM_BUFFER, buffer);
+		backend.bufferSubData(ARBUniformBufferObject.GL_UNIFORM_BUFFER, 0, data);
+
+		uploaded.clear();
+		uploaded.put(data).flip();
+		data.clear();
+		hasUploaded = true;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the binding point the buffer of this block is attached to.
+	 */
+	public int getBinding() {
+		return binding;
+	}
+
+	/**
+	 * Get the std140 size of this block in bytes.
+	 */
+	public int getSize() {
+		return size;
+	}
+}
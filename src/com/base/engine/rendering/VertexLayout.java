@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.rendering;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.ARBHalfFloatVertex;
+import org.lwjgl.opengl.ARBVertexType2_10_10_10_REV;
+import org.lwjgl.opengl.GL11;
+
+import com.base.engine.core.math.Vector2f;
+import com.base.engine.core.math.Vector3f;
+import com.base.engine.core.math.Vertex;
+import com.base.engine.rendering.backend.RenderBackend;
+
+/**
+ * Describes how the vertices of a {@link Mesh} are laid out in its vertex
+ * buffer: which attributes there are and the format each is stored in, one
+ * vertex after the other.
+ *
+ * The position is always three floats. Texture coordinates can be stored as
+ * half floats, and normals and tangents as 10 bits per component packed into
+ * a single int, which together make {@link #PACKED} vertices 24 bytes instead
+ * of the 48 of {@link #STANDARD}. Tangents carry the handedness of the
+ * tangent space in w, so mirrored texture coordinates get the right
+ * bitangent. Colors and bone indices and weights are optional and can be
+ * stored as bytes.
+ *
+ * Every attribute has a fixed location that {@link Shader} binds the
+ * attribute of the same name to, so any shader can draw any layout.
+ * Locations 4 to 7 are left for {@link Mesh#INSTANCE_ATTRIBUTE}.
+ */
+public class VertexLayout {
+	// Formats
+
+	public static final int NONE = 0;
+	public static final int FLOAT = 1;
+	/**
+	 * 16-bit floats, for texture coordinates.
+	 */
+	public static final int HALF_FLOAT = 2;
+	/**
+	 * Signed and normalized, 10 bits each for x, y and z and 2 bits for w, in
+	 * one <code>GL_INT_2_10_10_10_REV</code>. For normals and tangents.
+	 */
+	public static final int PACKED_INT = 3;
+	/**
+	 * One byte per component, normalized for colors and bone weights.
+	 */
+	public static final int UNSIGNED_BYTE = 4;
+
+	// Attribute locations
+
+	public static final int POSITION = 0;
+	public static final int TEX_COORD = 1;
+	public static final int NORMAL = 2;
+	public static final int TANGENT = 3;
+	public static final int COLOR = 8;
+	public static final int BONE_INDICES = 9;
+	public static final int BONE_WEIGHTS = 10;
+
+	private static final String[] NAMES = { "position", "texCoord", "normal", "tangent", "color", "boneIndices", "boneWeights" };
+	private static final Vector3f WHITE = new Vector3f(1, 1, 1);
+
+	private static final int[] LOCATIONS = { VertexLayout.POSITION, VertexLayout.TEX_COORD, VertexLayout.NORMAL, VertexLayout.TANGENT, VertexLayout.COLOR, VertexLayout.BONE_INDICES, VertexLayout.BONE_WEIGHTS };
+
+	/**
+	 * Full precision position, texture coordinates, normal and tangent, 48
+	 * bytes per vertex.
+	 */
+	public static final VertexLayout STANDARD = new VertexLayout(VertexLayout.FLOAT, VertexLayout.FLOAT, VertexLayout.FLOAT, VertexLayout.NONE, VertexLayout.NONE);
+	/**
+	 * Half float texture coordinates and packed normal and tangent, 24 bytes
+	 * per vertex.
+	 */
+	public static final VertexLayout PACKED = new VertexLayout(VertexLayout.HALF_FLOAT, VertexLayout.PACKED_INT, VertexLayout.PACKED_INT, VertexLayout.NONE, VertexLayout.NONE);
+	/**
+	 * {@link #PACKED} with four bone indices and weights as bytes, 32 bytes
+	 * per vertex.
+	 */
+	public static final VertexLayout PACKED_SKINNED = new VertexLayout(VertexLayout.HALF_FLOAT, VertexLayout.PACKED_INT, VertexLayout.PACKED_INT, VertexLayout.NONE, VertexLayout.UNSIGNED_BYTE);
+
+	private final int texCoordFormat;
+	private final int normalFormat;
+	private final int tangentFormat;
+	private final int colorFormat;
+	private final int boneFormat;
+
+	// The format and byte offset of each attribute, indexed like NAMES, with
+	// NONE for attributes the layout doesn't have.
+	private final int[] formats;
+	private final int[] offsets;
+	private final int stride;
+
+	/**
+	 * @param texCoordFormat
+	 *            - {@link #FLOAT}, {@link #HALF_FLOAT} or {@link #NONE}
+	 * @param normalFormat
+	 *            - {@link #FLOAT}, {@link #PACKED_INT} or {@link #NONE}
+	 * @param tangentFormat
+	 *            - {@link #FLOAT}, {@link #PACKED_INT} or {@link #NONE}
+	 * @param colorFormat
+	 *            - {@link #FLOAT}, {@link #UNSIGNED_BYTE} or {@link #NONE}
+	 * @param boneFormat
+	 *            - The format of both the bone indices and weights,
+	 *            {@link #FLOAT}, {@link #UNSIGNED_BYTE} or {@link #NONE}
+	 * @throws IllegalArgumentException
+	 *             if an attribute can't be stored in the format given for it
+	 */
+	public VertexLayout(final int texCoordFormat, final int normalFormat, final int tangentFormat, final int colorFormat, final int boneFormat) throws IllegalArgumentException {
+		this.texCoordFormat = VertexLayout.check("texCoord", texCoordFormat, VertexLayout.HALF_FLOAT);
+		this.normalFormat = VertexLayout.check("normal", normalFormat, VertexLayout.PACKED_INT);
+		this.tangentFormat = VertexLayout.check("tangent", tangentFormat, VertexLayout.PACKED_INT);
+		this.colorFormat = VertexLayout.check("color", colorFormat, VertexLayout.UNSIGNED_BYTE);
+		this.boneFormat = VertexLayout.check("bones", boneFormat, VertexLayout.UNSIGNED_BYTE);
+
+		formats = new int[] { VertexLayout.FLOAT, texCoordFormat, normalFormat, tangentFormat, colorFormat, boneFormat, boneFormat };
+		offsets = new int[formats.length];
+
+		int offset = 0;
+
+		for (int i = 0; i < formats.length; i++) {
+			offsets[i] = offset;
+			offset += getSize(i);
+		}
+
+		stride = offset;
+	}
+
+	private static int check(final String attribute, final int format, final int packedFormat) throws IllegalArgumentException {
+		if (format != VertexLayout.NONE && format != VertexLayout.FLOAT && format != packedFormat) {
+			throw new IllegalArgumentException(attribute + " can't be stored in vertex format " + format);
+		}
+
+		return format;
+	}
+
+	/**
+	 * Get the location of the attribute called <code>name</code>, or -1 if it
+	 * isn't a vertex attribute.
+	 */
+	public static int getLocation(final String name) {
+		for (int i = 0; i < VertexLayout.NAMES.length; i++) {
+			if (VertexLayout.NAMES[i].equals(name)) {
+				return VertexLayout.LOCATIONS[i];
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Get the size of a vertex in bytes.
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * Check whether any attribute is stored as half floats or packed ints,
+	 * which need {@link RenderBackend#isPackedVertexFormatSupported()}.
+	 */
+	public boolean isPacked() {
+		return texCoordFormat == VertexLayout.HALF_FLOAT || normalFormat == VertexLayout.PACKED_INT || tangentFormat == VertexLayout.PACKED_INT;
+	}
+
+	/**
+	 * Get a layout with the same attributes, with floats in place of half
+	 * floats and packed ints.
+	 */
+	public VertexLayout getUnpacked() {
+		if (!isPacked()) {
+			return this;
+		}
+
+		return new VertexLayout(VertexLayout.unpack(texCoordFormat), VertexLayout.unpack(normalFormat), VertexLayout.unpack(tangentFormat), colorFormat, boneFormat);
+	}
+
+	private static int unpack(final int format) {
+		return format == VertexLayout.HALF_FLOAT || format == VertexLayout.PACKED_INT ? VertexLayout.FLOAT : format;
+	}
+
+	/**
+	 * Point the vertex attributes at vertices in this layout in the bound
+	 * <code>GL_ARRAY_BUFFER</code>, and disable the ones this layout doesn't
+	 * have so they read their default value.
+	 * 
+	 * @param offset
+	 *            - The byte offset of the first vertex in the buffer
+	 */
+	public void setAttributes(final RenderBackend backend, final long offset) {
+		for (int i = 0; i < formats.length; i++) {
+			if (formats[i] == VertexLayout.NONE) {
+				backend.disableVertexAttribArray(VertexLayout.LOCATIONS[i]);
+				continue;
+			}
+
+			// Bone indices are whole numbers, every other byte attribute is a
+			// fraction.
+			final boolean normalized = formats[i] == VertexLayout.PACKED_INT || formats[i] == VertexLayout.UNSIGNED_BYTE && VertexLayout.LOCATIONS[i] != VertexLayout.BONE_INDICES;
+
+			backend.enableVertexAttribArray(VertexLayout.LOCATIONS[i]);
+			backend.vertexAttribPointer(VertexLayout.LOCATIONS[i], getComponents(i), getType(i), normalized, stride, offset + offsets[i]);
+		}
+	}
+
+	/**
+	 * Write <code>vertices</code> into <code>buffer</code> in this layout,
+	 * starting at the buffer's current position. The buffer must be in
+	 * native byte order.
+	 * 
+	 * @return <code>buffer</code>
+	 */
+	public ByteBuffer store(final Vertex[] vertices, final ByteBuffer buffer) {
+		for (final Vertex vertex : vertices) {
+			VertexLayout.putFloats(buffer, vertex.getPos());
+
+			if (texCoordFormat == VertexLayout.FLOAT) {
+				buffer.putFloat(vertex.getTexCoord().getX()).putFloat(vertex.getTexCoord().getY());
+			} else if (texCoordFormat == VertexLayout.HALF_FLOAT) {
+				final Vector2f texCoord = vertex.getTexCoord();
+				buffer.putShort(VertexLayout.toHalfFloat(texCoord.getX())).putShort(VertexLayout.toHalfFloat(texCoord.getY()));
+			}
+
+			VertexLayout.putDirection(buffer, normalFormat, vertex.getNormal(), 0);
+			VertexLayout.putDirection(buffer, tangentFormat, vertex.getTangent(), vertex.getHandedness());
+
+			if (tangentFormat == VertexLayout.FLOAT) {
+				buffer.putFloat(vertex.getHandedness());
+			}
+
+			if (colorFormat != VertexLayout.NONE) {
+				final Vector3f color = vertex.getColor() != null ? vertex.getColor() : VertexLayout.WHITE;
+
+				if (colorFormat == VertexLayout.FLOAT) {
+					VertexLayout.putFloats(buffer, color);
+					buffer.putFloat(1);
+				} else {
+					buffer.put(VertexLayout.toUnsignedByte(color.getX())).put(VertexLayout.toUnsignedByte(color.getY())).put(VertexLayout.toUnsignedByte(color.getZ())).put((byte) 0xFF);
+				}
+			}
+
+			if (boneFormat != VertexLayout.NONE) {
+				// A vertex without bones follows bone 0.
+				final int[] indices = vertex.getBoneIndices();
+				final float[] weights = vertex.getBoneWeights();
+
+				for (int i = 0; i < 4; i++) {
+					final int index = indices != null ? indices[i] : 0;
+
+					if (boneFormat == VertexLayout.FLOAT) {
+						buffer.putFloat(index);
+					} else {
+						buffer.put((byte) index);
+					}
+				}
+
+				for (int i = 0; i < 4; i++) {
+					final float weight = weights != null ? weights[i] : i == 0 ? 1 : 0;
+
+					if (boneFormat == VertexLayout.FLOAT) {
+						buffer.putFloat(weight);
+					} else {
+						buffer.put(VertexLayout.toUnsignedByte(weight));
+					}
+				}
+			}
+		}
+
+		return buffer;
+	}
+
+	private int getSize(final int attribute) {
+		switch (formats[attribute]) {
+		case VertexLayout.FLOAT:
+			return getComponents(attribute) * 4;
+		case VertexLayout.HALF_FLOAT:
+			return getComponents(attribute) * 2;
+		case VertexLayout.PACKED_INT:
+		case VertexLayout.UNSIGNED_BYTE:
+			return 4;
+		default:
+			return 0;
+		}
+	}
+
+	private int getComponents(final int attribute) {
+		final int location = VertexLayout.LOCATIONS[attribute];
+
+		if (location == VertexLayout.TEX_COORD) {
+			return 2;
+		} else if (location == VertexLayout.POSITION || formats[attribute] == VertexLayout.FLOAT && location == VertexLayout.NORMAL) {
+			return 3;
+		} else {
+			return 4;
+		}
+	}
+
+	private int getType(final int attribute) {
+		switch (formats[attribute]) {
+		case VertexLayout.HALF_FLOAT:
+			return ARBHalfFloatVertex.GL_HALF_FLOAT;
+		case VertexLayout.PACKED_INT:
+			return ARBVertexType2_10_10_10_REV.GL_INT_2_10_10_10_REV;
+		case VertexLayout.UNSIGNED_BYTE:
+			return GL11.GL_UNSIGNED_BYTE;
+		default:
+			return GL11.GL_FLOAT;
+		}
+	}
+
+	private static void putFloats(final ByteBuffer buffer, final Vector3f value) {
+		buffer.putFloat(value.getX()).putFloat(value.getY()).putFloat(value.getZ());
+	}
+
+	private static void putDirection(final ByteBuffer buffer, final int format, final Vector3f direction, final float w) {
+		if (format == VertexLayout.FLOAT) {
+			VertexLayout.putFloats(buffer, direction);
+		} else if (format == VertexLayout.PACKED_INT) {
+			buffer.putInt(VertexLayout.toSignedNormalized(direction.getX(), 10) | VertexLayout.toSignedNormalized(direction.getY(), 10) << 10 | VertexLayout.toSignedNormalized(direction.getZ(), 10) << 20 | VertexLayout.toPackedW(w) << 30);
+		}
+	}
+
+	private static int toPackedW(final float w) {
+		// -1 is stored as -2, the one 2-bit value that decodes to -1 both
+		// under GL 4.2 and under the (2c + 1) / 3 rule of older drivers.
+		if (w < 0) {
+			return 2;
+		}
+
+		return w > 0 ? 1 : 0;
+	}
+
+	private static int toSignedNormalized(final float value, final int bits) {
+		final int max = (1 << bits - 1) - 1;
+
+		return Math.round(Math.max(-1, Math.min(1, value)) * max) & (1 << bits) - 1;
+	}
+
+	private static byte toUnsignedByte(final float value) {
+		return (byte) Math.round(Math.max(0, Math.min(1, value)) * 255);
+	}
+
+	/**
+	 * Round a float to the nearest 16-bit float.
+	 */
+	static short toHalfFloat(final float value) {
+		final int bits = Float.floatToIntBits(value);
+		final int sign = bits >>> 16 & 0x8000;
+		final int magnitude = bits & 0x7FFFFFFF;
+		// Adding half of the dropped mantissa rounds to nearest.
+		final int rounded = magnitude + 0x1000;
+
+		if (magnitude >= 0x7F800000) {
+			// Infinity stays infinity, NaN stays NaN.
+			return (short) (sign | 0x7C00 | (magnitude > 0x7F800000 ? 0x200 : 0));
+		} else if (rounded >= 0x47800000) {
+			// Too large, becomes infinity.
+			return (short) (sign | 0x7C00);
+		} else if (rounded >= 0x38800000) {
+			// Normal: rebias the exponent from 127 to 15.
+			return (short) (sign | rounded - 0x38000000 >>> 13);
+		} else if (magnitude < 0x33000000) {
+			// Too small even for a subnormal.
+			return (short) sign;
+		} else {
+			// Subnormal: shift the mantissa, with its implicit leading bit,
+			// into place.
+			final int exponent = magnitude >>> 23;
+			return (short) (sign | ((magnitude & 0x7FFFFF | 0x800000) + (0x800000 >>> exponent - 102) >>> 126 - exponent));
+		}
+	}
+}
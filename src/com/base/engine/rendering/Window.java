@@ -28,6 +28,11 @@ public class Window {
 
 	private static final Vector2f CENTER_POSITION = new Vector2f(0, 0);
 
+	private static boolean headless;
+	private static int headlessWidth;
+	private static int headlessHeight;
+	private static String headlessTitle;
+
 	public static void createWindow(final int width, final int height, final String title) {
 		Display.setTitle(title);
 		try {
@@ -41,30 +46,93 @@ public class Window {
 		}
 	}
 
+	/**
+	 * Stand in for a window without creating a display, keyboard or mouse,
+	 * for running the engine on machines without a GPU. The size is only
+	 * reported back; nothing is ever shown.
+	 * 
+	 * @param width
+	 *            - The width to report
+	 * @param height
+	 *            - The height to report
+	 * @param title
+	 *            - The title to report
+	 */
+	public static void createHeadless(final int width, final int height, final String title) {
+		Window.headless = true;
+		Window.headlessWidth = width;
+		Window.headlessHeight = height;
+		Window.headlessTitle = title;
+		Window.CENTER_POSITION.set(width / 2, height / 2);
+	}
+
+	/**
+	 * Check whether the window was created with
+	 * {@link #createHeadless(int, int, String)}.
+	 */
+	public static boolean isHeadless() {
+		return Window.headless;
+	}
+
+	/**
+	 * Lock buffer swaps to the display's refresh rate.
+	 * 
+	 * @param enabled
+	 *            - <code>true</code> to wait for vertical sync
+	 */
+	public static void setVSyncEnabled(final boolean enabled) {
+		if (Window.headless) {
+			return;
+		}
+
+		Display.setVSyncEnabled(enabled);
+	}
+
 	public static void render() {
+		if (Window.headless) {
+			return;
+		}
+
 		Display.update();
 	}
 
+	/**
+	 * Process window and input events without swapping buffers, for frames
+	 * where nothing new was drawn.
+	 */
+	public static void processMessages() {
+		if (Window.headless) {
+			return;
+		}
+
+		Display.processMessages();
+	}
+
 	public static void dispose() {
+		if (Window.headless) {
+			Window.headless = false;
+			return;
+		}
+
 		Display.destroy();
 		Keyboard.destroy();
 		Mouse.destroy();
 	}
 
 	public static boolean isCloseRequested() {
-		return Display.isCloseRequested();
+		return !Window.headless && Display.isCloseRequested();
 	}
 
 	public static int getWidth() {
-		return Display.getDisplayMode().getWidth();
+		return Window.headless ? Window.headlessWidth : Display.getDisplayMode().getWidth();
 	}
 
 	public static int getHeight() {
-		return Display.getDisplayMode().getHeight();
+		return Window.headless ? Window.headlessHeight : Display.getDisplayMode().getHeight();
 	}
 
 	public static String getTitle() {
-		return Display.getTitle();
+		return Window.headless ? Window.headlessTitle : Display.getTitle();
 	}
 
 	public Vector2f getCenter() {
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.rendering.backend;
+
+/**
+ * Holds the {@link RenderBackend} the engine draws with. This is
+ * {@link OpenGLBackend} behind a {@link StateCachingBackend} unless the
+ * engine was started headless.
+ */
+public class Graphics {
+	private static RenderBackend backend = new StateCachingBackend(new OpenGLBackend());
+
+	public static RenderBackend getBackend() {
+		return Graphics.backend;
+	}
+
+	/**
+	 * Replace the backend. Do this before creating any mesh, texture or
+	 * shader, since those keep handles that only mean something to the
+	 * backend that made them.
+	 * 
+	 * @param backend
+	 *            - The backend to draw with from now on
+	 */
+	public static void setBackend(final RenderBackend backend) {
+		Graphics.backend = backend;
+	}
+}
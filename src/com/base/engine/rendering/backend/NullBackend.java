@@ -0,0 +1,680 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.rendering.backend;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBFramebufferObject;
+import org.lwjgl.opengl.ARBSync;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+
+/**
+ * A backend that needs no GPU or window, for servers, soak tests and
+ * benchmarks.
+ *
+ * Every object gets a unique fake handle, every shader compiles and every
+ * uniform is found, so the rest of the engine runs exactly as it would
+ * against OpenGL. Draw calls are counted, and recorded with the state they
+ * were made in while recording is switched on. Live buffers, textures,
+ * programs and fences are counted too, so a soak test can check for leaks.
+ */
+public class NullBackend implements RenderBackend {
+	/**
+	 * The state a draw call was made in.
+	 */
+	public static class DrawCall {
+		private final int program;
+		private final int arrayBuffer;
+		private final int elementBuffer;
+		private final int texture;
+		private final int count;
+
+		public DrawCall(final int program, final int arrayBuffer, final int elementBuffer, final int texture, final int count) {
+			this.program = program;
+			this.arrayBuffer = arrayBuffer;
+			this.elementBuffer = elementBuffer;
+			this.texture = texture;
+			this.count = count;
+		}
+
+		public int getProgram() {
+			return program;
+		}
+
+		public int getArrayBuffer() {
+			return arrayBuffer;
+		}
+
+		public int getElementBuffer() {
+			return elementBuffer;
+		}
+
+		/**
+		 * Get the texture bound to unit 0.
+		 */
+		public int getTexture() {
+			return texture;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return "draw " + count + " indices (program " + program + ", vbo " + arrayBuffer + ", ibo " + elementBuffer + ", texture " + texture + ")";
+		}
+	}
+
+	private static final int TEXTURE_UNITS = 32;
+
+	private final AtomicInteger nextHandle;
+	private final AtomicInteger liveBuffers;
+	private final AtomicInteger liveTextures;
+	private final AtomicInteger livePrograms;
+	private final AtomicInteger liveVertexArrays;
+	private final AtomicInteger liveFramebuffers;
+	private final AtomicInteger liveSyncs;
+
+	private int program;
+	private int arrayBuffer;
+	private int elementBuffer;
+	private int vertexBuffer;
+	private int vertexArray;
+	private int[] vertexArrayBuffers;
+	private int activeTexture;
+	private final int[] textures;
+	private int framebuffer;
+
+	private long drawCalls;
+	private long indicesDrawn;
+	private long indexBytesDrawn;
+	private long instancesDrawn;
+	private long uniformUpdates;
+	private long bufferUploads;
+	private long stateChanges;
+
+	private boolean recording;
+	private final ArrayList<DrawCall> recordedDrawCalls;
+
+	public NullBackend() {
+		nextHandle = new AtomicInteger(1);
+		liveBuffers = new AtomicInteger();
+		liveTextures = new AtomicInteger();
+		livePrograms = new AtomicInteger();
+		liveVertexArrays = new AtomicInteger();
+		liveFramebuffers = new AtomicInteger();
+		liveSyncs = new AtomicInteger();
+		vertexArrayBuffers = new int[64];
+
+		textures = new int[NullBackend.TEXTURE_UNITS];
+		recordedDrawCalls = new ArrayList<DrawCall>();
+	}
+
+	/**
+	 * Keep a {@link DrawCall} for every draw until the next {@link #reset()}.
+	 * Off by default so long runs don't grow without bound.
+	 */
+	public void setRecording(final boolean recording) {
+		this.recording = recording;
+	}
+
+	public ArrayList<DrawCall> getRecordedDrawCalls() {
+		return recordedDrawCalls;
+	}
+
+	public long getDrawCalls() {
+		return drawCalls;
+	}
+
+	public long getIndicesDrawn() {
+		return indicesDrawn;
+	}
+
+	/**
+	 * Get the number of bytes of index data read by draw calls, which
+	 * depends on the index type each mesh was drawn with.
+	 */
+	public long getIndexBytesDrawn() {
+		return indexBytesDrawn;
+	}
+
+	/**
+	 * Get the number of instances drawn by instanced draw calls. Each
+	 * instanced call counts once in {@link #getDrawCalls()}.
+	 */
+	public long getInstancesDrawn() {
+		return instancesDrawn;
+	}
+
+	public long getUniformUpdates() {
+		return uniformUpdates;
+	}
+
+	/**
+	 * Get the number of partial buffer and texture updates, such as uniform
+	 * block uploads.
+	 */
+	public long getBufferUploads() {
+		return bufferUploads;
+	}
+
+	/**
+	 * Get the number of binds and fixed-function state calls.
+	 */
+	public long getStateChanges() {
+		return stateChanges;
+	}
+
+	public int getLiveBuffers() {
+		return liveBuffers.get();
+	}
+
+	public int getLiveTextures() {
+		return liveTextures.get();
+	}
+
+	public int getLivePrograms() {
+		return livePrograms.get();
+	}
+
+	public int getLiveVertexArrays() {
+		return liveVertexArrays.get();
+	}
+
+	public int getLiveFramebuffers() {
+		return liveFramebuffers.get();
+	}
+
+	public int getLiveSyncs() {
+		return liveSyncs.get();
+	}
+
+	/**
+	 * Get the framebuffer draws currently go to, 0 for the window.
+	 */
+	public int getFramebuffer() {
+		return framebuffer;
+	}
+
+	/**
+	 * Zero the call counters and forget the recorded draw calls. The live
+	 * object counts are kept.
+	 */
+	public void reset() {
+		drawCalls = 0;
+		indicesDrawn = 0;
+		indexBytesDrawn = 0;
+		instancesDrawn = 0;
+		uniformUpdates = 0;
+		bufferUploads = 0;
+		stateChanges = 0;
+		recordedDrawCalls.clear();
+	}
+
+	@Override
+	public int genBuffer() {
+		liveBuffers.incrementAndGet();
+		return nextHandle.getAndIncrement();
+	}
+
+	@Override
+	public void deleteBuffer(final int buffer) {
+		liveBuffers.decrementAndGet();
+	}
+
+	@Override
+	public void bindBuffer(final int target, final int buffer) {
+		stateChanges++;
+
+		if (target == GL15.GL_ARRAY_BUFFER) {
+			arrayBuffer = buffer;
+		} else if (target == GL15.GL_ELEMENT_ARRAY_BUFFER) {
+			elementBuffer = buffer;
+		}
+	}
+
+	@Override
+	public void bufferData(final int target, final FloatBuffer data, final int usage) {
+	}
+
+	@Override
+	public void bufferData(final int target, final IntBuffer data, final int usage) {
+	}
+
+	@Override
+	public void bufferData(final int target, final long size, final int usage) {
+	}
+
+	@Override
+	public void bufferData(final int target, final ByteBuffer data, final int usage) {
+	}
+
+	@Override
+	public void bufferSubData(final int target, final long offset, final ByteBuffer data) {
+		bufferUploads++;
+	}
+
+	@Override
+	public boolean isPersistentMappingSupported() {
+		return true;
+	}
+
+	@Override
+	public void bufferStorage(final int target, final long size, final int flags) {
+	}
+
+	/**
+	 * Hand out fresh memory of the right size. Nothing written to it is
+	 * kept.
+	 */
+	@Override
+	public ByteBuffer mapBufferRange(final int target, final long offset, final long length, final int access) {
+		return BufferUtils.createByteBuffer((int) length);
+	}
+
+	@Override
+	public boolean unmapBuffer(final int target) {
+		return true;
+	}
+
+	@Override
+	public int fenceSync() {
+		liveSyncs.incrementAndGet();
+		return nextHandle.getAndIncrement();
+	}
+
+	@Override
+	public int clientWaitSync(final int sync, final long timeout) {
+		return ARBSync.GL_ALREADY_SIGNALED;
+	}
+
+	@Override
+	public void deleteSync(final int sync) {
+		liveSyncs.decrementAndGet();
+	}
+
+	@Override
+	public boolean isUniformBufferSupported() {
+		return true;
+	}
+
+	@Override
+	public void bindBufferBase(final int target, final int index, final int buffer) {
+		stateChanges++;
+	}
+
+	@Override
+	public int getUniformBlockIndex(final int program, final CharSequence name) {
+		return 0;
+	}
+
+	@Override
+	public void uniformBlockBinding(final int program, final int blockIndex, final int binding) {
+	}
+
+	@Override
+	public boolean isVertexArraySupported() {
+		return true;
+	}
+
+	@Override
+	public int genVertexArray() {
+		liveVertexArrays.incrementAndGet();
+		return nextHandle.getAndIncrement();
+	}
+
+	@Override
+	public void deleteVertexArray(final int vertexArray) {
+		liveVertexArrays.decrementAndGet();
+	}
+
+	@Override
+	public void bindVertexArray(final int vertexArray) {
+		stateChanges++;
+
+		// The vertex source and element buffer are part of the vertex array
+		// object, so swap them along with it. Handles are small, so they
+		// index the saved pairs directly.
+		if (vertexArrayBuffers.length < Math.max(this.vertexArray, vertexArray) * 2 + 2) {
+			vertexArrayBuffers = Arrays.copyOf(vertexArrayBuffers, Math.max(this.vertexArray, vertexArray) * 4 + 4);
+		}
+
+		vertexArrayBuffers[this.vertexArray * 2] = vertexBuffer;
+		vertexArrayBuffers[this.vertexArray * 2 + 1] = elementBuffer;
+
+		this.vertexArray = vertexArray;
+		vertexBuffer = vertexArrayBuffers[vertexArray * 2];
+		elementBuffer = vertexArrayBuffers[vertexArray * 2 + 1];
+	}
+
+	@Override
+	public void enableVertexAttribArray(final int index) {
+		stateChanges++;
+	}
+
+	@Override
+	public void disableVertexAttribArray(final int index) {
+		stateChanges++;
+	}
+
+	@Override
+	public void vertexAttribPointer(final int index, final int size, final int type, final boolean normalized, final int stride, final long offset) {
+		stateChanges++;
+		vertexBuffer = arrayBuffer;
+	}
+
+	@Override
+	public boolean isPackedVertexFormatSupported() {
+		return true;
+	}
+
+	@Override
+	public void drawElements(final int mode, final int count, final int type, final long offset) {
+		drawCalls++;
+		indicesDrawn += count;
+		indexBytesDrawn += (long) count * NullBackend.getIndexSize(type);
+
+		if (recording) {
+			recordedDrawCalls.add(new DrawCall(program, vertexBuffer, elementBuffer, textures[0], count));
+		}
+	}
+
+	@Override
+	public boolean isInstancingSupported() {
+		return true;
+	}
+
+	@Override
+	public void vertexAttribDivisor(final int index, final int divisor) {
+		stateChanges++;
+	}
+
+	@Override
+	public void drawElementsInstanced(final int mode, final int count, final int type, final long offset, final int instances) {
+		drawCalls++;
+		instancesDrawn += instances;
+		indicesDrawn += (long) count * instances;
+		indexBytesDrawn += (long) count * instances * NullBackend.getIndexSize(type);
+
+		if (recording) {
+			recordedDrawCalls.add(new DrawCall(program, vertexBuffer, elementBuffer, textures[0], count * instances));
+		}
+	}
+
+	@Override
+	public boolean isBaseVertexSupported() {
+		return true;
+	}
+
+	@Override
+	public void drawElementsBaseVertex(final int mode, final int count, final int type, final long offset, final int baseVertex) {
+		drawElements(mode, count, type, offset);
+	}
+
+	@Override
+	public void drawElementsInstancedBaseVertex(final int mode, final int count, final int type, final long offset, final int instances, final int baseVertex) {
+		drawElementsInstanced(mode, count, type, offset, instances);
+	}
+
+	private static int getIndexSize(final int type) {
+		switch (type) {
+		case GL11.GL_UNSIGNED_BYTE:
+			return 1;
+		case GL11.GL_UNSIGNED_SHORT:
+			return 2;
+		default:
+			return 4;
+		}
+	}
+
+	@Override
+	public int genTexture() {
+		liveTextures.incrementAndGet();
+		return nextHandle.getAndIncrement();
+	}
+
+	@Override
+	public void deleteTexture(final int texture) {
+		liveTextures.decrementAndGet();
+	}
+
+	@Override
+	public void activeTexture(final int unit) {
+		stateChanges++;
+		activeTexture = unit - GL13.GL_TEXTURE0;
+	}
+
+	@Override
+	public void bindTexture(final int target, final int texture) {
+		stateChanges++;
+		textures[activeTexture] = texture;
+	}
+
+	@Override
+	public void texParameteri(final int target, final int name, final int value) {
+	}
+
+	@Override
+	public void texParameterf(final int target, final int name, final float value) {
+	}
+
+	@Override
+	public void texImage2D(final int target, final int level, final int internalFormat, final int width, final int height, final int border, final int format, final int type, final ByteBuffer pixels) {
+	}
+
+	@Override
+	public void texSubImage2D(final int target, final int level, final int x, final int y, final int width, final int height, final int format, final int type, final ByteBuffer pixels) {
+		bufferUploads++;
+	}
+
+	@Override
+	public boolean isTextureFloatSupported() {
+		return true;
+	}
+
+	@Override
+	public boolean isFramebufferSupported() {
+		return true;
+	}
+
+	@Override
+	public int genFramebuffer() {
+		liveFramebuffers.incrementAndGet();
+		return nextHandle.getAndIncrement();
+	}
+
+	@Override
+	public void deleteFramebuffer(final int framebuffer) {
+		liveFramebuffers.decrementAndGet();
+	}
+
+	@Override
+	public void bindFramebuffer(final int target, final int framebuffer) {
+		stateChanges++;
+		this.framebuffer = framebuffer;
+	}
+
+	@Override
+	public void framebufferTexture2D(final int target, final int attachment, final int textureTarget, final int texture, final int level) {
+	}
+
+	@Override
+	public int checkFramebufferStatus(final int target) {
+		return ARBFramebufferObject.GL_FRAMEBUFFER_COMPLETE;
+	}
+
+	@Override
+	public void drawBuffers(final IntBuffer buffers) {
+		stateChanges++;
+	}
+
+	@Override
+	public int createProgram() {
+		livePrograms.incrementAndGet();
+		return nextHandle.getAndIncrement();
+	}
+
+	@Override
+	public void deleteProgram(final int program) {
+		livePrograms.decrementAndGet();
+	}
+
+	@Override
+	public int createShader(final int type) {
+		return nextHandle.getAndIncrement();
+	}
+
+	@Override
+	public void shaderSource(final int shader, final CharSequence source) {
+	}
+
+	@Override
+	public void compileShader(final int shader) {
+	}
+
+	@Override
+	public int getShaderi(final int shader, final int name) {
+		return name == GL20.GL_COMPILE_STATUS ? GL11.GL_TRUE : 0;
+	}
+
+	@Override
+	public String getShaderInfoLog(final int shader, final int maxLength) {
+		return "";
+	}
+
+	@Override
+	public void attachShader(final int program, final int shader) {
+	}
+
+	@Override
+	public void bindAttribLocation(final int program, final int index, final CharSequence name) {
+	}
+
+	@Override
+	public void linkProgram(final int program) {
+	}
+
+	@Override
+	public void validateProgram(final int program) {
+	}
+
+	@Override
+	public int getProgrami(final int program, final int name) {
+		return name == GL20.GL_LINK_STATUS || name == GL20.GL_VALIDATE_STATUS ? GL11.GL_TRUE : 0;
+	}
+
+	@Override
+	public String getProgramInfoLog(final int program, final int maxLength) {
+		return "";
+	}
+
+	@Override
+	public int getUniformLocation(final int program, final CharSequence name) {
+		return nextHandle.getAndIncrement();
+	}
+
+	@Override
+	public void useProgram(final int program) {
+		stateChanges++;
+		this.program = program;
+	}
+
+	@Override
+	public void uniform1i(final int location, final int value) {
+		uniformUpdates++;
+	}
+
+	@Override
+	public void uniform1f(final int location, final float value) {
+		uniformUpdates++;
+	}
+
+	@Override
+	public void uniform3f(final int location, final float x, final float y, final float z) {
+		uniformUpdates++;
+	}
+
+	@Override
+	public void uniformMatrix4(final int location, final boolean transpose, final FloatBuffer matrices) {
+		uniformUpdates++;
+	}
+
+	@Override
+	public void clearColor(final float red, final float green, final float blue, final float alpha) {
+		stateChanges++;
+	}
+
+	@Override
+	public void clear(final int mask) {
+	}
+
+	@Override
+	public void enable(final int capability) {
+		stateChanges++;
+	}
+
+	@Override
+	public void disable(final int capability) {
+		stateChanges++;
+	}
+
+	@Override
+	public void frontFace(final int mode) {
+		stateChanges++;
+	}
+
+	@Override
+	public void cullFace(final int mode) {
+		stateChanges++;
+	}
+
+	@Override
+	public void blendFunc(final int sourceFactor, final int destFactor) {
+		stateChanges++;
+	}
+
+	@Override
+	public void depthMask(final boolean enabled) {
+		stateChanges++;
+	}
+
+	@Override
+	public void depthFunc(final int function) {
+		stateChanges++;
+	}
+
+	@Override
+	public void scissor(final int x, final int y, final int width, final int height) {
+		stateChanges++;
+	}
+
+	@Override
+	public String getString(final int name) {
+		return name == GL11.GL_VERSION ? "Null backend" : "";
+	}
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.rendering.backend;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+
+import org.lwjgl.opengl.ARBBufferStorage;
+import org.lwjgl.opengl.ARBDrawElementsBaseVertex;
+import org.lwjgl.opengl.ARBDrawInstanced;
+import org.lwjgl.opengl.ARBFramebufferObject;
+import org.lwjgl.opengl.ARBInstancedArrays;
+import org.lwjgl.opengl.ARBMapBufferRange;
+import org.lwjgl.opengl.ARBSync;
+import org.lwjgl.opengl.ARBUniformBufferObject;
+import org.lwjgl.opengl.ARBVertexArrayObject;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.opengl.GLSync;
+
+/**
+ * Passes every call straight to LWJGL. Needs a current OpenGL context.
+ */
+public class OpenGLBackend implements RenderBackend {
+	// LWJGL wraps fences in objects, which are handed out by number like
+	// every other GL object.
+	private final HashMap<Integer, GLSync> syncs = new HashMap<Integer, GLSync>();
+	private int nextSync = 1;
+
+	@Override
+	public int genBuffer() {
+		return GL15.glGenBuffers();
+	}
+
+	@Override
+	public void deleteBuffer(final int buffer) {
+		GL15.glDeleteBuffers(buffer);
+	}
+
+	@Override
+	public void bindBuffer(final int target, final int buffer) {
+		GL15.glBindBuffer(target, buffer);
+	}
+
+	@Override
+	public void bufferData(final int target, final FloatBuffer data, final int usage) {
+		GL15.glBufferData(target, data, usage);
+	}
+
+	@Override
+	public void bufferData(final int target, final IntBuffer data, final int usage) {
+		GL15.glBufferData(target, data, usage);
+	}
+
+	@Override
+	public void bufferData(final int target, final long size, final int usage) {
+		GL15.glBufferData(target, size, usage);
+	}
+
+	@Override
+	public void bufferData(final int target, final ByteBuffer data, final int usage) {
+		GL15.glBufferData(target, data, usage);
+	}
+
+	@Override
+	public void bufferSubData(final int target, final long offset, final ByteBuffer data) {
+		GL15.glBufferSubData(target, offset, data);
+	}
+
+	@Override
+	public boolean isPersistentMappingSupported() {
+		return GLContext.getCapabilities().GL_ARB_buffer_storage && GLContext.getCapabilities().GL_ARB_sync;
+	}
+
+	@Override
+	public void bufferStorage(final int target, final long size, final int flags) {
+		ARBBufferStorage.glBufferStorage(target, size, flags);
+	}
+
+	@Override
+	public ByteBuffer mapBufferRange(final int target, final long offset, final long length, final int access) {
+		return ARBMapBufferRange.glMapBufferRange(target, offset, length, access, null);
+	}
+
+	@Override
+	public boolean unmapBuffer(final int target) {
+		return GL15.glUnmapBuffer(target);
+	}
+
+	@Override
+	public int fenceSync() {
+		final int handle = nextSync++;
+		syncs.put(handle, ARBSync.glFenceSync(ARBSync.GL_SYNC_GPU_COMMANDS_COMPLETE, 0));
+
+		return handle;
+	}
+
+	@Override
+	public int clientWaitSync(final int sync, final long timeout) {
+		return ARBSync.glClientWaitSync(syncs.get(sync), ARBSync.GL_SYNC_FLUSH_COMMANDS_BIT, timeout);
+	}
+
+	@Override
+	public void deleteSync(final int sync) {
+		ARBSync.glDeleteSync(syncs.remove(sync));
+	}
+
+	@Override
+	public boolean isUniformBufferSupported() {
+		return GLContext.getCapabilities().GL_ARB_uniform_buffer_object;
+	}
+
+	@Override
+	public void bindBufferBase(final int target, final int index, final int buffer) {
+		ARBUniformBufferObject.glBindBufferBase(target, index, buffer);
+	}
+
+	@Override
+	public int getUniformBlockIndex(final int program, final CharSequence name) {
+		return ARBUniformBufferObject.glGetUniformBlockIndex(program, name);
+	}
+
+	@Override
+	public void uniformBlockBinding(final int program, final int blockIndex, final int binding) {
+		ARBUniformBufferObject.glUniformBlockBinding(program, blockIndex, binding);
+	}
+
+	@Override
+	public boolean isVertexArraySupported() {
+		return GLContext.getCapabilities().GL_ARB_vertex_array_object;
+	}
+
+	@Override
+	public int genVertexArray() {
+		return ARBVertexArrayObject.glGenVertexArrays();
+	}
+
+	@Override
+	public void deleteVertexArray(final int vertexArray) {
+		ARBVertexArrayObject.glDeleteVertexArrays(vertexArray);
+	}
+
+	@Override
+	public void bindVertexArray(final int vertexArray) {
+		ARBVertexArrayObject.glBindVertexArray(vertexArray);
+	}
+
+	@Override
+	public void enableVertexAttribArray(final int index) {
+		GL20.glEnableVertexAttribArray(index);
+	}
+
+	@Override
+	public void disableVertexAttribArray(final int index) {
+		GL20.glDisableVertexAttribArray(index);
+	}
+
+	@Override
+	public void vertexAttribPointer(final int index, final int size, final int type, final boolean normalized, final int stride, final long offset) {
+		GL20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+	}
+
+	@Override
+	public boolean isPackedVertexFormatSupported() {
+		return GLContext.getCapabilities().GL_ARB_half_float_vertex && GLContext.getCapabilities().GL_ARB_vertex_type_2_10_10_10_rev;
+	}
+
+	@Override
+	public void drawElements(final int mode, final int count, final int type, final long offset) {
+		GL11.glDrawElements(mode, count, type, offset);
+	}
+
+	@Override
+	public boolean isInstancingSupported() {
+		return GLContext.getCapabilities().GL_ARB_draw_instanced && GLContext.getCapabilities().GL_ARB_instanced_arrays;
+	}
+
+	@Override
+	public void vertexAttribDivisor(final int index, final int divisor) {
+		ARBInstancedArrays.glVertexAttribDivisorARB(index, divisor);
+	}
+
+	@Override
+	public void drawElementsInstanced(final int mode, final int count, final int type, final long offset, final int instances) {
+		ARBDrawInstanced.glDrawElementsInstancedARB(mode, count, type, offset, instances);
+	}
+
+	@Override
+	public boolean isBaseVertexSupported() {
+		return GLContext.getCapabilities().GL_ARB_draw_elements_base_vertex;
+	}
+
+	@Override
+	public void drawElementsBaseVertex(final int mode, final int count, final int type, final long offset, final int baseVertex) {
+		ARBDrawElementsBaseVertex.glDrawElementsBaseVertex(mode, count, type, offset, baseVertex);
+	}
+
+	@Override
+	public void drawElementsInstancedBaseVertex(final int mode, final int count, final int type, final long offset, final int instances, final int baseVertex) {
+		ARBDrawElementsBaseVertex.glDrawElementsInstancedBaseVertex(mode, count, type, offset, instances, baseVertex);
+	}
+
+	@Override
+	public int genTexture() {
+		return GL11.glGenTextures();
+	}
+
+	@Override
+	public void deleteTexture(final int texture) {
+		GL11.glDeleteTextures(texture);
+	}
+
+	@Override
+	public void activeTexture(final int unit) {
+		GL13.glActiveTexture(unit);
+	}
+
+	@Override
+	public void bindTexture(final int target, final int texture) {
+		GL11.glBindTexture(target, texture);
+	}
+
+	@Override
+	public void texParameteri(final int target, final int name, final int value) {
+		GL11.glTexParameteri(target, name, value);
+	}
+
+	@Override
+	public void texParameterf(final int target, final int name, final float value) {
+		GL11.glTexParameterf(target, name, value);
+	}
+
+	@Override
+	public void texImage2D(final int target, final int level, final int internalFormat, final int width, final int height, final int border, final int format, final int type, final ByteBuffer pixels) {
+		GL11.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+	}
+
+	@Override
+	public void texSubImage2D(final int target, final int level, final int x, final int y, final int width, final int height, final int format, final int type, final ByteBuffer pixels) {
+		GL11.glTexSubImage2D(target, level, x, y, width, height, format, type, pixels);
+	}
+
+	@Override
+	public boolean isTextureFloatSupported() {
+		return GLContext.getCapabilities().GL_ARB_texture_float;
+	}
+
+	@Override
+	public boolean isFramebufferSupported() {
+		return GLContext.getCapabilities().GL_ARB_framebuffer_object;
+	}
+
+	@Override
+	public int genFramebuffer() {
+		return ARBFramebufferObject.glGenFramebuffers();
+	}
+
+	@Override
+	public void deleteFramebuffer(final int framebuffer) {
+		ARBFramebufferObject.glDeleteFramebuffers(framebuffer);
+	}
+
+	@Override
+	public void bindFramebuffer(final int target, final int framebuffer) {
+		ARBFramebufferObject.glBindFramebuffer(target, framebuffer);
+	}
+
+	@Override
+	public void framebufferTexture2D(final int target, final int attachment, final int textureTarget, final int texture, final int level) {
+		ARBFramebufferObject.glFramebufferTexture2D(target, attachment, textureTarget, texture, level);
+	}
+
+	@Override
+	public int checkFramebufferStatus(final int target) {
+		return ARBFramebufferObject.glCheckFramebufferStatus(target);
+	}
+
+	@Override
+	public void drawBuffers(final IntBuffer buffers) {
+		GL20.glDrawBuffers(buffers);
+	}
+
+	@Override
+	public int createProgram() {
+		return GL20.glCreateProgram();
+	}
+
+	@Override
+	public void deleteProgram(final int program) {
+		GL20.glDeleteProgram(program);
+	}
+
+	@Override
+	public int createShader(final int type) {
+		return GL20.glCreateShader(type);
+	}
+
+	@Override
+	public void shaderSource(final int shader, final CharSequence source) {
+		GL20.glShaderSource(shader, source);
+	}
+
+	@Override
+	public void compileShader(final int shader) {
+		GL20.glCompileShader(shader);
+	}
+
+	@Override
+	public int getShaderi(final int shader, final int name) {
+		return GL20.glGetShaderi(shader, name);
+	}
+
+	@Override
+	public String getShaderInfoLog(final int shader, final int maxLength) {
+		return GL20.glGetShaderInfoLog(shader, maxLength);
+	}
+
+	@Override
+	public void attachShader(final int program, final int shader) {
+		GL20.glAttachShader(program, shader);
+	}
+
+	@Override
+	public void bindAttribLocation(final int program, final int index, final CharSequence name) {
+		GL20.glBindAttribLocation(program, index, name);
+	}
+
+	@Override
+	public void linkProgram(final int program) {
+		GL20.glLinkProgram(program);
+	}
+
+	@Override
+	public void validateProgram(final int program) {
+		GL20.glValidateProgram(program);
+	}
+
+	@Override
+	public int getProgrami(final int program, final int name) {
+		return GL20.glGetProgrami(program, name);
+	}
+
+	@Override
+	public String getProgramInfoLog(final int program, final int maxLength) {
+		return GL20.glGetProgramInfoLog(program, maxLength);
+	}
+
+	@Override
+	public int getUniformLocation(final int program, final CharSequence name) {
+		return GL20.glGetUniformLocation(program, name);
+	}
+
+	@Override
+	public void useProgram(final int program) {
+		GL20.glUseProgram(program);
+	}
+
+	@Override
+	public void uniform1i(final int location, final int value) {
+		GL20.glUniform1i(location, value);
+	}
+
+	@Override
+	public void uniform1f(final int location, final float value) {
+		GL20.glUniform1f(location, value);
+	}
+
+	@Override
+	public void uniform3f(final int location, final float x, final float y, final float z) {
+		GL20.glUniform3f(location, x, y, z);
+	}
+
+	@Override
+	public void uniformMatrix4(final int location, final boolean transpose, final FloatBuffer matrices) {
+		GL20.glUniformMatrix4(location, transpose, matrices);
+	}
+
+	@Override
+	public void clearColor(final float red, final float green, final float blue, final float alpha) {
+		GL11.glClearColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public void clear(final int mask) {
+		GL11.glClear(mask);
+	}
+
+	@Override
+	public void enable(final int capability) {
+		GL11.glEnable(capability);
+	}
+
+	@Override
+	public void disable(final int capability) {
+		GL11.glDisable(capability);
+	}
+
+	@Override
+	public void frontFace(final int mode) {
+		GL11.glFrontFace(mode);
+	}
+
+	@Override
+	public void cullFace(final int mode) {
+		GL11.glCullFace(mode);
+	}
+
+	@Override
+	public void blendFunc(final int sourceFactor, final int destFactor) {
+		GL11.glBlendFunc(sourceFactor, destFactor);
+	}
+
+	@Override
+	public void depthMask(final boolean enabled) {
+		GL11.glDepthMask(enabled);
+	}
+
+	@Override
+	public void depthFunc(final int function) {
+		GL11.glDepthFunc(function);
+	}
+
+	@Override
+	public void scissor(final int x, final int y, final int width, final int height) {
+		GL11.glScissor(x, y, width, height);
+	}
+
+	@Override
+	public String getString(final int name) {
+		return GL11.glGetString(name);
+	}
+}
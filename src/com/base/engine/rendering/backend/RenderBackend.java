@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.engine.rendering.backend;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The graphics calls the engine makes, so they can be routed to a real
+ * OpenGL context or to a stand-in such as {@link NullBackend}.
+ *
+ * The methods mirror the OpenGL functions of the same name and take the same
+ * OpenGL constants, so code moving onto the backend only has to change the
+ * receiver of each call. Get the active backend from
+ * {@link Graphics#getBackend()}.
+ */
+public interface RenderBackend {
+	// Buffers
+
+	public int genBuffer();
+
+	public void deleteBuffer(int buffer);
+
+	public void bindBuffer(int target, int buffer);
+
+	public void bufferData(int target, FloatBuffer data, int usage);
+
+	public void bufferData(int target, IntBuffer data, int usage);
+
+	public void bufferData(int target, long size, int usage);
+
+	public void bufferData(int target, ByteBuffer data, int usage);
+
+	public void bufferSubData(int target, long offset, ByteBuffer data);
+
+	/**
+	 * Check whether a buffer can stay mapped while the GPU reads from it,
+	 * through <code>GL_ARB_buffer_storage</code>, with fences from
+	 * <code>GL_ARB_sync</code> to tell when it is done.
+	 */
+	public boolean isPersistentMappingSupported();
+
+	public void bufferStorage(int target, long size, int flags);
+
+	public ByteBuffer mapBufferRange(int target, long offset, long length, int access);
+
+	public boolean unmapBuffer(int target);
+
+	// Sync objects
+
+	/**
+	 * Insert a fence that is signaled once every command issued before it
+	 * has completed.
+	 * 
+	 * @return A handle to the fence
+	 */
+	public int fenceSync();
+
+	/**
+	 * Wait until <code>sync</code> is signaled, flushing commands first, or
+	 * until <code>timeout</code> nanoseconds have passed.
+	 * 
+	 * @return <code>GL_ALREADY_SIGNALED</code>,
+	 *         <code>GL_CONDITION_SATISFIED</code>,
+	 *         <code>GL_TIMEOUT_EXPIRED</code> or <code>GL_WAIT_FAILED</code>
+	 */
+	public int clientWaitSync(int sync, long timeout);
+
+	public void deleteSync(int sync);
+
+	// Uniform buffers
+
+	/**
+	 * Check whether uniform blocks can be used in <code>#version 120</code>
+	 * shaders, through <code>GL_ARB_uniform_buffer_object</code>.
+	 */
+	public boolean isUniformBufferSupported();
+
+	public void bindBufferBase(int target, int index, int buffer);
+
+	public int getUniformBlockIndex(int program, CharSequence name);
+
+	public void uniformBlockBinding(int program, int blockIndex, int binding);
+
+	// Vertex input and drawing
+
+	/**
+	 * Check whether vertex array objects are available, through
+	 * <code>GL_ARB_vertex_array_object</code>.
+	 */
+	public boolean isVertexArraySupported();
+
+	public int genVertexArray();
+
+	public void deleteVertexArray(int vertexArray);
+
+	public void bindVertexArray(int vertexArray);
+
+	public void enableVertexAttribArray(int index);
+
+	public void disableVertexAttribArray(int index);
+
+	public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset);
+
+	/**
+	 * Check whether vertex attributes can be half floats and packed
+	 * <code>GL_INT_2_10_10_10_REV</code>, through
+	 * <code>GL_ARB_half_float_vertex</code> and
+	 * <code>GL_ARB_vertex_type_2_10_10_10_rev</code>.
+	 */
+	public boolean isPackedVertexFormatSupported();
+
+	public void drawElements(int mode, int count, int type, long offset);
+
+	/**
+	 * Check whether a mesh can be drawn many times in one call with
+	 * per-instance attributes, through <code>GL_ARB_draw_instanced</code> and
+	 * <code>GL_ARB_instanced_arrays</code>.
+	 */
+	public boolean isInstancingSupported();
+
+	public void vertexAttribDivisor(int index, int divisor);
+
+	public void drawElementsInstanced(int mode, int count, int type, long offset, int instances);
+
+	/**
+	 * Check whether indices can be offset by a base vertex as they are
+	 * drawn, through <code>GL_ARB_draw_elements_base_vertex</code>.
+	 */
+	public boolean isBaseVertexSupported();
+
+	public void drawElementsBaseVertex(int mode, int count, int type, long offset, int baseVertex);
+
+	public void drawElementsInstancedBaseVertex(int mode, int count, int type, long offset, int instances, int baseVertex);
+
+	// Textures
+
+	public int genTexture();
+
+	public void deleteTexture(int texture);
+
+	public void activeTexture(int unit);
+
+	public void bindTexture(int target, int texture);
+
+	public void texParameteri(int target, int name, int value);
+
+	public void texParameterf(int target, int name, float value);
+
+	public void texImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels);
+
+	public void texSubImage2D(int target, int level, int x, int y, int width, int height, int format, int type, ByteBuffer pixels);
+
+	/**
+	 * Check whether textures can hold unclamped 32-bit floats, through
+	 * <code>GL_ARB_texture_float</code>.
+	 */
+	public boolean isTextureFloatSupported();
+
+	// Framebuffers
+
+	/**
+	 * Check whether framebuffer objects are available, through
+	 * <code>GL_ARB_framebuffer_object</code>.
+	 */
+	public boolean isFramebufferSupported();
+
+	public int genFramebuffer();
+
+	public void deleteFramebuffer(int framebuffer);
+
+	public void bindFramebuffer(int target, int framebuffer);
+
+	public void framebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level);
+
+	public int checkFramebufferStatus(int target);
+
+	public void drawBuffers(IntBuffer buffers);
+
+	// Shaders
+
+	public int createProgram();
+
+	public void deleteProgram(int program);
+
+	public int createShader(int type);
+
+	public void shaderSource(int shader, CharSequence source);
+
+	public void compileShader(int shader);
+
+	public int getShaderi(int shader, int name);
+
+	public String getShaderInfoLog(int shader, int maxLength);
+
+	public void attachShader(int program, int shader);
+
+	public void bindAttribLocation(int program, int index, CharSequence name);
+
+	public void linkProgram(int program);
+
+	public void validateProgram(int program);
+
+	public int getProgrami(int program, int name);
+
+	public String getProgramInfoLog(int program, int maxLength);
+
+	public int getUniformLocation(int program, CharSequence name);
+
+	public void useProgram(int program);
+
+	public void uniform1i(int location, int value);
+
+	public void uniform1f(int location, float value);
+
+	public void uniform3f(int location, float x, float y, float z);
+
+	public void uniformMatrix4(int location, boolean transpose, FloatBuffer matrices);
+
+	// Fixed-function state
+
+	public void clearColor(float red, float green, float blue, float alpha);
+
+	public void clear(int mask);
+
+	public void enable(int capability);
+
+	public void disable(int capability);
+
+	public void frontFace(int mode);
+
+	public void cullFace(int mode);
+
+	public void blendFunc(int sourceFactor, int destFactor);
+
+	public void depthMask(boolean enabled);
+
+	public void depthFunc(int function);
+
+	public void scissor(int x, int y, int width, int height);
+
+	public String getString(int name);
+}
@@ -0,0 +1,747 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.engine.rendering.backend;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.opengl.ARBFramebufferObject;
+import org.lwjgl.opengl.ARBUniformBufferObject;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+
+/**
+ * Wraps another backend and drops state changes that wouldn't change
+ * anything: binding the program, buffer or texture that is already bound,
+ * enabling what is already enabled, and so on. Every other call is passed
+ * straight through.
+ *
+ * The cache only knows about changes made through it. Call
+ * {@link #invalidate()} after touching GL state any other way. All state
+ * starts out unknown, so the first call of each kind is always issued.
+ */
+public class StateCachingBackend implements RenderBackend {
+	private static final int UNKNOWN = -1;
+	private static final int MAX_TEXTURE_UNITS = 32;
+	private static final int MAX_VERTEX_ATTRIBS = 16;
+
+	private final RenderBackend backend;
+
+	private int program;
+	private int vertexArray;
+	private int arrayBuffer;
+	private int elementBuffer;
+	private int uniformBuffer;
+	private int framebuffer;
+	private int activeTexture;
+	private final int[] textures;
+	private final int[] vertexAttribArrays;
+
+	private int[] capabilities;
+	private int[] capabilityStates;
+	private int capabilityCount;
+
+	private float clearRed;
+	private float clearGreen;
+	private float clearBlue;
+	private float clearAlpha;
+	private boolean clearColorKnown;
+	private int frontFace;
+	private int cullFace;
+	private int blendSourceFactor;
+	private int blendDestFactor;
+	private int depthMask;
+	private int depthFunc;
+	private int scissorX;
+	private int scissorY;
+	private int scissorWidth;
+	private int scissorHeight;
+
+	private long issuedCalls;
+	private long skippedCalls;
+
+	/**
+	 * @param backend
+	 *            - The backend to pass the remaining calls on to
+	 */
+	public StateCachingBackend(final RenderBackend backend) {
+		this.backend = backend;
+
+		textures = new int[StateCachingBackend.MAX_TEXTURE_UNITS];
+		vertexAttribArrays = new int[StateCachingBackend.MAX_VERTEX_ATTRIBS];
+		capabilities = new int[8];
+		capabilityStates = new int[8];
+
+		invalidate();
+	}
+
+	/**
+	 * Forget all cached state, so the next call of each kind is issued.
+	 */
+	public void invalidate() {
+		program = StateCachingBackend.UNKNOWN;
+		vertexArray = StateCachingBackend.UNKNOWN;
+		arrayBuffer = StateCachingBackend.UNKNOWN;
+		elementBuffer = StateCachingBackend.UNKNOWN;
+		uniformBuffer = StateCachingBackend.UNKNOWN;
+		framebuffer = StateCachingBackend.UNKNOWN;
+		activeTexture = StateCachingBackend.UNKNOWN;
+		Arrays.fill(textures, StateCachingBackend.UNKNOWN);
+		Arrays.fill(vertexAttribArrays, StateCachingBackend.UNKNOWN);
+		capabilityCount = 0;
+
+		clearColorKnown = false;
+		frontFace = StateCachingBackend.UNKNOWN;
+		cullFace = StateCachingBackend.UNKNOWN;
+		blendSourceFactor = StateCachingBackend.UNKNOWN;
+		blendDestFactor = StateCachingBackend.UNKNOWN;
+		depthMask = StateCachingBackend.UNKNOWN;
+		depthFunc = StateCachingBackend.UNKNOWN;
+		scissorWidth = StateCachingBackend.UNKNOWN;
+	}
+
+	/**
+	 * Get the backend the calls are passed on to.
+	 */
+	public RenderBackend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Get the number of state changes passed on since the last
+	 * {@link #resetCounters()}.
+	 */
+	public long getIssuedCalls() {
+		return issuedCalls;
+	}
+
+	/**
+	 * Get the number of state changes dropped because they wouldn't have
+	 * changed anything.
+	 */
+	public long getSkippedCalls() {
+		return skippedCalls;
+	}
+
+	public void resetCounters() {
+		issuedCalls = 0;
+		skippedCalls = 0;
+	}
+
+	/**
+	 * Count a state change and tell whether it has to be issued.
+	 */
+	private boolean changes(final int cached, final int value) {
+		if (cached == value) {
+			skippedCalls++;
+			return false;
+		}
+
+		issuedCalls++;
+		return true;
+	}
+
+	// Buffers
+
+	@Override
+	public int genBuffer() {
+		return backend.genBuffer();
+	}
+
+	@Override
+	public void deleteBuffer(final int buffer) {
+		// Deleting a bound buffer unbinds it.
+		if (arrayBuffer == buffer) {
+			arrayBuffer = 0;
+		}
+
+		if (elementBuffer == buffer) {
+			elementBuffer = 0;
+		}
+
+		if (uniformBuffer == buffer) {
+			uniformBuffer = 0;
+		}
+
+		backend.deleteBuffer(buffer);
+	}
+
+	@Override
+	public void bindBuffer(final int target, final int buffer) {
+		if (target == GL15.GL_ARRAY_BUFFER) {
+			if (changes(arrayBuffer, buffer)) {
+				arrayBuffer = buffer;
+				backend.bindBuffer(target, buffer);
+			}
+		} else if (target == GL15.GL_ELEMENT_ARRAY_BUFFER) {
+			if (changes(elementBuffer, buffer)) {
+				elementBuffer = buffer;
+				backend.bindBuffer(target, buffer);
+			}
+		} else if (target == ARBUniformBufferObject.GL_UNIFORM_BUFFER) {
+			if (changes(uniformBuffer, buffer)) {
+				uniformBuffer = buffer;
+				backend.bindBuffer(target, buffer);
+			}
+		} else {
+			issuedCalls++;
+			backend.bindBuffer(target, buffer);
+		}
+	}
+
+	@Override
+	public void bufferData(final int target, final FloatBuffer data, final int usage) {
+		backend.bufferData(target, data, usage);
+	}
+
+	@Override
+	public void bufferData(final int target, final IntBuffer data, final int usage) {
+		backend.bufferData(target, data, usage);
+	}
+
+	@Override
+	public void bufferData(final int target, final long size, final int usage) {
+		backend.bufferData(target, size, usage);
+	}
+
+	@Override
+	public void bufferData(final int target, final ByteBuffer data, final int usage) {
+		backend.bufferData(target, data, usage);
+	}
+
+	@Override
+	public void bufferSubData(final int target, final long offset, final ByteBuffer data) {
+		backend.bufferSubData(target, offset, data);
+	}
+
+	@Override
+	public boolean isPersistentMappingSupported() {
+		return backend.isPersistentMappingSupported();
+	}
+
+	@Override
+	public void bufferStorage(final int target, final long size, final int flags) {
+		backend.bufferStorage(target, size, flags);
+	}
+
+	@Override
+	public ByteBuffer mapBufferRange(final int target, final long offset, final long length, final int access) {
+		return backend.mapBufferRange(target, offset, length, access);
+	}
+
+	@Override
+	public boolean unmapBuffer(final int target) {
+		return backend.unmapBuffer(target);
+	}
+
+	// Sync objects
+
+	@Override
+	public int fenceSync() {
+		return backend.fenceSync();
+	}
+
+	@Override
+	public int clientWaitSync(final int sync, final long timeout) {
+		return backend.clientWaitSync(sync, timeout);
+	}
+
+	@Override
+	public void deleteSync(final int sync) {
+		backend.deleteSync(sync);
+	}
+
+	// Uniform buffers
+
+	@Override
+	public boolean isUniformBufferSupported() {
+		return backend.isUniformBufferSupported();
+	}
+
+	@Override
+	public void bindBufferBase(final int target, final int index, final int buffer) {
+		// Also binds the buffer to the generic target.
+		if (target == ARBUniformBufferObject.GL_UNIFORM_BUFFER) {
+			uniformBuffer = buffer;
+		}
+
+		backend.bindBufferBase(target, index, buffer);
+	}
+
+	@Override
+	public int getUniformBlockIndex(final int program, final CharSequence name) {
+		return backend.getUniformBlockIndex(program, name);
+	}
+
+	@Override
+	public void uniformBlockBinding(final int program, final int blockIndex, final int binding) {
+		backend.uniformBlockBinding(program, blockIndex, binding);
+	}
+
+	// Vertex input and drawing
+
+	@Override
+	public boolean isVertexArraySupported() {
+		return backend.isVertexArraySupported();
+	}
+
+	@Override
+	public int genVertexArray() {
+		return backend.genVertexArray();
+	}
+
+	@Override
+	public void deleteVertexArray(final int vertexArray) {
+		if (this.vertexArray == vertexArray) {
+			bindVertexArrayState(0);
+		}
+
+		backend.deleteVertexArray(vertexArray);
+	}
+
+	@Override
+	public void bindVertexArray(final int vertexArray) {
+		if (changes(this.vertexArray, vertexArray)) {
+			bindVertexArrayState(vertexArray);
+			backend.bindVertexArray(vertexArray);
+		}
+	}
+
+	/**
+	 * The element buffer and the enabled arrays belong to the vertex array
+	 * object, so they are unknown again after switching to another one.
+	 */
+	private void bindVertexArrayState(final int vertexArray) {
+		this.vertexArray = vertexArray;
+		elementBuffer = StateCachingBackend.UNKNOWN;
+		Arrays.fill(vertexAttribArrays, StateCachingBackend.UNKNOWN);
+	}
+
+	@Override
+	public void enableVertexAttribArray(final int index) {
+		if (index >= StateCachingBackend.MAX_VERTEX_ATTRIBS) {
+			issuedCalls++;
+			backend.enableVertexAttribArray(index);
+		} else if (changes(vertexAttribArrays[index], 1)) {
+			vertexAttribArrays[index] = 1;
+			backend.enableVertexAttribArray(index);
+		}
+	}
+
+	@Override
+	public void disableVertexAttribArray(final int index) {
+		if (index >= StateCachingBackend.MAX_VERTEX_ATTRIBS) {
+			issuedCalls++;
+			backend.disableVertexAttribArray(index);
+		} else if (changes(vertexAttribArrays[index], 0)) {
+			vertexAttribArrays[index] = 0;
+			backend.disableVertexAttribArray(index);
+		}
+	}
+
+	@Override
+	public void vertexAttribPointer(final int index, final int size, final int type, final boolean normalized, final int stride, final long offset) {
+		backend.vertexAttribPointer(index, size, type, normalized, stride, offset);
+	}
+
+	@Override
+	public boolean isPackedVertexFormatSupported() {
+		return backend.isPackedVertexFormatSupported();
+	}
+
+	@Override
+	public void drawElements(final int mode, final int count, final int type, final long offset) {
+		backend.drawElements(mode, count, type, offset);
+	}
+
+	@Override
+	public boolean isInstancingSupported() {
+		return backend.isInstancingSupported();
+	}
+
+	@Override
+	public void vertexAttribDivisor(final int index, final int divisor) {
+		backend.vertexAttribDivisor(index, divisor);
+	}
+
+	@Override
+	public void drawElementsInstanced(final int mode, final int count, final int type, final long offset, final int instances) {
+		backend.drawElementsInstanced(mode, count, type, offset, instances);
+	}
+
+	@Override
+	public boolean isBaseVertexSupported() {
+		return backend.isBaseVertexSupported();
+	}
+
+	@Override
+	public void drawElementsBaseVertex(final int mode, final int count, final int type, final long offset, final int baseVertex) {
+		backend.drawElementsBaseVertex(mode, count, type, offset, baseVertex);
+	}
+
+	@Override
+	public void drawElementsInstancedBaseVertex(final int mode, final int count, final int type, final long offset, final int instances, final int baseVertex) {
+		backend.drawElementsInstancedBaseVertex(mode, count, type, offset, instances, baseVertex);
+	}
+
+	// Textures
+
+	@Override
+	public int genTexture() {
+		return backend.genTexture();
+	}
+
+	@Override
+	public void deleteTexture(final int texture) {
+		for (int i = 0; i < textures.length; i++) {
+			if (textures[i] == texture) {
+				textures[i] = 0;
+			}
+		}
+
+		backend.deleteTexture(texture);
+	}
+
+	@Override
+	public void activeTexture(final int unit) {
+		if (changes(activeTexture, unit)) {
+			activeTexture = unit;
+			backend.activeTexture(unit);
+		}
+	}
+
+	@Override
+	public void bindTexture(final int target, final int texture) {
+		final int unit = activeTexture - GL13.GL_TEXTURE0;
+
+		if (target != GL11.GL_TEXTURE_2D || activeTexture == StateCachingBackend.UNKNOWN || unit >= StateCachingBackend.MAX_TEXTURE_UNITS) {
+			issuedCalls++;
+			backend.bindTexture(target, texture);
+		} else if (changes(textures[unit], texture)) {
+			textures[unit] = texture;
+			backend.bindTexture(target, texture);
+		}
+	}
+
+	@Override
+	public void texParameteri(final int target, final int name, final int value) {
+		backend.texParameteri(target, name, value);
+	}
+
+	@Override
+	public void texParameterf(final int target, final int name, final float value) {
+		backend.texParameterf(target, name, value);
+	}
+
+	@Override
+	public void texImage2D(final int target, final int level, final int internalFormat, final int width, final int height, final int border, final int format, final int type, final ByteBuffer pixels) {
+		backend.texImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+	}
+
+	@Override
+	public void texSubImage2D(final int target, final int level, final int x, final int y, final int width, final int height, final int format, final int type, final ByteBuffer pixels) {
+		backend.texSubImage2D(target, level, x, y, width, height, format, type, pixels);
+	}
+
+	@Override
+	public boolean isTextureFloatSupported() {
+		return backend.isTextureFloatSupported();
+	}
+
+	// Framebuffers
+
+	@Override
+	public boolean isFramebufferSupported() {
+		return backend.isFramebufferSupported();
+	}
+
+	@Override
+	public int genFramebuffer() {
+		return backend.genFramebuffer();
+	}
+
+	@Override
+	public void deleteFramebuffer(final int framebuffer) {
+		if (this.framebuffer == framebuffer) {
+			this.framebuffer = 0;
+		}
+
+		backend.deleteFramebuffer(framebuffer);
+	}
+
+	@Override
+	public void bindFramebuffer(final int target, final int framebuffer) {
+		if (target != ARBFramebufferObject.GL_FRAMEBUFFER) {
+			// Binding one half of the pair leaves the other unknown.
+			issuedCalls++;
+			this.framebuffer = StateCachingBackend.UNKNOWN;
+			backend.bindFramebuffer(target, framebuffer);
+		} else if (changes(this.framebuffer, framebuffer)) {
+			this.framebuffer = framebuffer;
+			backend.bindFramebuffer(target, framebuffer);
+		}
+	}
+
+	@Override
+	public void framebufferTexture2D(final int target, final int attachment, final int textureTarget, final int texture, final int level) {
+		backend.framebufferTexture2D(target, attachment, textureTarget, texture, level);
+	}
+
+	@Override
+	public int checkFramebufferStatus(final int target) {
+		return backend.checkFramebufferStatus(target);
+	}
+
+	@Override
+	public void drawBuffers(final IntBuffer buffers) {
+		// Part of the framebuffer object, so not cached.
+		issuedCalls++;
+		backend.drawBuffers(buffers);
+	}
+
+	// Shaders
+
+	@Override
+	public int createProgram() {
+		return backend.createProgram();
+	}
+
+	@Override
+	public void deleteProgram(final int program) {
+		// A program in use is only deleted once it is no longer in use, so
+		// the binding stays valid.
+		backend.deleteProgram(program);
+	}
+
+	@Override
+	public int createShader(final int type) {
+		return backend.createShader(type);
+	}
+
+	@Override
+	public void shaderSource(final int shader, final CharSequence source) {
+		backend.shaderSource(shader, source);
+	}
+
+	@Override
+	public void compileShader(final int shader) {
+		backend.compileShader(shader);
+	}
+
+	@Override
+	public int getShaderi(final int shader, final int name) {
+		return backend.getShaderi(shader, name);
+	}
+
+	@Override
+	public String getShaderInfoLog(final int shader, final int maxLength) {
+		return backend.getShaderInfoLog(shader, maxLength);
+	}
+
+	@Override
+	public void attachShader(final int program, final int shader) {
+		backend.attachShader(program, shader);
+	}
+
+	@Override
+	public void bindAttribLocation(final int program, final int index, final CharSequence name) {
+		backend.bindAttribLocation(program, index, name);
+	}
+
+	@Override
+	public void linkProgram(final int program) {
+		backend.linkProgram(program);
+	}
+
+	@Override
+	public void validateProgram(final int program) {
+		backend.validateProgram(program);
+	}
+
+	@Override
+	public int getProgrami(final int program, final int name) {
+		return backend.getProgrami(program, name);
+	}
+
+	@Override
+	public String getProgramInfoLog(final int program, final int maxLength) {
+		return backend.getProgramInfoLog(program, maxLength);
+	}
+
+	@Override
+	public int getUniformLocation(final int program, final CharSequence name) {
+		return backend.getUniformLocation(program, name);
+	}
+
+	@Override
+	public void useProgram(final int program) {
+		if (changes(this.program, program)) {
+			this.program = program;
+			backend.useProgram(program);
+		}
+	}
+
+	@Override
+	public void uniform1i(final int location, final int value) {
+		backend.uniform1i(location, value);
+	}
+
+	@Override
+	public void uniform1f(final int location, final float value) {
+		backend.uniform1f(location, value);
+	}
+
+	@Override
+	public void uniform3f(final int location, final float x, final float y, final float z) {
+		backend.uniform3f(location, x, y, z);
+	}
+
+	@Override
+	public void uniformMatrix4(final int location, final boolean transpose, final FloatBuffer matrices) {
+		backend.uniformMatrix4(location, transpose, matrices);
+	}
+
+	// Fixed-function state
+
+	@Override
+	public void clearColor(final float red, final float green, final float blue, final float alpha) {
+		if (clearColorKnown && red == clearRed && green == clearGreen && blue == clearBlue && alpha == clearAlpha) {
+			skippedCalls++;
+			return;
+		}
+
+		issuedCalls++;
+		clearRed = red;
+		clearGreen = green;
+		clearBlue = blue;
+		clearAlpha = alpha;
+		clearColorKnown = true;
+		backend.clearColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public void clear(final int mask) {
+		backend.clear(mask);
+	}
+
+	@Override
+	public void enable(final int capability) {
+		setCapability(capability, 1);
+	}
+
+	@Override
+	public void disable(final int capability) {
+		setCapability(capability, 0);
+	}
+
+	private void setCapability(final int capability, final int state) {
+		int index = 0;
+
+		while (index < capabilityCount && capabilities[index] != capability) {
+			index++;
+		}
+
+		if (index == capabilityCount) {
+			if (capabilityCount == capabilities.length) {
+				capabilities = Arrays.copyOf(capabilities, capabilityCount * 2);
+				capabilityStates = Arrays.copyOf(capabilityStates, capabilityCount * 2);
+			}
+
+			capabilities[index] = capability;
+			capabilityStates[index] = StateCachingBackend.UNKNOWN;
+			capabilityCount++;
+		}
+
+		if (changes(capabilityStates[index], state)) {
+			capabilityStates[index] = state;
+
+			if (state == 1) {
+				backend.enable(capability);
+			} else {
+				backend.disable(capability);
+			}
+		}
+	}
+
+	@Override
+	public void frontFace(final int mode) {
+		if (changes(frontFace, mode)) {
+			frontFace = mode;
+			backend.frontFace(mode);
+		}
+	}
+
+	@Override
+	public void cullFace(final int mode) {
+		if (changes(cullFace, mode)) {
+			cullFace = mode;
+			backend.cullFace(mode);
+		}
+	}
+
+	@Override
+	public void blendFunc(final int sourceFactor, final int destFactor) {
+		if (sourceFactor == blendSourceFactor && destFactor == blendDestFactor) {
+			skippedCalls++;
+			return;
+		}
+
+		issuedCalls++;
+		blendSourceFactor = sourceFactor;
+		blendDestFactor = destFactor;
+		backend.blendFunc(sourceFactor, destFactor);
+	}
+
+	@Override
+	public void depthMask(final boolean enabled) {
+		if (changes(depthMask, enabled ? 1 : 0)) {
+			depthMask = enabled ? 1 : 0;
+			backend.depthMask(enabled);
+		}
+	}
+
+	@Override
+	public void depthFunc(final int function) {
+		if (changes(depthFunc, function)) {
+			depthFunc = function;
+			backend.depthFunc(function);
+		}
+	}
+
+	@Override
+	public void scissor(final int x, final int y, final int width, final int height) {
+		if (x == scissorX && y == scissorY && width == scissorWidth && height == scissorHeight) {
+			skippedCalls++;
+			return;
+		}
+
+		issuedCalls++;
+		scissorX = x;
+		scissorY = y;
+		scissorWidth = width;
+		scissorHeight = height;
+		backend.scissor(x, y, width, height);
+	}
+
+	@Override
+	public String getString(final int name) {
+		return backend.getString(name);
+	}
+}
@@ -10,6 +10,7 @@ import com.base.engine.core.math.Quaternion;
 import com.base.engine.core.math.Vector3f;
 import com.base.engine.rendering.Material;
 import com.base.engine.rendering.Mesh;
+import com.base.engine.rendering.RenderSnapshot;
 import com.base.engine.rendering.RenderingEngine;
 import com.base.engine.rendering.Shader;
 import com.base.engine.rendering.model.mesh.animation.Bone;
@@ -62,6 +63,13 @@ public class Model extends MeshRenderer {
 		
 	}
 	
+	@Override
+	public void addToSnapshot(RenderSnapshot snapshot) {
+		if (!showSkeleton) {
+			super.addToSnapshot(snapshot);
+		}
+	}
+	
 	public void showSkeleton(boolean showSkeleton) {
 		this.showSkeleton = showSkeleton;
 	}
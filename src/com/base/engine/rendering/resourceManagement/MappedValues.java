@@ -16,25 +16,79 @@
 
 package com.base.engine.rendering.resourceManagement;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
 import com.base.engine.core.math.Vector3f;
 
+/**
+ * Named vectors and floats, such as material properties.
+ *
+ * Every name is also given a process-wide integer key by {@link #getKey}.
+ * Code that looks the same name up over and over, such as a shader binding
+ * plan, can resolve the key once and then read values by key with a plain
+ * array access.
+ */
 public abstract class MappedValues {
+	private static final HashMap<String, Integer> keys = new HashMap<String, Integer>();
+	private static final Vector3f ZERO = new Vector3f(0, 0, 0);
+
 	private final HashMap<String, Vector3f> vector3fHashMap;
 	private final HashMap<String, Float> floatHashMap;
 
+	private Vector3f[] vector3fSlots;
+	private float[] floatSlots;
+
 	public MappedValues() {
 		vector3fHashMap = new HashMap<String, Vector3f>();
 		floatHashMap = new HashMap<String, Float>();
+		vector3fSlots = new Vector3f[0];
+		floatSlots = new float[0];
+	}
+
+	/**
+	 * Get the key for <code>name</code>, assigning a new one the first time a
+	 * name is seen.
+	 * 
+	 * @param name
+	 *            - The value name
+	 * @return A small non-negative integer unique to <code>name</code>
+	 */
+	public static int getKey(final String name) {
+		synchronized (MappedValues.keys) {
+			Integer key = MappedValues.keys.get(name);
+
+			if (key == null) {
+				key = MappedValues.keys.size();
+				MappedValues.keys.put(name, key);
+			}
+
+			return key;
+		}
 	}
 
 	public void addVector3f(final String name, final Vector3f vector3f) {
 		vector3fHashMap.put(name, vector3f);
+
+		final int key = MappedValues.getKey(name);
+
+		if (key >= vector3fSlots.length) {
+			vector3fSlots = Arrays.copyOf(vector3fSlots, key + 1);
+		}
+
+		vector3fSlots[key] = vector3f;
 	}
 
 	public void addFloat(final String name, final float floatValue) {
 		floatHashMap.put(name, floatValue);
+
+		final int key = MappedValues.getKey(name);
+
+		if (key >= floatSlots.length) {
+			floatSlots = Arrays.copyOf(floatSlots, key + 1);
+		}
+
+		floatSlots[key] = floatValue;
 	}
 
 	public Vector3f getVector3f(final String name) {
@@ -54,4 +108,29 @@ public abstract class MappedValues {
 
 		return 0;
 	}
+
+	/**
+	 * Get a vector by key. Unlike {@link #getVector3f(String)}, a missing
+	 * value returns a shared zero vector that must not be modified.
+	 * 
+	 * @param key
+	 *            - A key from {@link #getKey(String)}
+	 */
+	public Vector3f getVector3f(final int key) {
+		if (key < vector3fSlots.length && vector3fSlots[key] != null) {
+			return vector3fSlots[key];
+		}
+
+		return MappedValues.ZERO;
+	}
+
+	/**
+	 * Get a float by key.
+	 * 
+	 * @param key
+	 *            - A key from {@link #getKey(String)}
+	 */
+	public float getFloat(final int key) {
+		return key < floatSlots.length ? floatSlots[key] : 0;
+	}
 }
@@ -16,24 +16,33 @@
 
 package com.base.engine.rendering.resourceManagement;
 
-import org.lwjgl.opengl.GL15;
+import com.base.engine.rendering.backend.Graphics;
+import com.base.engine.rendering.backend.RenderBackend;
 
 public class MeshResource extends ReferenceCounter {
+	private final RenderBackend backend;
 	private final int vbo;
 	private final int ibo;
+	private final int vao;
 	private final int size;
 
 	public MeshResource(final int size) {
-		vbo = GL15.glGenBuffers();
-		ibo = GL15.glGenBuffers();
+		backend = Graphics.getBackend();
+		vbo = backend.genBuffer();
+		ibo = backend.genBuffer();
+		vao = backend.isVertexArraySupported() ? backend.genVertexArray() : 0;
 		this.size = size;
 		addReference();
 	}
 
 	@Override
 	protected void finalize() {
-		GL15.glDeleteBuffers(vbo);
-		GL15.glDeleteBuffers(ibo);
+		backend.deleteBuffer(vbo);
+		backend.deleteBuffer(ibo);
+
+		if (vao != 0) {
+			backend.deleteVertexArray(vao);
+		}
 	}
 
 	public int getVbo() {
@@ -44,7 +53,22 @@ public class MeshResource extends ReferenceCounter {
 		return ibo;
 	}
 
+	/**
+	 * Get the vertex array object holding the attribute setup of this mesh,
+	 * or 0 if the context doesn't support vertex array objects.
+	 */
+	public int getVao() {
+		return vao;
+	}
+
 	public int getSize() {
 		return size;
 	}
+
+	/**
+	 * Get the backend this resource was created on.
+	 */
+	public RenderBackend getBackend() {
+		return backend;
+	}
 }
@@ -19,17 +19,20 @@ package com.base.engine.rendering.resourceManagement;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import org.lwjgl.opengl.GL15;
-import org.lwjgl.opengl.GL20;
+import com.base.engine.rendering.backend.Graphics;
+import com.base.engine.rendering.backend.RenderBackend;
 
 public class ShaderResource extends ReferenceCounter {
+	private final RenderBackend backend;
 	private final int program;
 	private final HashMap<String, Integer> uniforms;
 	private final ArrayList<String> uniformNames;
 	private final ArrayList<String> uniformTypes;
+	private final ArrayList<String> uniformBlockNames;
 
 	public ShaderResource() {
-		program = GL20.glCreateProgram();
+		backend = Graphics.getBackend();
+		program = backend.createProgram();
 		addReference();
 
 		if (program == 0) {
@@ -40,11 +43,12 @@ public class ShaderResource extends ReferenceCounter {
 		uniforms = new HashMap<String, Integer>();
 		uniformNames = new ArrayList<String>();
 		uniformTypes = new ArrayList<String>();
+		uniformBlockNames = new ArrayList<String>();
 	}
 
 	@Override
 	protected void finalize() {
-		GL15.glDeleteBuffers(program);
+		backend.deleteProgram(program);
 	}
 
 	public int getProgram() {
@@ -62,4 +66,18 @@ public class ShaderResource extends ReferenceCounter {
 	public ArrayList<String> getUniformTypes() {
 		return uniformTypes;
 	}
+
+	/**
+	 * Get the names of the uniform blocks the program reads.
+	 */
+	public ArrayList<String> getUniformBlockNames() {
+		return uniformBlockNames;
+	}
+
+	/**
+	 * Get the backend this resource was created on.
+	 */
+	public RenderBackend getBackend() {
+		return backend;
+	}
 }
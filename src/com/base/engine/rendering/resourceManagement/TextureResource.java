@@ -16,23 +16,32 @@
 
 package com.base.engine.rendering.resourceManagement;
 
-import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL15;
+import com.base.engine.rendering.backend.Graphics;
+import com.base.engine.rendering.backend.RenderBackend;
 
 public class TextureResource extends ReferenceCounter {
+	private final RenderBackend backend;
 	private final int id;
 
 	public TextureResource() {
-		id = GL11.glGenTextures();
+		backend = Graphics.getBackend();
+		id = backend.genTexture();
 		addReference();
 	}
 
 	@Override
 	protected void finalize() {
-		GL15.glDeleteBuffers(id);
+		backend.deleteTexture(id);
 	}
 
 	public int getId() {
 		return id;
 	}
+
+	/**
+	 * Get the backend this resource was created on.
+	 */
+	public RenderBackend getBackend() {
+		return backend;
+	}
 }
@@ -17,28 +17,40 @@
 package com.base.game;
 
 import com.base.engine.components.GameComponent;
+import com.base.engine.core.CoreEngine;
 import com.base.engine.core.math.Quaternion;
 import com.base.engine.core.math.Vector3f;
 import com.base.engine.rendering.RenderingEngine;
-import com.base.engine.rendering.Shader;
 
 public class LookAtComponent extends GameComponent {
+	private static final Vector3f UP = new Vector3f(0, 1, 0);
+
 	private RenderingEngine renderingEngine;
+	private final Vector3f cameraPos = new Vector3f(0, 0, 0);
+	private final Quaternion newRot = new Quaternion(0, 0, 0, 1);
+
+	@Override
+	public int getUpdateAccess() {
+		return GameComponent.WRITES_OWN_TRANSFORM | GameComponent.READS_OTHER_TRANSFORMS;
+	}
 
 	@Override
 	public void update(final float delta) {
 		if (renderingEngine != null) {
-			final Quaternion newRot = getTransform().getLookAtRotation(renderingEngine.getMainCamera().getTransform().getTransformedPos(), new Vector3f(0, 1, 0));
+			getTransform().getLookAtRotation(renderingEngine.getMainCamera().getTransform().getTransformedPos(cameraPos), LookAtComponent.UP, newRot);
 			// GetTransform().GetRot().GetUp());
 
-			getTransform().setRot(getTransform().getRot().nlerp(newRot, delta * 5.0f, true));
+			getTransform().getRot().setNlerp(getTransform().getRot(), newRot, delta * 5.0f, true);
+			getTransform().invalidate();
 			// GetTransform().SetRot(GetTransform().GetRot().SLerp(newRot, delta
 			// * 5.0f, true));
 		}
 	}
 
 	@Override
-	public void render(final Shader shader, final RenderingEngine renderingEngine) {
-		this.renderingEngine = renderingEngine;
+	public void addToEngine(final CoreEngine engine) {
+		// Picked up here rather than in render(), which isn't called when the
+		// engine renders from snapshots.
+		renderingEngine = engine.getRenderingEngine();
 	}
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.game.benchmark;
+
+import java.util.Random;
+
+import com.base.engine.core.math.Matrix4f;
+import com.base.engine.core.math.Vector3f;
+
+/**
+ * Compares {@link Matrix4f}'s flat storage against the previous
+ * <code>float[4][4]</code> layout for <code>mul</code> and
+ * <code>transform</code>. Run from the command line; no window or GL context
+ * is needed.
+ *
+ * <pre>
+ * java -cp bin:lib/* com.base.game.benchmark.MatrixBenchmark
+ * </pre>
+ */
+public class MatrixBenchmark {
+	private static final int MATRIX_COUNT = 1024;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	private static final int OPERATIONS_PER_ROUND = 10000000;
+
+	/**
+	 * The nested-array matrix this engine used before the flat layout, kept
+	 * here as the baseline.
+	 */
+	private static class NestedMatrix4f {
+		private final float[][] m = new float[4][4];
+
+		public NestedMatrix4f mul(final NestedMatrix4f r, final NestedMatrix4f res) {
+			for (int i = 0; i < 4; i++) {
+				for (int j = 0; j < 4; j++) {
+					res.m[i][j] = m[i][0] * r.m[0][j] + m[i][1] * r.m[1][j] + m[i][2] * r.m[2][j] + m[i][3] * r.m[3][j];
+				}
+			}
+
+			return res;
+		}
+
+		public Vector3f transform(final Vector3f r, final Vector3f dest) {
+			return dest.set(m[0][0] * r.getX() + m[0][1] * r.getY() + m[0][2] * r.getZ() + m[0][3], m[1][0] * r.getX() + m[1][1] * r.getY() + m[1][2] * r.getZ() + m[1][3], m[2][0] * r.getX() + m[2][1] * r.getY() + m[2][2] * r.getZ() + m[2][3]);
+		}
+	}
+
+	private static float sink;
+
+	public static void main(final String[] args) {
+		final Random random = new Random(42);
+
+		final Matrix4f[] flat = new Matrix4f[MATRIX_COUNT];
+		final NestedMatrix4f[] nested = new NestedMatrix4f[MATRIX_COUNT];
+		final Vector3f[] points = new Vector3f[MATRIX_COUNT];
+
+		for (int i = 0; i < MATRIX_COUNT; i++) {
+			flat[i] = new Matrix4f();
+			nested[i] = new NestedMatrix4f();
+
+			for (int row = 0; row < 4; row++) {
+				for (int col = 0; col < 4; col++) {
+					final float value = random.nextFloat();
+					flat[i].set(row, col, value);
+					nested[i].m[row][col] = value;
+				}
+			}
+
+			points[i] = new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat());
+		}
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			mulFlat(flat);
+			mulNested(nested);
+			transformFlat(flat, points);
+			transformNested(nested, points);
+		}
+
+		report("mul       nested float[4][4]", measureMulNested(nested));
+		report("mul       flat float[16]    ", measureMulFlat(flat));
+		report("transform nested float[4][4]", measureTransformNested(nested, points));
+		report("transform flat float[16]    ", measureTransformFlat(flat, points));
+
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	private static long measureMulFlat(final Matrix4f[] flat) {
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			mulFlat(flat);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long measureMulNested(final NestedMatrix4f[] nested) {
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			mulNested(nested);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long measureTransformFlat(final Matrix4f[] flat, final Vector3f[] points) {
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			transformFlat(flat, points);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long measureTransformNested(final NestedMatrix4f[] nested, final Vector3f[] points) {
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			transformNested(nested, points);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void mulFlat(final Matrix4f[] matrices) {
+		final Matrix4f dest = new Matrix4f();
+		for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+			matrices[i & (MATRIX_COUNT - 1)].mul(matrices[(i + 1) & (MATRIX_COUNT - 1)], dest);
+		}
+		sink += dest.get(0, 0);
+	}
+
+	private static void mulNested(final NestedMatrix4f[] matrices) {
+		final NestedMatrix4f dest = new NestedMatrix4f();
+		for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+			matrices[i & (MATRIX_COUNT - 1)].mul(matrices[(i + 1) & (MATRIX_COUNT - 1)], dest);
+		}
+		sink += dest.m[0][0];
+	}
+
+	private static void transformFlat(final Matrix4f[] matrices, final Vector3f[] points) {
+		final Vector3f dest = new Vector3f(0, 0, 0);
+		for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+			matrices[i & (MATRIX_COUNT - 1)].transform(points[i & (MATRIX_COUNT - 1)], dest);
+		}
+		sink += dest.getX();
+	}
+
+	private static void transformNested(final NestedMatrix4f[] matrices, final Vector3f[] points) {
+		final Vector3f dest = new Vector3f(0, 0, 0);
+		for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+			matrices[i & (MATRIX_COUNT - 1)].transform(points[i & (MATRIX_COUNT - 1)], dest);
+		}
+		sink += dest.getX();
+	}
+
+	private static void report(final String name, final long nanos) {
+		final double perOperation = (double) nanos / ((double) MEASURED_ROUNDS * OPERATIONS_PER_ROUND);
+		System.out.println(String.format("%s %8.3f ns/op", name, perOperation));
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.base.game.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.base.engine.core.Transform;
+import com.base.engine.core.TransformStore;
+import com.base.engine.core.math.Quaternion;
+import com.base.engine.core.math.Vector3f;
+
+/**
+ * Measures {@link TransformStore#update(ForkJoinPool)} on random hierarchies
+ * of 10k to 1M transforms with 1 to N worker threads, and checks that every
+ * parallel result matches the serial pass bit for bit. Every transform is
+ * touched before each round, so each round recomputes the whole store. No
+ * window or GL context is needed.
+ *
+ * <pre>
+ * java -Xmx4g -cp bin:lib/* com.base.game.benchmark.TransformBenchmark [maxThreads]
+ * </pre>
+ */
+public class TransformBenchmark {
+	private static final int[] NODE_COUNTS = { 10000, 100000, 1000000 };
+	private static final int WARMUP_ROUNDS = 10;
+	private static final int MEASURED_ROUNDS = 20;
+
+	public static void main(final String[] args) {
+		final int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+		for (final int nodeCount : NODE_COUNTS) {
+			final Transform[] transforms = createHierarchy(nodeCount, new Random(42));
+			final TransformStore store = new TransformStore(transforms[0]);
+
+			touch(transforms);
+			store.update();
+			final float[] expected = Arrays.copyOf(store.getWorldMatrices(), store.size() * 16);
+			final long serial = measure(store, transforms, null);
+
+			report(nodeCount, "serial", serial, serial);
+
+			for (int threads = 1; threads <= maxThreads; threads = TransformBenchmark.nextThreadCount(threads, maxThreads)) {
+				final ForkJoinPool pool = new ForkJoinPool(threads);
+				final long parallel = measure(store, transforms, pool);
+
+				if (!Arrays.equals(expected, Arrays.copyOf(store.getWorldMatrices(), store.size() * 16))) {
+					throw new IllegalStateException("Parallel update with " + threads + " threads differs from the serial pass");
+				}
+
+				report(nodeCount, threads + " threads", parallel, serial);
+				pool.shutdown();
+			}
+
+			store.release();
+		}
+	}
+
+	/**
+	 * Double the thread count, but stop on <code>maxThreads</code> even when
+	 * it isn't a power of two, so the whole machine is always measured.
+	 */
+	private static int nextThreadCount(final int threads, final int maxThreads) {
+		return threads == maxThreads ? threads + 1 : Math.min(threads * 2, maxThreads);
+	}
+
+	private static Transform[] createHierarchy(final int nodeCount, final Random random) {
+		final Transform[] transforms = new Transform[nodeCount];
+
+		for (int i = 0; i < nodeCount; i++) {
+			transforms[i] = new Transform();
+			transforms[i].setPos(new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat()));
+			transforms[i].setRot(new Quaternion(new Vector3f(0, 1, 0), random.nextFloat()));
+
+			if (i > 0) {
+				transforms[i].setParent(transforms[random.nextInt(i)]);
+			}
+		}
+
+		return transforms;
+	}
+
+	private static void touch(final Transform[] transforms) {
+		for (final Transform transform : transforms) {
+			transform.invalidate();
+		}
+	}
+
+	private static long measure(final TransformStore store, final Transform[] transforms, final ForkJoinPool pool) {
+		long total = 0;
+
+		for (int i = 0; i < WARMUP_ROUNDS + MEASURED_ROUNDS; i++) {
+			touch(transforms);
+
+			final long start = System.nanoTime();
+			if (pool != null) {
+				store.update(pool);
+			} else {
+				store.update();
+			}
+			final long elapsed = System.nanoTime() - start;
+
+			if (i >= WARMUP_ROUNDS) {
+				total += elapsed;
+			}
+		}
+
+		return total / MEASURED_ROUNDS;
+	}
+
+	private static void report(final int nodeCount, final String name, final long nanos, final long serial) {
+		System.out.println(String.format("%8d nodes %-10s %9.3f ms  %5.2fx", nodeCount, name, nanos / 1000000.0, (double) serial / nanos));
+	}
+}
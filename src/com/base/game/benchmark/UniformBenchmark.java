@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 Benny Bobaganoosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.base.game.benchmark;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import com.base.engine.components.BaseLight;
+import com.base.engine.components.DirectionalLight;
+import com.base.engine.components.PointLight;
+import com.base.engine.components.SpotLight;
+import com.base.engine.core.GameObject;
+import com.base.engine.core.math.Attenuation;
+import com.base.engine.core.math.Matrix4f;
+import com.base.engine.core.math.Quaternion;
+import com.base.engine.core.math.Vector2f;
+import com.base.engine.core.math.Vector3f;
+import com.base.engine.core.math.Vertex;
+import com.base.engine.rendering.Material;
+import com.base.engine.rendering.Mesh;
+import com.base.engine.rendering.RenderSnapshot;
+import com.base.engine.rendering.RenderingEngine;
+import com.base.engine.rendering.Shader;
+import com.base.engine.rendering.Texture;
+import com.base.engine.rendering.backend.Graphics;
+import com.base.engine.rendering.backend.NullBackend;
+
+/**
+ * Compares uniform upload through the binding plan against matching every
+ * uniform by name on every draw. A frame of a few thousand draws is rendered
+ * through the ambient, directional, point and spot passes on a backend that
+ * folds every uploaded value into a checksum, so both paths are also checked
+ * to send exactly the same uniforms. No window or GL context is needed.
+ *
+ * <pre>
+ * java -cp bin:lib/* com.base.game.benchmark.UniformBenchmark [draws]
+ * </pre>
+ */
+public class UniformBenchmark {
+	private static final int WARMUP_ROUNDS = 50;
+	private static final int MEASURED_ROUNDS = 100;
+	// Ambient, directional, point and spot.
+	private static final int PASSES = 4;
+
+	/**
+	 * Accepts everything like {@link NullBackend}, and keeps a running hash
+	 * of every uniform upload.
+	 */
+	private static class ChecksumBackend extends NullBackend {
+		private long checksum;
+
+		private void mix(final int value) {
+			checksum = checksum * 31 + value;
+		}
+
+		@Override
+		public void uniform1i(final int location, final int value) {
+			super.uniform1i(location, value);
+			mix(location);
+			mix(value);
+		}
+
+		@Override
+		public void uniform1f(final int location, final float value) {
+			super.uniform1f(location, value);
+			mix(location);
+			mix(Float.floatToIntBits(value));
+		}
+
+		@Override
+		public void uniform3f(final int location, final float x, final float y, final float z) {
+			super.uniform3f(location, x, y, z);
+			mix(location);
+			mix(Float.floatToIntBits(x));
+			mix(Float.floatToIntBits(y));
+			mix(Float.floatToIntBits(z));
+		}
+
+		@Override
+		public void uniformMatrix4(final int location, final boolean transpose, final FloatBuffer matrices) {
+			super.uniformMatrix4(location, transpose, matrices);
+			mix(location);
+
+			for (int i = matrices.position(); i < matrices.limit(); i++) {
+				mix(Float.floatToIntBits(matrices.get(i)));
+			}
+		}
+	}
+
+	public static void main(final String[] args) {
+		final int drawCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		final ChecksumBackend backend = new ChecksumBackend();
+		Graphics.setBackend(backend);
+
+		// Every draw has to reach every pass on its own to measure the
+		// per-draw uniform path, so nothing is culled or batched.
+		final RenderingEngine renderingEngine = new RenderingEngine();
+		renderingEngine.setFrustumCullingEnabled(false);
+		renderingEngine.setLightCullingEnabled(false);
+		renderingEngine.setInstancingEnabled(false);
+
+		final RenderSnapshot snapshot = createFrame(drawCount, new Random(42));
+
+		final long legacyChecksum = checksum(renderingEngine, snapshot, backend, false);
+		final long planChecksum = checksum(renderingEngine, snapshot, backend, true);
+
+		if (legacyChecksum != planChecksum) {
+			throw new IllegalStateException("The binding plan uploads different uniforms than the name lookup");
+		}
+
+		final long legacy = measure(renderingEngine, snapshot, false);
+		final long plan = measure(renderingEngine, snapshot, true);
+		final long draws = backend.getDrawCalls();
+		final long uploads = uploadsPerFrame(renderingEngine, snapshot, backend);
+
+		final long expectedDraws = (long) drawCount * UniformBenchmark.PASSES;
+
+		// Each draw uploads at least its own transform in every pass.
+		if (backend.getDrawCalls() - draws != expectedDraws || uploads < expectedDraws) {
+			throw new IllegalStateException("Expected " + expectedDraws + " draws with their own uniforms, got " + (backend.getDrawCalls() - draws) + " draws and " + uploads + " uploads");
+		}
+
+		System.out.println(String.format("%d draws, %d passes, %d uniform uploads per frame", drawCount, UniformBenchmark.PASSES, uploads));
+		report("name lookup", legacy, legacy, uploads);
+		report("binding plan", plan, legacy, uploads);
+	}
+
+	private static RenderSnapshot createFrame(final int drawCount, final Random random) {
+		final Vertex[] vertices = { new Vertex(new Vector3f(-1, -1, 0), new Vector2f(0, 0)), new Vertex(new Vector3f(0, 1, 0), new Vector2f(0.5f, 1)), new Vertex(new Vector3f(1, -1, 0), new Vector2f(1, 0)) };
+		final Mesh mesh = new Mesh(vertices, new int[] { 0, 1, 2 }, true);
+		final Material material = new Material(new Texture("bricks.jpg"), 1, 8, new Texture("bricks_normal.jpg"), new Texture("bricks_disp.png"), 0.03f, -0.5f);
+
+		final RenderSnapshot snapshot = new RenderSnapshot();
+		final Matrix4f world = new Matrix4f();
+
+		for (int i = 0; i < drawCount; i++) {
+			world.initTranslation(random.nextFloat() * 100, random.nextFloat() * 100, random.nextFloat() * 100);
+			snapshot.addDraw(mesh, material, world);
+		}
+
+		snapshot.getViewProjection().initPerspective((float) Math.toRadians(70), 4 / 3.0f, 0.01f, 1000);
+		snapshot.getEyePos().set(0, 2, -5);
+
+		final BaseLight[] lights = { new DirectionalLight(new Vector3f(1, 1, 1), 0.4f), new PointLight(new Vector3f(0, 1, 0), 0.4f, new Attenuation(0, 0, 1)), new SpotLight(new Vector3f(0, 1, 1), 0.4f, new Attenuation(0, 0, 0.1f), 0.7f) };
+
+		for (final BaseLight light : lights) {
+			final GameObject object = new GameObject().addComponent(light);
+			object.getTransform().setPos(new Vector3f(random.nextFloat() * 10, 0, random.nextFloat() * 10));
+			object.getTransform().setRot(new Quaternion(new Vector3f(1, 0, 0), (float) Math.toRadians(-45)));
+
+			light.capture(snapshot.addLight());
+		}
+
+		return snapshot;
+	}
+
+	private static long checksum(final RenderingEngine renderingEngine, final RenderSnapshot snapshot, final ChecksumBackend backend, final boolean bindingPlan) {
+		Shader.setBindingPlanEnabled(bindingPlan);
+		backend.checksum = 0;
+		renderingEngine.render(snapshot);
+
+		return backend.checksum;
+	}
+
+	private static long uploadsPerFrame(final RenderingEngine renderingEngine, final RenderSnapshot snapshot, final NullBackend backend) {
+		final long before = backend.getUniformUpdates();
+		renderingEngine.render(snapshot);
+
+		return backend.getUniformUpdates() - before;
+	}
+
+	private static long measure(final RenderingEngine renderingEngine, final RenderSnapshot snapshot, final boolean bindingPlan) {
+		Shader.setBindingPlanEnabled(bindingPlan);
+		long total = 0;
+
+		for (int i = 0; i < WARMUP_ROUNDS + MEASURED_ROUNDS; i++) {
+			final long start = System.nanoTime();
+			renderingEngine.render(snapshot);
+			final long elapsed = System.nanoTime() - start;
+
+			if (i >= WARMUP_ROUNDS) {
+				total += elapsed;
+			}
+		}
+
+		return total / MEASURED_ROUNDS;
+	}
+
+	private static void report(final String name, final long nanos, final long legacy, final long uploads) {
+		System.out.println(String.format("%-14s %9.3f ms  %6.1f ns/upload  %5.2fx", name, nanos / 1000000.0, (double) nanos / uploads, (double) legacy / nanos));
+	}
+}